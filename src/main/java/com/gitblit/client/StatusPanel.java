@@ -24,6 +24,7 @@ import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
+import java.text.MessageFormat;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
@@ -51,6 +52,11 @@ public class StatusPanel extends JPanel {
 	private JLabel heapMaximum;
 	private JLabel heapAllocated;
 	private JLabel heapUsed;
+	private JLabel commitCache;
+	private JLabel uploadPacks;
+	private JLabel gitDaemon;
+	private JLabel admission;
+	private JLabel luceneIndex;
 	private PropertiesTableModel tableModel;
 	private HeaderPanel header;
 	private JLabel version;
@@ -80,6 +86,11 @@ public class StatusPanel extends JPanel {
 		heapMaximum = new JLabel();
 		heapAllocated = new JLabel();
 		heapUsed = new JLabel();
+		commitCache = new JLabel();
+		uploadPacks = new JLabel();
+		gitDaemon = new JLabel();
+		admission = new JLabel();
+		luceneIndex = new JLabel();
 
 		JPanel fieldsPanel = new JPanel(new GridLayout(0, 1, 0, Utils.MARGIN)) {
 
@@ -98,6 +109,11 @@ public class StatusPanel extends JPanel {
 		fieldsPanel.add(createFieldPanel("gb.heapUsed", heapUsed));
 		fieldsPanel.add(createFieldPanel("gb.heapAllocated", heapAllocated));
 		fieldsPanel.add(createFieldPanel("gb.heapMaximum", heapMaximum));
+		fieldsPanel.add(createFieldPanel("gb.commitCache", commitCache));
+		fieldsPanel.add(createFieldPanel("gb.uploadPacks", uploadPacks));
+		fieldsPanel.add(createFieldPanel("gb.gitDaemon", gitDaemon));
+		fieldsPanel.add(createFieldPanel("gb.gitRequests", admission));
+		fieldsPanel.add(createFieldPanel("gb.luceneIndex", luceneIndex));
 
 		tableModel = new PropertiesTableModel();
 		JTable propertiesTable = Utils.newTable(tableModel, Utils.DATE_FORMAT);
@@ -164,6 +180,33 @@ public class StatusPanel extends JPanel {
 		heapAllocated.setText(byteFormat.format(status.heapAllocated));
 		heapUsed.setText(byteFormat.format(status.heapAllocated - status.heapFree) + " ("
 				+ byteFormat.format(status.heapFree) + " " + Translation.get("gb.free") + ")");
+		commitCache.setText(byteFormat.format(status.commitCacheSize)
+				+ (status.commitCacheMaximum > 0 ? (" / " + byteFormat.format(status.commitCacheMaximum)) : "")
+				+ MessageFormat.format(" ({0} {1}, {2} {3}, {4} {5})",
+						status.commitCacheHits, Translation.get("gb.hits"),
+						status.commitCacheMisses, Translation.get("gb.misses"),
+						status.commitCacheEvictions, Translation.get("gb.evictions")));
+		uploadPacks.setText(MessageFormat.format("{0} ({1}, {2} {3}, {4} {5}, {6} {7}, {8} ms)",
+				status.uploadPackCount, byteFormat.format(status.uploadPackBytes),
+				status.uploadPackObjects, Translation.get("gb.objects"),
+				status.uploadPackDeltas, Translation.get("gb.deltas"),
+				status.uploadPackReusedDeltas, Translation.get("gb.reused"),
+				status.uploadPackTime));
+		gitDaemon.setText(MessageFormat.format("{0} {1}, {2} {3}, {4} {5}",
+				status.gitDaemonActiveConnections, Translation.get("gb.active"),
+				status.gitDaemonQueuedConnections, Translation.get("gb.queued"),
+				status.gitDaemonRejectedConnections, Translation.get("gb.rejected")));
+		long averageWait = status.admissionWaited == 0 ? 0 : status.admissionWaitTime / status.admissionWaited;
+		admission.setText(MessageFormat.format("{0} {1}, {2} {3}, {4} {5}, {6} ms {7}",
+				status.admissionActive, Translation.get("gb.active"),
+				status.admissionQueued, Translation.get("gb.queued"),
+				status.admissionRejected, Translation.get("gb.rejected"),
+				averageWait, Translation.get("gb.averageWait")));
+		luceneIndex.setText(MessageFormat.format("{0}{1}/{2} {3}, {4} {5} ({6}), {7} {8}",
+				status.luceneIndexing ? (Translation.get("gb.indexing") + " ") : "",
+				status.luceneIndexedRepositories, status.luceneRepositories, Translation.get("gb.repositories"),
+				status.luceneFiles, Translation.get("gb.files"), byteFormat.format(status.luceneBytes),
+				status.luceneFilesPerSecond, Translation.get("gb.filesPerSecond")));
 		tableModel.setProperties(status.systemProperties);
 		tableModel.fireTableDataChanged();
 	}
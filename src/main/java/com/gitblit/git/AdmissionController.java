@@ -0,0 +1,432 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.git;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.eclipse.jgit.transport.ServiceMayNotContinueException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gitblit.utils.StringUtils;
+
+/**
+ * Limits the concurrent git requests of all transports.
+ *
+ * A request takes a weight of permits from the semaphore of its user, its
+ * repository and the server.  A request which can not take its permits waits
+ * in a bounded queue until the permits are released or the wait times out.
+ * A request is rejected if the queue is full or the wait times out.
+ *
+ * A limit <= 0 disables the semaphore of that scope.  All limits are disabled
+ * by default.
+ *
+ * The semaphore of a user or repository only exists while requests hold or
+ * wait for its permits, so anonymous users, which are identified by their
+ * address, do not accumulate.
+ */
+public class AdmissionController {
+
+	/**
+	 * The weight of a clone or fetch.
+	 */
+	public static final int UPLOAD_WEIGHT = 1;
+
+	/**
+	 * The weight of a push which also updates refs and runs the hooks.
+	 */
+	public static final int RECEIVE_WEIGHT = 2;
+
+	private static final AdmissionController instance;
+
+	static {
+		instance = new AdmissionController();
+	}
+
+	public static AdmissionController instance() {
+		return instance;
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private final ConcurrentMap<String, Scope> repositories;
+
+	private final ConcurrentMap<String, Scope> users;
+
+	private final AtomicInteger active;
+
+	private final AtomicInteger queued;
+
+	private final AtomicLong admitted;
+
+	private final AtomicLong rejected;
+
+	private final AtomicLong waited;
+
+	private final AtomicLong waitTime;
+
+	private volatile Semaphore global;
+
+	private volatile int globalLimit;
+
+	private volatile int repositoryLimit;
+
+	private volatile int userLimit;
+
+	private volatile int queueSize;
+
+	private volatile long timeout;
+
+	AdmissionController() {
+		repositories = new ConcurrentHashMap<String, Scope>();
+		users = new ConcurrentHashMap<String, Scope>();
+		active = new AtomicInteger();
+		queued = new AtomicInteger();
+		admitted = new AtomicLong();
+		rejected = new AtomicLong();
+		waited = new AtomicLong();
+		waitTime = new AtomicLong();
+	}
+
+	/**
+	 * Configures the limits of the controller.  Requests which are admitted
+	 * release their permits to the semaphores they were admitted by.
+	 *
+	 * @param globalLimit
+	 *            the permits of the server
+	 * @param repositoryLimit
+	 *            the permits of each repository
+	 * @param userLimit
+	 *            the permits of each user
+	 * @param queueSize
+	 *            the maximum number of waiting requests
+	 * @param timeout
+	 *            the maximum wait in milliseconds
+	 */
+	public void configure(int globalLimit, int repositoryLimit, int userLimit, int queueSize, long timeout) {
+		this.global = globalLimit > 0 ? new Semaphore(globalLimit, true) : null;
+		this.globalLimit = globalLimit;
+		this.repositoryLimit = repositoryLimit;
+		this.userLimit = userLimit;
+		this.queueSize = Math.max(0, queueSize);
+		this.timeout = Math.max(0, timeout);
+		repositories.clear();
+		users.clear();
+		if (isEnabled()) {
+			logger.info(MessageFormat.format("Admitting {0} concurrent git requests, {1} per repository, {2} per user",
+					globalLimit > 0 ? globalLimit : "unlimited",
+					repositoryLimit > 0 ? repositoryLimit : "unlimited",
+					userLimit > 0 ? userLimit : "unlimited"));
+		}
+	}
+
+	public boolean isEnabled() {
+		return global != null || repositoryLimit > 0 || userLimit > 0;
+	}
+
+	/**
+	 * Admits a request, waiting for the permits of the request if necessary.
+	 *
+	 * @param repository
+	 *            the repository name
+	 * @param user
+	 *            the username or, for anonymous requests, the address of the
+	 *            client
+	 * @param weight
+	 *            the permits of the request
+	 * @return the admission which must be released when the request completes
+	 * @throws AdmissionException
+	 *             if the request is rejected
+	 */
+	public Admission acquire(String repository, String user, int weight) throws AdmissionException {
+		Admission admission = new Admission();
+		if (!isEnabled()) {
+			return admission;
+		}
+
+		// take the most specific permits first so that a busy user or
+		// repository does not hold server permits while it waits
+		List<Semaphore> semaphores = new ArrayList<Semaphore>(3);
+		List<Integer> limits = new ArrayList<Integer>(3);
+		int limit = userLimit;
+		if (limit > 0 && !StringUtils.isEmpty(user)) {
+			semaphores.add(admission.reference(users, user.toLowerCase(), limit));
+			limits.add(limit);
+		}
+		limit = repositoryLimit;
+		if (limit > 0 && !StringUtils.isEmpty(repository)) {
+			semaphores.add(admission.reference(repositories, repository.toLowerCase(), limit));
+			limits.add(limit);
+		}
+		Semaphore server = global;
+		if (server != null) {
+			semaphores.add(server);
+			limits.add(globalLimit);
+		}
+
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+		boolean waiting = false;
+		try {
+			for (int i = 0; i < semaphores.size(); i++) {
+				Semaphore semaphore = semaphores.get(i);
+				// a request may never take more permits than the limit
+				int permits = Math.max(1, Math.min(weight, limits.get(i)));
+				if (semaphore.tryAcquire(permits, 0, TimeUnit.NANOSECONDS)) {
+					admission.add(semaphore, permits);
+					continue;
+				}
+				if (!waiting) {
+					if (queued.incrementAndGet() > queueSize) {
+						queued.decrementAndGet();
+						throw reject(admission, repository, user, "too many queued requests");
+					}
+					waiting = true;
+				}
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0 || !semaphore.tryAcquire(permits, remaining, TimeUnit.NANOSECONDS)) {
+					throw reject(admission, repository, user, "timed out waiting for a free slot");
+				}
+				admission.add(semaphore, permits);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw reject(admission, repository, user, "interrupted waiting for a free slot");
+		} finally {
+			if (waiting) {
+				queued.decrementAndGet();
+				waited.incrementAndGet();
+				waitTime.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+		}
+		admission.admit();
+		return admission;
+	}
+
+	/**
+	 * Admits a request of the git protocol.  A rejection is sent to the client
+	 * as an error packet.
+	 *
+	 * @param repository
+	 * @param user
+	 * @param weight
+	 * @param out
+	 *            the output stream of the client
+	 * @return the admission which must be released when the request completes
+	 * @throws AdmissionException
+	 *             if the request is rejected
+	 */
+	public Admission acquire(String repository, String user, int weight, OutputStream out) throws AdmissionException {
+		try {
+			return acquire(repository, user, weight);
+		} catch (AdmissionException e) {
+			try {
+				PacketLineOut pckOut = new PacketLineOut(out);
+				pckOut.writeString("ERR " + e.getMessage() + "\n");
+				pckOut.flush();
+				e.setOutput();
+			} catch (IOException ignored) {
+				// the client is gone
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the referenced scope of the key.  A scope whose references
+	 * dropped to zero is dead: it is never referenced again and is replaced
+	 * by a new scope.
+	 */
+	private Scope reference(ConcurrentMap<String, Scope> scopes, String key, int limit) {
+		while (true) {
+			Scope scope = scopes.get(key);
+			if (scope == null) {
+				Scope newScope = new Scope(scopes, key, limit);
+				if (scopes.putIfAbsent(key, newScope) == null) {
+					return newScope;
+				}
+				continue;
+			}
+			int references = scope.references.get();
+			if (references <= 0) {
+				// dereferenced by its last request, help to remove it
+				scopes.remove(key, scope);
+				continue;
+			}
+			if (scope.references.compareAndSet(references, references + 1)) {
+				return scope;
+			}
+		}
+	}
+
+	private AdmissionException reject(Admission admission, String repository, String user, String reason) {
+		admission.release();
+		rejected.incrementAndGet();
+		logger.warn(MessageFormat.format("rejected git request of {0} for {1}: {2}", user, repository, reason));
+		return new AdmissionException(MessageFormat.format("{0}, try again later", reason));
+	}
+
+	/**
+	 * Returns the number of admitted requests which are running.
+	 */
+	public int getActive() {
+		return active.get();
+	}
+
+	/**
+	 * Returns the number of requests which are waiting for permits.
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * Returns the number of users and repositories whose requests hold or
+	 * wait for permits.
+	 */
+	public int getScopes() {
+		return users.size() + repositories.size();
+	}
+
+	public long getAdmitted() {
+		return admitted.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Returns the number of requests which had to wait for permits.
+	 */
+	public long getWaited() {
+		return waited.get();
+	}
+
+	/**
+	 * Returns the total time requests waited for permits.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getWaitTime() {
+		return waitTime.get();
+	}
+
+	/**
+	 * The permits of an admitted request.
+	 */
+	public class Admission {
+
+		private final List<Semaphore> semaphores = new ArrayList<Semaphore>(3);
+
+		private final List<Integer> permits = new ArrayList<Integer>(3);
+
+		private final List<Scope> scopes = new ArrayList<Scope>(2);
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private boolean running;
+
+		Admission() {
+		}
+
+		private Semaphore reference(ConcurrentMap<String, Scope> map, String key, int limit) {
+			Scope scope = AdmissionController.this.reference(map, key, limit);
+			scopes.add(scope);
+			return scope.semaphore;
+		}
+
+		private void add(Semaphore semaphore, int count) {
+			semaphores.add(semaphore);
+			permits.add(count);
+		}
+
+		private void admit() {
+			running = true;
+			active.incrementAndGet();
+			admitted.incrementAndGet();
+		}
+
+		/**
+		 * Releases the permits of the request.  Repeated releases are ignored.
+		 */
+		public void release() {
+			if (!released.compareAndSet(false, true)) {
+				return;
+			}
+			for (int i = 0; i < semaphores.size(); i++) {
+				semaphores.get(i).release(permits.get(i));
+			}
+			for (Scope scope : scopes) {
+				scope.dereference();
+			}
+			if (running) {
+				active.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * The semaphore of a user or repository and the number of requests which
+	 * hold or wait for its permits.
+	 */
+	private static class Scope {
+
+		final ConcurrentMap<String, Scope> scopes;
+
+		final String key;
+
+		final Semaphore semaphore;
+
+		final AtomicInteger references = new AtomicInteger(1);
+
+		Scope(ConcurrentMap<String, Scope> scopes, String key, int limit) {
+			this.scopes = scopes;
+			this.key = key;
+			this.semaphore = new Semaphore(limit, true);
+		}
+
+		void dereference() {
+			if (references.decrementAndGet() == 0) {
+				scopes.remove(key, this);
+			}
+		}
+	}
+
+	/**
+	 * Thrown when a request is rejected because the limits are saturated.
+	 */
+	public static class AdmissionException extends ServiceMayNotContinueException {
+
+		private static final long serialVersionUID = 1L;
+
+		public AdmissionException(String message) {
+			super(message);
+		}
+	}
+}
@@ -21,6 +21,8 @@ import groovy.util.GroovyScriptEngine;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -58,6 +60,7 @@ import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.client.Translation;
 import com.gitblit.extensions.ReceiveHook;
+import com.gitblit.git.AdmissionController.Admission;
 import com.gitblit.manager.IGitblit;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.TicketModel;
@@ -116,6 +119,8 @@ public class GitblitReceivePack extends ReceivePack implements PreReceiveHook, P
 	protected final ITicketService ticketService;
 
 	protected final TicketNotifier ticketNotifier;
+
+	protected String admissionUser;
 	
 
 	public GitblitReceivePack(
@@ -637,6 +642,32 @@ public class GitblitReceivePack extends ReceivePack implements PreReceiveHook, P
 		this.gitblitUrl = url;
 	}
 
+	/**
+	 * Sets the user, or the address of an anonymous client, by which the push
+	 * is admitted.  A push without an admission user is not admitted by the
+	 * receive pack.
+	 *
+	 * @param user
+	 */
+	protected void setAdmissionUser(String user) {
+		this.admissionUser = user;
+	}
+
+	@Override
+	public void receive(InputStream input, OutputStream output, OutputStream messages) throws IOException {
+		if (admissionUser == null) {
+			super.receive(input, output, messages);
+			return;
+		}
+		Admission admission = AdmissionController.instance().acquire(repository.name, admissionUser,
+				AdmissionController.RECEIVE_WEIGHT, output);
+		try {
+			super.receive(input, output, messages);
+		} finally {
+			admission.release();
+		}
+	}
+
 	public void sendRejection(final ReceiveCommand cmd, final String why, Object... objects) {
 		String text;
 		if (ArrayUtils.isEmpty(objects)) {
@@ -71,6 +71,7 @@ public class GitblitReceivePackFactory<X> implements ReceivePackFactory<X> {
 		String gitblitUrl = "";
 		int timeout = 0;
 		Transport transport = null;
+		String admissionUser = null;
 
 		if (req instanceof HttpServletRequest) {
 			// http/https request may or may not be authenticated
@@ -99,6 +100,7 @@ public class GitblitReceivePackFactory<X> implements ReceivePackFactory<X> {
 			GitDaemonClient client = (GitDaemonClient) req;
 			repositoryName = client.getRepositoryName();
 			origin = client.getRemoteAddress().getHostAddress();
+			admissionUser = origin;
 
 			// set timeout from Git daemon
 			timeout = client.getDaemon().getTimeout();
@@ -110,6 +112,7 @@ public class GitblitReceivePackFactory<X> implements ReceivePackFactory<X> {
 			repositoryName = client.getRepositoryName();
 			origin = client.getRemoteAddress().toString();
 			user = client.getUser();
+			admissionUser = user.username;
 
 			transport = Transport.SSH;
 		}
@@ -142,6 +145,9 @@ public class GitblitReceivePackFactory<X> implements ReceivePackFactory<X> {
 		rp.setGitblitUrl(url);
 		rp.setRefLogIdent(new PersonIdent(user.username, user.username + "@" + origin));
 		rp.setTimeout(timeout);
+		// http requests are admitted by the git servlet so that it may respond
+		// with 429 Too Many Requests
+		rp.setAdmissionUser(admissionUser);
 
 		return rp;
 	}
@@ -15,29 +15,46 @@
  */
 package com.gitblit.git;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.eclipse.jgit.transport.PostUploadHook;
 import org.eclipse.jgit.transport.UploadPack;
 import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
 import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
 
-import com.gitblit.manager.IAuthenticationManager;
+import com.gitblit.IStoredSettings;
+import com.gitblit.Keys;
+import com.gitblit.git.AdmissionController.Admission;
+import com.gitblit.manager.IGitblit;
 import com.gitblit.transport.git.GitDaemonClient;
+import com.gitblit.transport.ssh.SshDaemonClient;
 
 /**
  * The upload pack factory creates an upload pack which controls what refs are
  * advertised to cloning/pulling clients.
  *
+ * The pack settings of the server limit the threads and memory used to pack
+ * objects for a client.  A repository may override them in the [pack] section
+ * of its git config.
+ *
  * @author James Moger
  *
  * @param <X> the connection type
  */
 public class GitblitUploadPackFactory<X> implements UploadPackFactory<X> {
 
-	private final IAuthenticationManager authenticationManager;
+	private final IStoredSettings settings;
 
-	public GitblitUploadPackFactory(IAuthenticationManager authenticationManager) {
-		this.authenticationManager = authenticationManager;
+	public GitblitUploadPackFactory(IGitblit gitblit) {
+		this.settings = gitblit.getSettings();
 	}
 
 	@Override
@@ -45,17 +62,78 @@ public class GitblitUploadPackFactory<X> implements UploadPackFactory<X> {
 			throws ServiceNotEnabledException, ServiceNotAuthorizedException {
 
 		int timeout = 0;
+		String repositoryName = "";
+		String admissionUser = null;
 
-		if (req instanceof GitDaemonClient) {
+		if (req instanceof HttpServletRequest) {
+			HttpServletRequest client = (HttpServletRequest) req;
+			Object name = client.getAttribute("gitblitRepositoryName");
+			repositoryName = name == null ? "" : name.toString();
+		} else if (req instanceof GitDaemonClient) {
 			// git daemon request is always anonymous
 			GitDaemonClient client = (GitDaemonClient) req;
+			repositoryName = client.getRepositoryName();
 			// set timeout from Git daemon
 			timeout = client.getDaemon().getTimeout();
+			admissionUser = client.getRemoteAddress().getHostAddress();
+		} else if (req instanceof SshDaemonClient) {
+			SshDaemonClient client = (SshDaemonClient) req;
+			repositoryName = client.getRepositoryName();
+			admissionUser = client.getUsername();
 		}
 
-		UploadPack up = new UploadPack(db);
+		final String name = repositoryName;
+		final String user = admissionUser;
+		UploadPack up = new UploadPack(db) {
+			@Override
+			public void upload(InputStream input, OutputStream output, OutputStream messages) throws IOException {
+				if (user == null) {
+					// http requests are admitted by the git servlet so that
+					// it may respond with 429 Too Many Requests
+					super.upload(input, output, messages);
+					return;
+				}
+				Admission admission = AdmissionController.instance().acquire(name, user,
+						AdmissionController.UPLOAD_WEIGHT, output);
+				try {
+					super.upload(input, output, messages);
+				} finally {
+					admission.release();
+				}
+			}
+		};
 		up.setTimeout(timeout);
+		up.setPackConfig(getPackConfig(db));
+
+		final boolean log = settings.getBoolean(Keys.git.logUploadPackStatistics, false);
+		up.setPostUploadHook(new PostUploadHook() {
+			@Override
+			public void onPostUpload(PackStatistics stats) {
+				UploadPackStatistics.instance().record(name, stats, log);
+			}
+		});
 
 		return up;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the pack config of the server settings overridden by the pack
+	 * config of the repository.
+	 *
+	 * @param db
+	 * @return the pack config for an upload pack of the repository
+	 */
+	protected PackConfig getPackConfig(Repository db) {
+		PackConfig pc = new PackConfig();
+		pc.setThreads(settings.getInteger(Keys.git.packThreads, pc.getThreads()));
+		pc.setDeltaSearchWindowSize(settings.getInteger(Keys.git.packDeltaWindow, pc.getDeltaSearchWindowSize()));
+		pc.setDeltaSearchMemoryLimit(settings.getFilesize(Keys.git.packDeltaWindowMemory, pc.getDeltaSearchMemoryLimit()));
+		pc.setBigFileThreshold(settings.getFilesize(Keys.git.packBigFileThreshold, pc.getBigFileThreshold()));
+		pc.setReuseDeltas(settings.getBoolean(Keys.git.packReuseDeltas, pc.isReuseDeltas()));
+		pc.setReuseObjects(settings.getBoolean(Keys.git.packReuseObjects, pc.isReuseObjects()));
+
+		// unset keys of the repository config keep the server values
+		pc.fromConfig(db.getConfig());
+		return pc;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+
+import com.gitblit.utils.ArchiveCache;
+import com.gitblit.utils.ArchiveCache.Archive;
+import com.gitblit.utils.ArchiveCache.ArchiveWriter;
+
+/**
+ * A size-capped cache of upload pack responses on disk.
+ *
+ * A response is keyed by the repository, the tips of all its refs, and the
+ * exact request of the client.  The response to a request without haves is
+ * fully determined by the wants and capabilities of the request, so identical
+ * clones of the same ref tips are served the same cached pack.  A ref update
+ * changes the key so a stale response is never served; it is evicted when the
+ * cache exceeds its size.  Concurrent identical requests wait for a single
+ * writer.
+ */
+public class UploadPackCache {
+
+	private final ArchiveCache cache;
+
+	/**
+	 * Creates an upload pack cache and indexes the responses of a previous run.
+	 *
+	 * @param folder
+	 * @param maxSize
+	 *            the maximum size in bytes of all cached responses
+	 */
+	public UploadPackCache(File folder, long maxSize) {
+		this.cache = new ArchiveCache(folder, maxSize);
+	}
+
+	/**
+	 * Determines if the response to the upload pack request may be cached.
+	 * Only requests which complete the negotiation (done) without any haves
+	 * are cached; a fetch with haves is specific to the client.
+	 *
+	 * @param request
+	 *            the decoded pkt-line request
+	 * @return true if the response may be cached
+	 */
+	public static boolean isCacheable(byte [] request) {
+		boolean done = false;
+		int pos = 0;
+		while (pos + 4 <= request.length) {
+			int length;
+			try {
+				length = Integer.parseInt(new String(request, pos, 4, Constants.CHARSET), 16);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+			if (length == 0) {
+				// flush-pkt
+				pos += 4;
+				continue;
+			}
+			if (length < 4 || pos + length > request.length) {
+				return false;
+			}
+			String line = new String(request, pos + 4, length - 4, Constants.CHARSET).trim();
+			if (line.startsWith("have ")) {
+				return false;
+			} else if ("done".equals(line)) {
+				done = true;
+			}
+			pos += length;
+		}
+		return done && pos == request.length;
+	}
+
+	/**
+	 * Returns the cache key of an upload pack request.
+	 *
+	 * @param db
+	 * @param repository
+	 *            the repository name
+	 * @param request
+	 *            the raw request
+	 * @return the cache key
+	 * @throws IOException
+	 */
+	public String getKey(Repository db, String repository, byte [] request) throws IOException {
+		MessageDigest md = Constants.newMessageDigest();
+		for (Map.Entry<String, Ref> entry : db.getRefDatabase().getRefs(RefDatabase.ALL).entrySet()) {
+			ObjectId id = entry.getValue().getObjectId();
+			if (id == null) {
+				continue;
+			}
+			md.update(Constants.encode(entry.getKey()));
+			md.update((byte) ' ');
+			md.update(Constants.encode(id.getName()));
+			md.update((byte) '\n');
+		}
+		md.update(request);
+		return repository.toLowerCase() + '\n' + ObjectId.fromRaw(md.digest()).getName();
+	}
+
+	/**
+	 * Opens the cached response for the key.  If the response is not cached
+	 * it is written by the writer.  The response must be closed when it is
+	 * sent.
+	 *
+	 * @param key
+	 * @param writer
+	 * @return the response or null if the response is too large to be cached
+	 * @throws IOException
+	 *             if the writer failed
+	 */
+	public Archive open(String key, ArchiveWriter writer) throws IOException {
+		return cache.open(key, writer);
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.git;
+
+import java.text.MessageFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accumulates the statistics of the packs sent to cloning and fetching
+ * clients.  The totals are reported in the server status.
+ */
+public class UploadPackStatistics {
+
+	private static final UploadPackStatistics instance;
+
+	static {
+		instance = new UploadPackStatistics();
+	}
+
+	public static UploadPackStatistics instance() {
+		return instance;
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private final AtomicLong packs = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicLong objects = new AtomicLong();
+
+	private final AtomicLong deltas = new AtomicLong();
+
+	private final AtomicLong reusedDeltas = new AtomicLong();
+
+	private final AtomicLong time = new AtomicLong();
+
+	UploadPackStatistics() {
+	}
+
+	/**
+	 * Records the statistics of a pack sent to a client.
+	 *
+	 * @param repository
+	 * @param stats
+	 * @param log
+	 *            true to log the statistics of the pack
+	 */
+	public void record(String repository, PackStatistics stats, boolean log) {
+		packs.incrementAndGet();
+		bytes.addAndGet(stats.getTotalBytes());
+		objects.addAndGet(stats.getTotalObjects());
+		deltas.addAndGet(stats.getTotalDeltas());
+		reusedDeltas.addAndGet(stats.getReusedDeltas());
+		time.addAndGet(stats.getTimeTotal());
+		if (log) {
+			logger.info(MessageFormat.format(
+					"sent {0} pack: {1,number,0} bytes, {2,number,0} objects, {3,number,0} deltas "
+					+ "({4,number,0} reused), counting {5,number,0} ms, compressing {6,number,0} ms, "
+					+ "writing {7,number,0} ms, total {8,number,0} ms",
+					repository, stats.getTotalBytes(), stats.getTotalObjects(), stats.getTotalDeltas(),
+					stats.getReusedDeltas(), stats.getTimeCounting(), stats.getTimeCompressing(),
+					stats.getTimeWriting(), stats.getTimeTotal()));
+		}
+	}
+
+	public long getPackCount() {
+		return packs.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public long getObjects() {
+		return objects.get();
+	}
+
+	public long getDeltas() {
+		return deltas.get();
+	}
+
+	public long getReusedDeltas() {
+		return reusedDeltas.get();
+	}
+
+	/**
+	 * Returns the total time spent writing packs.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getTime() {
+		return time.get();
+	}
+}
@@ -18,14 +18,20 @@ package com.gitblit.manager;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -36,7 +42,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
-import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -88,6 +94,8 @@ public class FilestoreManager implements IFilestoreManager {
 
 	private static final String METAFILE_TMP = "filestore.json.tmp";
 
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	protected static final Type METAFILE_TYPE = new TypeToken<Collection<FilestoreModel>>() {}.getType();
 
 	private Map<String, FilestoreModel > fileCache = new ConcurrentHashMap<String, FilestoreModel>();
@@ -191,6 +199,28 @@ public class FilestoreManager implements IFilestoreManager {
 
 	@Override
 	public FilestoreModel.Status uploadBlob(String oid, long size, UserModel user, RepositoryModel repo, InputStream streamIn) {
+		return uploadBlob(oid, size, user, repo, streamIn, 0);
+	}
+
+	/**
+	 * Uploads a blob, or the remainder of an interrupted upload of a blob.
+	 *
+	 * The blob is hashed while it is written to a partial file which is renamed
+	 * to the storage path once the size and hash are verified.  If the client
+	 * stream fails the partial file is kept and the upload may be resumed at
+	 * an offset up to the number of bytes received.
+	 *
+	 * @param oid
+	 * @param size
+	 * @param user
+	 * @param repo
+	 * @param streamIn
+	 * @param offset
+	 *            the offset of the stream in the blob
+	 * @return the status of the blob
+	 */
+	@Override
+	public FilestoreModel.Status uploadBlob(String oid, long size, UserModel user, RepositoryModel repo, InputStream streamIn, long offset) {
 
 		//Access control and object logic
 		Status state = addObject(oid, size, user, repo);
@@ -204,19 +234,40 @@ public class FilestoreManager implements IFilestoreManager {
 		if (!model.actionUpload(user)) {
 			return Status.Upload_In_Progress;
 		} else {
-			long actualSize = 0;
 			File file = getStoragePath(oid);
+			File partial = getPartialPath(oid);
 
-			try {
-				file.getParentFile().mkdirs();
-				file.createNewFile();
-
-				try (FileOutputStream streamOut = new FileOutputStream(file)) {
+			if (offset < 0 || offset > partial.length() || offset > model.getSize()) {
+				// the upload can not continue at the offset, keep the partial file
+				model.setStatus(Status.Upload_Pending, user);
+				return Status.Error_Invalid_Size;
+			}
 
-					actualSize = IOUtils.copyLarge(streamIn, streamOut);
+			try {
+				partial.getParentFile().mkdirs();
+
+				try (FileChannel channel = FileChannel.open(partial.toPath(),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+
+					MessageDigest digest = MessageDigest.getInstance("SHA-256");
+					hashPartial(channel, offset, digest);
+					channel.truncate(offset);
+					channel.position(offset);
+
+					long actualSize;
+					try {
+						actualSize = offset + write(new DigestInputStream(streamIn, digest), channel, model.getSize() - offset);
+					} catch (ClientStreamException e) {
+						// the client stream failed, keep the received bytes for a resumed upload
+						if (settings.getBoolean(Keys.filestore.fsync, false)) {
+							channel.force(false);
+						}
+						model.setStatus(Status.Upload_Pending, user);
 
-					streamOut.flush();
-					streamOut.close();
+						logger.warn(MessageFormat.format("Upload of blob {0} interrupted after {1} bytes",
+								oid, channel.size()));
+						return Status.Error_Unexpected_Stream_End;
+					}
 
 					if (model.getSize() != actualSize) {
 						model.setStatus(Status.Error_Size_Mismatch, user);
@@ -224,14 +275,14 @@ public class FilestoreManager implements IFilestoreManager {
 						logger.warn(MessageFormat.format("Failed to upload blob {0} due to size mismatch, expected {1} got {2}",
 								oid, model.getSize(), actualSize));
 					} else {
-						String actualOid = "";
-
-						try (FileInputStream fileForHash = new FileInputStream(file)) {
-							actualOid = DigestUtils.sha256Hex(fileForHash);
-							fileForHash.close();
-						}
+						String actualOid = Hex.encodeHexString(digest.digest());
 
 						if (oid.equalsIgnoreCase(actualOid)) {
+							if (settings.getBoolean(Keys.filestore.fsync, false)) {
+								channel.force(true);
+							}
+							channel.close();
+							move(partial, file);
 							model.setStatus(Status.Available, user);
 						} else {
 							model.setStatus(Status.Error_Hash_Mismatch, user);
@@ -249,7 +300,7 @@ public class FilestoreManager implements IFilestoreManager {
 			}
 
 			if (model.isInErrorState()) {
-				file.delete();
+				partial.delete();
 				model.removeRepository(repo.name);
 			}
 		}
@@ -257,6 +308,93 @@ public class FilestoreManager implements IFilestoreManager {
 		return model.getStatus();
 	}
 
+	@Override
+	public long getUploadOffset(String oid, UserModel user, RepositoryModel repo) {
+		if (!user.canPush(repo) || !isValidOid(oid)) {
+			return 0;
+		}
+		FilestoreModel model = fileCache.get(oid);
+		if (model == null || model.getStatus() != Status.Upload_Pending) {
+			return 0;
+		}
+		return Math.min(getPartialPath(oid).length(), model.getSize());
+	}
+
+	private File getPartialPath(String oid) {
+		File file = getStoragePath(oid);
+		return new File(file.getParentFile(), file.getName() + ".part");
+	}
+
+	/**
+	 * Hashes the first bytes of a partial upload to resume the upload.
+	 */
+	private void hashPartial(FileChannel channel, long length, MessageDigest digest) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = 0;
+		while (position < length) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), length - position));
+			int n = channel.read(buffer, position);
+			if (n < 0) {
+				throw new EOFException(MessageFormat.format("Partial upload ended at {0} bytes", position));
+			}
+			buffer.flip();
+			digest.update(buffer);
+			position += n;
+		}
+	}
+
+	/**
+	 * Writes the stream to the channel.  The stream is read to at most one
+	 * byte beyond the expected length so an oversized upload does not fill the
+	 * disk.
+	 *
+	 * @return the number of bytes written
+	 * @throws ClientStreamException
+	 *             if reading the stream failed
+	 */
+	private long write(InputStream streamIn, FileChannel channel, long expected) throws IOException {
+		byte [] buffer = new byte[BUFFER_SIZE];
+		long count = 0;
+		while (count <= expected) {
+			int n;
+			try {
+				n = streamIn.read(buffer);
+			} catch (IOException e) {
+				throw new ClientStreamException(e);
+			}
+			if (n == -1) {
+				break;
+			}
+			ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			count += n;
+		}
+		return count;
+	}
+
+	/**
+	 * Signals a failure of the client stream rather than of the filestore.
+	 */
+	private static class ClientStreamException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		ClientStreamException(IOException cause) {
+			super(cause);
+		}
+	}
+
+	private void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
 	private FilestoreModel.Status canGetObject(String oid, UserModel user, RepositoryModel repo) {
 
 		//Access Control
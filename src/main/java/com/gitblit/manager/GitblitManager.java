@@ -948,6 +948,11 @@ public class GitblitManager implements IGitblit {
 		repositoryManager.resetRepositoryCache(repositoryName);
 	}
 
+	@Override
+	public void resetRepositorySize(String repositoryName) {
+		repositoryManager.resetRepositorySize(repositoryName);
+	}
+
 	@Override
 	public List<String> getRepositoryList() {
 		return repositoryManager.getRepositoryList();
@@ -1268,6 +1273,16 @@ public class GitblitManager implements IGitblit {
 		return filestoreManager.uploadBlob(oid, size, user, repo, streamIn);
 	}
 	
+	@Override
+	public FilestoreModel.Status uploadBlob(String oid, long size, UserModel user, RepositoryModel repo, InputStream streamIn, long offset ) {
+		return filestoreManager.uploadBlob(oid, size, user, repo, streamIn, offset);
+	}
+	
+	@Override
+	public long getUploadOffset(String oid, UserModel user, RepositoryModel repo) {
+		return filestoreManager.getUploadOffset(oid, user, repo);
+	}
+	
 	@Override
 	public FilestoreModel.Status downloadBlob(String oid, UserModel user, RepositoryModel repo, OutputStream streamOut ) {
 		return filestoreManager.downloadBlob(oid, user, repo, streamOut);
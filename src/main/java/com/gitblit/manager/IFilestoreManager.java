@@ -35,6 +35,10 @@ public interface IFilestoreManager extends IManager {
 	
 	FilestoreModel.Status uploadBlob(String oid, long size, UserModel user, RepositoryModel repo, InputStream streamIn );
 	
+	FilestoreModel.Status uploadBlob(String oid, long size, UserModel user, RepositoryModel repo, InputStream streamIn, long offset );
+	
+	long getUploadOffset(String oid, UserModel user, RepositoryModel repo);
+	
 	FilestoreModel.Status downloadBlob(String oid, UserModel user, RepositoryModel repo, OutputStream streamOut );
 	
 	List<FilestoreModel> getAllObjects(UserModel user);
@@ -166,6 +166,15 @@ public interface IRepositoryManager extends IManager {
 	 */
 	void resetRepositoryCache(String repositoryName);
 
+	/**
+	 * Discards the cached size of this repository so that it is recalculated
+	 * on the next repository model refresh.
+	 *
+	 * @param repositoryName
+	 * @since 1.9.0
+	 */
+	void resetRepositorySize(String repositoryName);
+
 	/**
 	 * Returns the list of all repositories available to Gitblit. This method
 	 * does not consider user access permissions.
@@ -30,6 +30,7 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -40,11 +41,16 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.lib.RepositoryCache.FileKey;
@@ -81,15 +87,20 @@ import com.gitblit.models.UserModel;
 import com.gitblit.service.GarbageCollectorService;
 import com.gitblit.service.LuceneService;
 import com.gitblit.service.MirrorService;
+import com.gitblit.utils.ActivityCache;
 import com.gitblit.utils.ArrayUtils;
 import com.gitblit.utils.ByteFormat;
 import com.gitblit.utils.CommitCache;
+import com.gitblit.utils.CommitGraph;
 import com.gitblit.utils.DeepCopier;
+import com.gitblit.utils.FolderSizeTracker;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.JGitUtils.LastChange;
-import com.gitblit.utils.MetricUtils;
+import com.gitblit.utils.MetricsCache;
 import com.gitblit.utils.ModelUtils;
 import com.gitblit.utils.ObjectCache;
+import com.gitblit.utils.RepositoryListSnapshot;
+import com.gitblit.utils.RepositoryModelSnapshot;
 import com.gitblit.utils.StringUtils;
 import com.gitblit.utils.TimeUtils;
 import com.google.inject.Inject;
@@ -111,12 +122,17 @@ public class RepositoryManager implements IRepositoryManager {
 
 	private final ObjectCache<Long> repositorySizeCache = new ObjectCache<Long>();
 
-	private final ObjectCache<List<Metric>> repositoryMetricsCache = new ObjectCache<List<Metric>>();
+	private final FolderSizeTracker repositorySizeTracker = new FolderSizeTracker(
+			"logs", "FETCH_HEAD", "ORIG_HEAD", "config", "description");
 
 	private final Map<String, RepositoryModel> repositoryListCache = new ConcurrentHashMap<String, RepositoryModel>();
 
 	private final AtomicReference<String> repositoryListSettingsChecksum = new AtomicReference<String>("");
 
+	private final AtomicBoolean repositoryListSnapshotChecked = new AtomicBoolean();
+
+	private final Map<String, RepositoryModelSnapshot.Entry> repositoryModelSnapshotEntries = new ConcurrentHashMap<String, RepositoryModelSnapshot.Entry>();
+
 	private final IStoredSettings settings;
 
 	private final IRuntimeManager runtimeManager;
@@ -133,6 +149,11 @@ public class RepositoryManager implements IRepositoryManager {
 
 	private MirrorService mirrorExecutor;
 
+	private ListenerHandle refsChangedHandle;
+
+	// repository name -> ref changes since the running update started
+	private final Map<String, Boolean> pendingCommitGraphUpdates = new HashMap<String, Boolean>();
+
 	@Inject
 	public RepositoryManager(
 			IRuntimeManager runtimeManager,
@@ -159,15 +180,38 @@ public class RepositoryManager implements IRepositoryManager {
 
 		// build initial repository list
 		if (settings.getBoolean(Keys.git.cacheRepositoryList,  true)) {
-			logger.info("Identifying repositories...");
-			getRepositoryList();
+			if (!readRepositoryModelSnapshot()) {
+				logger.info("Identifying repositories...");
+				getRepositoryList();
+			}
 		}
+		configureRepositoryModelSnapshot();
+
+		// discard cached sizes and activity of repositories whose refs change
+		refsChangedHandle = Repository.getGlobalListenerList().addRefsChangedListener(new RefsChangedListener() {
+			@Override
+			public void onRefsChanged(RefsChangedEvent event) {
+				String repositoryName = getRepositoryName(event.getRepository());
+				if (repositoryName != null) {
+					repositorySizeCache.remove(repositoryName);
+					ActivityCache.instance().clear(repositoryName);
+					if (settings.getBoolean(Keys.git.enableCommitGraph, false)) {
+						scheduleCommitGraphUpdate(repositoryName);
+					}
+					if (luceneExecutor != null) {
+						luceneExecutor.update(repositoryName);
+					}
+				}
+			}
+		});
 
 		configureLuceneIndexing();
 		configureGarbageCollector();
 		configureMirrorExecutor();
+		configureCommitGraph();
 		configureJGit();
 		configureCommitCache();
+		configureMetricsCache();
 
 		confirmWriteAccess();
 
@@ -177,6 +221,13 @@ public class RepositoryManager implements IRepositoryManager {
 	@Override
 	public RepositoryManager stop() {
 		scheduledExecutor.shutdownNow();
+		if (refsChangedHandle != null) {
+			refsChangedHandle.remove();
+		}
+		if (settings.getBoolean(Keys.git.cacheRepositoryList,  true)
+				&& settings.getBoolean(Keys.git.repositoryModelSnapshot, false)) {
+			writeRepositoryModelSnapshot();
+		}
 		luceneExecutor.close();
 		gcExecutor.close();
 		mirrorExecutor.close();
@@ -463,9 +514,10 @@ public class RepositoryManager implements IRepositoryManager {
 	 * @param repositoryName
 	 */
 	private void clearRepositoryMetadataCache(String repositoryName) {
-		repositorySizeCache.remove(repositoryName);
-		repositoryMetricsCache.remove(repositoryName);
+		resetRepositorySize(repositoryName);
+		MetricsCache.instance().clear(repositoryName);
 		CommitCache.instance().clear(repositoryName);
+		ActivityCache.instance().clear(repositoryName);
 	}
 
 	/**
@@ -482,6 +534,34 @@ public class RepositoryManager implements IRepositoryManager {
 		getRepositoryModel(repositoryName);
 	}
 
+	/**
+	 * Discards the cached size of this repository so that it is recalculated
+	 * on the next repository model refresh.
+	 *
+	 * @param repositoryName
+	 * @since 1.9.0
+	 */
+	@Override
+	public void resetRepositorySize(String repositoryName) {
+		repositorySizeCache.remove(repositoryName);
+		File gitDir = FileKey.resolve(new File(repositoriesFolder, repositoryName), FS.DETECTED);
+		if (gitDir != null) {
+			repositorySizeTracker.reset(gitDir);
+		}
+	}
+
+	/**
+	 * Returns the name of the repository relative to the repositories folder.
+	 *
+	 * @param r
+	 * @return the repository name or null if the repository is not located
+	 *         in the repositories folder
+	 */
+	private String getRepositoryName(Repository r) {
+		File folder = r.isBare() ? r.getDirectory() : r.getDirectory().getParentFile();
+		return com.gitblit.utils.FileUtils.getRelativePath(getRepositoriesFolder(), folder);
+	}
+
 	/**
 	 * Resets the repository list cache.
 	 *
@@ -491,8 +571,10 @@ public class RepositoryManager implements IRepositoryManager {
 		logger.info("Repository cache manually reset");
 		repositoryListCache.clear();
 		repositorySizeCache.clear();
-		repositoryMetricsCache.clear();
+		repositorySizeTracker.clear();
+		MetricsCache.instance().clear();
 		CommitCache.instance().clear();
+		ActivityCache.instance().clear();
 	}
 
 	/**
@@ -538,11 +620,15 @@ public class RepositoryManager implements IRepositoryManager {
 		if (repositoryListCache.size() == 0 || !isValidRepositoryList()) {
 			// we are not caching OR we have not yet cached OR the cached list is invalid
 			long startTime = System.currentTimeMillis();
-			List<String> repositories = JGitUtils.getRepositoryList(repositoriesFolder,
-					settings.getBoolean(Keys.git.onlyAccessBareRepositories, false),
-					settings.getBoolean(Keys.git.searchRepositoriesSubfolders, true),
-					settings.getInteger(Keys.git.searchRecursionDepth, -1),
-					settings.getStrings(Keys.git.searchExclusions));
+			List<String> repositories = null;
+			if (settings.getBoolean(Keys.git.cacheRepositoryList,  true)
+					&& repositoryListSnapshotChecked.compareAndSet(false, true)) {
+				// try to start from the persisted repository list
+				repositories = readRepositoryListSnapshot();
+			}
+			if (repositories == null) {
+				repositories = searchRepositories();
+			}
 
 			if (!settings.getBoolean(Keys.git.cacheRepositoryList,  true)) {
 				// we are not caching
@@ -585,6 +671,243 @@ public class RepositoryManager implements IRepositoryManager {
 		return list;
 	}
 
+	/**
+	 * Searches the repositories folder for repositories.  If the repository
+	 * list snapshot is enabled the search result is persisted for the next
+	 * startup.
+	 *
+	 * @return list of repository names
+	 */
+	private List<String> searchRepositories() {
+		boolean snapshot = settings.getBoolean(Keys.git.cacheRepositoryList,  true)
+				&& settings.getBoolean(Keys.git.repositoryListSnapshot, false);
+		Map<String, Long> searchedFolders = snapshot ? new HashMap<String, Long>() : null;
+		List<String> repositories = JGitUtils.getRepositoryList(repositoriesFolder,
+				settings.getBoolean(Keys.git.onlyAccessBareRepositories, false),
+				settings.getBoolean(Keys.git.searchRepositoriesSubfolders, true),
+				settings.getInteger(Keys.git.searchRecursionDepth, -1),
+				settings.getStrings(Keys.git.searchExclusions),
+				settings.getInteger(Keys.git.searchThreads, 0),
+				searchedFolders);
+		if (snapshot) {
+			new RepositoryListSnapshot(repositoryListSettingsChecksum.get(), repositories, searchedFolders)
+				.write(getRepositoryListSnapshotFile());
+		}
+		return repositories;
+	}
+
+	/**
+	 * Reads the persisted repository list, if enabled.  If any of the searched
+	 * folders have changed since the snapshot was written the snapshot is
+	 * still returned and the repository list is reconciled in the background.
+	 *
+	 * @return list of repository names or null if there is no usable snapshot
+	 */
+	private List<String> readRepositoryListSnapshot() {
+		if (!settings.getBoolean(Keys.git.repositoryListSnapshot, false)) {
+			return null;
+		}
+		RepositoryListSnapshot snapshot = RepositoryListSnapshot.read(getRepositoryListSnapshotFile());
+		if (snapshot == null || !snapshot.matches(repositoryListSettingsChecksum.get())) {
+			return null;
+		}
+		if (snapshot.isCurrent(repositoriesFolder)) {
+			logger.info("Repository list snapshot is current");
+		} else {
+			logger.info("Repository list snapshot is stale, reconciling in the background");
+			scheduledExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					reconcileRepositoryList();
+				}
+			});
+		}
+		return snapshot.getRepositories();
+	}
+
+	/**
+	 * Searches the repositories folder and reconciles the cached repository
+	 * list with the search result.
+	 */
+	private void reconcileRepositoryList() {
+		long startTime = System.currentTimeMillis();
+		Set<String> keys = new HashSet<String>();
+		int added = 0;
+		for (String repository : searchRepositories()) {
+			keys.add(getRepositoryKey(repository));
+			if (!repositoryListCache.containsKey(getRepositoryKey(repository))) {
+				if (getRepositoryModel(repository) != null) {
+					added++;
+				}
+			}
+		}
+		int removed = 0;
+		for (String key : new ArrayList<String>(repositoryListCache.keySet())) {
+			if (!keys.contains(key)) {
+				repositoryListCache.remove(key);
+				removed++;
+			}
+		}
+		logger.info(MessageFormat.format("reconciled repository list, {0} added, {1} removed in {2} msecs",
+				added, removed, System.currentTimeMillis() - startTime));
+	}
+
+	/**
+	 * Restores the repository list cache from the persisted repository
+	 * models, if enabled.  The restored models are revalidated and the
+	 * repository list is reconciled in the background.
+	 *
+	 * @return true if the repository list cache was restored
+	 */
+	private boolean readRepositoryModelSnapshot() {
+		if (!settings.getBoolean(Keys.git.repositoryModelSnapshot, false)) {
+			return false;
+		}
+		long startTime = System.currentTimeMillis();
+		RepositoryModelSnapshot snapshot = RepositoryModelSnapshot.read(getRepositoryModelSnapshotFile());
+		if (snapshot == null || !snapshot.matches(repositoryListSettingsChecksum.get())
+				|| snapshot.getEntries().isEmpty()) {
+			return false;
+		}
+		for (RepositoryModelSnapshot.Entry entry : snapshot.getEntries()) {
+			RepositoryModel model = entry.model;
+			if (model == null || StringUtils.isEmpty(model.name)) {
+				continue;
+			}
+			String key = getRepositoryKey(model.name);
+			repositoryListCache.put(key, model);
+			repositoryModelSnapshotEntries.put(key, entry);
+			if (entry.size >= 0 && model.lastChange != null) {
+				repositorySizeCache.updateObject(model.name, model.lastChange, entry.size);
+			}
+		}
+		// the persisted list is superseded by the restored models
+		repositoryListSnapshotChecked.set(true);
+		logger.info(MessageFormat.format("{0} repositories restored from snapshot in {1} msecs",
+				repositoryListCache.size(), System.currentTimeMillis() - startTime));
+
+		scheduledExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				revalidateRepositoryModels();
+				reconcileRepositoryList();
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Reloads the restored repository models whose config or refs have
+	 * changed since they were persisted.
+	 */
+	private void revalidateRepositoryModels() {
+		long startTime = System.currentTimeMillis();
+		int reloaded = 0;
+		for (Map.Entry<String, RepositoryModelSnapshot.Entry> snapshotEntry : repositoryModelSnapshotEntries.entrySet()) {
+			RepositoryModelSnapshot.Entry entry = snapshotEntry.getValue();
+			File gitDir = FileKey.resolve(new File(repositoriesFolder, entry.model.name), FS.DETECTED);
+			if (gitDir != null && entry.isCurrent(gitDir)) {
+				continue;
+			}
+			RepositoryModel model = loadRepositoryModel(entry.model.name);
+			removeFromCachedRepositoryList(entry.model.name);
+			repositoryModelSnapshotEntries.remove(snapshotEntry.getKey());
+			if (model != null) {
+				addToCachedRepositoryList(model);
+			}
+			reloaded++;
+		}
+		logger.info(MessageFormat.format("revalidated restored repositories, {0} reloaded in {1} msecs",
+				reloaded, System.currentTimeMillis() - startTime));
+	}
+
+	/**
+	 * Persists the cached repository models.  Models of repositories which
+	 * have changed since the last snapshot are refreshed before they are
+	 * persisted.
+	 */
+	private void writeRepositoryModelSnapshot() {
+		long startTime = System.currentTimeMillis();
+		List<RepositoryModelSnapshot.Entry> entries = new ArrayList<RepositoryModelSnapshot.Entry>();
+		for (String key : new ArrayList<String>(repositoryListCache.keySet())) {
+			RepositoryModel model = repositoryListCache.get(key);
+			if (model == null) {
+				continue;
+			}
+			File gitDir = FileKey.resolve(new File(repositoriesFolder, model.name), FS.DETECTED);
+			if (gitDir == null) {
+				continue;
+			}
+			// stamp before refreshing so that a concurrent change invalidates the entry
+			long configModified = RepositoryModelSnapshot.getConfigModified(gitDir);
+			String refsChecksum = RepositoryModelSnapshot.getRefsChecksum(gitDir);
+			RepositoryModelSnapshot.Entry previous = repositoryModelSnapshotEntries.get(key);
+			if (previous != null && previous.configModified == configModified
+					&& refsChecksum != null && refsChecksum.equals(previous.refsChecksum)) {
+				model = DeepCopier.copy(model);
+			} else {
+				model = getRepositoryModel(model.name);
+				if (model == null) {
+					continue;
+				}
+			}
+			model.isCollectingGarbage = false;
+			Long size = repositorySizeCache.getObject(model.name);
+			RepositoryModelSnapshot.Entry entry = new RepositoryModelSnapshot.Entry(model,
+					size == null ? -1L : size, configModified, refsChecksum);
+			repositoryModelSnapshotEntries.put(key, entry);
+			entries.add(entry);
+		}
+		new RepositoryModelSnapshot(repositoryListSettingsChecksum.get(), entries)
+			.write(getRepositoryModelSnapshotFile());
+		logger.info(MessageFormat.format("persisted {0} repository models in {1} msecs",
+				entries.size(), System.currentTimeMillis() - startTime));
+	}
+
+	/**
+	 * Schedules the periodic repository model snapshot, if enabled.
+	 */
+	protected void configureRepositoryModelSnapshot() {
+		if (!settings.getBoolean(Keys.git.cacheRepositoryList,  true)
+				|| !settings.getBoolean(Keys.git.repositoryModelSnapshot, false)) {
+			return;
+		}
+		int mins = settings.getInteger(Keys.git.repositoryModelSnapshotPeriod, 60);
+		if (mins <= 0) {
+			logger.info("Repository models will be persisted on shutdown");
+			return;
+		}
+		logger.info(MessageFormat.format("Repository models will be persisted every {0} minutes", mins));
+		scheduledExecutor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeRepositoryModelSnapshot();
+				} catch (Exception e) {
+					logger.error("failed to persist repository models", e);
+				}
+			}
+		}, mins, mins, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Returns the file of the persisted repository models.
+	 *
+	 * @return the snapshot file
+	 */
+	private File getRepositoryModelSnapshotFile() {
+		return runtimeManager.getFileOrFolder("${baseFolder}/repositoryModels.json");
+	}
+
+	/**
+	 * Returns the file of the persisted repository list.
+	 *
+	 * @return the snapshot file
+	 */
+	private File getRepositoryListSnapshotFile() {
+		return runtimeManager.getFileOrFolder("${baseFolder}/repositories.json");
+	}
+
 	/**
 	 * Returns the JGit repository for the specified name.
 	 *
@@ -1195,7 +1518,7 @@ public class RepositoryManager implements IRepositoryManager {
 		}
 		if (!repositorySizeCache.hasCurrent(model.name, model.lastChange)) {
 			File gitDir = r.getDirectory();
-			long sz = com.gitblit.utils.FileUtils.folderSize(gitDir);
+			long sz = repositorySizeTracker.size(gitDir);
 			repositorySizeCache.updateObject(model.name, model.lastChange, sz);
 		}
 		long size = repositorySizeCache.getObject(model.name);
@@ -1253,6 +1576,7 @@ public class RepositoryManager implements IRepositoryManager {
 			return;
 		}
 		RepositoryCache.close(repository);
+		CommitGraph.close(repository);
 
 		// assume 2 uses in case reflection fails
 		int uses = 2;
@@ -1296,12 +1620,8 @@ public class RepositoryManager implements IRepositoryManager {
 	 */
 	@Override
 	public List<Metric> getRepositoryDefaultMetrics(RepositoryModel model, Repository repository) {
-		if (repositoryMetricsCache.hasCurrent(model.name, model.lastChange)) {
-			return new ArrayList<Metric>(repositoryMetricsCache.getObject(model.name));
-		}
-		List<Metric> metrics = MetricUtils.getDateMetrics(repository, null, true, null, runtimeManager.getTimezone());
-		repositoryMetricsCache.updateObject(model.name, model.lastChange, metrics);
-		return new ArrayList<Metric>(metrics);
+		return MetricsCache.instance().getDateMetrics(model.name, repository, null, true, null,
+				runtimeManager.getTimezone());
 	}
 
 	/**
@@ -1875,7 +2195,7 @@ public class RepositoryManager implements IRepositoryManager {
 	}
 
 	protected void configureLuceneIndexing() {
-		luceneExecutor = new LuceneService(settings, this);
+		luceneExecutor = new LuceneService(settings, this, runtimeManager.getStatus());
 		String frequency = settings.getString(Keys.web.luceneFrequency, "2 mins");
 		int mins = TimeUtils.convertFrequencyToMinutes(frequency, 2);
 		scheduledExecutor.scheduleAtFixedRate(luceneExecutor, 1, mins,  TimeUnit.MINUTES);
@@ -1924,6 +2244,79 @@ public class RepositoryManager implements IRepositoryManager {
 		}
 	}
 
+	protected void configureCommitGraph() {
+		if (!settings.getBoolean(Keys.git.enableCommitGraph, false)) {
+			return;
+		}
+		// bring the commit graphs of all repositories up to date in the
+		// background, afterwards ref changes update the graphs incrementally
+		logger.info("Commit graphs will be updated in 1 minute");
+		scheduledExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				for (String repositoryName : getRepositoryList()) {
+					updateCommitGraph(repositoryName);
+				}
+			}
+		}, 1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Schedules an update of the commit graph of the repository.  A burst of
+	 * ref changes, like a push of several branches, results in one update.
+	 * Ref changes during an update are picked up by a repeated update.
+	 *
+	 * @param repositoryName
+	 */
+	private void scheduleCommitGraphUpdate(final String repositoryName) {
+		synchronized (pendingCommitGraphUpdates) {
+			if (pendingCommitGraphUpdates.containsKey(repositoryName)) {
+				pendingCommitGraphUpdates.put(repositoryName, true);
+				return;
+			}
+			pendingCommitGraphUpdates.put(repositoryName, false);
+		}
+		try {
+			scheduledExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					boolean changed;
+					do {
+						synchronized (pendingCommitGraphUpdates) {
+							pendingCommitGraphUpdates.put(repositoryName, false);
+						}
+						updateCommitGraph(repositoryName);
+						synchronized (pendingCommitGraphUpdates) {
+							changed = pendingCommitGraphUpdates.get(repositoryName);
+							if (!changed) {
+								pendingCommitGraphUpdates.remove(repositoryName);
+							}
+						}
+					} while (changed);
+				}
+			}, 5, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			synchronized (pendingCommitGraphUpdates) {
+				pendingCommitGraphUpdates.remove(repositoryName);
+			}
+		}
+	}
+
+	private void updateCommitGraph(String repositoryName) {
+		Repository repository = getRepository(repositoryName);
+		if (repository == null) {
+			return;
+		}
+		try {
+			CommitGraph.update(repository);
+		} catch (Exception e) {
+			logger.error(MessageFormat.format("failed to update the commit graph of {0}", repositoryName), e);
+		} finally {
+			repository.close();
+		}
+	}
+
 	protected void configureJGit() {
 		// Configure JGit
 		WindowCacheConfig cfg = new WindowCacheConfig();
@@ -1960,14 +2353,21 @@ public class RepositoryManager implements IRepositoryManager {
 		}
 	}
 
+	protected void configureMetricsCache() {
+		int maxBranches = settings.getInteger(Keys.web.metricsCacheBranches, MetricsCache.DEFAULT_MAX_BRANCHES);
+		MetricsCache.instance().setMaxBranches(maxBranches);
+	}
+
 	protected void configureCommitCache() {
 		final int daysToCache = settings.getInteger(Keys.web.activityCacheDays, 14);
 		if (daysToCache <= 0) {
 			logger.info("Commit cache is disabled");
 			return;
 		}
+		final long maxCacheSize = settings.getFilesize(Keys.web.activityCacheMaxSize, 0L);
 		logger.info(MessageFormat.format("Preparing {0} day commit cache...", daysToCache));
 		CommitCache.instance().setCacheDays(daysToCache);
+		CommitCache.instance().setMaxWeight(maxCacheSize);
 		Thread loader = new Thread() {
 			@Override
 			public void run() {
@@ -28,9 +28,12 @@ import org.slf4j.LoggerFactory;
 import com.gitblit.Constants;
 import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
+import com.gitblit.git.AdmissionController;
+import com.gitblit.git.UploadPackStatistics;
 import com.gitblit.models.ServerSettings;
 import com.gitblit.models.ServerStatus;
 import com.gitblit.models.SettingModel;
+import com.gitblit.utils.CommitCache;
 import com.gitblit.utils.StringUtils;
 import com.gitblit.utils.XssFilter;
 import com.google.inject.Inject;
@@ -231,6 +234,28 @@ public class RuntimeManager implements IRuntimeManager {
 		// update heap memory status
 		serverStatus.heapAllocated = Runtime.getRuntime().totalMemory();
 		serverStatus.heapFree = Runtime.getRuntime().freeMemory();
+		// update commit cache status
+		CommitCache commitCache = CommitCache.instance();
+		serverStatus.commitCacheSize = commitCache.getWeight();
+		serverStatus.commitCacheMaximum = commitCache.getMaxWeight();
+		serverStatus.commitCacheHits = commitCache.getHitCount();
+		serverStatus.commitCacheMisses = commitCache.getMissCount();
+		serverStatus.commitCacheEvictions = commitCache.getEvictionCount();
+		// update upload pack status
+		UploadPackStatistics packs = UploadPackStatistics.instance();
+		serverStatus.uploadPackCount = packs.getPackCount();
+		serverStatus.uploadPackBytes = packs.getBytes();
+		serverStatus.uploadPackObjects = packs.getObjects();
+		serverStatus.uploadPackDeltas = packs.getDeltas();
+		serverStatus.uploadPackReusedDeltas = packs.getReusedDeltas();
+		serverStatus.uploadPackTime = packs.getTime();
+		// update git request admission status
+		AdmissionController admission = AdmissionController.instance();
+		serverStatus.admissionActive = admission.getActive();
+		serverStatus.admissionQueued = admission.getQueued();
+		serverStatus.admissionRejected = admission.getRejected();
+		serverStatus.admissionWaited = admission.getWaited();
+		serverStatus.admissionWaitTime = admission.getWaitTime();
 		return serverStatus;
 	}
 
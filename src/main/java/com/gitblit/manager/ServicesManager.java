@@ -46,6 +46,7 @@ import com.gitblit.Keys;
 import com.gitblit.fanout.FanoutNioService;
 import com.gitblit.fanout.FanoutService;
 import com.gitblit.fanout.FanoutSocketService;
+import com.gitblit.git.AdmissionController;
 import com.gitblit.models.FederationModel;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.RepositoryUrl;
@@ -104,6 +105,7 @@ public class ServicesManager implements IServicesManager {
 	public ServicesManager start() {
 		configureFederation();
 		configureFanout();
+		configureAdmission();
 		configureGitDaemon();
 		configureSshDaemon();
 
@@ -393,6 +395,15 @@ public class ServicesManager implements IServicesManager {
 		return transports.contains(byTransport);
 	}
 
+	protected void configureAdmission() {
+		AdmissionController.instance().configure(
+				settings.getInteger(Keys.git.maxConcurrentRequests, 0),
+				settings.getInteger(Keys.git.maxConcurrentRequestsPerRepository, 0),
+				settings.getInteger(Keys.git.maxConcurrentRequestsPerUser, 0),
+				settings.getInteger(Keys.git.requestQueueSize, 50),
+				TimeUnit.SECONDS.toMillis(settings.getInteger(Keys.git.requestQueueTimeout, 30)));
+	}
+
 	protected void configureGitDaemon() {
 		int port = settings.getInteger(Keys.git.daemonPort, 0);
 		String bindInterface = settings.getString(Keys.git.daemonBindInterface, "localhost");
@@ -92,6 +92,16 @@ public class RepositoryCommit implements Serializable, Comparable<RepositoryComm
 		return commit.getCommitterIdent();
 	}
 
+	/**
+	 * Returns the length of the raw commit buffer retained by this commit.
+	 *
+	 * @return the buffer length in bytes, 0 if the buffer has been discarded
+	 */
+	public int getRawBufferLength() {
+		byte [] buffer = commit.getRawBuffer();
+		return buffer == null ? 0 : buffer.length;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof RepositoryCommit) {
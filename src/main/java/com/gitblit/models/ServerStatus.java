@@ -47,6 +47,56 @@ public class ServerStatus implements Serializable {
 
 	public volatile long heapFree;
 
+	public volatile long commitCacheSize;
+
+	public volatile long commitCacheMaximum;
+
+	public volatile long commitCacheHits;
+
+	public volatile long commitCacheMisses;
+
+	public volatile long commitCacheEvictions;
+
+	public volatile long uploadPackCount;
+
+	public volatile long uploadPackBytes;
+
+	public volatile long uploadPackObjects;
+
+	public volatile long uploadPackDeltas;
+
+	public volatile long uploadPackReusedDeltas;
+
+	public volatile long uploadPackTime;
+
+	public volatile int gitDaemonActiveConnections;
+
+	public volatile int gitDaemonQueuedConnections;
+
+	public volatile long gitDaemonRejectedConnections;
+
+	public volatile int admissionActive;
+
+	public volatile int admissionQueued;
+
+	public volatile long admissionRejected;
+
+	public volatile long admissionWaited;
+
+	public volatile long admissionWaitTime;
+
+	public volatile boolean luceneIndexing;
+
+	public volatile int luceneRepositories;
+
+	public volatile int luceneIndexedRepositories;
+
+	public volatile long luceneFiles;
+
+	public volatile long luceneBytes;
+
+	public volatile long luceneFilesPerSecond;
+
 	public boolean isGO;
 
 	public String servletContainer;
@@ -33,6 +33,7 @@ import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.manager.IRepositoryManager;
 import com.gitblit.models.RepositoryModel;
+import com.gitblit.utils.CommitGraph;
 import com.gitblit.utils.FileUtils;
 
 /**
@@ -202,6 +203,14 @@ public class GarbageCollectorService implements Runnable {
 					gc.call();
 
 					garbageCollected = true;
+
+					// packing rewrites the object database
+					repositoryManager.resetRepositorySize(repositoryName);
+
+					// like native git gc, bring the commit graph up to date
+					if (settings.getBoolean(Keys.git.enableCommitGraph, false)) {
+						CommitGraph.update(repository);
+					}
 				}
 			} catch (Exception e) {
 				logger.error("Error collecting garbage in " + repositoryName, e);
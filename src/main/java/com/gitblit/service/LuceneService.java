@@ -17,23 +17,38 @@ package com.gitblit.service;
 
 import static org.eclipse.jgit.treewalk.filter.TreeFilter.ANY_DIFF;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -44,11 +59,9 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
-import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
@@ -56,7 +69,10 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.highlight.Fragmenter;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
@@ -65,7 +81,9 @@ import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.tika.Tika;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
@@ -91,9 +109,13 @@ import com.gitblit.models.PathModel.PathChangeModel;
 import com.gitblit.models.RefModel;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.SearchResult;
+import com.gitblit.models.ServerStatus;
 import com.gitblit.utils.ArrayUtils;
+import com.gitblit.utils.DeepCopier;
+import com.gitblit.utils.FanOut;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.StringUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * The Lucene service handles indexing and searching repositories.
@@ -104,7 +126,7 @@ import com.gitblit.utils.StringUtils;
 public class LuceneService implements Runnable {
 
 
-	private static final int INDEX_VERSION = 6;
+	private static final int INDEX_VERSION = 9;
 
 	private static final String FIELD_OBJECT_TYPE = "type";
 	private static final String FIELD_PATH = "path";
@@ -116,9 +138,34 @@ public class LuceneService implements Runnable {
 	private static final String FIELD_COMMITTER = "committer";
 	private static final String FIELD_DATE = "date";
 	private static final String FIELD_TAG = "tag";
+	private static final String FIELD_BLOB = "blob";
+
+	private static final int MAX_HITS = 5000;
+
+	private static final long DEFAULT_MAX_FILE_SIZE = 1024 * 1024;
+
+	/**
+	 * The number of seconds close waits for the running index updates.
+	 */
+	private static final int CLOSE_TIMEOUT = 30;
+
+	/**
+	 * The number of leading bytes which are inspected to detect binary
+	 * content, the same as Git.
+	 */
+	private static final int SNIFF_LENGTH = 8000;
+
+	private static final Tika TIKA = new Tika();
+
+	private static final Set<String> BINARY_TYPES = new TreeSet<String>(Arrays.asList(
+			"application/pdf", "application/zip", "application/gzip",
+			"application/x-gzip", "application/x-bzip2", "application/x-xz", "application/x-7z-compressed",
+			"application/x-rar-compressed", "application/java-vm", "application/x-executable",
+			"application/x-sharedlib", "application/x-msdownload"));
 
 	private static final String CONF_ALIAS = "aliases";
 	private static final String CONF_BRANCH = "branches";
+	private static final String CONF_CONTENT = "content";
 
 	private final Logger logger = LoggerFactory.getLogger(LuceneService.class);
 
@@ -126,8 +173,34 @@ public class LuceneService implements Runnable {
 	private final IRepositoryManager repositoryManager;
 	private final File repositoriesFolder;
 
-	private final Map<String, IndexSearcher> searchers = new ConcurrentHashMap<String, IndexSearcher>();
+	private final Map<String, SearcherManager> searchers = new ConcurrentHashMap<String, SearcherManager>();
 	private final Map<String, IndexWriter> writers = new ConcurrentHashMap<String, IndexWriter>();
+	private final ConcurrentMap<String, Object> indexLocks = new ConcurrentHashMap<String, Object>();
+	private final Set<String> pendingUpdates = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final ExecutorService repositoryExecutor;
+	private final ExecutorService blobExecutor;
+	private final ExecutorService searchExecutor;
+	private final int blobThreads;
+
+	private final Map<String, List<SearchResult>> resultCache = new LinkedHashMap<String, List<SearchResult>>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, List<SearchResult>> eldest) {
+			return size() > resultCacheSize;
+		}
+	};
+	private final int resultCacheSize;
+
+	private volatile boolean closing;
+
+	private final ServerStatus status;
+	private final AtomicInteger indexedRepositories = new AtomicInteger();
+	private final AtomicLong indexedFiles = new AtomicLong();
+	private final AtomicLong indexedBytes = new AtomicLong();
+	private volatile long runStart;
 
 	private final String luceneIgnoreExtensions = "7z arc arj bin bmp dll doc docx exe gif gz jar jpg lib lzh odg odf odt pdf ppt png so swf xcf xls xlsx zip";
 	private Set<String> excludedExtensions;
@@ -135,21 +208,73 @@ public class LuceneService implements Runnable {
 	public LuceneService(
 			IStoredSettings settings,
 			IRepositoryManager repositoryManager) {
+		this(settings, repositoryManager, new ServerStatus());
+	}
+
+	/**
+	 * Creates a Lucene service which publishes the progress of its index runs
+	 * in the server status.
+	 *
+	 * @param settings
+	 * @param repositoryManager
+	 * @param status
+	 */
+	public LuceneService(
+			IStoredSettings settings,
+			IRepositoryManager repositoryManager,
+			ServerStatus status) {
 
 		this.storedSettings = settings;
+		this.status = status;
 		this.repositoryManager = repositoryManager;
 		this.repositoriesFolder = repositoryManager.getRepositoriesFolder();
 		String exts = luceneIgnoreExtensions;
+		int repositoryThreads = 1;
+		int blobThreads = 1;
+		int searchThreads = 1;
+		int resultCacheSize = 0;
 		if (settings != null) {
 			exts = settings.getString(Keys.web.luceneIgnoreExtensions, exts);
+			repositoryThreads = settings.getInteger(Keys.web.luceneRepositoryThreads, 2);
+			blobThreads = settings.getInteger(Keys.web.luceneBlobThreads, 2);
+			searchThreads = settings.getInteger(Keys.web.luceneSearchThreads, 4);
+			resultCacheSize = settings.getInteger(Keys.web.luceneResultCacheSize, 100);
 		}
 		excludedExtensions = new TreeSet<String>(StringUtils.getStringsFromValue(exts));
+
+		// index updates after ref changes always run on the repository executor
+		this.repositoryExecutor = Executors.newFixedThreadPool(Math.max(1, repositoryThreads),
+				new ThreadFactoryBuilder().setNameFormat("LuceneIndex-%s").setDaemon(true).build());
+		this.blobExecutor = createExecutor(blobThreads, "LuceneBlob-%s");
+		this.searchExecutor = createExecutor(searchThreads, "LuceneSearch-%s");
+		this.blobThreads = blobThreads;
+		this.resultCacheSize = resultCacheSize;
+	}
+
+	/**
+	 * Creates an executor for the indexing pipeline.
+	 *
+	 * @param threads
+	 *            the number of threads, if <= 1 the work is done on the
+	 *            calling thread
+	 * @param nameFormat
+	 * @return an executor or null
+	 */
+	private static ExecutorService createExecutor(int threads, String nameFormat) {
+		if (threads <= 1) {
+			return null;
+		}
+		return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+				.setNameFormat(nameFormat)
+				.setDaemon(true)
+				.build());
 	}
 
 	/**
 	 * Run is executed by the Gitblit executor service.  Because this is called
-	 * by an executor service, calls will queue - i.e. there can never be
-	 * concurrent execution of repository index updates.
+	 * by an executor service, calls will queue.  Repositories are indexed
+	 * concurrently on the repository executor, but there can never be
+	 * concurrent execution of index updates of the same repository.
 	 */
 	@Override
 	public void run() {
@@ -166,19 +291,154 @@ public class LuceneService implements Runnable {
 			return;
 		}
 
-		for (String repositoryName: repositoryManager.getRepositoryList()) {
-			RepositoryModel model = repositoryManager.getRepositoryModel(repositoryName);
-			if (model.hasCommits && !ArrayUtils.isEmpty(model.indexedBranches)) {
-				Repository repository = repositoryManager.getRepository(model.name);
-				if (repository == null) {
-					if (repositoryManager.isCollectingGarbage(model.name)) {
-						logger.info(MessageFormat.format("Skipping Lucene index of {0}, busy garbage collecting", repositoryName));
+		long start = System.currentTimeMillis();
+		List<String> repositories = repositoryManager.getRepositoryList();
+		startProgress(repositories.size());
+		Map<String, Callable<IndexResult>> tasks = new LinkedHashMap<String, Callable<IndexResult>>();
+		for (final String repositoryName: repositories) {
+			tasks.put(repositoryName, new Callable<IndexResult>() {
+				@Override
+				public IndexResult call() {
+					try {
+						return index(repositoryName);
+					} finally {
+						indexedRepositories.incrementAndGet();
+						updateStatus();
 					}
-					continue;
 				}
-				index(model, repository);
+			});
+		}
+
+		FanOut.Result<IndexResult> results;
+		try {
+			results = new FanOut(repositoryExecutor, 0).invoke(tasks);
+		} finally {
+			updateStatus();
+			status.luceneIndexing = false;
+		}
+		IndexResult total = new IndexResult();
+		for (IndexResult result : results.getResults().values()) {
+			total.add(result);
+		}
+		if (total.commitCount > 0 || total.blobCount > 0) {
+			float secs = Math.max(0.001f, (System.currentTimeMillis() - start) / 1000f);
+			String msg = "Indexed {0} repositories with {1} commits and {2} files ({3} KB) in {4} secs, {5,number,0} files/sec";
+			logger.info(MessageFormat.format(msg, results.getResults().size(), total.commitCount,
+					total.blobCount, total.byteCount / 1024, secs, total.blobCount / secs));
+		}
+	}
+
+	/**
+	 * Resets the progress of an index run.
+	 *
+	 * @param repositories
+	 *            the number of repositories of the run
+	 */
+	private void startProgress(int repositories) {
+		indexedRepositories.set(0);
+		indexedFiles.set(0);
+		indexedBytes.set(0);
+		runStart = System.currentTimeMillis();
+		status.luceneRepositories = repositories;
+		updateStatus();
+		status.luceneIndexing = true;
+	}
+
+	/**
+	 * Counts a file indexed during an index run.
+	 *
+	 * @param bytes
+	 *            the indexed content bytes of the file
+	 */
+	private void countFile(long bytes) {
+		if (!status.luceneIndexing) {
+			return;
+		}
+		indexedFiles.incrementAndGet();
+		indexedBytes.addAndGet(bytes);
+		updateStatus();
+	}
+
+	/**
+	 * Publishes the progress of the index run in the server status.
+	 */
+	private void updateStatus() {
+		long files = indexedFiles.get();
+		long elapsed = Math.max(1, System.currentTimeMillis() - runStart);
+		status.luceneIndexedRepositories = indexedRepositories.get();
+		status.luceneFiles = files;
+		status.luceneBytes = indexedBytes.get();
+		status.luceneFilesPerSecond = files * 1000 / elapsed;
+	}
+
+	/**
+	 * Schedules an update of the index of a repository, e.g. after a push, so
+	 * that searches reflect the change without waiting for the next scheduled
+	 * run.  This is called by the thread which changed the refs, so the
+	 * repository model is only read by the queued update, which skips
+	 * repositories that do not index any branches.  Repeated requests for a
+	 * pending update are coalesced.
+	 *
+	 * @param repositoryName
+	 */
+	public void update(final String repositoryName) {
+		if (!storedSettings.getBoolean(Keys.web.allowLuceneIndexing, true)) {
+			// Lucene indexing is disabled
+			return;
+		}
+		if (!pendingUpdates.add(repositoryName)) {
+			return;
+		}
+		try {
+			repositoryExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					pendingUpdates.remove(repositoryName);
+					index(repositoryName);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			pendingUpdates.remove(repositoryName);
+		}
+	}
+
+	/**
+	 * Indexes a repository which specifies indexed branches.  Index updates
+	 * are serialized.
+	 *
+	 * @param repositoryName
+	 * @return the result or null if the repository was not indexed
+	 */
+	private IndexResult index(String repositoryName) {
+		if (closing) {
+			// skip the updates which were queued before close
+			return null;
+		}
+		RepositoryModel model = repositoryManager.getRepositoryModel(repositoryName);
+		if (model == null || !model.hasCommits || ArrayUtils.isEmpty(model.indexedBranches)) {
+			return null;
+		}
+		Object lock = indexLocks.get(model.name);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = indexLocks.putIfAbsent(model.name, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		synchronized (lock) {
+			Repository repository = repositoryManager.getRepository(model.name);
+			if (repository == null) {
+				if (repositoryManager.isCollectingGarbage(model.name)) {
+					logger.info(MessageFormat.format("Skipping Lucene index of {0}, busy garbage collecting", repositoryName));
+				}
+				return null;
+			}
+			try {
+				return index(model, repository);
+			} finally {
 				repository.close();
-				System.gc();
 			}
 		}
 	}
@@ -191,12 +451,14 @@ public class LuceneService implements Runnable {
 	 *            the name of the repository
 	 * @param repository
 	 *            the repository object
+	 * @return the result
 	 */
-	private void index(RepositoryModel model, Repository repository) {
+	private IndexResult index(RepositoryModel model, Repository repository) {
+		IndexResult result = null;
 		try {
 			if (shouldReindex(repository)) {
 				// (re)build the entire index
-				IndexResult result = reindex(model, repository);
+				result = reindex(model, repository);
 
 				if (result.success) {
 					if (result.commitCount > 0) {
@@ -210,7 +472,7 @@ public class LuceneService implements Runnable {
 				}
 			} else {
 				// update the index with latest commits
-				IndexResult result = updateIndex(model, repository);
+				result = updateIndex(model, repository);
 				if (result.success) {
 					if (result.commitCount > 0) {
 						String msg = "Updated {0} Lucene index with {1} commits and {2} files across {3} branches in {4} secs";
@@ -225,6 +487,7 @@ public class LuceneService implements Runnable {
 		} catch (Throwable t) {
 			logger.error(MessageFormat.format("Lucene indexing failure for {0}", model.name), t);
 		}
+		return result;
 	}
 
 	/**
@@ -234,9 +497,9 @@ public class LuceneService implements Runnable {
 	 */
 	public synchronized void close(String repositoryName) {
 		try {
-			IndexSearcher searcher = searchers.remove(repositoryName);
-			if (searcher != null) {
-				searcher.getIndexReader().close();
+			SearcherManager searcherManager = searchers.remove(repositoryName);
+			if (searcherManager != null) {
+				searcherManager.close();
 			}
 		} catch (Exception e) {
 			logger.error("Failed to close index searcher for " + repositoryName, e);
@@ -253,29 +516,63 @@ public class LuceneService implements Runnable {
 	}
 
 	/**
-	 * Close all Lucene indexers.
+	 * Close all Lucene indexers.  The running index updates are allowed to
+	 * finish first because interrupting an index writer during I/O fails the
+	 * writer.
 	 *
 	 */
-	public synchronized void close() {
-		// close all writers
-		for (String writer : writers.keySet()) {
-			try {
-				writers.get(writer).close();
-			} catch (Throwable t) {
-				logger.error("Failed to close Lucene writer for " + writer, t);
+	public void close() {
+		// stop the indexing pipeline, the repository updates feed the blob
+		// executor so they are awaited first
+		closing = true;
+		shutdown(repositoryExecutor);
+		shutdown(blobExecutor);
+		shutdown(searchExecutor);
+		closeAll();
+	}
+
+	/**
+	 * Shuts down an executor and waits for its running tasks.
+	 *
+	 * @param executor
+	 */
+	private void shutdown(ExecutorService executor) {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+				logger.warn(MessageFormat.format("Lucene tasks did not finish within {0} secs", CLOSE_TIMEOUT));
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		writers.clear();
+	}
 
+	/**
+	 * Closes all searchers and writers.
+	 */
+	private synchronized void closeAll() {
 		// close all searchers
 		for (String searcher : searchers.keySet()) {
 			try {
-				searchers.get(searcher).getIndexReader().close();
+				searchers.get(searcher).close();
 			} catch (Throwable t) {
 				logger.error("Failed to close Lucene searcher for " + searcher, t);
 			}
 		}
 		searchers.clear();
+
+		// close all writers
+		for (String writer : writers.keySet()) {
+			try {
+				writers.get(writer).close();
+			} catch (Throwable t) {
+				logger.error("Failed to close Lucene writer for " + writer, t);
+			}
+		}
+		writers.clear();
 	}
 
 
@@ -359,6 +656,18 @@ public class LuceneService implements Runnable {
 		return StringUtils.getSHA1(branchName);
 	}
 
+	/**
+	 * Returns the term which uniquely identifies the indexed blob of a path on
+	 * a branch so the blob can be replaced or deleted without a query.
+	 *
+	 * @param branchName
+	 * @param path
+	 * @return a term
+	 */
+	private Term getBlobTerm(String branchName, String path) {
+		return new Term(FIELD_BLOB, branchName + ':' + path);
+	}
+
 	/**
 	 * Returns the Lucene configuration for the specified repository.
 	 *
@@ -401,6 +710,8 @@ public class LuceneService implements Runnable {
 			FileBasedConfig config = getConfig(repository);
 			Set<String> indexedCommits = new TreeSet<String>();
 			IndexWriter writer = getIndexWriter(model.name);
+			ContentBudget budget = new ContentBudget(model.name, 0);
+			BlobPipeline blobs = new BlobPipeline(writer, repository, encodings, budget);
 			// build a quick lookup of tags
 			Map<String, List<String>> tags = new HashMap<String, List<String>>();
 			for (RefModel tag : JGitUtils.getTags(repository, false, -1)) {
@@ -482,9 +793,6 @@ public class LuceneService implements Runnable {
 					}
 				}
 
-				ByteArrayOutputStream os = new ByteArrayOutputStream();
-				byte[] tmp = new byte[32767];
-
 				RevWalk commitWalk = new RevWalk(reader);
 				commitWalk.markStart(tip);
 
@@ -524,6 +832,7 @@ public class LuceneService implements Runnable {
 
 						Document doc = new Document();
 						doc.add(new Field(FIELD_OBJECT_TYPE, SearchObjectType.blob.name(), StringField.TYPE_STORED));
+						doc.add(new Field(FIELD_BLOB, getBlobTerm(branchName, path).text(), StringField.TYPE_NOT_STORED));
 						doc.add(new Field(FIELD_BRANCH, branchName, TextField.TYPE_STORED));
 						doc.add(new Field(FIELD_COMMIT, commit.getName(), TextField.TYPE_STORED));
 						doc.add(new Field(FIELD_PATH, path, TextField.TYPE_STORED));
@@ -539,28 +848,15 @@ public class LuceneService implements Runnable {
 							ext = name.substring(name.lastIndexOf('.') + 1);
 						}
 
-						// index the blob content
+						// index the blob content and add the blob to the index
 						if (StringUtils.isEmpty(ext) || !excludedExtensions.contains(ext)) {
-							ObjectLoader ldr = repository.open(blobId, Constants.OBJ_BLOB);
-							InputStream in = ldr.openStream();
-							int n;
-							while ((n = in.read(tmp)) > 0) {
-								os.write(tmp, 0, n);
-							}
-							in.close();
-							byte[] content = os.toByteArray();
-							String str = StringUtils.decodeString(content, encodings);
-							doc.add(new Field(FIELD_CONTENT, str, TextField.TYPE_STORED));
-							os.reset();
+							blobs.add(doc, blobId);
+						} else {
+							blobs.add(doc, null);
 						}
-
-						// add the blob to the index
-						writer.addDocument(doc);
 					}
 				}
 
-				os.close();
-
 				// index the tip commit object
 				if (indexedCommits.add(tipId)) {
 					Document doc = createDocument(tip, tags.get(tipId));
@@ -586,12 +882,15 @@ public class LuceneService implements Runnable {
 			}
 
 			// finished
+			blobs.await();
+			result.byteCount = budget.getByteCount();
+			config.setLong(CONF_CONTENT, null, "size", budget.getByteCount());
 			reader.close();
 
-			// commit all changes and reset the searcher
-			config.save();
+			// commit all changes before recording the indexed tips
 			writer.commit();
-			resetIndexSearcher(model.name);
+			config.save();
+			refreshIndexSearcher(model.name);
 			result.success();
 		} catch (Exception e) {
 			logger.error("Exception while reindexing " + model.name, e);
@@ -608,13 +907,16 @@ public class LuceneService implements Runnable {
 	 * @param branch
 	 *            the fully qualified branch name (e.g. refs/heads/master)
 	 * @param commit
+	 * @param budget
+	 *            the content budget of the repository
 	 * @return true, if successful
 	 */
 	private IndexResult index(String repositoryName, Repository repository,
-			String branch, RevCommit commit) {
+			String branch, RevCommit commit, ContentBudget budget) {
 		IndexResult result = new IndexResult();
 		try {
 			String [] encodings = storedSettings.getStrings(Keys.web.blobEncodings).toArray(new String[0]);
+			long maxFileSize = storedSettings.getFilesize(Keys.web.luceneMaxFileSize, DEFAULT_MAX_FILE_SIZE);
 			List<PathChangeModel> changedPaths = JGitUtils.getFilesInCommit(repository, commit);
 			String revDate = DateTools.timeToString(commit.getCommitTime() * 1000L,
 					Resolution.MINUTE);
@@ -623,14 +925,19 @@ public class LuceneService implements Runnable {
 				if (path.isSubmodule()) {
 					continue;
 				}
-				// delete the indexed blob
-				deleteBlob(repositoryName, branch, path.name);
+				Term blobTerm = getBlobTerm(branch, path.path);
+				boolean indexed = false;
+				if (!path.name.equals(path.path)) {
+					// delete the indexed blob of a renamed path
+					writer.deleteDocuments(getBlobTerm(branch, path.name));
+				}
 
 				// re-index the blob
 				if (!ChangeType.DELETE.equals(path.changeType)) {
 					result.blobCount++;
 					Document doc = new Document();
 					doc.add(new Field(FIELD_OBJECT_TYPE, SearchObjectType.blob.name(), StringField.TYPE_STORED));
+					doc.add(new Field(FIELD_BLOB, blobTerm.text(), StringField.TYPE_NOT_STORED));
 					doc.add(new Field(FIELD_BRANCH, branch, TextField.TYPE_STORED));
 					doc.add(new Field(FIELD_COMMIT, commit.getName(), TextField.TYPE_STORED));
 					doc.add(new Field(FIELD_PATH, path.path, TextField.TYPE_STORED));
@@ -646,18 +953,34 @@ public class LuceneService implements Runnable {
 						ext = name.substring(name.lastIndexOf('.') + 1);
 					}
 
+					InputStream content = null;
+					long size = 0;
 					if (StringUtils.isEmpty(ext) || !excludedExtensions.contains(ext)) {
 						// read the blob content
-						String str = JGitUtils.getStringContent(repository, commit.getTree(),
-								path.path, encodings);
-						if (str != null) {
-							doc.add(new Field(FIELD_CONTENT, str, TextField.TYPE_STORED));
-							writer.addDocument(doc);
+						ObjectLoader ldr = repository.open(ObjectId.fromString(path.objectId), Constants.OBJ_BLOB);
+						if (ldr.getSize() <= maxFileSize && budget.reserve(ldr.getSize())) {
+							content = addContent(doc, ldr, encodings);
+							size = ldr.getSize();
+							result.byteCount += size;
+						}
+					}
+					try {
+						// atomically replace the indexed blob
+						writer.updateDocument(blobTerm, doc);
+						indexed = true;
+						countFile(size);
+					} finally {
+						if (content != null) {
+							content.close();
 						}
 					}
 				}
+
+				if (!indexed) {
+					// delete the indexed blob
+					writer.deleteDocuments(blobTerm);
+				}
 			}
-			writer.commit();
 
 			// get any annotated commit tags
 			List<String> commitTags = new ArrayList<String>();
@@ -688,25 +1011,25 @@ public class LuceneService implements Runnable {
 	 * @return true, if deleted, false if no record was deleted
 	 */
 	public boolean deleteBlob(String repositoryName, String branch, String path) throws Exception {
-		String pattern = MessageFormat.format("{0}:'{'0} AND {1}:\"'{'1'}'\" AND {2}:\"'{'2'}'\"", FIELD_OBJECT_TYPE, FIELD_BRANCH, FIELD_PATH);
-		String q = MessageFormat.format(pattern, SearchObjectType.blob.name(), branch, path);
-
-		StandardAnalyzer analyzer = new StandardAnalyzer();
-		QueryParser qp = new QueryParser(FIELD_SUMMARY, analyzer);
-		BooleanQuery query = new BooleanQuery.Builder().add(qp.parse(q), Occur.MUST).build();
-
-		IndexWriter writer = getIndexWriter(repositoryName);
-		int numDocsBefore = writer.numDocs();
-		writer.deleteDocuments(query);
-		writer.commit();
-		int numDocsAfter = writer.numDocs();
-		if (numDocsBefore == numDocsAfter) {
-			logger.debug(MessageFormat.format("no records found to delete {0}", query.toString()));
+		Term term = getBlobTerm(branch, path);
+		SearcherManager searcherManager = getSearcherManager(repositoryName);
+		IndexSearcher searcher = searcherManager.acquire();
+		int count;
+		try {
+			count = searcher.count(new TermQuery(term));
+		} finally {
+			searcherManager.release(searcher);
+		}
+		if (count == 0) {
+			logger.debug(MessageFormat.format("no records found to delete {0}", term));
 			return false;
-		} else {
-			logger.debug(MessageFormat.format("deleted {0} records with {1}", numDocsBefore - numDocsAfter, query.toString()));
-			return true;
 		}
+
+		IndexWriter writer = getIndexWriter(repositoryName);
+		writer.deleteDocuments(term);
+		searcherManager.maybeRefresh();
+		logger.debug(MessageFormat.format("deleted {0} records with {1}", count, term));
+		return true;
 	}
 
 	/**
@@ -722,6 +1045,10 @@ public class LuceneService implements Runnable {
 			FileBasedConfig config = getConfig(repository);
 			config.load();
 
+			// content replaced or deleted by an update is not credited, the
+			// budget is reset when the index is rebuilt
+			ContentBudget budget = new ContentBudget(model.name, config.getLong(CONF_CONTENT, null, "size", 0));
+
 			// build a quick lookup of annotated tags
 			Map<String, List<String>> tags = new HashMap<String, List<String>>();
 			for (RefModel tag : JGitUtils.getTags(repository, false, -1)) {
@@ -813,24 +1140,31 @@ public class LuceneService implements Runnable {
 				Collections.reverse(revs);
 				for (RevCommit commit : revs) {
 					// index a commit
-					result.add(index(model.name, repository, branchName, commit));
+					result.add(index(model.name, repository, branchName, commit, budget));
 				}
 
 				// update the config
 				config.setString(CONF_ALIAS, null, keyName, branchName);
 				config.setString(CONF_BRANCH, null, keyName, branch.getObjectId().getName());
-				config.save();
 			}
 
 			// the deletedBranches set will normally be empty by this point
 			// unless a branch really was deleted and no longer exists
 			if (deletedBranches.size() > 0) {
+				IndexWriter writer = getIndexWriter(model.name);
 				for (String branch : deletedBranches) {
-					IndexWriter writer = getIndexWriter(model.name);
 					writer.deleteDocuments(new Term(FIELD_BRANCH, branch));
-					writer.commit();
 				}
 			}
+
+			if (result.commitCount > 0 || deletedBranches.size() > 0) {
+				// commit all changes of this update at once and then record
+				// the indexed tips so they never run ahead of the index
+				getIndexWriter(model.name).commit();
+				config.setLong(CONF_CONTENT, null, "size", budget.getByteCount());
+				config.save();
+				refreshIndexSearcher(model.name);
+			}
 			result.success = true;
 		} catch (Throwable t) {
 			logger.error(MessageFormat.format("Exception while updating {0} Lucene index", model.name), t);
@@ -862,7 +1196,8 @@ public class LuceneService implements Runnable {
 	}
 
 	/**
-	 * Incrementally index an object for the repository.
+	 * Incrementally index an object for the repository.  The object is
+	 * committed with the rest of the index update.
 	 *
 	 * @param repositoryName
 	 * @param doc
@@ -872,8 +1207,6 @@ public class LuceneService implements Runnable {
 		try {
 			IndexWriter writer = getIndexWriter(repositoryName);
 			writer.addDocument(doc);
-			writer.commit();
-			resetIndexSearcher(repositoryName);
 			return true;
 		} catch (Exception e) {
 			logger.error(MessageFormat.format("Exception while incrementally updating {0} Lucene index", repositoryName), e);
@@ -900,28 +1233,36 @@ public class LuceneService implements Runnable {
 		return result;
 	}
 
-	private synchronized void resetIndexSearcher(String repository) throws IOException {
-		IndexSearcher searcher = searchers.remove(repository);
-		if (searcher != null) {
-			searcher.getIndexReader().close();
+	/**
+	 * Refreshes the searcher of the repository to include the uncommitted
+	 * changes of the index writer.
+	 *
+	 * @param repository
+	 * @throws IOException
+	 */
+	private void refreshIndexSearcher(String repository) throws IOException {
+		SearcherManager searcherManager = searchers.get(repository);
+		if (searcherManager != null) {
+			searcherManager.maybeRefresh();
 		}
 	}
 
 	/**
-	 * Gets an index searcher for the repository.
+	 * Gets the near-real-time searcher manager for the repository.  Searchers
+	 * must be acquired from and released to the manager.
 	 *
 	 * @param repository
-	 * @return
+	 * @return a searcher manager
 	 * @throws IOException
 	 */
-	private IndexSearcher getIndexSearcher(String repository) throws IOException {
-		IndexSearcher searcher = searchers.get(repository);
-		if (searcher == null) {
+	private synchronized SearcherManager getSearcherManager(String repository) throws IOException {
+		SearcherManager searcherManager = searchers.get(repository);
+		if (searcherManager == null) {
 			IndexWriter writer = getIndexWriter(repository);
-			searcher = new IndexSearcher(DirectoryReader.open(writer, true));
-			searchers.put(repository, searcher);
+			searcherManager = new SearcherManager(writer, true, new SearcherFactory());
+			searchers.put(repository, searcherManager);
 		}
-		return searcher;
+		return searcherManager;
 	}
 
 	/**
@@ -932,7 +1273,7 @@ public class LuceneService implements Runnable {
 	 * @return an IndexWriter
 	 * @throws IOException
 	 */
-	private IndexWriter getIndexWriter(String repository) throws IOException {
+	private synchronized IndexWriter getIndexWriter(String repository) throws IOException {
 		IndexWriter indexWriter = writers.get(repository);
 		if (indexWriter == null) {
 			File repositoryFolder = FileKey.resolve(new File(repositoriesFolder, repository), FS.DETECTED);
@@ -992,8 +1333,10 @@ public class LuceneService implements Runnable {
 		if (ArrayUtils.isEmpty(repositories)) {
 			return null;
 		}
-		Set<SearchResult> results = new LinkedHashSet<SearchResult>();
+		List<SearchResult> results = new ArrayList<SearchResult>();
 		StandardAnalyzer analyzer = new StandardAnalyzer();
+		SearcherManager [] managers = new SearcherManager[repositories.length];
+		final IndexSearcher [] shards = new IndexSearcher[repositories.length];
 		try {
 			// default search checks summary and content
 			BooleanQuery.Builder bldr = new BooleanQuery.Builder();
@@ -1006,52 +1349,91 @@ public class LuceneService implements Runnable {
 			qp.setAllowLeadingWildcard(true);
 			bldr.add(qp.parse(text), Occur.SHOULD);
 
-			IndexSearcher searcher;
-			if (repositories.length == 1) {
-				// single repository search
-				searcher = getIndexSearcher(repositories[0]);
-			} else {
-				// multiple repository search
-				List<IndexReader> readers = new ArrayList<IndexReader>();
-				for (String repository : repositories) {
-					IndexSearcher repositoryIndex = getIndexSearcher(repository);
-					readers.add(repositoryIndex.getIndexReader());
-				}
-				IndexReader[] rdrs = readers.toArray(new IndexReader[readers.size()]);
-				MultiSourceReader reader = new MultiSourceReader(rdrs);
-				searcher = new IndexSearcher(reader);
+			// each repository index is a shard, acquire a consistent searcher of each shard
+			StringBuilder key = new StringBuilder();
+			key.append(text).append('\n').append(page).append('\n').append(pageSize);
+			for (int i = 0; i < repositories.length; i++) {
+				managers[i] = getSearcherManager(repositories[i]);
+				shards[i] = managers[i].acquire();
+				key.append('\n').append(repositories[i]).append(':')
+						.append(((DirectoryReader) shards[i].getIndexReader()).getVersion());
 			}
 
-			BooleanQuery query = bldr.build();
-			Query rewrittenQuery = searcher.rewrite(query);
-			logger.debug(rewrittenQuery.toString());
+			// results are cached by the generations of the shards so any
+			// change of a searched index invalidates them
+			String cacheKey = key.toString();
+			List<SearchResult> cached;
+			synchronized (resultCache) {
+				cached = resultCache.get(cacheKey);
+			}
+			if (cached != null) {
+				// callers may modify their results
+				return DeepCopier.copy(cached);
+			}
 
-			TopScoreDocCollector collector = TopScoreDocCollector.create(5000);
-			searcher.search(rewrittenQuery, collector);
-			int offset = Math.max(0, (page - 1) * pageSize);
-			ScoreDoc[] hits = collector.topDocs(offset, pageSize).scoreDocs;
-			int totalHits = collector.getTotalHits();
-			for (int i = 0; i < hits.length; i++) {
-				int docId = hits[i].doc;
-				Document doc = searcher.doc(docId);
-				SearchResult result = createSearchResult(doc, hits[i].score, offset + i + 1, totalHits);
-				if (repositories.length == 1) {
-					// single repository search
-					result.repository = repositories[0];
-				} else {
-					// multi-repository search
-					MultiSourceReader reader = (MultiSourceReader) searcher.getIndexReader();
-					int index = reader.getSourceIndex(docId);
-					result.repository = repositories[index];
+			final BooleanQuery query = bldr.build();
+			logger.debug(query.toString());
+
+			// each shard contributes at most the hits up to the requested page
+			final int topN = Math.min(MAX_HITS, Math.max(1, page) * pageSize);
+			Map<String, Callable<TopDocs>> tasks = new LinkedHashMap<String, Callable<TopDocs>>();
+			for (int i = 0; i < shards.length; i++) {
+				final IndexSearcher shard = shards[i];
+				tasks.put(String.valueOf(i), new Callable<TopDocs>() {
+					@Override
+					public TopDocs call() throws IOException {
+						return shard.search(query, topN);
+					}
+				});
+			}
+			FanOut.Result<TopDocs> shardResults = new FanOut(searchExecutor, 0).invoke(tasks);
+			TopDocs [] shardHits = new TopDocs[shards.length];
+			for (int i = 0; i < shards.length; i++) {
+				shardHits[i] = shardResults.getResults().get(String.valueOf(i));
+				if (shardHits[i] == null) {
+					// failed shard
+					shardHits[i] = new TopDocs(0, new ScoreDoc[0], Float.NaN);
 				}
+			}
+			TopDocs merged = TopDocs.merge(topN, shardHits);
+
+			int offset = Math.max(0, (page - 1) * pageSize);
+			ScoreDoc[] hits = merged.scoreDocs;
+			int totalHits = merged.totalHits;
+			for (int i = offset; i < hits.length && i < offset + pageSize; i++) {
+				ScoreDoc hit = hits[i];
+				IndexSearcher shard = shards[hit.shardIndex];
+				Document doc = shard.doc(hit.doc);
+				SearchResult result = createSearchResult(doc, hit.score, i + 1, totalHits);
+				result.repository = repositories[hit.shardIndex];
+				// only the hits of the requested page are highlighted
 				String content = doc.get(FIELD_CONTENT);
+				if (content == null && SearchObjectType.blob == result.type) {
+					// content is not stored, load it from the repository
+					content = getBlobContent(result);
+				}
 				result.fragment = getHighlightedFragment(analyzer, query, content, result);
 				results.add(result);
 			}
+
+			cached = DeepCopier.copy(results);
+			synchronized (resultCache) {
+				resultCache.put(cacheKey, cached);
+			}
 		} catch (Exception e) {
 			logger.error(MessageFormat.format("Exception while searching for {0}", text), e);
+		} finally {
+			for (int i = 0; i < shards.length; i++) {
+				if (shards[i] != null) {
+					try {
+						managers[i].release(shards[i]);
+					} catch (IOException e) {
+						logger.error("Failed to release Lucene searcher for " + repositories[i], e);
+					}
+				}
+			}
 		}
-		return new ArrayList<SearchResult>(results);
+		return results;
 	}
 
 	/**
@@ -1083,7 +1465,7 @@ public class LuceneService implements Runnable {
 		Highlighter highlighter = new Highlighter(formatter, scorer);
 		highlighter.setTextFragmenter(fragmenter);
 
-		String [] fragments = highlighter.getBestFragments(analyzer, "content", content, 3);
+		String [] fragments = highlighter.getBestFragments(analyzer, FIELD_CONTENT, content, 3);
 		if (ArrayUtils.isEmpty(fragments)) {
 			if (SearchObjectType.blob  == result.type) {
 				return "";
@@ -1156,6 +1538,250 @@ public class LuceneService implements Runnable {
 		return sb.toString();
 	}
 
+	/**
+	 * Adds the content of a blob to a Lucene document.  Binary content is
+	 * not indexed.  If content is not stored the blob is streamed into the
+	 * index and the returned stream must be closed after the document has
+	 * been added.
+	 *
+	 * @param doc
+	 * @param loader
+	 * @param encodings
+	 * @return the open content stream or null
+	 * @throws IOException
+	 */
+	private InputStream addContent(Document doc, ObjectLoader loader, String [] encodings) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(loader.openStream(), SNIFF_LENGTH);
+		boolean streaming = false;
+		try {
+			in.mark(SNIFF_LENGTH);
+			byte [] prefix = new byte[(int) Math.min(SNIFF_LENGTH, loader.getSize())];
+			int length = 0;
+			int n;
+			while (length < prefix.length && (n = in.read(prefix, length, prefix.length - length)) > 0) {
+				length += n;
+			}
+			in.reset();
+			if (isBinary(prefix, length)) {
+				return null;
+			}
+
+			if (storedSettings.getBoolean(Keys.web.luceneStoreContent, true)) {
+				ByteArrayOutputStream os = new ByteArrayOutputStream((int) Math.min(loader.getSize(), Integer.MAX_VALUE - 8));
+				byte[] tmp = new byte[32767];
+				while ((n = in.read(tmp)) > 0) {
+					os.write(tmp, 0, n);
+				}
+				String str = StringUtils.decodeString(os.toByteArray(), encodings);
+				doc.add(new Field(FIELD_CONTENT, str, TextField.TYPE_STORED));
+				return null;
+			}
+
+			// stream the content into the index without storing it
+			Charset charset = StringUtils.getCharset(prefix, length, encodings);
+			if (length >= 3 && (prefix[0] & 0xff) == 0xef && (prefix[1] & 0xff) == 0xbb && (prefix[2] & 0xff) == 0xbf) {
+				// skip UTF-8 BOM
+				in.skip(3);
+			}
+			doc.add(new Field(FIELD_CONTENT, new InputStreamReader(in, charset), TextField.TYPE_NOT_STORED));
+			streaming = true;
+			return in;
+		} finally {
+			if (!streaming) {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Determines if the leading bytes of a blob are binary content.  Content
+	 * with NUL bytes is binary, like Git does, as is content which Tika
+	 * identifies as a binary media type.
+	 *
+	 * @param prefix
+	 * @param length
+	 * @return true if the content is binary
+	 */
+	private boolean isBinary(byte [] prefix, int length) {
+		if (RawText.isBinary(prefix, length)) {
+			return true;
+		}
+		String type = TIKA.detect(length == prefix.length ? prefix : Arrays.copyOf(prefix, length));
+		if (type == null) {
+			return false;
+		}
+		return (type.startsWith("image/") && !type.contains("svg"))
+				|| type.startsWith("audio/")
+				|| type.startsWith("video/")
+				|| BINARY_TYPES.contains(type);
+	}
+
+	/**
+	 * Loads the content of an indexed blob whose content is not stored.
+	 *
+	 * @param result
+	 * @return the content or null
+	 */
+	private String getBlobContent(SearchResult result) {
+		Repository repository = repositoryManager.getRepository(result.repository);
+		if (repository == null) {
+			return null;
+		}
+		try {
+			RevCommit commit = JGitUtils.getCommit(repository, result.commitId);
+			if (commit == null) {
+				return null;
+			}
+			String [] encodings = storedSettings.getStrings(Keys.web.blobEncodings).toArray(new String[0]);
+			return JGitUtils.getStringContent(repository, commit.getTree(), result.path, encodings);
+		} finally {
+			repository.close();
+		}
+	}
+
+	/**
+	 * Loads, decodes, and indexes the blobs of a repository on the blob
+	 * executor while the calling thread walks the history of the repository.
+	 * The number of blobs in flight is bounded so that a large repository can
+	 * not exhaust the heap.
+	 */
+	private class BlobPipeline {
+
+		final IndexWriter writer;
+		final Repository repository;
+		final String [] encodings;
+		final long maxFileSize;
+		final ContentBudget budget;
+		final int capacity;
+		final Semaphore inFlight;
+		volatile Throwable failure;
+
+		BlobPipeline(IndexWriter writer, Repository repository, String [] encodings, ContentBudget budget) {
+			this.writer = writer;
+			this.repository = repository;
+			this.encodings = encodings;
+			this.maxFileSize = storedSettings.getFilesize(Keys.web.luceneMaxFileSize, DEFAULT_MAX_FILE_SIZE);
+			this.budget = budget;
+			this.capacity = Math.max(1, blobThreads) * 4;
+			this.inFlight = new Semaphore(capacity);
+		}
+
+		/**
+		 * Adds a blob document to the index.
+		 *
+		 * @param doc
+		 * @param blobId
+		 *            the blob to index as content, may be null
+		 * @throws IOException
+		 */
+		void add(final Document doc, final ObjectId blobId) throws IOException {
+			checkFailure();
+			if (blobExecutor == null) {
+				index(doc, blobId);
+				return;
+			}
+			inFlight.acquireUninterruptibly();
+			try {
+				blobExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							index(doc, blobId);
+						} catch (Throwable t) {
+							failure = t;
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// executor is shutting down
+				inFlight.release();
+				index(doc, blobId);
+			}
+		}
+
+		private void index(Document doc, ObjectId blobId) throws IOException {
+			InputStream content = null;
+			long size = 0;
+			if (blobId != null) {
+				ObjectLoader ldr = repository.open(blobId, Constants.OBJ_BLOB);
+				if (ldr.getSize() <= maxFileSize && budget.reserve(ldr.getSize())) {
+					content = addContent(doc, ldr, encodings);
+					size = ldr.getSize();
+				}
+			}
+			try {
+				writer.addDocument(doc);
+				countFile(size);
+			} finally {
+				if (content != null) {
+					content.close();
+				}
+			}
+		}
+
+		/**
+		 * Waits for all blobs in flight to be indexed.
+		 *
+		 * @throws IOException if a blob could not be indexed
+		 */
+		void await() throws IOException {
+			inFlight.acquireUninterruptibly(capacity);
+			inFlight.release(capacity);
+			checkFailure();
+		}
+
+		private void checkFailure() throws IOException {
+			if (failure != null) {
+				throw new IOException("failed to index blob", failure);
+			}
+		}
+	}
+
+	/**
+	 * The total size of the file contents which may be indexed for a
+	 * repository, web.luceneMaxRepositorySize.  The indexed size is recorded
+	 * in the index config so incremental updates continue from it.
+	 */
+	private class ContentBudget {
+
+		final String repositoryName;
+		final long maxRepositorySize;
+		final AtomicLong byteCount;
+		final AtomicBoolean capped = new AtomicBoolean();
+
+		ContentBudget(String repositoryName, long byteCount) {
+			this.repositoryName = repositoryName;
+			this.maxRepositorySize = storedSettings.getFilesize(Keys.web.luceneMaxRepositorySize, 0L);
+			this.byteCount = new AtomicLong(byteCount);
+		}
+
+		/**
+		 * Reserves the size of a blob from the content budget of the
+		 * repository.
+		 *
+		 * @param size
+		 * @return true if the content of the blob may be indexed
+		 */
+		boolean reserve(long size) {
+			long total = byteCount.addAndGet(size);
+			if (maxRepositorySize > 0 && total > maxRepositorySize) {
+				byteCount.addAndGet(-size);
+				if (capped.compareAndSet(false, true)) {
+					logger.warn(MessageFormat.format("Lucene content of {0} exceeds {1} bytes, indexing only the metadata of the remaining files",
+							repositoryName, maxRepositorySize));
+				}
+				return false;
+			}
+			return true;
+		}
+
+		long getByteCount() {
+			return byteCount.get();
+		}
+	}
+
 	/**
 	 * Simple class to track the results of an index update.
 	 */
@@ -1166,11 +1792,13 @@ public class LuceneService implements Runnable {
 		int branchCount;
 		int commitCount;
 		int blobCount;
+		long byteCount;
 
 		void add(IndexResult result) {
 			this.branchCount += result.branchCount;
 			this.commitCount += result.commitCount;
 			this.blobCount += result.blobCount;
+			this.byteCount += result.byteCount;
 		}
 
 		void success() {
@@ -1182,27 +1810,4 @@ public class LuceneService implements Runnable {
 			return (endTime - startTime)/1000f;
 		}
 	}
-
-	/**
-	 * Custom subclass of MultiReader to identify the source index for a given
-	 * doc id.  This would not be necessary of there was a public method to
-	 * obtain this information.
-	 *
-	 */
-	private class MultiSourceReader extends MultiReader {
-
-		MultiSourceReader(IndexReader [] readers) throws IOException {
-			super(readers, false);
-		}
-
-		int getSourceIndex(int docId) {
-			int index = -1;
-			try {
-				index = super.readerIndex(docId);
-			} catch (Exception e) {
-				logger.error("Error getting source index", e);
-			}
-			return index;
-		}
-	}
 }
@@ -25,13 +25,17 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -43,6 +47,9 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -88,6 +95,13 @@ public class BranchGraphServlet extends HttpServlet {
 
 	private IRepositoryManager repositoryManager;
 
+	// least recently used graphs keyed by repository folder and etag
+	private final Map<String, Graph> cache = new LinkedHashMap<String, Graph>(16, 0.75f, true);
+
+	private long cacheWeight;
+
+	private ListenerHandle refsChangedHandle;
+
 	@Inject
 	public BranchGraphServlet(
 			IStoredSettings settings,
@@ -121,40 +135,36 @@ public class BranchGraphServlet extends HttpServlet {
 	}
 
 	@Override
-	protected long getLastModified(HttpServletRequest req) {
-		String repository = req.getParameter("r");
-		if (StringUtils.isEmpty(repository)) {
-			return 0;
-		}
-		String objectId = req.getParameter("h");
-		Repository r = null;
-		try {
-			r = repositoryManager.getRepository(repository);
-			if (StringUtils.isEmpty(objectId)) {
-				objectId = JGitUtils.getHEADRef(r);
-			}
-			ObjectId id = r.resolve(objectId);
-			if (id == null) {
-				return 0;
-			}
-			RevCommit commit = JGitUtils.getCommit(r, objectId);
-			return JGitUtils.getCommitDate(commit).getTime();
-		} catch (Exception e) {
-			log.error("Failed to determine last modified", e);
-			return 0;
-		} finally {
-			if (r != null) {
-				r.close();
+	public void init() throws ServletException {
+		super.init();
+		// discard the graphs of repositories whose refs change
+		refsChangedHandle = Repository.getGlobalListenerList().addRefsChangedListener(new RefsChangedListener() {
+			@Override
+			public void onRefsChanged(RefsChangedEvent event) {
+				File gitDir = event.getRepository().getDirectory();
+				if (gitDir != null) {
+					invalidate(gitDir.getAbsolutePath() + '\n');
+				}
 			}
+		});
+	}
+
+	@Override
+	public void destroy() {
+		if (refsChangedHandle != null) {
+			refsChangedHandle.remove();
+		}
+		synchronized (cache) {
+			cache.clear();
+			cacheWeight = 0;
 		}
+		super.destroy();
 	}
 
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
-		InputStream is = null;
 		Repository r = null;
-		PlotWalk rw = null;
 		try {
 			String repository = request.getParameter("r");
 			if (StringUtils.isEmpty(repository)) {
@@ -172,7 +182,6 @@ public class BranchGraphServlet extends HttpServlet {
 				return;
 			}
 
-			rw = new PlotWalk(r);
 			if (StringUtils.isEmpty(objectId)) {
 				objectId = JGitUtils.getHEADRef(r);
 			}
@@ -183,7 +192,6 @@ public class BranchGraphServlet extends HttpServlet {
 				response.getWriter().append("Bad request");
 				return;
 			}
-			rw.markStart(rw.lookupCommit(id));
 
 			// default to the items-per-page setting, unless specified
 			int maxCommits = settings.getInteger(Keys.web.itemsPerPage, 50);
@@ -197,9 +205,56 @@ public class BranchGraphServlet extends HttpServlet {
 
 			// fetch the requested commits plus some extra so that the last
 			// commit displayed *likely* has correct lane assignments
+			int fillCommits = 2*Math.max(requestedCommits, maxCommits);
+
+			// the graph of a commit never changes
+			String etag = "\"" + id.getName() + "-" + requestedCommits + "-" + fillCommits + "\"";
+			String ifNoneMatch = request.getHeader("If-None-Match");
+			if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				response.setHeader("ETag", etag);
+				return;
+			}
+
+			String key = r.getDirectory().getAbsolutePath() + '\n' + etag;
+			Graph graph = getCachedGraph(key);
+			if (graph == null) {
+				graph = render(r, id, requestedCommits, fillCommits);
+				putCachedGraph(key, graph);
+			}
+
+			// write the image to the client
+			response.setContentType("image/png");
+			response.setHeader("ETag", etag);
+			if (graph.numCommits > 1) {
+				response.setHeader("Cache-Control", "public, max-age=60, must-revalidate");
+				response.setDateHeader("Last-Modified", graph.lastModified);
+			}
+			response.setContentLength(graph.png.length);
+			OutputStream os = response.getOutputStream();
+			os.write(graph.png);
+			os.flush();
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (r != null) {
+				r.close();
+				r = null;
+			}
+		}
+	}
+
+	/**
+	 * Renders the lanes of the commits as a PNG image.
+	 */
+	private Graph render(Repository r, ObjectId id, int requestedCommits, int fillCommits) throws IOException {
+		PlotWalk rw = new PlotWalk(r);
+		try {
+			rw.markStart(rw.lookupCommit(id));
+
 			CommitList commitList = new CommitList();
 			commitList.source(rw);
-			commitList.fillTo(2*Math.max(requestedCommits, maxCommits));
+			commitList.fillTo(fillCommits);
 
 			// determine the appropriate width for the image
 			int numLanes = 1;
@@ -261,35 +316,75 @@ public class BranchGraphServlet extends HttpServlet {
 				}
 			}
 
-			// write the image buffer to the client
-			response.setContentType("image/png");
-			if (numCommits > 1) {
-				response.setHeader("Cache-Control", "public, max-age=60, must-revalidate");
-				response.setDateHeader("Last-Modified", JGitUtils.getCommitDate(commitList.get(0)).getTime());
-			}
-			OutputStream os = response.getOutputStream();
+			// encode the image buffer
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
 			ImageIO.write(image, "png", os);
-			os.flush();
 			image.flush();
-			image = null;
-		} catch (Exception e) {
-			e.printStackTrace();
+			long lastModified = commitList.size() == 0 ? 0 : JGitUtils.getCommitDate(commitList.get(0)).getTime();
+			return new Graph(os.toByteArray(), numCommits, lastModified);
 		} finally {
-			if (is != null) {
-				is.close();
-				is = null;
+			rw.dispose();
+		}
+	}
+
+	private Graph getCachedGraph(String key) {
+		synchronized (cache) {
+			return cache.get(key);
+		}
+	}
+
+	private void putCachedGraph(String key, Graph graph) {
+		long maxWeight = settings.getFilesize(Keys.web.branchGraphCacheSize, 0L);
+		if (graph.png.length > maxWeight) {
+			return;
+		}
+		synchronized (cache) {
+			Graph previous = cache.put(key, graph);
+			if (previous != null) {
+				cacheWeight -= previous.png.length;
 			}
-			if (rw != null) {
-				rw.dispose();
-				rw = null;
+			cacheWeight += graph.png.length;
+
+			// evict the least recently used graphs
+			Iterator<Graph> iterator = cache.values().iterator();
+			while (cacheWeight > maxWeight && iterator.hasNext()) {
+				cacheWeight -= iterator.next().png.length;
+				iterator.remove();
 			}
-			if (r != null) {
-				r.close();
-				r = null;
+		}
+	}
+
+	private void invalidate(String prefix) {
+		synchronized (cache) {
+			Iterator<Map.Entry<String, Graph>> iterator = cache.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Graph> entry = iterator.next();
+				if (entry.getKey().startsWith(prefix)) {
+					cacheWeight -= entry.getValue().png.length;
+					iterator.remove();
+				}
 			}
 		}
 	}
 
+	/**
+	 * An encoded branch graph.
+	 */
+	private static class Graph {
+
+		final byte [] png;
+
+		final int numCommits;
+
+		final long lastModified;
+
+		Graph(byte [] png, int numCommits, long lastModified) {
+			this.png = png;
+			this.numCommits = numCommits;
+			this.lastModified = lastModified;
+		}
+	}
+
 	private Stroke stroke(final int width) {
 		if (width < strokeCache.length)
 			return strokeCache[width];
@@ -15,7 +15,11 @@
  */
 package com.gitblit.servlet;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.util.Date;
@@ -25,8 +29,10 @@ import com.google.inject.Singleton;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.slf4j.Logger;
@@ -37,6 +43,10 @@ import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.manager.IFilestoreManager;
 import com.gitblit.manager.IRepositoryManager;
+import com.gitblit.manager.IRuntimeManager;
+import com.gitblit.utils.ArchiveCache;
+import com.gitblit.utils.ArchiveCache.Archive;
+import com.gitblit.utils.ArchiveCache.ArchiveWriter;
 import com.gitblit.utils.CompressionUtils;
 import com.gitblit.utils.JGitUtils;
 import com.gitblit.utils.MarkdownUtils;
@@ -46,6 +56,11 @@ import com.gitblit.utils.StringUtils;
  * Streams out a zip file from the specified repository for any tree path at any
  * revision.
  *
+ * Archives are cached on disk keyed by the resolved commit so repeated
+ * downloads of a release are served from a file.  Cached archives have a strong
+ * ETag which allows revalidation and resuming an interrupted download with a
+ * byte range request.
+ *
  * @author James Moger
  *
  */
@@ -62,6 +77,8 @@ public class DownloadZipServlet extends HttpServlet {
 	
 	private IFilestoreManager filestoreManager;
 
+	private ArchiveCache archiveCache;
+
 	public static enum Format {
 		zip(".zip"), tar(".tar"), gz(".tar.gz"), xz(".tar.xz"), bzip2(".tar.bzip2");
 
@@ -82,10 +99,17 @@ public class DownloadZipServlet extends HttpServlet {
 	}
 
 	@Inject
-	public DownloadZipServlet(IStoredSettings settings, IRepositoryManager repositoryManager, IFilestoreManager filestoreManager) {
+	public DownloadZipServlet(IStoredSettings settings, IRuntimeManager runtimeManager,
+			IRepositoryManager repositoryManager, IFilestoreManager filestoreManager) {
 		this.settings = settings;
 		this.repositoryManager = repositoryManager;
 		this.filestoreManager = filestoreManager;
+
+		long cacheSize = settings.getFilesize(Keys.web.archiveCacheSize, 0L);
+		if (cacheSize > 0) {
+			File folder = runtimeManager.getFileOrFolder(Keys.web.archiveCacheFolder, "${baseFolder}/archives");
+			this.archiveCache = new ArchiveCache(folder, cacheSize);
+		}
 	}
 
 	/**
@@ -174,24 +198,45 @@ public class DownloadZipServlet extends HttpServlet {
 			response.setHeader("Pragma", "no-cache");
 			response.setDateHeader("Expires", 0);
 
-			
 			try {
-				switch (format) {
-				case zip:
-					CompressionUtils.zip(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
-				case tar:
-					CompressionUtils.tar(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
-				case gz:
-					CompressionUtils.gz(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
-				case xz:
-					CompressionUtils.xz(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
-				case bzip2:
-					CompressionUtils.bzip2(r, filestoreManager, basePath, objectId, response.getOutputStream());
-					break;
+				if (archiveCache == null) {
+					write(format, r, basePath, objectId, response.getOutputStream());
+				} else {
+					// archive entries carry the commit id and date so the commit
+					// identifies the content, not the tree
+					String commitId = commit.getName();
+					String key = repository.toLowerCase() + '\n' + commitId + '\n'
+							+ (basePath == null ? "" : basePath) + '\n' + format.name();
+					String etag = "\"" + ArchiveCache.getId(key) + "\"";
+					response.setHeader("ETag", etag);
+					response.setHeader("Accept-Ranges", "bytes");
+					if (etag.equals(request.getHeader("If-None-Match"))) {
+						response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+						r.close();
+						return;
+					}
+
+					final Format archiveFormat = format;
+					final Repository archiveRepository = r;
+					final String archivePath = basePath;
+					final String archiveId = commitId;
+					Archive archive = archiveCache.open(key, new ArchiveWriter() {
+						@Override
+						public void write(OutputStream os) throws IOException {
+							DownloadZipServlet.this.write(archiveFormat, archiveRepository, archivePath, archiveId, os);
+						}
+					});
+					if (archive == null) {
+						// too large to cache, stream the archive
+						response.setHeader("Accept-Ranges", "none");
+						write(format, r, basePath, commitId, response.getOutputStream());
+					} else {
+						try {
+							send(request, response, archive.getFile(), etag);
+						} finally {
+							archive.close();
+						}
+					}
 				}
 
 				response.flushBuffer();
@@ -213,6 +258,126 @@ public class DownloadZipServlet extends HttpServlet {
 		}
 	}
 
+	/**
+	 * Writes the archive of the repository in the requested format.
+	 *
+	 * @param format
+	 * @param r
+	 * @param basePath
+	 * @param objectId
+	 * @param os
+	 * @throws IOException if the archive could not be written
+	 */
+	private void write(Format format, Repository r, String basePath, String objectId, OutputStream os)
+			throws IOException {
+		boolean success = false;
+		switch (format) {
+		case zip:
+			success = CompressionUtils.zip(r, filestoreManager, basePath, objectId, os);
+			break;
+		case tar:
+			success = CompressionUtils.tar(r, filestoreManager, basePath, objectId, os);
+			break;
+		case gz:
+			success = CompressionUtils.gz(r, filestoreManager, basePath, objectId, os);
+			break;
+		case xz:
+			success = CompressionUtils.xz(r, filestoreManager, basePath, objectId, os);
+			break;
+		case bzip2:
+			success = CompressionUtils.bzip2(r, filestoreManager, basePath, objectId, os);
+			break;
+		}
+		if (!success) {
+			throw new IOException(MessageFormat.format("failed to archive {0} of {1}", objectId, r.getDirectory()));
+		}
+	}
+
+	/**
+	 * Sends a cached archive, or the requested byte range of it, to the client.
+	 *
+	 * @param request
+	 * @param response
+	 * @param file
+	 * @param etag
+	 * @throws IOException
+	 */
+	private void send(HttpServletRequest request, HttpServletResponse response, File file, String etag)
+			throws IOException {
+		FileInputStream is = new FileInputStream(file);
+		try {
+			FileChannel channel = is.getChannel();
+			long length = channel.size();
+			long start = 0;
+			long end = length - 1;
+
+			String range = request.getHeader("Range");
+			String ifRange = request.getHeader("If-Range");
+			if (range != null && range.startsWith("bytes=") && range.indexOf(',') == -1
+					&& (ifRange == null || ifRange.equals(etag))) {
+				long [] bounds = parseRange(range.substring("bytes=".length()).trim(), length);
+				if (bounds == null) {
+					response.setHeader("Content-Range", "bytes */" + length);
+					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+					return;
+				}
+				start = bounds[0];
+				end = bounds[1];
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+			}
+
+			long count = end - start + 1;
+			response.setHeader("Content-Length", String.valueOf(count));
+			// the servlet output stream is not a file or socket channel, so
+			// the range is copied through a buffer
+			channel.position(start);
+			IOUtils.copyLarge(is, response.getOutputStream(), 0, count);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Parses a single byte range specification.
+	 *
+	 * @param spec
+	 *            first-last, first-, or -suffix
+	 * @param length
+	 *            the length of the content
+	 * @return the first and last byte of the range or null if the range is
+	 *         not satisfiable
+	 */
+	static long [] parseRange(String spec, long length) {
+		int dash = spec.indexOf('-');
+		if (dash == -1) {
+			return null;
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			long start;
+			long end;
+			if (first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0) {
+					return null;
+				}
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+			}
+			if (start < 0 || start >= length || end < start) {
+				return null;
+			}
+			return new long [] { start, end };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
 	private void error(HttpServletResponse response, String mkd) throws ServletException,
 			IOException, ParseException {
 		String content = MarkdownUtils.transformMarkdown(mkd);
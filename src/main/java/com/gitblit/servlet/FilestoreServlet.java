@@ -69,6 +69,13 @@ public class FilestoreServlet extends HttpServlet {
 	public static final int REGEX_GROUP_REPOSITORY = 3;
 	public static final int REGEX_GROUP_ENDPOINT = 4;
 	
+	public static final String REGEX_CONTENT_RANGE = "^bytes (?:\\*|(\\d+)-\\d+)/(?:\\*|\\d+)$";
+
+	//Reports the received bytes of an interrupted upload
+	public static final int SC_RESUME_INCOMPLETE = 308;
+
+	public static final int SC_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
 	protected final Logger logger;
 	
 	private static IGitblit gitblit;
@@ -143,6 +150,10 @@ public class FilestoreServlet extends HttpServlet {
 	/**
 	 * Handles the actual upload (BLOB)
 	 * 
+	 * An interrupted upload may be resumed with a Content-Range header.  A
+	 * request without a body whose Content-Range has no first byte is answered
+	 * with 308 and the Range of the bytes received so far.
+	 *
 	 * @param request
 	 * @param response
 	 * @throws javax.servlet.ServletException
@@ -167,10 +178,37 @@ public class FilestoreServlet extends HttpServlet {
 		
 		UserModel user = getUserOrAnonymous(request);
 		long size = FilestoreManager.UNDEFINED_SIZE;
+		long offset = 0;
+
+		String range = request.getHeader("Content-Range");
+		if (range != null) {
+			Matcher m = Pattern.compile(REGEX_CONTENT_RANGE).matcher(range.trim());
+			if (!m.matches()) {
+				sendError(response, HttpServletResponse.SC_BAD_REQUEST);
+				return;
+			}
+
+			long first;
+			try {
+				first = m.group(1) == null ? -1 : Long.parseLong(m.group(1));
+			} catch (NumberFormatException e) {
+				//The first byte is beyond any upload
+				first = Long.MAX_VALUE;
+			}
+
+			long received = gitblit.getUploadOffset(info.oid, user, info.repository);
+			if (first < 0 || first > received) {
+				//Report the bytes received so far
+				response.setStatus(first < 0 ? SC_RESUME_INCOMPLETE : SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				if (received > 0) {
+					response.setHeader("Range", "bytes=0-" + (received - 1));
+				}
+				return;
+			}
+			offset = first;
+		}
 		
-		
-		
-		FilestoreModel.Status status = gitblit.uploadBlob(info.oid, size, user, info.repository, request.getInputStream());
+		FilestoreModel.Status status = gitblit.uploadBlob(info.oid, size, user, info.repository, request.getInputStream(), offset);
 		IGitLFS.Response responseObject = getResponseForUpload(info.baseUrl, info.oid, size, user.getName(), info.repository.name, status);
 		
 		logger.info(MessageFormat.format("FILESTORE-AUDIT {0}:{4} {1} {2}@{3}", 
@@ -16,34 +16,70 @@
 package com.gitblit.servlet;
 
 import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
+import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.http.server.GitFilter;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.gitblit.IStoredSettings;
+import com.gitblit.Keys;
+import com.gitblit.git.AdmissionController;
+import com.gitblit.git.AdmissionController.Admission;
+import com.gitblit.git.AdmissionController.AdmissionException;
 import com.gitblit.git.GitblitReceivePackFactory;
 import com.gitblit.git.GitblitUploadPackFactory;
 import com.gitblit.git.RepositoryResolver;
+import com.gitblit.git.UploadPackCache;
 import com.gitblit.manager.IGitblit;
+import com.gitblit.utils.ArchiveCache.Archive;
+import com.gitblit.utils.ArchiveCache.ArchiveWriter;
 
 /**
  * The GitServlet provides http/https access to Git repositories.
  * Access to this servlet is protected by the GitFilter.
  *
+ * If the upload pack cache is enabled, the responses to clones are written to
+ * the cache and identical clones of the same ref tips are served the cached
+ * response.
+ *
  * @author James Moger
  *
  */
@@ -52,14 +88,42 @@ public class GitServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final String UPLOAD_PACK = "/git-upload-pack";
+
+	private static final String UPLOAD_PACK_RESULT_TYPE = "application/x-git-upload-pack-result";
+
+	private static final int MAX_CACHED_REQUEST = 256 * 1024;
+
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+
+	private static final String ADMITTED = "gitblitAdmitted";
+
+	private transient Logger logger = LoggerFactory.getLogger(GitServlet.class);
+
 	private final GitFilter gitFilter;
 
+	private final RepositoryResolver<HttpServletRequest> repositoryResolver;
+
+	private final UploadPackCache uploadPackCache;
+
 	@Inject
 	public GitServlet(IGitblit gitblit) {
+		repositoryResolver = new RepositoryResolver<HttpServletRequest>(gitblit);
 		gitFilter = new GitFilter();
-		gitFilter.setRepositoryResolver(new RepositoryResolver<HttpServletRequest>(gitblit));
+		gitFilter.setRepositoryResolver(repositoryResolver);
 		gitFilter.setUploadPackFactory(new GitblitUploadPackFactory<HttpServletRequest>(gitblit));
 		gitFilter.setReceivePackFactory(new GitblitReceivePackFactory<HttpServletRequest>(gitblit));
+		gitFilter.addUploadPackFilter(new AdmissionFilter(AdmissionController.UPLOAD_WEIGHT));
+		gitFilter.addReceivePackFilter(new AdmissionFilter(AdmissionController.RECEIVE_WEIGHT));
+
+		IStoredSettings settings = gitblit.getSettings();
+		long cacheSize = settings.getFilesize(Keys.git.uploadPackCacheSize, 0L);
+		if (cacheSize > 0) {
+			File folder = gitblit.getFileOrFolder(Keys.git.uploadPackCacheFolder, "${baseFolder}/packs");
+			uploadPackCache = new UploadPackCache(folder, cacheSize);
+		} else {
+			uploadPackCache = null;
+		}
 	}
 
 	@Override
@@ -93,6 +157,167 @@ public class GitServlet extends HttpServlet {
 	@Override
 	protected void service(HttpServletRequest req, HttpServletResponse res)
 			throws ServletException, IOException {
+		if (uploadPackCache != null && "POST".equals(req.getMethod())
+				&& req.getPathInfo() != null && req.getPathInfo().endsWith(UPLOAD_PACK)) {
+			// admit the request before the cache so a cached response is
+			// admitted like a response of the upload pack
+			String path = req.getPathInfo();
+			String name = path.substring(1, path.length() - UPLOAD_PACK.length());
+			Admission admission;
+			try {
+				admission = AdmissionController.instance().acquire(name, getUser(req),
+						AdmissionController.UPLOAD_WEIGHT);
+			} catch (AdmissionException e) {
+				res.sendError(SC_TOO_MANY_REQUESTS, e.getMessage());
+				return;
+			}
+			req.setAttribute(ADMITTED, Boolean.TRUE);
+			try {
+				serviceUploadPack(req, res);
+			} finally {
+				admission.release();
+			}
+			return;
+		}
+		serviceGit(req, res);
+	}
+
+	private void serviceUploadPack(HttpServletRequest req, HttpServletResponse res)
+			throws ServletException, IOException {
+		// buffer the request so it can be inspected and replayed
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		InputStream is = req.getInputStream();
+		byte [] chunk = new byte[8192];
+		int n;
+		while (buffer.size() <= MAX_CACHED_REQUEST && (n = is.read(chunk)) != -1) {
+			buffer.write(chunk, 0, n);
+		}
+		byte [] request = buffer.toByteArray();
+		if (buffer.size() > MAX_CACHED_REQUEST) {
+			// too large to cache, replay the buffered part and the rest
+			serviceGit(new BufferedRequest(req, request, is, false), res);
+			return;
+		}
+		if (isCacheable(req, request) && sendCachedPack(req, res, request)) {
+			return;
+		}
+		serviceGit(new BufferedRequest(req, request, null, false), res);
+	}
+
+	private boolean isCacheable(HttpServletRequest req, byte [] request) throws IOException {
+		String encoding = req.getHeader("Content-Encoding");
+		if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+			ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+			InputStream is = new GZIPInputStream(new ByteArrayInputStream(request));
+			try {
+				byte [] chunk = new byte[8192];
+				int n;
+				while ((n = is.read(chunk)) != -1) {
+					decoded.write(chunk, 0, n);
+					if (decoded.size() > 4 * MAX_CACHED_REQUEST) {
+						return false;
+					}
+				}
+			} catch (IOException e) {
+				return false;
+			} finally {
+				is.close();
+			}
+			request = decoded.toByteArray();
+		}
+		return UploadPackCache.isCacheable(request);
+	}
+
+	/**
+	 * Sends the cached response to the upload pack request.  If the response
+	 * is not cached the response of the upload pack is sent to the client
+	 * while it is written to the cache.
+	 *
+	 * @param req
+	 * @param res
+	 * @param request
+	 *            the raw request
+	 * @return true if the response was sent
+	 */
+	private boolean sendCachedPack(final HttpServletRequest req, final HttpServletResponse res, final byte [] request)
+			throws IOException {
+		String path = req.getPathInfo();
+		String name = path.substring(1, path.length() - UPLOAD_PACK.length());
+		Archive archive;
+		Repository db;
+		try {
+			// resolve the repository as the git filter would, including the
+			// export check of the user
+			db = repositoryResolver.open(req, name);
+		} catch (Exception e) {
+			return false;
+		}
+		// capture an uncompressed response of the upload pack
+		final CapturedResponse captured = new CapturedResponse(res, req.getRequestURI());
+		try {
+			String key = uploadPackCache.getKey(db, name, request);
+			archive = uploadPackCache.open(key, new ArchiveWriter() {
+				@Override
+				public void write(OutputStream os) throws IOException {
+					captured.capture(os);
+					try {
+						serviceGit(new BufferedRequest(req, request, null, true), captured);
+					} catch (ServletException e) {
+						throw new IOException(e);
+					}
+					captured.check();
+				}
+			});
+		} catch (IOException e) {
+			logger.warn(MessageFormat.format("failed to cache the upload pack of {0}: {1}", name, e.getMessage()));
+			// the response may already have been sent while it was cached
+			return captured.isForwarded();
+		} finally {
+			db.close();
+		}
+		if (archive == null) {
+			// too large to cache, the response was sent if this request wrote it
+			return captured.isForwarded();
+		}
+		if (captured.isForwarded()) {
+			archive.close();
+			return true;
+		}
+
+		setPackHeaders(res);
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(archive.getFile());
+			res.setHeader("Content-Length", String.valueOf(archive.getFile().length()));
+			// the servlet output stream is not a file or socket channel, so
+			// the response is copied through a buffer
+			IOUtils.copyLarge(is, res.getOutputStream());
+		} finally {
+			if (is != null) {
+				is.close();
+			}
+			archive.close();
+		}
+		return true;
+	}
+
+	private static String getUser(HttpServletRequest req) {
+		String user = req.getRemoteUser();
+		if (user == null) {
+			user = req.getRemoteAddr();
+		}
+		return user;
+	}
+
+	private static void setPackHeaders(HttpServletResponse res) {
+		res.setContentType(UPLOAD_PACK_RESULT_TYPE);
+		res.setHeader("Cache-Control", "no-cache, max-age=0, must-revalidate");
+		res.setHeader("Pragma", "no-cache");
+		res.setHeader("Expires", "Fri, 01 Jan 1980 00:00:00 GMT");
+	}
+
+	private void serviceGit(HttpServletRequest req, HttpServletResponse res)
+			throws ServletException, IOException {
 		gitFilter.doFilter(req, res, new FilterChain() {
 			@Override
 			public void doFilter(ServletRequest request,
@@ -107,4 +332,324 @@ public class GitServlet extends HttpServlet {
 	public void destroy() {
 		gitFilter.destroy();
 	}
+
+	/**
+	 * Admits the upload pack and receive pack requests.  A rejected request is
+	 * answered with 429 Too Many Requests.  An upload pack request which was
+	 * admitted before the upload pack cache is not admitted again.
+	 */
+	private static class AdmissionFilter implements Filter {
+
+		private final int weight;
+
+		AdmissionFilter(int weight) {
+			this.weight = weight;
+		}
+
+		@Override
+		public void init(FilterConfig config) {
+		}
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+				throws IOException, ServletException {
+			HttpServletRequest req = (HttpServletRequest) request;
+			HttpServletResponse res = (HttpServletResponse) response;
+			if (req.getAttribute(ADMITTED) != null) {
+				chain.doFilter(request, response);
+				return;
+			}
+			Object repository = req.getAttribute("gitblitRepositoryName");
+			Admission admission;
+			try {
+				admission = AdmissionController.instance().acquire(
+						repository == null ? null : repository.toString(), getUser(req), weight);
+			} catch (AdmissionException e) {
+				res.sendError(SC_TOO_MANY_REQUESTS, e.getMessage());
+				return;
+			}
+			try {
+				chain.doFilter(request, response);
+			} finally {
+				admission.release();
+			}
+		}
+
+		@Override
+		public void destroy() {
+		}
+	}
+
+	/**
+	 * Replays a buffered request body to the git filter.  The git filter reads
+	 * the body with blocking I/O and the request is never put into
+	 * asynchronous mode, so a read listener can not be set.
+	 */
+	private static class BufferedRequest extends HttpServletRequestWrapper {
+
+		private final InputStream body;
+
+		private final boolean identity;
+
+		private boolean finished;
+
+		BufferedRequest(HttpServletRequest req, byte [] buffer, InputStream remainder, boolean identity) {
+			super(req);
+			InputStream is = new ByteArrayInputStream(buffer);
+			this.body = remainder == null ? is : new SequenceInputStream(is, remainder);
+			this.identity = identity;
+		}
+
+		@Override
+		public ServletInputStream getInputStream() {
+			return new ServletInputStream() {
+				@Override
+				public int read() throws IOException {
+					int b = body.read();
+					finished = b == -1;
+					return b;
+				}
+
+				@Override
+				public int read(byte [] b, int off, int len) throws IOException {
+					int n = body.read(b, off, len);
+					finished = n == -1;
+					return n;
+				}
+
+				@Override
+				public boolean isFinished() {
+					return finished;
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setReadListener(ReadListener listener) {
+					// not in asynchronous mode
+					throw new IllegalStateException();
+				}
+			};
+		}
+
+		@Override
+		public String getHeader(String name) {
+			if (identity && "Accept-Encoding".equalsIgnoreCase(name)) {
+				return null;
+			}
+			return super.getHeader(name);
+		}
+
+		@Override
+		public Enumeration<String> getHeaders(String name) {
+			if (identity && "Accept-Encoding".equalsIgnoreCase(name)) {
+				List<String> none = Collections.emptyList();
+				return Collections.enumeration(none);
+			}
+			return super.getHeaders(name);
+		}
+	}
+
+	/**
+	 * Captures the body of the response of the git filter in a stream.  The
+	 * headers of the response are discarded.  A successful body is also sent
+	 * to the client as it is written so the client does not wait for the
+	 * complete response to be captured.  The git filter writes the body with
+	 * blocking I/O, so a write listener can not be set.
+	 */
+	private static class CapturedResponse extends HttpServletResponseWrapper {
+
+		private final String uri;
+
+		private final ServletOutputStream os;
+
+		private int status = SC_OK;
+
+		private OutputStream capture;
+
+		private IOException captureFailure;
+
+		private OutputStream client;
+
+		private boolean forwarded;
+
+		CapturedResponse(HttpServletResponse res, String uri) {
+			super(res);
+			this.uri = uri;
+			this.os = new ServletOutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte [] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte [] b, int off, int len) throws IOException {
+					forward(b, off, len);
+				}
+
+				@Override
+				public void flush() throws IOException {
+					if (client != null) {
+						try {
+							client.flush();
+						} catch (IOException e) {
+							// the client is gone, continue capturing
+							client = null;
+						}
+					}
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener listener) {
+					// not in asynchronous mode
+					throw new IllegalStateException();
+				}
+			};
+		}
+
+		void capture(OutputStream out) {
+			this.capture = out;
+		}
+
+		boolean isForwarded() {
+			return forwarded;
+		}
+
+		private void forward(byte [] b, int off, int len) throws IOException {
+			if (!forwarded && status == SC_OK) {
+				HttpServletResponse res = (HttpServletResponse) getResponse();
+				setPackHeaders(res);
+				client = res.getOutputStream();
+				forwarded = true;
+			}
+			if (capture != null) {
+				try {
+					capture.write(b, off, len);
+				} catch (IOException e) {
+					if (!forwarded) {
+						throw e;
+					}
+					// keep serving the client, the capture is discarded
+					captureFailure = e;
+					capture = null;
+				}
+			}
+			if (client != null) {
+				try {
+					client.write(b, off, len);
+				} catch (IOException e) {
+					// the client is gone, continue capturing
+					client = null;
+				}
+			}
+		}
+
+		void check() throws IOException {
+			if (captureFailure != null) {
+				throw captureFailure;
+			}
+			if (status != SC_OK) {
+				throw new IOException(MessageFormat.format("{0} responded {1}", uri, status));
+			}
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			return os;
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			status = sc;
+		}
+
+		@Override
+		public void sendError(int sc) {
+			status = sc;
+		}
+
+		@Override
+		public void sendError(int sc, String msg) {
+			status = sc;
+		}
+
+		@Override
+		public int getStatus() {
+			return status;
+		}
+
+		@Override
+		public PrintWriter getWriter() {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public boolean isCommitted() {
+			return false;
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+		}
+
+		@Override
+		public void setIntHeader(String name, int value) {
+		}
+
+		@Override
+		public void addIntHeader(String name, int value) {
+		}
+
+		@Override
+		public void setDateHeader(String name, long date) {
+		}
+
+		@Override
+		public void addDateHeader(String name, long date) {
+		}
+
+		@Override
+		public void setContentType(String type) {
+		}
+
+		@Override
+		public void setContentLength(int len) {
+		}
+
+		@Override
+		public void setContentLengthLong(long len) {
+		}
+
+		@Override
+		public void setCharacterEncoding(String charset) {
+		}
+
+		@Override
+		public void setBufferSize(int size) {
+		}
+
+		@Override
+		public void flushBuffer() {
+		}
+
+		@Override
+		public void reset() {
+		}
+
+		@Override
+		public void resetBuffer() {
+		}
+	}
 }
@@ -18,16 +18,18 @@ package com.gitblit.tickets;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import org.eclipse.jgit.api.errors.ConcurrentRefUpdateException;
 import org.eclipse.jgit.dircache.DirCache;
@@ -38,17 +40,18 @@ import org.eclipse.jgit.events.RefsChangedListener;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefRename;
 import org.eclipse.jgit.lib.RefUpdate.Result;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import com.gitblit.Constants;
 import com.gitblit.git.ReceiveCommandEvent;
@@ -57,8 +60,6 @@ import com.gitblit.manager.IPluginManager;
 import com.gitblit.manager.IRepositoryManager;
 import com.gitblit.manager.IRuntimeManager;
 import com.gitblit.manager.IUserManager;
-import com.gitblit.models.PathModel;
-import com.gitblit.models.PathModel.PathChangeModel;
 import com.gitblit.models.RefModel;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.TicketModel;
@@ -66,14 +67,17 @@ import com.gitblit.models.TicketModel.Attachment;
 import com.gitblit.models.TicketModel.Change;
 import com.gitblit.utils.ArrayUtils;
 import com.gitblit.utils.JGitUtils;
-import com.gitblit.utils.StringUtils;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 /**
  * Implementation of a ticket service based on an orphan branch.  All tickets
  * are serialized as a list of JSON changes and persisted in a hashed directory
- * structure, similar to the standard git loose object structure.
+ * structure, similar to the standard git loose object structure.  A
+ * materialized snapshot of each ticket is committed with its journal so
+ * listing tickets does not need to replay every journal.  The blobs of the
+ * tickets at the tip of the branch are indexed in memory and the index is
+ * updated by diffing the previous tip tree with the current tip tree.
  *
  * @author James Moger
  *
@@ -85,9 +89,11 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 
 	private static final String JOURNAL = "journal.json";
 
+	private static final String SNAPSHOT = "ticket.json";
+
 	private static final String ID_PATH = "id/";
 
-	private final Map<String, AtomicLong> lastAssignedId;
+	private final ConcurrentMap<String, TicketTreeIndex> treeIndexes;
 
 	@Inject
 	public BranchTicketService(
@@ -103,7 +109,7 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 				userManager,
 				repositoryManager);
 
-		lastAssignedId = new ConcurrentHashMap<String, AtomicLong>();
+		this.treeIndexes = new ConcurrentHashMap<String, TicketTreeIndex>();
 
 		// register the branch ticket service for repository ref changes
 		Repository.getGlobalListenerList().addRefsChangedListener(this);
@@ -116,14 +122,11 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 
 	@Override
 	protected void resetCachesImpl() {
-		lastAssignedId.clear();
+		treeIndexes.clear();
 	}
 
 	@Override
 	protected void resetCachesImpl(RepositoryModel repository) {
-		if (lastAssignedId.containsKey(repository.name)) {
-			lastAssignedId.get(repository.name).set(0);
-		}
 	}
 
 	@Override
@@ -134,7 +137,7 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 	 * Listen for tickets branch changes and (re)index tickets, as appropriate
 	 */
 	@Override
-	public synchronized void onRefsChanged(RefsChangedEvent event) {
+	public void onRefsChanged(RefsChangedEvent event) {
 		if (!(event instanceof ReceiveCommandEvent)) {
 			return;
 		}
@@ -142,6 +145,8 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 		ReceiveCommandEvent branchUpdate = (ReceiveCommandEvent) event;
 		RepositoryModel repository = branchUpdate.model;
 		ReceiveCommand cmd = branchUpdate.cmd;
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
 			switch (cmd.getType()) {
 			case CREATE:
@@ -155,29 +160,29 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 				long start = System.nanoTime();
 				log.info("incrementally indexing {} ticket branch due to received ref update", repository.name);
 				Repository db = repositoryManager.getRepository(repository.name);
+				RevWalk rw = new RevWalk(db);
 				try {
-					Set<Long> ids = new HashSet<Long>();
-					List<PathChangeModel> paths = JGitUtils.getFilesInRange(db,
-							cmd.getOldId().getName(), cmd.getNewId().getName());
-					for (PathChangeModel path : paths) {
-						String name = path.name.substring(path.name.lastIndexOf('/') + 1);
-						if (!JOURNAL.equals(name)) {
+					RevTree oldTree = rw.parseCommit(cmd.getOldId()).getTree();
+					RevTree newTree = rw.parseCommit(cmd.getNewId()).getTree();
+					Set<Long> ids = diffTrees(db, oldTree, newTree, null);
+
+					// advance the tree index to the received tip
+					getTreeIndex(db, repository);
+
+					for (long ticketId : ids) {
+						TicketModel ticket = getTicket(repository, ticketId);
+						if (ticket == null) {
 							continue;
 						}
-						String tid = path.path.split("/")[2];
-						long ticketId = Long.parseLong(tid);
-						if (!ids.contains(ticketId)) {
-							ids.add(ticketId);
-							TicketModel ticket = getTicket(repository, ticketId);
-							log.info(MessageFormat.format("indexing ticket #{0,number,0}: {1}",
-									ticketId, ticket.title));
-							indexer.index(ticket);
-						}
+						log.info(MessageFormat.format("indexing ticket #{0,number,0}: {1}",
+								ticketId, ticket.title));
+						indexer.index(ticket);
 					}
 					long end = System.nanoTime();
 					log.info("incremental indexing of {0} ticket(s) completed in {1} msecs",
 							ids.size(), TimeUnit.NANOSECONDS.toMillis(end - start));
 				} finally {
+					rw.close();
 					db.close();
 				}
 				break;
@@ -187,6 +192,8 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 			}
 		} catch (Exception e) {
 			log.error("failed to reindex " + repository.name, e);
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -268,35 +275,6 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 		return toTicketPath(ticketId) + "/attachments/" + filename;
 	}
 
-	/**
-	 * Reads a file from the tickets branch.
-	 *
-	 * @param db
-	 * @param file
-	 * @return the file content or null
-	 */
-	private String readTicketsFile(Repository db, String file) {
-		RevWalk rw = null;
-		try {
-			ObjectId treeId = db.resolve(BRANCH + "^{tree}");
-			if (treeId == null) {
-				return null;
-			}
-			rw = new RevWalk(db);
-			RevTree tree = rw.lookupTree(treeId);
-			if (tree != null) {
-				return JGitUtils.getStringContent(db, tree, file, Constants.ENCODING);
-			}
-		} catch (IOException e) {
-			log.error("failed to read " + file, e);
-		} finally {
-			if (rw != null) {
-				rw.close();
-			}
-		}
-		return null;
-	}
-
 	/**
 	 * Writes a file to the tickets branch.
 	 *
@@ -360,20 +338,15 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 	 */
 	@Override
 	public boolean hasTicket(RepositoryModel repository, long ticketId) {
-		boolean hasTicket = false;
 		Repository db = repositoryManager.getRepository(repository.name);
 		try {
-			RefModel ticketsBranch = getTicketsBranch(db);
-			if (ticketsBranch == null) {
-				return false;
-			}
-			String ticketPath = toTicketPath(ticketId);
-			RevCommit tip = JGitUtils.getCommit(db, BRANCH);
-			hasTicket = !JGitUtils.getFilesInPath(db, ticketPath, tip).isEmpty();
+			return getTreeIndex(db, repository).tickets.containsKey(ticketId);
+		} catch (IOException e) {
+			log.error("failed to read ticket ids of " + repository.name, e);
+			return false;
 		} finally {
 			db.close();
 		}
-		return hasTicket;
 	}
 
 	/**
@@ -382,75 +355,199 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 	 * @return the assigned ticket ids
 	 */
 	@Override
-	public synchronized Set<Long> getIds(RepositoryModel repository) {
+	public Set<Long> getIds(RepositoryModel repository) {
 		Repository db = repositoryManager.getRepository(repository.name);
 		try {
-			if (getTicketsBranch(db) == null) {
-				return Collections.emptySet();
+			return new TreeSet<Long>(getTreeIndex(db, repository).tickets.keySet());
+		} catch (IOException e) {
+			log.error("failed to read ticket ids of " + repository.name, e);
+			return Collections.emptySet();
+		} finally {
+			if (db != null) {
+				db.close();
+			}
+		}
+	}
+
+	/**
+	 * The journal and snapshot blobs of a ticket.
+	 */
+	private static class TicketBlobs {
+		ObjectId journal;
+		ObjectId snapshot;
+
+		TicketBlobs copy() {
+			TicketBlobs copy = new TicketBlobs();
+			copy.journal = journal;
+			copy.snapshot = snapshot;
+			return copy;
+		}
+	}
+
+	/**
+	 * The ticket blobs of a tree of the tickets branch.  An index is never
+	 * modified once it is published.
+	 */
+	private static class TicketTreeIndex {
+		final ObjectId tree;
+		final Map<Long, TicketBlobs> tickets;
+
+		TicketTreeIndex(ObjectId tree, Map<Long, TicketBlobs> tickets) {
+			this.tree = tree;
+			this.tickets = Collections.unmodifiableMap(tickets);
+		}
+	}
+
+	/**
+	 * Returns the ticket blobs of the tip of the tickets branch.  The cached
+	 * index of the repository is returned if the tip tree has not changed,
+	 * otherwise it is updated with the differences between its tree and the
+	 * tip tree.  The whole tree is only walked to build the first index.
+	 *
+	 * @param db
+	 * @param repository
+	 * @return the ticket tree index
+	 * @throws IOException
+	 */
+	private TicketTreeIndex getTreeIndex(Repository db, RepositoryModel repository) throws IOException {
+		ObjectId treeId = db.resolve(BRANCH + "^{tree}");
+		if (treeId == null && getTicketsBranch(db) != null) {
+			// the legacy tickets branch was renamed
+			treeId = db.resolve(BRANCH + "^{tree}");
+		}
+		if (treeId == null) {
+			treeIndexes.remove(repository.name);
+			return new TicketTreeIndex(ObjectId.zeroId(), new TreeMap<Long, TicketBlobs>());
+		}
+
+		TicketTreeIndex index = treeIndexes.get(repository.name);
+		if (index != null && index.tree.equals(treeId)) {
+			return index;
+		}
+
+		long start = System.nanoTime();
+		boolean update = index != null;
+		Map<Long, TicketBlobs> tickets = new TreeMap<Long, TicketBlobs>();
+		if (!update) {
+			diffTrees(db, null, treeId, tickets);
+		} else {
+			tickets.putAll(index.tickets);
+			diffTrees(db, index.tree, treeId, tickets);
+		}
+
+		// a snapshot without a journal is not an assigned ticket
+		Iterator<TicketBlobs> iterator = tickets.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().journal == null) {
+				iterator.remove();
+			}
+		}
+
+		index = new TicketTreeIndex(treeId, tickets);
+		treeIndexes.put(repository.name, index);
+		log.debug("{} tree index of {} tickets in {} msecs", update ? "updated" : "built",
+				tickets.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return index;
+	}
+
+	/**
+	 * Walks the differences between two trees of the tickets branch and
+	 * returns the ids of the tickets whose journal changed.  If a map of
+	 * ticket blobs is specified the journal and snapshot blobs of the new
+	 * tree are applied to it.
+	 *
+	 * @param db
+	 * @param oldTree
+	 *            the old tree or null to walk all entries of the new tree
+	 * @param newTree
+	 * @param tickets
+	 *            optional ticket blobs of the old tree to update
+	 * @return the ids of the changed tickets
+	 * @throws IOException
+	 */
+	private Set<Long> diffTrees(Repository db, ObjectId oldTree, ObjectId newTree,
+			Map<Long, TicketBlobs> tickets) throws IOException {
+		Set<Long> ids = new TreeSet<Long>();
+		TreeWalk tw = new TreeWalk(db);
+		try {
+			int n;
+			if (oldTree == null) {
+				n = tw.addTree(newTree);
+			} else {
+				tw.addTree(oldTree);
+				n = tw.addTree(newTree);
+				tw.setFilter(TreeFilter.ANY_DIFF);
 			}
-			Set<Long> ids = new TreeSet<Long>();
-			List<PathModel> paths = JGitUtils.getDocuments(db, Arrays.asList("json"), BRANCH);
-			for (PathModel path : paths) {
-				String name = path.name.substring(path.name.lastIndexOf('/') + 1);
-				if (!JOURNAL.equals(name)) {
+			tw.setRecursive(true);
+			while (tw.next()) {
+				// id/26/326/journal.json
+				String [] path = tw.getPathString().split("/");
+				if (path.length != 4) {
 					continue;
 				}
-				String tid = path.path.split("/")[2];
-				long ticketId = Long.parseLong(tid);
-				ids.add(ticketId);
+				String name = path[3];
+				if (!JOURNAL.equals(name) && !SNAPSHOT.equals(name)) {
+					continue;
+				}
+				long ticketId = Long.parseLong(path[2]);
+				if (JOURNAL.equals(name)) {
+					ids.add(ticketId);
+				}
+				if (tickets == null) {
+					continue;
+				}
+
+				// published blobs are shared so they are copied on write
+				TicketBlobs ticket = tickets.get(ticketId);
+				ticket = ticket == null ? new TicketBlobs() : ticket.copy();
+				tickets.put(ticketId, ticket);
+				ObjectId blob = FileMode.MISSING.equals(tw.getRawMode(n)) ? null : tw.getObjectId(n);
+				if (JOURNAL.equals(name)) {
+					ticket.journal = blob;
+				} else {
+					ticket.snapshot = blob;
+				}
 			}
-			return ids;
 		} finally {
-			if (db != null) {
-				db.close();
-			}
+			tw.close();
 		}
+		return ids;
 	}
 
 	/**
-	 * Assigns a new ticket id.
+	 * Assigns a new ticket id.  The id is allocated without locking and only
+	 * the commit of its placeholder journal is serialized with the other
+	 * changes to the tickets branch of the repository.
 	 *
 	 * @param repository
 	 * @return a new long id
 	 */
 	@Override
-	public synchronized long assignNewId(RepositoryModel repository) {
-		long newId = 0L;
+	public long assignNewId(RepositoryModel repository) {
+		long newId = nextTicketId(repository);
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		Repository db = repositoryManager.getRepository(repository.name);
 		try {
 			if (getTicketsBranch(db) == null) {
 				createTicketsBranch(db);
 			}
 
-			// identify current highest ticket id by scanning the paths in the tip tree
-			if (!lastAssignedId.containsKey(repository.name)) {
-				lastAssignedId.put(repository.name, new AtomicLong(0));
-			}
-			AtomicLong lastId = lastAssignedId.get(repository.name);
-			if (lastId.get() <= 0) {
-				Set<Long> ids = getIds(repository);
-				for (long id : ids) {
-					if (id > lastId.get()) {
-						lastId.set(id);
-					}
-				}
-			}
-
-			// assign the id and touch an empty journal to hold it's place
-			newId = lastId.incrementAndGet();
+			// touch an empty journal to hold the id's place
 			String journalPath = toTicketPath(newId) + "/" + JOURNAL;
 			writeTicketsFile(db, journalPath, "", "gitblit", "assigned id #" + newId);
 		} finally {
 			db.close();
+			lock.unlock();
 		}
 		return newId;
 	}
 
 	/**
-	 * Returns all the tickets in the repository. Querying tickets from the
-	 * repository requires deserializing all tickets. This is an  expensive
-	 * process and not recommended. Tickets are indexed by Lucene and queries
-	 * should be executed against that index.
+	 * Returns all the tickets in the repository. Tickets are read from their
+	 * materialized snapshots.  A ticket without a snapshot, e.g. one committed
+	 * by an earlier release, is rebuilt from its journal.  Tickets are indexed
+	 * by Lucene and queries should be executed against that index.
 	 *
 	 * @param repository
 	 * @param filter
@@ -462,40 +559,34 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 		List<TicketModel> list = new ArrayList<TicketModel>();
 
 		Repository db = repositoryManager.getRepository(repository.name);
+		ObjectReader reader = null;
 		try {
-			RefModel ticketsBranch = getTicketsBranch(db);
-			if (ticketsBranch == null) {
+			Map<Long, TicketBlobs> blobs = getTreeIndex(db, repository).tickets;
+			if (blobs.isEmpty()) {
 				return list;
 			}
 
-			// Collect the set of all json files
-			List<PathModel> paths = JGitUtils.getDocuments(db, Arrays.asList("json"), BRANCH);
+			reader = db.newObjectReader();
 
 			// Deserialize each ticket and optionally filter out unwanted tickets
-			for (PathModel path : paths) {
-				String name = path.name.substring(path.name.lastIndexOf('/') + 1);
-				if (!JOURNAL.equals(name)) {
-					continue;
-				}
-				String json = readTicketsFile(db, path.path);
-				if (StringUtils.isEmpty(json)) {
-					// journal was touched but no changes were written
-					continue;
-				}
+			for (Map.Entry<Long, TicketBlobs> entry : blobs.entrySet()) {
+				long ticketId = entry.getKey();
 				try {
-					// Reconstruct ticketId from the path
-					// id/26/326/journal.json
-					String tid = path.path.split("/")[2];
-					long ticketId = Long.parseLong(tid);
-					List<Change> changes = TicketSerializer.deserializeJournal(json);
-					if (ArrayUtils.isEmpty(changes)) {
-						log.warn("Empty journal for {}:{}", repository, path.path);
-						continue;
+					TicketModel ticket;
+					if (entry.getValue().snapshot != null) {
+						byte [] json = readBlob(reader, entry.getValue().snapshot);
+						ticket = TicketSerializer.deserializeTicket(new String(json, Constants.ENCODING));
+						ticket.project = repository.projectPath;
+						ticket.repository = repository.name;
+						ticket.number = ticketId;
+					} else {
+						byte [] journal = readBlob(reader, entry.getValue().journal);
+						if (journal.length == 0) {
+							// journal was touched but no changes were written
+							continue;
+						}
+						ticket = buildSnapshot(repository, ticketId, TicketSerializer.deserializeJournal(journal));
 					}
-					TicketModel ticket = TicketModel.buildTicket(changes);
-					ticket.project = repository.projectPath;
-					ticket.repository = repository.name;
-					ticket.number = ticketId;
 
 					// add the ticket, conditionally, to the list
 					if (filter == null) {
@@ -507,7 +598,7 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 					}
 				} catch (Exception e) {
 					log.error("failed to deserialize {}/{}\n{}",
-							new Object [] { repository, path.path, e.getMessage()});
+							new Object [] { repository, ticketId, e.getMessage()});
 					log.error(null, e);
 				}
 			}
@@ -515,11 +606,21 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 			// sort the tickets by creation
 			Collections.sort(list);
 			return list;
+		} catch (IOException e) {
+			log.error("failed to read tickets of " + repository.name, e);
+			return list;
 		} finally {
+			if (reader != null) {
+				reader.close();
+			}
 			db.close();
 		}
 	}
 
+	private byte [] readBlob(ObjectReader reader, ObjectId id) throws IOException {
+		return reader.open(id, org.eclipse.jgit.lib.Constants.OBJ_BLOB).getCachedBytes();
+	}
+
 	/**
 	 * Retrieves the ticket from the repository by first looking-up the changeId
 	 * associated with the ticketId.
@@ -532,7 +633,7 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 	protected TicketModel getTicketImpl(RepositoryModel repository, long ticketId) {
 		Repository db = repositoryManager.getRepository(repository.name);
 		try {
-			List<Change> changes = getJournal(db, ticketId);
+			List<Change> changes = getJournal(db, repository, ticketId);
 			if (ArrayUtils.isEmpty(changes)) {
 				log.warn("Empty journal for {}:{}", repository, ticketId);
 				return null;
@@ -560,7 +661,7 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 	protected List<Change> getJournalImpl(RepositoryModel repository, long ticketId) {
 		Repository db = repositoryManager.getRepository(repository.name);
 		try {
-			List<Change> changes = getJournal(db, ticketId);
+			List<Change> changes = getJournal(db, repository, ticketId);
 			if (ArrayUtils.isEmpty(changes)) {
 				log.warn("Empty journal for {}:{}", repository, ticketId);
 				return null;
@@ -575,28 +676,48 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 	 * Returns the journal for the specified ticket.
 	 *
 	 * @param db
+	 * @param repository
 	 * @param ticketId
 	 * @return a list of changes
 	 */
-	private List<Change> getJournal(Repository db, long ticketId) {
-		RefModel ticketsBranch = getTicketsBranch(db);
-		if (ticketsBranch == null) {
-			return new ArrayList<Change>();
-		}
-
+	private List<Change> getJournal(Repository db, RepositoryModel repository, long ticketId) {
 		if (ticketId <= 0L) {
 			return new ArrayList<Change>();
 		}
 
-		String journalPath = toTicketPath(ticketId) + "/" + JOURNAL;
-		String json = readTicketsFile(db, journalPath);
-		if (StringUtils.isEmpty(json)) {
-			return new ArrayList<Change>();
-		}
-		List<Change> list = TicketSerializer.deserializeJournal(json);
+		byte [] content = readJournal(db, repository, ticketId);
+		List<Change> list = TicketSerializer.deserializeJournal(content);
 		return list;
 	}
 
+	/**
+	 * Reads the journal blob of a ticket by looking up its id in the tree
+	 * index.
+	 *
+	 * @param db
+	 * @param repository
+	 * @param ticketId
+	 * @return the journal content or null
+	 */
+	private byte [] readJournal(Repository db, RepositoryModel repository, long ticketId) {
+		ObjectReader reader = null;
+		try {
+			TicketBlobs blobs = getTreeIndex(db, repository).tickets.get(ticketId);
+			if (blobs == null) {
+				return null;
+			}
+			reader = db.newObjectReader();
+			return readBlob(reader, blobs.journal);
+		} catch (IOException e) {
+			log.error("failed to read the journal of " + repository.name + " #" + ticketId, e);
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public boolean supportsAttachments() {
 		return true;
@@ -646,12 +767,14 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 	 * @return true if successful
 	 */
 	@Override
-	protected synchronized boolean deleteTicketImpl(RepositoryModel repository, TicketModel ticket, String deletedBy) {
+	protected boolean deleteTicketImpl(RepositoryModel repository, TicketModel ticket, String deletedBy) {
 		if (ticket == null) {
 			throw new RuntimeException("must specify a ticket!");
 		}
 
 		boolean success = false;
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		Repository db = repositoryManager.getRepository(ticket.repository);
 		try {
 			RefModel ticketsBranch = getTicketsBranch(db);
@@ -711,6 +834,7 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 			}
 		} finally {
 			db.close();
+			lock.unlock();
 		}
 		return success;
 	}
@@ -724,32 +848,40 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 	 * @return true, if the change was committed
 	 */
 	@Override
-	protected synchronized boolean commitChangeImpl(RepositoryModel repository, long ticketId, Change change) {
-		boolean success = false;
-
-		Repository db = repositoryManager.getRepository(repository.name);
+	protected boolean commitChangeImpl(RepositoryModel repository, long ticketId, Change change) {
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
-			DirCache index = createIndex(db, ticketId, change);
-			success = commitIndex(db, index, change.author, "#" + ticketId);
+			boolean success = false;
 
-		} catch (Throwable t) {
-			log.error(MessageFormat.format("Failed to commit ticket {0,number,0} to {1}",
-					ticketId, db.getDirectory()), t);
+			Repository db = repositoryManager.getRepository(repository.name);
+			try {
+				DirCache index = createIndex(db, repository, ticketId, change);
+				success = commitIndex(db, index, change.author, "#" + ticketId);
+
+			} catch (Throwable t) {
+				log.error(MessageFormat.format("Failed to commit ticket {0,number,0} to {1}",
+						ticketId, db.getDirectory()), t);
+			} finally {
+				db.close();
+			}
+			return success;
 		} finally {
-			db.close();
+			lock.unlock();
 		}
-		return success;
 	}
 
 	/**
 	 * Creates an in-memory index of the ticket change.
 	 *
-	 * @param changeId
+	 * @param db
+	 * @param repository
+	 * @param ticketId
 	 * @param change
 	 * @return an in-memory index
 	 * @throws IOException
 	 */
-	private DirCache createIndex(Repository db, long ticketId, Change change)
+	private DirCache createIndex(Repository db, RepositoryModel repository, long ticketId, Change change)
 			throws IOException, ClassNotFoundException, NoSuchFieldException {
 
 		String ticketPath = toTicketPath(ticketId);
@@ -761,12 +893,11 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 		try {
 			// create/update the journal
 			// exclude the attachment content
-			List<Change> changes = getJournal(db, ticketId);
-			changes.add(change);
-			String journal = TicketSerializer.serializeJournal(changes).trim();
-
-			byte [] journalBytes = journal.getBytes(Constants.ENCODING);
+			// a binary journal is extended without re-encoding its changes
 			String journalPath = ticketPath + "/" + JOURNAL;
+			byte [] content = readJournal(db, repository, ticketId);
+			byte [] journalBytes = appendJournal(content == null ? new byte[0] : content, change);
+
 			final DirCacheEntry journalEntry = new DirCacheEntry(journalPath);
 			journalEntry.setLength(journalBytes.length);
 			journalEntry.setLastModified(change.date.getTime());
@@ -777,6 +908,20 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 			builder.add(journalEntry);
 			ignorePaths.add(journalEntry.getPathString());
 
+			// create/update the materialized snapshot of the ticket
+			TicketModel ticket = buildSnapshot(repository, ticketId, TicketSerializer.deserializeJournal(journalBytes));
+			byte [] snapshotBytes = TicketSerializer.serialize(ticket).getBytes(Constants.ENCODING);
+			String snapshotPath = ticketPath + "/" + SNAPSHOT;
+			final DirCacheEntry snapshotEntry = new DirCacheEntry(snapshotPath);
+			snapshotEntry.setLength(snapshotBytes.length);
+			snapshotEntry.setLastModified(change.date.getTime());
+			snapshotEntry.setFileMode(FileMode.REGULAR_FILE);
+			snapshotEntry.setObjectId(inserter.insert(org.eclipse.jgit.lib.Constants.OBJ_BLOB, snapshotBytes));
+
+			// add snapshot to index
+			builder.add(snapshotEntry);
+			ignorePaths.add(snapshotEntry.getPathString());
+
 			// Add any attachments to the index
 			if (change.hasAttachments()) {
 				for (Attachment attachment : change.attachments) {
@@ -846,6 +991,7 @@ public class BranchTicketService extends ITicketService implements RefsChangedLi
 
 	@Override
 	protected boolean renameImpl(RepositoryModel oldRepository, RepositoryModel newRepository) {
+		treeIndexes.remove(oldRepository.name);
 		return true;
 	}
 
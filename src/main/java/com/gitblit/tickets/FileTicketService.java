@@ -17,15 +17,21 @@ package com.gitblit.tickets;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
 
 import org.eclipse.jgit.lib.Repository;
 
@@ -49,6 +55,8 @@ import com.google.inject.Singleton;
  * Implementation of a ticket service based on a directory within the repository.
  * All tickets are serialized as a list of JSON changes and persisted in a hashed
  * directory structure, similar to the standard git loose object structure.
+ * A materialized snapshot of each ticket is written next to its journal so
+ * listing tickets does not need to replay every journal.
  *
  * @author James Moger
  *
@@ -58,9 +66,11 @@ public class FileTicketService extends ITicketService {
 
 	private static final String JOURNAL = "journal.json";
 
+	private static final String SNAPSHOT = "ticket.json";
+
 	private static final String TICKETS_PATH = "tickets/";
 
-	private final Map<String, AtomicLong> lastAssignedId;
+	private final ConcurrentMap<String, Set<Long>> ticketIds;
 
 	@Inject
 	public FileTicketService(
@@ -76,7 +86,7 @@ public class FileTicketService extends ITicketService {
 				userManager,
 				repositoryManager);
 
-		lastAssignedId = new ConcurrentHashMap<String, AtomicLong>();
+		ticketIds = new ConcurrentHashMap<String, Set<Long>>();
 	}
 
 	@Override
@@ -86,14 +96,12 @@ public class FileTicketService extends ITicketService {
 
 	@Override
 	protected void resetCachesImpl() {
-		lastAssignedId.clear();
+		ticketIds.clear();
 	}
 
 	@Override
 	protected void resetCachesImpl(RepositoryModel repository) {
-		if (lastAssignedId.containsKey(repository.name)) {
-			lastAssignedId.get(repository.name).set(0);
-		}
+		ticketIds.remove(repository.name);
 	}
 
 	@Override
@@ -153,11 +161,27 @@ public class FileTicketService extends ITicketService {
 	}
 
 	@Override
-	public synchronized Set<Long> getIds(RepositoryModel repository) {
-		Set<Long> ids = new TreeSet<Long>();
+	public Set<Long> getIds(RepositoryModel repository) {
+		return new TreeSet<Long>(getIdIndex(repository));
+	}
+
+	/**
+	 * Returns the id index of the repository.  The index is built by scanning
+	 * the ticket directory once and is then maintained as tickets are assigned
+	 * and deleted.  Concurrent callers may scan the directory more than once
+	 * but all of them update the first index which is registered.
+	 *
+	 * @param repository
+	 * @return the ticket ids
+	 */
+	private Set<Long> getIdIndex(RepositoryModel repository) {
+		Set<Long> ids = ticketIds.get(repository.name);
+		if (ids != null) {
+			return ids;
+		}
+		ids = new ConcurrentSkipListSet<Long>();
 		Repository db = repositoryManager.getRepository(repository.name);
 		try {
-			// identify current highest ticket id by scanning the paths in the tip tree
 			File dir = new File(db.getDirectory(), TICKETS_PATH);
 			dir.mkdirs();
 			List<File> journals = findAll(dir, JOURNAL);
@@ -174,39 +198,28 @@ public class FileTicketService extends ITicketService {
 				db.close();
 			}
 		}
-		return ids;
+		Set<Long> existing = ticketIds.putIfAbsent(repository.name, ids);
+		return existing == null ? ids : existing;
 	}
 
 	/**
-	 * Assigns a new ticket id.
+	 * Assigns a new ticket id without locking the repository.
 	 *
 	 * @param repository
 	 * @return a new long id
 	 */
 	@Override
-	public synchronized long assignNewId(RepositoryModel repository) {
+	public long assignNewId(RepositoryModel repository) {
 		long newId = 0L;
 		Repository db = repositoryManager.getRepository(repository.name);
 		try {
-			if (!lastAssignedId.containsKey(repository.name)) {
-				lastAssignedId.put(repository.name, new AtomicLong(0));
-			}
-			AtomicLong lastId = lastAssignedId.get(repository.name);
-			if (lastId.get() <= 0) {
-				Set<Long> ids = getIds(repository);
-				for (long id : ids) {
-					if (id > lastId.get()) {
-						lastId.set(id);
-					}
-				}
-			}
-
 			// assign the id and touch an empty journal to hold it's place
-			newId = lastId.incrementAndGet();
+			newId = nextTicketId(repository);
 			String journalPath = toTicketPath(newId) + "/" + JOURNAL;
 			File journal = new File(db.getDirectory(), journalPath);
 			journal.getParentFile().mkdirs();
 			journal.createNewFile();
+			getIdIndex(repository).add(newId);
 		} catch (IOException e) {
 			log.error("failed to assign ticket id", e);
 			return 0L;
@@ -217,9 +230,10 @@ public class FileTicketService extends ITicketService {
 	}
 
 	/**
-	 * Returns all the tickets in the repository. Querying tickets from the
-	 * repository requires deserializing all tickets. This is an  expensive
-	 * process and not recommended. Tickets are indexed by Lucene and queries
+	 * Returns all the tickets in the repository. Tickets are read from their
+	 * materialized snapshots.  A ticket without a snapshot, e.g. one written
+	 * by an earlier release, is rebuilt from its journal and its snapshot is
+	 * written for the next listing.  Tickets are indexed by Lucene and queries
 	 * should be executed against that index.
 	 *
 	 * @param repository
@@ -233,37 +247,14 @@ public class FileTicketService extends ITicketService {
 
 		Repository db = repositoryManager.getRepository(repository.name);
 		try {
-			// Collect the set of all json files
-			File dir = new File(db.getDirectory(), TICKETS_PATH);
-			List<File> journals = findAll(dir, JOURNAL);
-
-			// Deserialize each ticket and optionally filter out unwanted tickets
-			for (File journal : journals) {
-				String json = null;
+			// Read the snapshot of each ticket and optionally filter out unwanted tickets
+			for (long ticketId : getIdIndex(repository)) {
 				try {
-					json = new String(FileUtils.readContent(journal), Constants.ENCODING);
-				} catch (Exception e) {
-					log.error(null, e);
-				}
-				if (StringUtils.isEmpty(json)) {
-					// journal was touched but no changes were written
-					continue;
-				}
-				try {
-					// Reconstruct ticketId from the path
-					// id/26/326/journal.json
-					String path = FileUtils.getRelativePath(dir, journal);
-					String tid = path.split("/")[1];
-					long ticketId = Long.parseLong(tid);
-					List<Change> changes = TicketSerializer.deserializeJournal(json);
-					if (ArrayUtils.isEmpty(changes)) {
-						log.warn("Empty journal for {}:{}", repository, journal);
+					TicketModel ticket = getSnapshot(db, repository, ticketId);
+					if (ticket == null) {
+						// journal was touched but no changes were written
 						continue;
 					}
-					TicketModel ticket = TicketModel.buildTicket(changes);
-					ticket.project = repository.projectPath;
-					ticket.repository = repository.name;
-					ticket.number = ticketId;
 
 					// add the ticket, conditionally, to the list
 					if (filter == null) {
@@ -275,7 +266,7 @@ public class FileTicketService extends ITicketService {
 					}
 				} catch (Exception e) {
 					log.error("failed to deserialize {}/{}\n{}",
-							new Object [] { repository, journal, e.getMessage()});
+							new Object [] { repository, ticketId, e.getMessage()});
 					log.error(null, e);
 				}
 			}
@@ -288,6 +279,68 @@ public class FileTicketService extends ITicketService {
 		}
 	}
 
+	/**
+	 * Returns the materialized snapshot of the ticket.  If the snapshot does
+	 * not exist it is rebuilt from the journal and written.  Snapshots are
+	 * replaced atomically so the snapshot is read without the ticket lock.
+	 *
+	 * @param db
+	 * @param repository
+	 * @param ticketId
+	 * @return the ticket or null if the journal is empty
+	 */
+	private TicketModel getSnapshot(Repository db, RepositoryModel repository, long ticketId) throws IOException {
+		File file = new File(db.getDirectory(), toTicketPath(ticketId) + "/" + SNAPSHOT);
+		String json = null;
+		try {
+			json = new String(Files.readAllBytes(file.toPath()), Constants.ENCODING);
+		} catch (NoSuchFileException e) {
+			// no snapshot or a change is being committed
+		}
+		if (!StringUtils.isEmpty(json)) {
+			TicketModel ticket = TicketSerializer.deserializeTicket(json);
+			ticket.project = repository.projectPath;
+			ticket.repository = repository.name;
+			ticket.number = ticketId;
+			return ticket;
+		}
+
+		Lock lock = getTicketLock(repository, ticketId);
+		lock.lock();
+		try {
+			List<Change> changes = getJournal(db, ticketId);
+			if (ArrayUtils.isEmpty(changes)) {
+				return null;
+			}
+			TicketModel ticket = buildSnapshot(repository, ticketId, changes);
+			if (!file.exists()) {
+				writeSnapshot(file, ticket);
+			}
+			return ticket;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the snapshot of a ticket to a temporary file which atomically
+	 * replaces the snapshot.
+	 *
+	 * @param file
+	 * @param ticket
+	 * @throws IOException
+	 */
+	private void writeSnapshot(File file, TicketModel ticket) throws IOException {
+		File temp = File.createTempFile(SNAPSHOT, ".tmp", file.getParentFile());
+		try {
+			Files.write(temp.toPath(), TicketSerializer.serialize(ticket).getBytes(Constants.ENCODING));
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
 	private List<File> findAll(File dir, String filename) {
 		List<File> list = new ArrayList<File>();
 		File [] files = dir.listFiles();
@@ -374,16 +427,8 @@ public class FileTicketService extends ITicketService {
 			return new ArrayList<Change>();
 		}
 
-		String json = null;
-		try {
-			json = new String(FileUtils.readContent(journal), Constants.ENCODING);
-		} catch (Exception e) {
-			log.error(null, e);
-		}
-		if (StringUtils.isEmpty(json)) {
-			return new ArrayList<Change>();
-		}
-		List<Change> list = TicketSerializer.deserializeJournal(json);
+		byte [] content = FileUtils.readContent(journal);
+		List<Change> list = TicketSerializer.deserializeJournal(content);
 		return list;
 	}
 
@@ -437,28 +482,38 @@ public class FileTicketService extends ITicketService {
 	 * @return true if successful
 	 */
 	@Override
-	protected synchronized boolean deleteTicketImpl(RepositoryModel repository, TicketModel ticket, String deletedBy) {
+	protected boolean deleteTicketImpl(RepositoryModel repository, TicketModel ticket, String deletedBy) {
 		if (ticket == null) {
 			throw new RuntimeException("must specify a ticket!");
 		}
 
-		boolean success = false;
-		Repository db = repositoryManager.getRepository(ticket.repository);
+		Lock lock = getTicketLock(repository, ticket.number);
+		lock.lock();
 		try {
-			String ticketPath = toTicketPath(ticket.number);
-			File dir = new File(db.getDirectory(), ticketPath);
-			if (dir.exists()) {
-				success = FileUtils.delete(dir);
+			boolean success = false;
+			Repository db = repositoryManager.getRepository(ticket.repository);
+			try {
+				String ticketPath = toTicketPath(ticket.number);
+				File dir = new File(db.getDirectory(), ticketPath);
+				if (dir.exists()) {
+					success = FileUtils.delete(dir);
+				}
+				getIdIndex(repository).remove(ticket.number);
+				success = true;
+			} finally {
+				db.close();
 			}
-			success = true;
+			return success;
 		} finally {
-			db.close();
+			lock.unlock();
 		}
-		return success;
 	}
 
 	/**
-	 * Commit a ticket change to the repository.
+	 * Commit a ticket change to the repository and update the materialized
+	 * snapshot of the ticket.  The snapshot is removed before the journal is
+	 * written so an interrupted commit never leaves a stale snapshot.  A change
+	 * to a binary journal is appended to the journal file.
 	 *
 	 * @param repository
 	 * @param ticketId
@@ -466,27 +521,44 @@ public class FileTicketService extends ITicketService {
 	 * @return true, if the change was committed
 	 */
 	@Override
-	protected synchronized boolean commitChangeImpl(RepositoryModel repository, long ticketId, Change change) {
-		boolean success = false;
-
-		Repository db = repositoryManager.getRepository(repository.name);
+	protected boolean commitChangeImpl(RepositoryModel repository, long ticketId, Change change) {
+		Lock lock = getTicketLock(repository, ticketId);
+		lock.lock();
 		try {
-			List<Change> changes = getJournal(db, ticketId);
-			changes.add(change);
-			String journal = TicketSerializer.serializeJournal(changes).trim();
-
-			String journalPath = toTicketPath(ticketId) + "/" + JOURNAL;
-			File file = new File(db.getDirectory(), journalPath);
-			file.getParentFile().mkdirs();
-			FileUtils.writeContent(file, journal);
-			success = true;
-		} catch (Throwable t) {
-			log.error(MessageFormat.format("Failed to commit ticket {0,number,0} to {1}",
-					ticketId, db.getDirectory()), t);
+			boolean success = false;
+
+			Repository db = repositoryManager.getRepository(repository.name);
+			try {
+				String ticketPath = toTicketPath(ticketId);
+				File file = new File(db.getDirectory(), ticketPath + "/" + JOURNAL);
+				byte [] content = file.exists() ? FileUtils.readContent(file) : new byte[0];
+				byte [] journal = appendJournal(content, change);
+
+				File snapshot = new File(db.getDirectory(), ticketPath + "/" + SNAPSHOT);
+				snapshot.delete();
+
+				file.getParentFile().mkdirs();
+				if (TicketJournalCodec.isJournal(content)) {
+					Files.write(file.toPath(), Arrays.copyOfRange(journal, content.length, journal.length),
+							StandardOpenOption.APPEND);
+				} else {
+					Files.write(file.toPath(), journal);
+				}
+				getIdIndex(repository).add(ticketId);
+
+				TicketModel ticket = buildSnapshot(repository, ticketId, TicketSerializer.deserializeJournal(journal));
+				writeSnapshot(snapshot, ticket);
+				success = true;
+			} catch (Throwable t) {
+				log.error(MessageFormat.format("Failed to commit ticket {0,number,0} to {1}",
+						ticketId, db.getDirectory()), t);
+			} finally {
+				db.close();
+			}
+			return success;
 		} finally {
-			db.close();
+			lock.unlock();
 		}
-		return success;
 	}
 
 	@Override
@@ -497,6 +569,7 @@ public class FileTicketService extends ITicketService {
 			return true;
 		}
 		try {
+			ticketIds.remove(repository.name);
 			File dir = new File(db.getDirectory(), TICKETS_PATH);
 			return FileUtils.delete(dir);
 		} catch (Exception e) {
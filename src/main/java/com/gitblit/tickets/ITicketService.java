@@ -16,10 +16,12 @@
 package com.gitblit.tickets;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
@@ -27,12 +29,15 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.gitblit.Constants;
 import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.extensions.TicketHook;
@@ -59,6 +64,7 @@ import com.gitblit.utils.DiffUtils.DiffStat;
 import com.gitblit.utils.StringUtils;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
 
 /**
  * Abstract parent class of a ticket service that stubs out required methods
@@ -71,6 +77,8 @@ public abstract class ITicketService implements IManager {
 
 	public static final String SETTING_UPDATE_DIFFSTATS = "migration.updateDiffstats";
 
+	private static final int LOCK_STRIPES = 256;
+
 	private static final String LABEL = "label";
 
 	private static final String MILESTONE = "milestone";
@@ -115,6 +123,14 @@ public abstract class ITicketService implements IManager {
 
 	private final boolean updateDiffstats;
 
+	private final Striped<Lock> repositoryLocks;
+
+	private final Striped<Lock> ticketLocks;
+
+	private final Map<String, AtomicLong> lastAssignedIds;
+
+	private final Set<String> staleAssignedIds;
+
 	private static class TicketKey {
 		final String repository;
 		final long ticketId;
@@ -174,6 +190,11 @@ public abstract class ITicketService implements IManager {
 		this.milestonesCache = new ConcurrentHashMap<String, List<TicketMilestone>>();
 
 		this.updateDiffstats = settings.getBoolean(SETTING_UPDATE_DIFFSTATS, true);
+
+		this.repositoryLocks = Striped.lazyWeakLock(LOCK_STRIPES);
+		this.ticketLocks = Striped.lazyWeakLock(LOCK_STRIPES);
+		this.lastAssignedIds = new ConcurrentHashMap<String, AtomicLong>();
+		this.staleAssignedIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	}
 
 	/**
@@ -304,6 +325,7 @@ public abstract class ITicketService implements IManager {
 		ticketsCache.invalidateAll();
 		labelsCache.clear();
 		milestonesCache.clear();
+		staleAssignedIds.addAll(lastAssignedIds.keySet());
 		resetCachesImpl();
 	}
 
@@ -327,9 +349,75 @@ public abstract class ITicketService implements IManager {
 		ticketsCache.invalidateAll(repoKeys);
 		labelsCache.remove(repository.name);
 		milestonesCache.remove(repository.name);
+		staleAssignedIds.add(repository.name);
 		resetCachesImpl(repository);
 	}
 
+	/**
+	 * Returns the lock which serializes changes to the tickets, labels, and
+	 * milestones of a repository.  Locks are striped by repository name so
+	 * changes to different repositories rarely contend.  The lock of a ticket
+	 * may be acquired while holding the lock of its repository but not the
+	 * reverse, and the locks of two repositories must not be held together.
+	 *
+	 * @param repository
+	 * @return the repository lock
+	 */
+	protected Lock getRepositoryLock(RepositoryModel repository) {
+		return repositoryLocks.get(repository.name);
+	}
+
+	/**
+	 * Returns the lock which serializes changes to a ticket.  This lock is
+	 * sufficient for backends which store each ticket independently.
+	 *
+	 * @param repository
+	 * @param ticketId
+	 * @return the ticket lock
+	 */
+	protected Lock getTicketLock(RepositoryModel repository, long ticketId) {
+		return ticketLocks.get(repository.name + ":" + ticketId);
+	}
+
+	/**
+	 * Allocates the next ticket id of a repository.  The allocator is seeded
+	 * with the highest assigned id on first use and then allocates ids
+	 * without locking.  A reset of the caches reseeds the allocator on next
+	 * use but never moves it backwards, because an allocated id may not have
+	 * been written yet.
+	 *
+	 * @param repository
+	 * @return the next ticket id
+	 */
+	protected long nextTicketId(RepositoryModel repository) {
+		AtomicLong lastId = lastAssignedIds.get(repository.name);
+		if (lastId == null || staleAssignedIds.contains(repository.name)) {
+			Lock lock = getRepositoryLock(repository);
+			lock.lock();
+			try {
+				lastId = lastAssignedIds.get(repository.name);
+				if (staleAssignedIds.remove(repository.name) || lastId == null) {
+					long maxId = 0;
+					for (long id : getIds(repository)) {
+						maxId = Math.max(maxId, id);
+					}
+					if (lastId == null) {
+						lastId = new AtomicLong(maxId);
+						lastAssignedIds.put(repository.name, lastId);
+					} else {
+						long current = lastId.get();
+						while (current < maxId && !lastId.compareAndSet(current, maxId)) {
+							current = lastId.get();
+						}
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return lastId.incrementAndGet();
+	}
+
 	/**
 	 * Reset the caches for the specified repository.
 	 *
@@ -399,22 +487,28 @@ public abstract class ITicketService implements IManager {
 	 * @return the label
 	 * @since 1.4.0
 	 */
-	public synchronized TicketLabel createLabel(RepositoryModel repository, String label, String createdBy) {
-		TicketLabel lb = new TicketMilestone(label);
-		Repository db = null;
+	public TicketLabel createLabel(RepositoryModel repository, String label, String createdBy) {
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
-			db = repositoryManager.getRepository(repository.name);
-			StoredConfig config = db.getConfig();
-			config.setString(LABEL, label, COLOR, lb.color);
-			config.save();
-		} catch (IOException e) {
-			log.error("failed to create label " + label + " in " + repository, e);
-		} finally {
-			if (db != null) {
-				db.close();
+			TicketLabel lb = new TicketMilestone(label);
+			Repository db = null;
+			try {
+				db = repositoryManager.getRepository(repository.name);
+				StoredConfig config = db.getConfig();
+				config.setString(LABEL, label, COLOR, lb.color);
+				config.save();
+			} catch (IOException e) {
+				log.error("failed to create label " + label + " in " + repository, e);
+			} finally {
+				if (db != null) {
+					db.close();
+				}
 			}
+			return lb;
+		} finally {
+			lock.unlock();
 		}
-		return lb;
 	}
 
 	/**
@@ -426,23 +520,29 @@ public abstract class ITicketService implements IManager {
 	 * @return true if the update was successful
 	 * @since 1.4.0
 	 */
-	public synchronized boolean updateLabel(RepositoryModel repository, TicketLabel label, String createdBy) {
-		Repository db = null;
+	public boolean updateLabel(RepositoryModel repository, TicketLabel label, String createdBy) {
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
-			db = repositoryManager.getRepository(repository.name);
-			StoredConfig config = db.getConfig();
-			config.setString(LABEL, label.name, COLOR, label.color);
-			config.save();
-
-			return true;
-		} catch (IOException e) {
-			log.error("failed to update label " + label + " in " + repository, e);
-		} finally {
-			if (db != null) {
-				db.close();
+			Repository db = null;
+			try {
+				db = repositoryManager.getRepository(repository.name);
+				StoredConfig config = db.getConfig();
+				config.setString(LABEL, label.name, COLOR, label.color);
+				config.save();
+
+				return true;
+			} catch (IOException e) {
+				log.error("failed to update label " + label + " in " + repository, e);
+			} finally {
+				if (db != null) {
+					db.close();
+				}
 			}
+			return false;
+		} finally {
+			lock.unlock();
 		}
-		return false;
 	}
 
 	/**
@@ -455,35 +555,41 @@ public abstract class ITicketService implements IManager {
 	 * @return true if the rename was successful
 	 * @since 1.4.0
 	 */
-	public synchronized boolean renameLabel(RepositoryModel repository, String oldName, String newName, String createdBy) {
-		if (StringUtils.isEmpty(newName)) {
-			throw new IllegalArgumentException("new label can not be empty!");
-		}
-		Repository db = null;
+	public boolean renameLabel(RepositoryModel repository, String oldName, String newName, String createdBy) {
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
-			db = repositoryManager.getRepository(repository.name);
-			TicketLabel label = getLabel(repository, oldName);
-			StoredConfig config = db.getConfig();
-			config.unsetSection(LABEL, oldName);
-			config.setString(LABEL, newName, COLOR, label.color);
-			config.save();
-
-			for (QueryResult qr : label.tickets) {
-				Change change = new Change(createdBy);
-				change.unlabel(oldName);
-				change.label(newName);
-				updateTicket(repository, qr.number, change);
+			if (StringUtils.isEmpty(newName)) {
+				throw new IllegalArgumentException("new label can not be empty!");
 			}
+			Repository db = null;
+			try {
+				db = repositoryManager.getRepository(repository.name);
+				TicketLabel label = getLabel(repository, oldName);
+				StoredConfig config = db.getConfig();
+				config.unsetSection(LABEL, oldName);
+				config.setString(LABEL, newName, COLOR, label.color);
+				config.save();
+
+				for (QueryResult qr : label.tickets) {
+					Change change = new Change(createdBy);
+					change.unlabel(oldName);
+					change.label(newName);
+					updateTicket(repository, qr.number, change);
+				}
 
-			return true;
-		} catch (IOException e) {
-			log.error("failed to rename label " + oldName + " in " + repository, e);
-		} finally {
-			if (db != null) {
-				db.close();
+				return true;
+			} catch (IOException e) {
+				log.error("failed to rename label " + oldName + " in " + repository, e);
+			} finally {
+				if (db != null) {
+					db.close();
+				}
 			}
+			return false;
+		} finally {
+			lock.unlock();
 		}
-		return false;
 	}
 
 	/**
@@ -495,26 +601,32 @@ public abstract class ITicketService implements IManager {
 	 * @return true if the delete was successful
 	 * @since 1.4.0
 	 */
-	public synchronized boolean deleteLabel(RepositoryModel repository, String label, String createdBy) {
-		if (StringUtils.isEmpty(label)) {
-			throw new IllegalArgumentException("label can not be empty!");
-		}
-		Repository db = null;
+	public boolean deleteLabel(RepositoryModel repository, String label, String createdBy) {
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
-			db = repositoryManager.getRepository(repository.name);
-			StoredConfig config = db.getConfig();
-			config.unsetSection(LABEL, label);
-			config.save();
-
-			return true;
-		} catch (IOException e) {
-			log.error("failed to delete label " + label + " in " + repository, e);
-		} finally {
-			if (db != null) {
-				db.close();
+			if (StringUtils.isEmpty(label)) {
+				throw new IllegalArgumentException("label can not be empty!");
+			}
+			Repository db = null;
+			try {
+				db = repositoryManager.getRepository(repository.name);
+				StoredConfig config = db.getConfig();
+				config.unsetSection(LABEL, label);
+				config.save();
+
+				return true;
+			} catch (IOException e) {
+				log.error("failed to delete label " + label + " in " + repository, e);
+			} finally {
+				if (db != null) {
+					db.close();
+				}
 			}
+			return false;
+		} finally {
+			lock.unlock();
 		}
-		return false;
 	}
 
 	/**
@@ -605,25 +717,31 @@ public abstract class ITicketService implements IManager {
 	 * @return the milestone
 	 * @since 1.4.0
 	 */
-	public synchronized TicketMilestone createMilestone(RepositoryModel repository, String milestone, String createdBy) {
-		TicketMilestone ms = new TicketMilestone(milestone);
-		Repository db = null;
+	public TicketMilestone createMilestone(RepositoryModel repository, String milestone, String createdBy) {
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
-			db = repositoryManager.getRepository(repository.name);
-			StoredConfig config = db.getConfig();
-			config.setString(MILESTONE, milestone, STATUS, ms.status.name());
-			config.setString(MILESTONE, milestone, COLOR, ms.color);
-			config.save();
-
-			milestonesCache.remove(repository.name);
-		} catch (IOException e) {
-			log.error("failed to create milestone " + milestone + " in " + repository, e);
-		} finally {
-			if (db != null) {
-				db.close();
+			TicketMilestone ms = new TicketMilestone(milestone);
+			Repository db = null;
+			try {
+				db = repositoryManager.getRepository(repository.name);
+				StoredConfig config = db.getConfig();
+				config.setString(MILESTONE, milestone, STATUS, ms.status.name());
+				config.setString(MILESTONE, milestone, COLOR, ms.color);
+				config.save();
+
+				milestonesCache.remove(repository.name);
+			} catch (IOException e) {
+				log.error("failed to create milestone " + milestone + " in " + repository, e);
+			} finally {
+				if (db != null) {
+					db.close();
+				}
 			}
+			return ms;
+		} finally {
+			lock.unlock();
 		}
-		return ms;
 	}
 
 	/**
@@ -635,29 +753,35 @@ public abstract class ITicketService implements IManager {
 	 * @return true if successful
 	 * @since 1.4.0
 	 */
-	public synchronized boolean updateMilestone(RepositoryModel repository, TicketMilestone milestone, String createdBy) {
-		Repository db = null;
+	public boolean updateMilestone(RepositoryModel repository, TicketMilestone milestone, String createdBy) {
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
-			db = repositoryManager.getRepository(repository.name);
-			StoredConfig config = db.getConfig();
-			config.setString(MILESTONE, milestone.name, STATUS, milestone.status.name());
-			config.setString(MILESTONE, milestone.name, COLOR, milestone.color);
-			if (milestone.due != null) {
-				config.setString(MILESTONE, milestone.name, DUE,
-						new SimpleDateFormat(DUE_DATE_PATTERN).format(milestone.due));
+			Repository db = null;
+			try {
+				db = repositoryManager.getRepository(repository.name);
+				StoredConfig config = db.getConfig();
+				config.setString(MILESTONE, milestone.name, STATUS, milestone.status.name());
+				config.setString(MILESTONE, milestone.name, COLOR, milestone.color);
+				if (milestone.due != null) {
+					config.setString(MILESTONE, milestone.name, DUE,
+							new SimpleDateFormat(DUE_DATE_PATTERN).format(milestone.due));
+				}
+				config.save();
+
+				milestonesCache.remove(repository.name);
+				return true;
+			} catch (IOException e) {
+				log.error("failed to update milestone " + milestone + " in " + repository, e);
+			} finally {
+				if (db != null) {
+					db.close();
+				}
 			}
-			config.save();
-
-			milestonesCache.remove(repository.name);
-			return true;
-		} catch (IOException e) {
-			log.error("failed to update milestone " + milestone + " in " + repository, e);
+			return false;
 		} finally {
-			if (db != null) {
-				db.close();
-			}
+			lock.unlock();
 		}
-		return false;
 	}
 
 	/**
@@ -670,7 +794,7 @@ public abstract class ITicketService implements IManager {
 	 * @return true if successful
 	 * @since 1.4.0
 	 */
-	public synchronized boolean renameMilestone(RepositoryModel repository, String oldName, String newName, String createdBy) {
+	public boolean renameMilestone(RepositoryModel repository, String oldName, String newName, String createdBy) {
 		return renameMilestone(repository, oldName, newName, createdBy, true);
 	}
 
@@ -685,52 +809,58 @@ public abstract class ITicketService implements IManager {
 	 * @return true if successful
 	 * @since 1.6.0
 	 */
-	public synchronized boolean renameMilestone(RepositoryModel repository, String oldName,
+	public boolean renameMilestone(RepositoryModel repository, String oldName,
 			String newName, String createdBy, boolean notifyOpenTickets) {
-		if (StringUtils.isEmpty(newName)) {
-			throw new IllegalArgumentException("new milestone can not be empty!");
-		}
-		Repository db = null;
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
-			db = repositoryManager.getRepository(repository.name);
-			TicketMilestone tm = getMilestone(repository, oldName);
-			if (tm == null) {
-				return false;
-			}
-			StoredConfig config = db.getConfig();
-			config.unsetSection(MILESTONE, oldName);
-			config.setString(MILESTONE, newName, STATUS, tm.status.name());
-			config.setString(MILESTONE, newName, COLOR, tm.color);
-			if (tm.due != null) {
-				config.setString(MILESTONE, newName, DUE,
-						new SimpleDateFormat(DUE_DATE_PATTERN).format(tm.due));
+			if (StringUtils.isEmpty(newName)) {
+				throw new IllegalArgumentException("new milestone can not be empty!");
 			}
-			config.save();
+			Repository db = null;
+			try {
+				db = repositoryManager.getRepository(repository.name);
+				TicketMilestone tm = getMilestone(repository, oldName);
+				if (tm == null) {
+					return false;
+				}
+				StoredConfig config = db.getConfig();
+				config.unsetSection(MILESTONE, oldName);
+				config.setString(MILESTONE, newName, STATUS, tm.status.name());
+				config.setString(MILESTONE, newName, COLOR, tm.color);
+				if (tm.due != null) {
+					config.setString(MILESTONE, newName, DUE,
+							new SimpleDateFormat(DUE_DATE_PATTERN).format(tm.due));
+				}
+				config.save();
 
-			milestonesCache.remove(repository.name);
+				milestonesCache.remove(repository.name);
 
-			TicketNotifier notifier = createNotifier();
-			for (QueryResult qr : tm.tickets) {
-				Change change = new Change(createdBy);
-				change.setField(Field.milestone, newName);
-				TicketModel ticket = updateTicket(repository, qr.number, change);
-				if (notifyOpenTickets && ticket.isOpen()) {
-					notifier.queueMailing(ticket);
+				TicketNotifier notifier = createNotifier();
+				for (QueryResult qr : tm.tickets) {
+					Change change = new Change(createdBy);
+					change.setField(Field.milestone, newName);
+					TicketModel ticket = updateTicket(repository, qr.number, change);
+					if (notifyOpenTickets && ticket.isOpen()) {
+						notifier.queueMailing(ticket);
+					}
+				}
+				if (notifyOpenTickets) {
+					notifier.sendAll();
 				}
-			}
-			if (notifyOpenTickets) {
-				notifier.sendAll();
-			}
 
-			return true;
-		} catch (IOException e) {
-			log.error("failed to rename milestone " + oldName + " in " + repository, e);
-		} finally {
-			if (db != null) {
-				db.close();
+				return true;
+			} catch (IOException e) {
+				log.error("failed to rename milestone " + oldName + " in " + repository, e);
+			} finally {
+				if (db != null) {
+					db.close();
+				}
 			}
+			return false;
+		} finally {
+			lock.unlock();
 		}
-		return false;
 	}
 
 	/**
@@ -742,7 +872,7 @@ public abstract class ITicketService implements IManager {
 	 * @return true if successful
 	 * @since 1.4.0
 	 */
-	public synchronized boolean deleteMilestone(RepositoryModel repository, String milestone, String createdBy) {
+	public boolean deleteMilestone(RepositoryModel repository, String milestone, String createdBy) {
 		return deleteMilestone(repository, milestone, createdBy, true);
 	}
 
@@ -756,45 +886,51 @@ public abstract class ITicketService implements IManager {
 	 * @return true if successful
 	 * @since 1.6.0
 	 */
-	public synchronized boolean deleteMilestone(RepositoryModel repository, String milestone,
+	public boolean deleteMilestone(RepositoryModel repository, String milestone,
 			String createdBy, boolean notifyOpenTickets) {
-		if (StringUtils.isEmpty(milestone)) {
-			throw new IllegalArgumentException("milestone can not be empty!");
-		}
-		Repository db = null;
+		Lock lock = getRepositoryLock(repository);
+		lock.lock();
 		try {
-			TicketMilestone tm = getMilestone(repository, milestone);
-			if (tm == null) {
-				return false;
+			if (StringUtils.isEmpty(milestone)) {
+				throw new IllegalArgumentException("milestone can not be empty!");
 			}
-			db = repositoryManager.getRepository(repository.name);
-			StoredConfig config = db.getConfig();
-			config.unsetSection(MILESTONE, milestone);
-			config.save();
-
-			milestonesCache.remove(repository.name);
-
-			TicketNotifier notifier = createNotifier();
-			for (QueryResult qr : tm.tickets) {
-				Change change = new Change(createdBy);
-				change.setField(Field.milestone, "");
-				TicketModel ticket = updateTicket(repository, qr.number, change);
-				if (notifyOpenTickets && ticket.isOpen()) {
-					notifier.queueMailing(ticket);
+			Repository db = null;
+			try {
+				TicketMilestone tm = getMilestone(repository, milestone);
+				if (tm == null) {
+					return false;
+				}
+				db = repositoryManager.getRepository(repository.name);
+				StoredConfig config = db.getConfig();
+				config.unsetSection(MILESTONE, milestone);
+				config.save();
+
+				milestonesCache.remove(repository.name);
+
+				TicketNotifier notifier = createNotifier();
+				for (QueryResult qr : tm.tickets) {
+					Change change = new Change(createdBy);
+					change.setField(Field.milestone, "");
+					TicketModel ticket = updateTicket(repository, qr.number, change);
+					if (notifyOpenTickets && ticket.isOpen()) {
+						notifier.queueMailing(ticket);
+					}
+				}
+				if (notifyOpenTickets) {
+					notifier.sendAll();
+				}
+				return true;
+			} catch (IOException e) {
+				log.error("failed to delete milestone " + milestone + " in " + repository, e);
+			} finally {
+				if (db != null) {
+					db.close();
 				}
 			}
-			if (notifyOpenTickets) {
-				notifier.sendAll();
-			}
-			return true;
-		} catch (IOException e) {
-			log.error("failed to delete milestone " + milestone + " in " + repository, e);
+			return false;
 		} finally {
-			if (db != null) {
-				db.close();
-			}
+			lock.unlock();
 		}
-		return false;
 	}
 
 	/**
@@ -838,7 +974,7 @@ public abstract class ITicketService implements IManager {
 
 	/**
 	 * Returns all tickets that satisfy the filter. Retrieving tickets from the
-	 * service requires deserializing all journals and building ticket models.
+	 * service requires deserializing the materialized snapshot of every ticket.
 	 * This is an  expensive process and not recommended. Instead, the queryFor
 	 * method should be used which executes against the Lucene index.
 	 *
@@ -850,6 +986,51 @@ public abstract class ITicketService implements IManager {
 	 */
 	public abstract List<TicketModel> getTickets(RepositoryModel repository, TicketFilter filter);
 
+	/**
+	 * Builds the materialized snapshot of a ticket from its journal.  Building
+	 * a ticket modifies its changes so the journal must be freshly deserialized
+	 * rather than share the committed changes.
+	 *
+	 * @param repository
+	 * @param ticketId
+	 * @param journal
+	 * @return the ticket snapshot
+	 */
+	protected TicketModel buildSnapshot(RepositoryModel repository, long ticketId, List<Change> journal) {
+		TicketModel ticket = TicketModel.buildTicket(journal);
+		ticket.project = repository.projectPath;
+		ticket.repository = repository.name;
+		ticket.number = ticketId;
+		return ticket;
+	}
+
+	/**
+	 * Appends a change to a serialized journal.  A binary journal is extended
+	 * by one frame without re-encoding the existing changes.  A JSON journal is
+	 * rewritten, in the binary format if binary journals are enabled, so JSON
+	 * journals are migrated as their tickets are updated.
+	 *
+	 * @param journal
+	 *            the serialized journal, may be empty
+	 * @param change
+	 * @return the serialized journal including the change
+	 */
+	protected byte [] appendJournal(byte [] journal, Change change) {
+		if (TicketJournalCodec.isJournal(journal)) {
+			byte [] frame = TicketJournalCodec.append(journal, change);
+			byte [] content = Arrays.copyOf(journal, journal.length + frame.length);
+			System.arraycopy(frame, 0, content, journal.length, frame.length);
+			return content;
+		}
+		List<Change> changes = TicketSerializer.deserializeJournal(journal);
+		changes.add(change);
+		if (settings.getBoolean(Keys.tickets.binaryJournals, false)) {
+			return TicketSerializer.serializeBinaryJournal(changes);
+		}
+		String json = TicketSerializer.serializeJournal(changes).trim();
+		return json.getBytes(Charset.forName(Constants.ENCODING));
+	}
+
 	/**
 	 * Retrieves the ticket.
 	 *
@@ -17,8 +17,11 @@ package com.gitblit.tickets;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -27,9 +30,14 @@ import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import redis.clients.jedis.Client;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.Transaction;
 import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
 
 import com.gitblit.Keys;
 import com.gitblit.manager.INotificationManager;
@@ -51,6 +59,10 @@ import com.google.inject.Singleton;
  * tickets are persisted in the Redis store so it must be configured for
  * durability otherwise tickets are lost on a flush or restart.  Tickets are
  * indexed with Lucene and all queries are executed against the Lucene index.
+ * Each ticket is stored as a journal and a materialized snapshot, and the ids
+ * of the tickets in a repository are stored in a set so listing tickets does
+ * not need to replay every journal or scan the keyspace.  Reads of several
+ * keys are pipelined so that a request costs as few round trips as possible.
  *
  * @author James Moger
  *
@@ -58,10 +70,16 @@ import com.google.inject.Singleton;
 @Singleton
 public class RedisTicketService extends ITicketService {
 
+	private static final int SCAN_COUNT = 1000;
+
+	private static final int MGET_BATCH = 100;
+
 	private final JedisPool pool;
 
+	private volatile String url;
+
 	private enum KeyType {
-		journal, ticket, counter
+		journal, ticket, counter, ids
 	}
 
 	@Inject
@@ -144,11 +162,15 @@ public class RedisTicketService extends ITicketService {
 	}
 
 	private String getUrl() {
+		if (url != null) {
+			return url;
+		}
 		Jedis jedis = pool.getResource();
 		try {
 			if (jedis != null) {
 				Client client = jedis.getClient();
-				return client.getHost() + ":" + client.getPort() + "/" + client.getDB();
+				url = client.getHost() + ":" + client.getPort() + "/" + client.getDB();
+				return url;
 			}
 		} catch (JedisException e) {
 			pool.returnBrokenResource(jedis);
@@ -196,16 +218,13 @@ public class RedisTicketService extends ITicketService {
 	public Set<Long> getIds(RepositoryModel repository) {
 		Set<Long> ids = new TreeSet<Long>();
 		Jedis jedis = pool.getResource();
-		try {// account for migrated tickets
-			Set<String> keys = jedis.keys(key(repository, KeyType.journal, "*"));
-			for (String tkey : keys) {
-				// {repo}:journal:{id}
-				String id = tkey.split(":")[2];
-				long ticketId = Long.parseLong(id);
-				ids.add(ticketId);
-			}
+		if (jedis == null) {
+			return ids;
+		}
+		try {
+			ids.addAll(getIds(jedis, repository));
 		} catch (JedisException e) {
-			log.error("failed to assign new ticket id in Redis @ " + getUrl(), e);
+			log.error("failed to retrieve ticket ids from Redis @ " + getUrl(), e);
 			pool.returnBrokenResource(jedis);
 			jedis = null;
 		} finally {
@@ -216,6 +235,65 @@ public class RedisTicketService extends ITicketService {
 		return ids;
 	}
 
+	/**
+	 * Returns the ticket ids of the repository from the id set.  If the set
+	 * does not exist, e.g. for tickets stored by an earlier release, it is
+	 * built by scanning the journal keys.
+	 *
+	 * @param jedis
+	 * @param repository
+	 * @return the ticket ids
+	 */
+	private Set<Long> getIds(Jedis jedis, RepositoryModel repository) throws JedisException {
+		Set<Long> ids = new TreeSet<Long>();
+		String idsKey = key(repository, KeyType.ids, null);
+		Pipeline pipeline = jedis.pipelined();
+		Response<Boolean> exists = pipeline.exists(idsKey);
+		Response<Set<String>> members = pipeline.smembers(idsKey);
+		pipeline.sync();
+		if (exists.get()) {
+			for (String id : members.get()) {
+				ids.add(Long.parseLong(id));
+			}
+			return ids;
+		}
+
+		// account for migrated tickets
+		for (String key : scan(jedis, key(repository, KeyType.journal, "*"))) {
+			// {repo}:journal:{id}
+			String id = key.substring(key.lastIndexOf(':') + 1);
+			ids.add(Long.parseLong(id));
+		}
+		if (!ids.isEmpty()) {
+			List<String> members = new ArrayList<String>();
+			for (long id : ids) {
+				members.add("" + id);
+			}
+			jedis.sadd(idsKey, members.toArray(new String[members.size()]));
+		}
+		return ids;
+	}
+
+	/**
+	 * Incrementally iterates the keys which match the pattern.  Unlike KEYS,
+	 * SCAN does not block the Redis server while the keyspace is traversed.
+	 *
+	 * @param jedis
+	 * @param pattern
+	 * @return the matching keys
+	 */
+	private Set<String> scan(Jedis jedis, String pattern) throws JedisException {
+		Set<String> keys = new TreeSet<String>();
+		ScanParams params = new ScanParams().match(pattern).count(SCAN_COUNT);
+		String cursor = ScanParams.SCAN_POINTER_START;
+		do {
+			ScanResult<String> result = jedis.scan(cursor, params);
+			keys.addAll(result.getResult());
+			cursor = result.getStringCursor();
+		} while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+		return keys;
+	}
+
 	/**
 	 * Assigns a new ticket id.
 	 *
@@ -223,7 +301,7 @@ public class RedisTicketService extends ITicketService {
 	 * @return a new long ticket id
 	 */
 	@Override
-	public synchronized long assignNewId(RepositoryModel repository) {
+	public long assignNewId(RepositoryModel repository) {
 		Jedis jedis = pool.getResource();
 		try {
 			String key = key(repository, KeyType.counter, null);
@@ -236,7 +314,8 @@ public class RedisTicketService extends ITicketService {
 						lastId = id;
 					}
 				}
-				jedis.set(key, "" + lastId);
+				// another instance may have seeded the counter meanwhile
+				jedis.setnx(key, "" + lastId);
 			}
 			long ticketNumber = jedis.incr(key);
 			return ticketNumber;
@@ -253,10 +332,10 @@ public class RedisTicketService extends ITicketService {
 	}
 
 	/**
-	 * Returns all the tickets in the repository. Querying tickets from the
-	 * repository requires deserializing all tickets. This is an  expensive
-	 * process and not recommended. Tickets should be indexed by Lucene and
-	 * queries should be executed against that index.
+	 * Returns all the tickets in the repository. The materialized snapshots of
+	 * the tickets are retrieved with pipelined MGET requests.  A ticket without
+	 * a snapshot is rebuilt from its journal.  Tickets should be indexed by
+	 * Lucene and queries should be executed against that index.
 	 *
 	 * @param repository
 	 * @param filter
@@ -271,18 +350,50 @@ public class RedisTicketService extends ITicketService {
 			return list;
 		}
 		try {
-			// Deserialize each journal, build the ticket, and optionally filter
-			Set<String> keys = jedis.keys(key(repository, KeyType.journal, "*"));
-			for (String key : keys) {
-				// {repo}:journal:{id}
-				String id = key.split(":")[2];
-				long ticketId = Long.parseLong(id);
-				List<Change> changes = getJournal(jedis, repository, ticketId);
-				if (ArrayUtils.isEmpty(changes)) {
-					log.warn("Empty journal for {}:{}", repository, ticketId);
-					continue;
+			List<Long> ids = new ArrayList<Long>(getIds(jedis, repository));
+
+			// request the snapshots in batches within a single pipeline
+			Pipeline pipeline = jedis.pipelined();
+			List<Response<List<String>>> responses = new ArrayList<Response<List<String>>>();
+			for (int i = 0; i < ids.size(); i += MGET_BATCH) {
+				List<Long> batch = ids.subList(i, Math.min(ids.size(), i + MGET_BATCH));
+				String [] keys = new String[batch.size()];
+				for (int j = 0; j < keys.length; j++) {
+					keys[j] = key(repository, KeyType.ticket, batch.get(j));
+				}
+				responses.add(pipeline.mget(keys));
+			}
+			pipeline.sync();
+
+			List<String> snapshots = new ArrayList<String>(ids.size());
+			for (Response<List<String>> response : responses) {
+				snapshots.addAll(response.get());
+			}
+
+			// fetch the journals of tickets without a snapshot in one pipeline
+			List<Long> missing = new ArrayList<Long>();
+			for (int i = 0; i < ids.size(); i++) {
+				if (isNull(snapshots.get(i))) {
+					missing.add(ids.get(i));
+				}
+			}
+			Map<Long, List<Change>> journals = getJournals(jedis, repository, missing);
+
+			// Deserialize each snapshot and optionally filter
+			for (int i = 0; i < ids.size(); i++) {
+				long ticketId = ids.get(i);
+				String snapshot = snapshots.get(i);
+				TicketModel ticket;
+				if (isNull(snapshot)) {
+					List<Change> changes = journals.get(ticketId);
+					if (ArrayUtils.isEmpty(changes)) {
+						log.warn("Empty journal for {}:{}", repository, ticketId);
+						continue;
+					}
+					ticket = TicketModel.buildTicket(changes);
+				} else {
+					ticket = TicketSerializer.deserializeTicket(snapshot);
 				}
-				TicketModel ticket = TicketModel.buildTicket(changes);
 				ticket.project = repository.projectPath;
 				ticket.repository = repository.name;
 				ticket.number = ticketId;
@@ -393,21 +504,38 @@ public class RedisTicketService extends ITicketService {
 		if (ticketId <= 0L) {
 			return new ArrayList<Change>();
 		}
-		List<String> entries = jedis.lrange(key(repository, KeyType.journal, ticketId), 0, -1);
-		if (entries.size() > 0) {
-			// build a json array from the individual entries
-			StringBuilder sb = new StringBuilder();
-			sb.append("[");
-			for (String entry : entries) {
-				sb.append(entry).append(',');
-			}
-			sb.setLength(sb.length() - 1);
-			sb.append(']');
-			String journal = sb.toString();
+		// entries are JSON changes or binary frames
+		byte [] key = SafeEncoder.encode(key(repository, KeyType.journal, ticketId));
+		List<byte []> entries = jedis.lrange(key, 0, -1);
+		return TicketJournalCodec.decodeFrames(entries);
+	}
 
-			return TicketSerializer.deserializeJournal(journal);
+	/**
+	 * Returns the journals of the specified tickets, requested in a single
+	 * pipeline.
+	 *
+	 * @param jedis
+	 * @param repository
+	 * @param ticketIds
+	 * @return a map of ticket id to journal
+	 */
+	private Map<Long, List<Change>> getJournals(Jedis jedis, RepositoryModel repository,
+			Collection<Long> ticketIds) throws JedisException {
+		Map<Long, List<Change>> journals = new HashMap<Long, List<Change>>();
+		if (ticketIds.isEmpty()) {
+			return journals;
+		}
+		Pipeline pipeline = jedis.pipelined();
+		Map<Long, Response<List<byte []>>> responses = new HashMap<Long, Response<List<byte []>>>();
+		for (long ticketId : ticketIds) {
+			byte [] key = SafeEncoder.encode(key(repository, KeyType.journal, ticketId));
+			responses.put(ticketId, pipeline.lrange(key, 0, -1));
 		}
-		return new ArrayList<Change>();
+		pipeline.sync();
+		for (Map.Entry<Long, Response<List<byte []>>> entry : responses.entrySet()) {
+			journals.put(entry.getKey(), TicketJournalCodec.decodeFrames(entry.getValue().get()));
+		}
+		return journals;
 	}
 
 	@Override
@@ -451,6 +579,7 @@ public class RedisTicketService extends ITicketService {
 			Transaction t = jedis.multi();
 			t.del(key(repository, KeyType.ticket, ticket.number));
 			t.del(key(repository, KeyType.journal, ticket.number));
+			t.srem(key(repository, KeyType.ids, null), "" + ticket.number);
 			t.exec();
 
 			success = true;
@@ -483,18 +612,58 @@ public class RedisTicketService extends ITicketService {
 			return false;
 		}
 		try {
-			List<Change> changes = getJournal(jedis, repository, ticketId);
-			changes.add(change);
-			// build a new effective ticket from the changes
-			TicketModel ticket = TicketModel.buildTicket(changes);
+			// read the journal and check the id set in one round trip
+			String idsKey = key(repository, KeyType.ids, null);
+			byte [] journalKey = SafeEncoder.encode(key(repository, KeyType.journal, ticketId));
+			Pipeline pipeline = jedis.pipelined();
+			Response<Boolean> idsExist = pipeline.exists(idsKey);
+			Response<List<byte []>> journalEntries = pipeline.lrange(journalKey, 0, -1);
+			pipeline.sync();
+			if (!idsExist.get()) {
+				// ensure the id set exists before adding to it
+				getIds(jedis, repository);
+			}
+			List<byte []> entries = journalEntries.get();
+			boolean binaryJournals = settings.getBoolean(Keys.tickets.binaryJournals, false);
+			boolean json = false;
+			for (byte [] entry : entries) {
+				if (!TicketJournalCodec.isFrame(entry)) {
+					json = true;
+					break;
+				}
+			}
+			// a binary journal is always appended to in the binary format and a
+			// JSON journal is migrated when binary journals are enabled
+			boolean binary = entries.isEmpty() ? binaryJournals : !json;
+			boolean migrate = json && binaryJournals;
+
+			List<byte []> journal = new ArrayList<byte []>();
+			if (migrate) {
+				List<Change> changes = TicketJournalCodec.decodeFrames(entries);
+				changes.add(change);
+				journal.addAll(TicketJournalCodec.encodeFrames(changes));
+			} else if (binary) {
+				journal.add(TicketJournalCodec.encodeFrame(entries, change));
+			} else {
+				journal.add(SafeEncoder.encode(TicketSerializer.serialize(change)));
+			}
 
+			// build a new effective ticket from the changes
+			List<byte []> updated = new ArrayList<byte []>(migrate ? journal : entries);
+			if (!migrate) {
+				updated.addAll(journal);
+			}
+			TicketModel ticket = buildSnapshot(repository, ticketId, TicketJournalCodec.decodeFrames(updated));
 			String object = TicketSerializer.serialize(ticket);
-			String journal = TicketSerializer.serialize(change);
 
 			// atomically store ticket
 			Transaction t = jedis.multi();
 			t.set(key(repository, KeyType.ticket, ticketId), object);
-			t.rpush(key(repository, KeyType.journal, ticketId), journal);
+			if (migrate) {
+				t.del(journalKey);
+			}
+			t.rpush(journalKey, journal.toArray(new byte[journal.size()][]));
+			t.sadd(idsKey, "" + ticketId);
 			t.exec();
 
 			log.debug("updated ticket {} in Redis @ {}", "" + ticketId, getUrl());
@@ -524,7 +693,7 @@ public class RedisTicketService extends ITicketService {
 
 		boolean success = false;
 		try {
-			Set<String> keys = jedis.keys(repository.name + ":*");
+			Set<String> keys = scan(jedis, repository.name + ":*");
 			if (keys.size() > 0) {
 				Transaction t = jedis.multi();
 				t.del(keys.toArray(new String[keys.size()]));
@@ -552,7 +721,7 @@ public class RedisTicketService extends ITicketService {
 
 		boolean success = false;
 		try {
-			Set<String> oldKeys = jedis.keys(oldRepository.name + ":*");
+			Set<String> oldKeys = scan(jedis, oldRepository.name + ":*");
 			Transaction t = jedis.multi();
 			for (String oldKey : oldKeys) {
 				String newKey = newRepository.name + oldKey.substring(oldKey.indexOf(':'));
@@ -25,6 +25,11 @@ import java.util.Date;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
@@ -34,19 +39,22 @@ import org.apache.lucene.document.LongField;
 import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.SortField.Type;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopFieldDocs;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.store.Directory;
@@ -64,10 +72,16 @@ import com.gitblit.models.TicketModel.Patchset;
 import com.gitblit.models.TicketModel.Status;
 import com.gitblit.utils.LuceneIndexStore;
 import com.gitblit.utils.StringUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Indexes tickets in a Lucene database.
  *
+ * Ticket changes are visible to queries immediately through a near-real-time
+ * searcher.  Changes are committed to disk in groups, at most
+ * tickets.indexCommitLatency milliseconds after the first uncommitted change,
+ * so a busy ticket repository does not fsync the index on every comment.
+ *
  * @author James Moger
  *
  */
@@ -173,19 +187,32 @@ public class TicketIndexer {
 
 	private final LuceneIndexStore indexStore;
 
+	private final long commitLatency;
+
+	private final ScheduledExecutorService commitExecutor;
+
+	private final AtomicBoolean commitPending = new AtomicBoolean();
+
 	private IndexWriter writer;
 
-	private IndexSearcher searcher;
+	private SearcherManager searcherManager;
 
 	public TicketIndexer(IRuntimeManager runtimeManager) {
 		File luceneDir = runtimeManager.getFileOrFolder(Keys.tickets.indexFolder, "${baseFolder}/tickets/lucene");
 		this.indexStore = new LuceneIndexStore(luceneDir, Lucene.INDEX_VERSION);
+		this.commitLatency = runtimeManager.getSettings().getInteger(Keys.tickets.indexCommitLatency, 1000);
+		this.commitExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("TicketIndexCommit-%s")
+				.setDaemon(true)
+				.build());
 	}
 
 	/**
 	 * Close all writers and searchers used by the ticket indexer.
 	 */
 	public void close() {
+		commitExecutor.shutdownNow();
+		commit();
 		closeSearcher();
 		closeWriter();
 	}
@@ -194,7 +221,9 @@ public class TicketIndexer {
 	 * Deletes the entire ticket index for all repositories.
 	 */
 	public void deleteAll() {
-		close();
+		closeSearcher();
+		closeWriter();
+		commitPending.set(false);
 		indexStore.delete();
 	}
 
@@ -203,23 +232,7 @@ public class TicketIndexer {
 	 */
 	public boolean deleteAll(RepositoryModel repository) {
 		try {
-			IndexWriter writer = getWriter();
-			StandardAnalyzer analyzer = new StandardAnalyzer();
-			QueryParser qp = new QueryParser(Lucene.rid.name(), analyzer);
-			BooleanQuery query = new BooleanQuery.Builder().add(qp.parse(repository.getRID()), Occur.MUST).build();
-
-			int numDocsBefore = writer.numDocs();
-			writer.deleteDocuments(query);
-			writer.commit();
-			closeSearcher();
-			int numDocsAfter = writer.numDocs();
-			if (numDocsBefore == numDocsAfter) {
-				log.debug(MessageFormat.format("no records found to delete in {0}", repository));
-				return false;
-			} else {
-				log.debug(MessageFormat.format("deleted {0} records in {1}", numDocsBefore - numDocsAfter, repository));
-				return true;
-			}
+			return delete(new Term(Lucene.rid.name(), repository.getRID()), repository.name);
 		} catch (Exception e) {
 			log.error("error", e);
 		}
@@ -248,10 +261,10 @@ public class TicketIndexer {
 			IndexWriter writer = getWriter();
 			for (TicketModel ticket : tickets) {
 				Document doc = ticketToDoc(ticket);
-				writer.addDocument(doc);
+				writer.updateDocument(getDocumentTerm(ticket.repository, ticket.number), doc);
 			}
 			writer.commit();
-			closeSearcher();
+			refreshSearcher();
 		} catch (Exception e) {
 			log.error("error", e);
 		}
@@ -265,11 +278,11 @@ public class TicketIndexer {
 	public void index(TicketModel ticket) {
 		try {
 			IndexWriter writer = getWriter();
-			delete(ticket.repository, ticket.number, writer);
 			Document doc = ticketToDoc(ticket);
-			writer.addDocument(doc);
-			writer.commit();
-			closeSearcher();
+			// atomically replace the indexed ticket
+			writer.updateDocument(getDocumentTerm(ticket.repository, ticket.number), doc);
+			refreshSearcher();
+			scheduleCommit();
 		} catch (Exception e) {
 			log.error("error", e);
 		}
@@ -284,8 +297,7 @@ public class TicketIndexer {
 	 */
 	public boolean delete(TicketModel ticket) {
 		try {
-			IndexWriter writer = getWriter();
-			return delete(ticket.repository, ticket.number, writer);
+			return delete(getDocumentTerm(ticket.repository, ticket.number), ticket.repository);
 		} catch (Exception e) {
 			log.error("Failed to delete ticket " + ticket.number, e);
 		}
@@ -293,30 +305,43 @@ public class TicketIndexer {
 	}
 
 	/**
-	 * Delete a ticket from the Lucene index.
+	 * Returns the term which identifies the document of a ticket.
 	 *
 	 * @param repository
 	 * @param ticketId
+	 * @return the document id term
+	 */
+	private Term getDocumentTerm(String repository, long ticketId) {
+		return new Term(Lucene.did.name(), StringUtils.getSHA1(repository + ticketId));
+	}
+
+	/**
+	 * Delete the tickets matching a term from the Lucene index.
+	 *
+	 * @param term
+	 * @param repository
 	 * @throws Exception
 	 * @return true, if deleted, false if no record was deleted
 	 */
-	private boolean delete(String repository, long ticketId, IndexWriter writer) throws Exception {
-		StandardAnalyzer analyzer = new StandardAnalyzer();
-		QueryParser qp = new QueryParser(Lucene.did.name(), analyzer);
-		BooleanQuery query = new BooleanQuery.Builder().add(qp.parse(StringUtils.getSHA1(repository + ticketId)), Occur.MUST).build();
-
-		int numDocsBefore = writer.numDocs();
-		writer.deleteDocuments(query);
-		writer.commit();
-		closeSearcher();
-		int numDocsAfter = writer.numDocs();
-		if (numDocsBefore == numDocsAfter) {
+	private boolean delete(Term term, String repository) throws Exception {
+		SearcherManager searcherManager = getSearcherManager();
+		IndexSearcher searcher = searcherManager.acquire();
+		int count;
+		try {
+			count = searcher.count(new TermQuery(term));
+		} finally {
+			searcherManager.release(searcher);
+		}
+		if (count == 0) {
 			log.debug(MessageFormat.format("no records found to delete in {0}", repository));
 			return false;
-		} else {
-			log.debug(MessageFormat.format("deleted {0} records in {1}", numDocsBefore - numDocsAfter, repository));
-			return true;
 		}
+
+		getWriter().deleteDocuments(term);
+		refreshSearcher();
+		scheduleCommit();
+		log.debug(MessageFormat.format("deleted {0} records in {1}", count, repository));
+		return true;
 	}
 
 	/**
@@ -345,6 +370,8 @@ public class TicketIndexer {
 		}
 		Set<QueryResult> results = new LinkedHashSet<QueryResult>();
 		StandardAnalyzer analyzer = new StandardAnalyzer();
+		SearcherManager searcherManager = null;
+		IndexSearcher searcher = null;
 		try {
 			// search the title, description and content
 			BooleanQuery.Builder bldr = new BooleanQuery.Builder();
@@ -362,7 +389,8 @@ public class TicketIndexer {
 			qp.setAllowLeadingWildcard(true);
 			bldr.add(qp.parse(text), Occur.SHOULD);
 
-			IndexSearcher searcher = getSearcher();
+			searcherManager = getSearcherManager();
+			searcher = searcherManager.acquire();
 			Query rewrittenQuery = searcher.rewrite(bldr.build());
 
 			log.debug(rewrittenQuery.toString());
@@ -384,6 +412,8 @@ public class TicketIndexer {
 			}
 		} catch (Exception e) {
 			log.error(MessageFormat.format("Exception while searching for {0}", text), e);
+		} finally {
+			release(searcherManager, searcher);
 		}
 		return new ArrayList<QueryResult>(results);
 	}
@@ -406,11 +436,14 @@ public class TicketIndexer {
 
 		Set<QueryResult> results = new LinkedHashSet<QueryResult>();
 		StandardAnalyzer analyzer = new StandardAnalyzer();
+		SearcherManager searcherManager = null;
+		IndexSearcher searcher = null;
 		try {
 			QueryParser qp = new QueryParser(Lucene.content.name(), analyzer);
 			Query query = qp.parse(queryText);
 
-			IndexSearcher searcher = getSearcher();
+			searcherManager = getSearcherManager();
+			searcher = searcherManager.acquire();
 			Query rewrittenQuery = searcher.rewrite(query);
 
 			log.debug(rewrittenQuery.toString());
@@ -436,6 +469,8 @@ public class TicketIndexer {
 			}
 		} catch (Exception e) {
 			log.error(MessageFormat.format("Exception while searching for {0}", queryText), e);
+		} finally {
+			release(searcherManager, searcher);
 		}
 		return new ArrayList<QueryResult>(results);
 	}
@@ -454,7 +489,7 @@ public class TicketIndexer {
 		}
 	}
 
-	private IndexWriter getWriter() throws IOException {
+	private synchronized IndexWriter getWriter() throws IOException {
 		if (writer == null) {
 			indexStore.create();
 
@@ -479,22 +514,80 @@ public class TicketIndexer {
 		}
 	}
 
-	private IndexSearcher getSearcher() throws IOException {
-		if (searcher == null) {
-			searcher = new IndexSearcher(DirectoryReader.open(getWriter(), true));
+	private synchronized SearcherManager getSearcherManager() throws IOException {
+		if (searcherManager == null) {
+			searcherManager = new SearcherManager(getWriter(), true, new SearcherFactory());
+		}
+		return searcherManager;
+	}
+
+	private void release(SearcherManager searcherManager, IndexSearcher searcher) {
+		if (searcher != null) {
+			try {
+				searcherManager.release(searcher);
+			} catch (IOException e) {
+				log.error("failed to release searcher!", e);
+			}
+		}
+	}
+
+	/**
+	 * Refreshes the searcher to include the uncommitted changes of the writer.
+	 */
+	private synchronized void refreshSearcher() throws IOException {
+		if (searcherManager != null) {
+			searcherManager.maybeRefresh();
 		}
-		return searcher;
 	}
 
 	private synchronized void closeSearcher() {
 		try {
-			if (searcher != null) {
-				searcher.getIndexReader().close();
+			if (searcherManager != null) {
+				searcherManager.close();
 			}
 		} catch (Exception e) {
 			log.error("failed to close searcher!", e);
 		} finally {
-			searcher = null;
+			searcherManager = null;
+		}
+	}
+
+	/**
+	 * Schedules a commit of the index so that all changes within the commit
+	 * latency are committed together.
+	 */
+	private void scheduleCommit() {
+		if (commitLatency <= 0) {
+			commit();
+			return;
+		}
+		if (!commitPending.compareAndSet(false, true)) {
+			// a commit is already scheduled
+			return;
+		}
+		try {
+			commitExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					commit();
+				}
+			}, commitLatency, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			commit();
+		}
+	}
+
+	/**
+	 * Commits the pending changes of the index.
+	 */
+	private synchronized void commit() {
+		commitPending.set(false);
+		try {
+			if (writer != null && writer.hasUncommittedChanges()) {
+				writer.commit();
+			}
+		} catch (Exception e) {
+			log.error("failed to commit ticket index!", e);
 		}
 	}
 
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tickets;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gitblit.models.TicketModel.Change;
+import com.gitblit.utils.JsonUtils.ExcludeField;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * A compact binary codec for ticket journals.
+ *
+ * A journal is a header followed by one length-prefixed frame per change so a
+ * change is appended without rewriting the journal.  Each frame encodes the
+ * JSON tree of a change.  Member names and short string values, e.g. authors
+ * and field names, are written once per journal and then referenced by their
+ * index in a string table which is rebuilt as the frames are read in order.
+ *
+ * <pre>
+ * journal := 'G' 'B' 'J' version frame*
+ * frame   := varint(length) version value
+ * </pre>
+ *
+ * The frames of a journal stored as a list, e.g. in Redis, are encoded
+ * without the length prefix and are distinguished from JSON entries by their
+ * leading version byte.
+ */
+public class TicketJournalCodec {
+
+	public static final byte VERSION = 1;
+
+	private static final byte [] MAGIC = { 'G', 'B', 'J', VERSION };
+
+	private static final int MAX_INTERNED_LENGTH = 64;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int NULL = 0;
+	private static final int FALSE = 1;
+	private static final int TRUE = 2;
+	private static final int LONG = 3;
+	private static final int DOUBLE = 4;
+	private static final int STRING = 5;
+	private static final int STRING_NEW = 6;
+	private static final int STRING_REF = 7;
+	private static final int ARRAY = 8;
+	private static final int OBJECT = 9;
+
+	private static Gson gson() {
+		try {
+			return TicketSerializer.gson(new ExcludeField("com.gitblit.models.TicketModel$Attachment.content"));
+		} catch (Exception e) {
+			// won't happen
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns true if the content is a binary journal.
+	 *
+	 * @param journal
+	 * @return true if the content starts with the binary journal header
+	 */
+	public static boolean isJournal(byte [] journal) {
+		if (journal == null || journal.length < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length - 1; i++) {
+			if (journal[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the list entry is a binary frame rather than a JSON
+	 * change.
+	 *
+	 * @param entry
+	 * @return true if the entry is a binary frame
+	 */
+	public static boolean isFrame(byte [] entry) {
+		return entry != null && entry.length > 0 && entry[0] > 0 && entry[0] <= VERSION;
+	}
+
+	/**
+	 * Encodes the changes as a binary journal.
+	 *
+	 * @param changes
+	 * @return the binary journal
+	 */
+	public static byte [] encode(List<Change> changes) {
+		Encoder encoder = new Encoder();
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		os.write(MAGIC, 0, MAGIC.length);
+		for (Change change : changes) {
+			byte [] frame = encoder.encode(change);
+			writeVarint(os, frame.length);
+			os.write(frame, 0, frame.length);
+		}
+		return os.toByteArray();
+	}
+
+	/**
+	 * Encodes a change as a frame to be appended to an existing binary
+	 * journal.
+	 *
+	 * @param journal
+	 *            the existing binary journal
+	 * @param change
+	 * @return the bytes to append to the journal
+	 */
+	public static byte [] append(byte [] journal, Change change) {
+		Decoder decoder = new Decoder();
+		Reader reader = header(journal);
+		while (reader.hasMore()) {
+			int length = (int) reader.readVarint();
+			decoder.decode(new Reader(journal, reader.position, length));
+			reader.position += length;
+		}
+
+		byte [] frame = new Encoder(decoder.strings).encode(change);
+		ByteArrayOutputStream os = new ByteArrayOutputStream(frame.length + 5);
+		writeVarint(os, frame.length);
+		os.write(frame, 0, frame.length);
+		return os.toByteArray();
+	}
+
+	/**
+	 * Decodes a binary journal.
+	 *
+	 * @param journal
+	 * @return the changes
+	 */
+	public static List<Change> decode(byte [] journal) {
+		Gson gson = TicketSerializer.gson();
+		Decoder decoder = new Decoder();
+		List<Change> changes = new ArrayList<Change>();
+		Reader reader = header(journal);
+		while (reader.hasMore()) {
+			int length = (int) reader.readVarint();
+			JsonElement element = decoder.decode(new Reader(journal, reader.position, length));
+			changes.add(gson.fromJson(element, Change.class));
+			reader.position += length;
+		}
+		return changes;
+	}
+
+	/**
+	 * Encodes a change as a list entry.
+	 *
+	 * @param frames
+	 *            the existing binary frames of the list
+	 * @param change
+	 * @return the frame
+	 */
+	public static byte [] encodeFrame(List<byte []> frames, Change change) {
+		Decoder decoder = new Decoder();
+		for (byte [] frame : frames) {
+			decoder.decode(new Reader(frame, 0, frame.length));
+		}
+		return new Encoder(decoder.strings).encode(change);
+	}
+
+	/**
+	 * Encodes the changes as list entries.
+	 *
+	 * @param changes
+	 * @return the frames
+	 */
+	public static List<byte []> encodeFrames(List<Change> changes) {
+		Encoder encoder = new Encoder();
+		List<byte []> frames = new ArrayList<byte []>();
+		for (Change change : changes) {
+			frames.add(encoder.encode(change));
+		}
+		return frames;
+	}
+
+	/**
+	 * Decodes list entries which may be binary frames or JSON changes.
+	 *
+	 * @param entries
+	 * @return the changes
+	 */
+	public static List<Change> decodeFrames(List<byte []> entries) {
+		Gson gson = TicketSerializer.gson();
+		Decoder decoder = new Decoder();
+		List<Change> changes = new ArrayList<Change>();
+		for (byte [] entry : entries) {
+			if (isFrame(entry)) {
+				JsonElement element = decoder.decode(new Reader(entry, 0, entry.length));
+				changes.add(gson.fromJson(element, Change.class));
+			} else {
+				changes.add(gson.fromJson(new String(entry, UTF8), Change.class));
+			}
+		}
+		return changes;
+	}
+
+	private static Reader header(byte [] journal) {
+		if (!isJournal(journal)) {
+			throw new JsonParseException("not a binary ticket journal");
+		}
+		checkVersion(journal[MAGIC.length - 1]);
+		return new Reader(journal, MAGIC.length, journal.length - MAGIC.length);
+	}
+
+	private static void checkVersion(int version) {
+		if (version < 1 || version > VERSION) {
+			throw new JsonParseException("unsupported ticket journal version " + version);
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream os, long value) {
+		while ((value & ~0x7FL) != 0) {
+			os.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		os.write((int) value);
+	}
+
+	/**
+	 * Encodes changes and interns their strings in the string table of the
+	 * journal.
+	 */
+	private static class Encoder {
+
+		private final Gson gson = gson();
+
+		private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+		Encoder() {
+		}
+
+		Encoder(List<String> table) {
+			for (String string : table) {
+				strings.put(string, strings.size());
+			}
+		}
+
+		byte [] encode(Change change) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			os.write(VERSION);
+			write(os, gson.toJsonTree(change));
+			return os.toByteArray();
+		}
+
+		private void write(ByteArrayOutputStream os, JsonElement element) {
+			if (element == null || element.isJsonNull()) {
+				os.write(NULL);
+			} else if (element.isJsonObject()) {
+				JsonObject object = element.getAsJsonObject();
+				os.write(OBJECT);
+				writeVarint(os, object.entrySet().size());
+				for (Map.Entry<String, JsonElement> member : object.entrySet()) {
+					writeString(os, member.getKey(), true);
+					write(os, member.getValue());
+				}
+			} else if (element.isJsonArray()) {
+				JsonArray array = element.getAsJsonArray();
+				os.write(ARRAY);
+				writeVarint(os, array.size());
+				for (JsonElement item : array) {
+					write(os, item);
+				}
+			} else {
+				JsonPrimitive primitive = element.getAsJsonPrimitive();
+				if (primitive.isBoolean()) {
+					os.write(primitive.getAsBoolean() ? TRUE : FALSE);
+				} else if (primitive.isNumber()) {
+					Number number = primitive.getAsNumber();
+					double value = number.doubleValue();
+					if (value == Math.rint(value) && !Double.isInfinite(value)
+							&& Math.abs(value) < Long.MAX_VALUE) {
+						long l = number.longValue();
+						os.write(LONG);
+						writeVarint(os, (l << 1) ^ (l >> 63));
+					} else {
+						long bits = Double.doubleToLongBits(value);
+						os.write(DOUBLE);
+						for (int i = 7; i >= 0; i--) {
+							os.write((int) (bits >>> (i * 8)));
+						}
+					}
+				} else {
+					String value = primitive.getAsString();
+					writeString(os, value, value.length() <= MAX_INTERNED_LENGTH);
+				}
+			}
+		}
+
+		private void writeString(ByteArrayOutputStream os, String value, boolean intern) {
+			if (intern) {
+				Integer index = strings.get(value);
+				if (index != null) {
+					os.write(STRING_REF);
+					writeVarint(os, index);
+					return;
+				}
+				strings.put(value, strings.size());
+			}
+			byte [] bytes = value.getBytes(UTF8);
+			os.write(intern ? STRING_NEW : STRING);
+			writeVarint(os, bytes.length);
+			os.write(bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Decodes frames in order and rebuilds the string table of the journal.
+	 */
+	private static class Decoder {
+
+		private final List<String> strings = new ArrayList<String>();
+
+		JsonElement decode(Reader reader) {
+			checkVersion(reader.read());
+			return read(reader);
+		}
+
+		private JsonElement read(Reader reader) {
+			int tag = reader.read();
+			switch (tag) {
+			case NULL:
+				return JsonNull.INSTANCE;
+			case FALSE:
+				return new JsonPrimitive(false);
+			case TRUE:
+				return new JsonPrimitive(true);
+			case LONG:
+				long l = reader.readVarint();
+				return new JsonPrimitive((l >>> 1) ^ -(l & 1));
+			case DOUBLE:
+				long bits = 0;
+				for (int i = 0; i < 8; i++) {
+					bits = (bits << 8) | reader.read();
+				}
+				return new JsonPrimitive(Double.longBitsToDouble(bits));
+			case STRING:
+			case STRING_NEW:
+			case STRING_REF:
+				return new JsonPrimitive(readString(reader, tag));
+			case ARRAY:
+				int size = (int) reader.readVarint();
+				JsonArray array = new JsonArray();
+				for (int i = 0; i < size; i++) {
+					array.add(read(reader));
+				}
+				return array;
+			case OBJECT:
+				int members = (int) reader.readVarint();
+				JsonObject object = new JsonObject();
+				for (int i = 0; i < members; i++) {
+					String name = readString(reader, reader.read());
+					object.add(name, read(reader));
+				}
+				return object;
+			default:
+				throw new JsonParseException("unexpected ticket journal tag " + tag);
+			}
+		}
+
+		private String readString(Reader reader, int tag) {
+			if (tag == STRING_REF) {
+				int index = (int) reader.readVarint();
+				if (index >= strings.size()) {
+					throw new JsonParseException("invalid ticket journal string " + index);
+				}
+				return strings.get(index);
+			}
+			if (tag != STRING && tag != STRING_NEW) {
+				throw new JsonParseException("unexpected ticket journal tag " + tag);
+			}
+			int length = (int) reader.readVarint();
+			String value = new String(reader.bytes, reader.take(length), length, UTF8);
+			if (tag == STRING_NEW) {
+				strings.add(value);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Reads a region of a byte array.
+	 */
+	private static class Reader {
+
+		final byte [] bytes;
+
+		final int limit;
+
+		int position;
+
+		Reader(byte [] bytes, int offset, int length) {
+			if (offset < 0 || length < 0 || offset + length > bytes.length) {
+				throw new JsonParseException("truncated ticket journal");
+			}
+			this.bytes = bytes;
+			this.position = offset;
+			this.limit = offset + length;
+		}
+
+		boolean hasMore() {
+			return position < limit;
+		}
+
+		int read() {
+			if (position >= limit) {
+				throw new JsonParseException("truncated ticket journal");
+			}
+			return bytes[position++] & 0xFF;
+		}
+
+		int take(int length) {
+			if (length < 0 || position + length > limit) {
+				throw new JsonParseException("truncated ticket journal");
+			}
+			int offset = position;
+			position += length;
+			return offset;
+		}
+
+		long readVarint() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = read();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new JsonParseException("malformed ticket journal varint");
+		}
+	}
+}
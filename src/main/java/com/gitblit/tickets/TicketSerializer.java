@@ -16,11 +16,13 @@
 package com.gitblit.tickets;
 
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
+import com.gitblit.Constants;
 import com.gitblit.models.TicketModel;
 import com.gitblit.models.TicketModel.Change;
 import com.gitblit.models.TicketModel.Score;
@@ -54,6 +56,22 @@ public class TicketSerializer {
 		return new ArrayList<Change>(list);
 	}
 
+	/**
+	 * Deserializes a journal which may be a JSON array or a binary journal.
+	 *
+	 * @param journal
+	 * @return the changes
+	 */
+	public static List<Change> deserializeJournal(byte [] journal) {
+		if (journal == null || journal.length == 0) {
+			return new ArrayList<Change>();
+		}
+		if (TicketJournalCodec.isJournal(journal)) {
+			return TicketJournalCodec.decode(journal);
+		}
+		return deserializeJournal(new String(journal, Charset.forName(Constants.ENCODING)));
+	}
+
 	public static TicketModel deserializeTicket(String json) {
 		return gson().fromJson(json, TicketModel.class);
 	}
@@ -77,6 +95,10 @@ public class TicketSerializer {
 		return null;
 	}
 
+	public static byte [] serializeBinaryJournal(List<Change> changes) {
+		return TicketJournalCodec.encode(changes);
+	}
+
 	public static String serialize(TicketModel ticket) {
 		if (ticket == null) {
 			return null;
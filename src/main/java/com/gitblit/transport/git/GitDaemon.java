@@ -47,16 +47,29 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.text.MessageFormat;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PacketLineOut;
 import org.eclipse.jgit.transport.ReceivePack;
 import org.eclipse.jgit.transport.ServiceMayNotContinueException;
 import org.eclipse.jgit.transport.UploadPack;
@@ -73,12 +86,18 @@ import com.gitblit.git.GitblitReceivePackFactory;
 import com.gitblit.git.GitblitUploadPackFactory;
 import com.gitblit.git.RepositoryResolver;
 import com.gitblit.manager.IGitblit;
+import com.gitblit.models.ServerStatus;
 import com.gitblit.utils.StringUtils;
 
 /**
  * Gitblit's Git Daemon ignores any and all per-repository daemon settings and
  * integrates into Gitblit's security model.
  *
+ * Connections are served by a bounded pool of threads.  Connections which
+ * arrive while all threads are busy wait in a bounded queue, and connections
+ * beyond the queue or beyond the per-address limit are rejected immediately
+ * with an error message for the client.
+ *
  * @author James Moger
  *
  */
@@ -105,6 +124,22 @@ public class GitDaemon {
 
 	private int timeout;
 
+	private final int maxThreads;
+
+	private final int queueSize;
+
+	private final int maxConnectionsPerAddress;
+
+	private volatile ThreadPoolExecutor executor;
+
+	private final ConcurrentMap<InetAddress, AtomicInteger> connections;
+
+	private final AtomicInteger active;
+
+	private final AtomicLong rejected;
+
+	private final ServerStatus status;
+
 	private RepositoryResolver<GitDaemonClient> repositoryResolver;
 
 	private UploadPackFactory<GitDaemonClient> uploadPackFactory;
@@ -123,6 +158,14 @@ public class GitDaemon {
 			myAddress = new InetSocketAddress(bindInterface, port);
 		}
 
+		maxThreads = Math.max(1, settings.getInteger(Keys.git.daemonThreads, 32));
+		queueSize = Math.max(0, settings.getInteger(Keys.git.daemonQueueSize, 64));
+		maxConnectionsPerAddress = settings.getInteger(Keys.git.daemonMaxConnectionsPerAddress, 8);
+		connections = new ConcurrentHashMap<InetAddress, AtomicInteger>();
+		active = new AtomicInteger();
+		rejected = new AtomicLong();
+		status = gitblit.getStatus();
+
 		repositoryResolver = new RepositoryResolver<GitDaemonClient>(gitblit);
 		uploadPackFactory = new GitblitUploadPackFactory<GitDaemonClient>(gitblit);
 		receivePackFactory = new GitblitReceivePackFactory<GitDaemonClient>(gitblit);
@@ -209,6 +252,22 @@ public class GitDaemon {
 				: 0, BACKLOG, myAddress != null ? myAddress.getAddress() : null);
 		myAddress = (InetSocketAddress) listenSock.getLocalSocketAddress();
 
+		BlockingQueue<Runnable> queue;
+		if (queueSize == 0) {
+			queue = new SynchronousQueue<Runnable>();
+		} else {
+			queue = new ArrayBlockingQueue<Runnable>(queueSize);
+		}
+		final AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, queue,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						return new Thread(processors, r, "Git-Daemon-Client-" + threadCount.incrementAndGet());
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+
 		run.set(true);
 		acceptSocket = listenSock;
 		acceptThread = new Thread(processors, "Git-Daemon-Accept") {
@@ -237,6 +296,8 @@ public class GitDaemon {
 		acceptThread.start();
 
 		logger.info(MessageFormat.format("Git Daemon is listening on {0}:{1,number,0}", myAddress.getAddress().getHostAddress(), myAddress.getPort()));
+		logger.info(MessageFormat.format("Git Daemon serves {0} concurrent connections with a queue of {1}",
+				maxThreads, queueSize));
 	}
 
 	/** @return true if this daemon is receiving connections. */
@@ -258,11 +319,17 @@ public class GitDaemon {
 			try {
 				// join the accept thread
 				acceptThread.join();
+				// let the connections being served finish
+				executor.shutdown();
+				if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+					executor.shutdownNow();
+				}
 				logger.info("Git Daemon stopped.");
 			} catch (InterruptedException e) {
 				logger.error("Accept thread join interrupted", e);
 			} finally {
 				acceptThread = null;
+				executor = null;
 			}
 		}
 	}
@@ -271,34 +338,145 @@ public class GitDaemon {
 		final GitDaemonClient dc = new GitDaemonClient(this);
 
 		final SocketAddress peer = s.getRemoteSocketAddress();
-		if (peer instanceof InetSocketAddress)
-			dc.setRemoteAddress(((InetSocketAddress) peer).getAddress());
+		final InetAddress address;
+		if (peer instanceof InetSocketAddress) {
+			address = ((InetSocketAddress) peer).getAddress();
+			dc.setRemoteAddress(address);
+		} else {
+			address = null;
+		}
 
-		new Thread(processors, "Git-Daemon-Client " + peer.toString()) {
-			@Override
-			public void run() {
-				try {
-					dc.execute(s);
-				} catch (ServiceNotEnabledException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (ServiceNotAuthorizedException e) {
-					// Ignored. Client cannot use this repository.
-				} catch (IOException e) {
-					// Ignore unexpected IO exceptions from clients
-				} finally {
-					try {
-						s.getInputStream().close();
-					} catch (IOException e) {
-						// Ignore close exceptions
-					}
+		// limit the connections of a single address so that one client can
+		// not occupy all the threads and the queue
+		if (!acquire(address)) {
+			reject(s, "too many connections from " + address.getHostAddress());
+			return;
+		}
+
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					active.incrementAndGet();
+					updateStatus();
 					try {
-						s.getOutputStream().close();
+						dc.execute(s);
+					} catch (ServiceNotEnabledException e) {
+						// Ignored. Client cannot use this repository.
+					} catch (ServiceNotAuthorizedException e) {
+						// Ignored. Client cannot use this repository.
 					} catch (IOException e) {
-						// Ignore close exceptions
+						// Ignore unexpected IO exceptions from clients
+					} finally {
+						close(s);
+						release(address);
+						active.decrementAndGet();
+						updateStatus();
 					}
 				}
+			});
+			updateStatus();
+		} catch (RejectedExecutionException e) {
+			release(address);
+			reject(s, "server is busy, try again later");
+		}
+	}
+
+	/**
+	 * Acquires a connection of an address.  A counter which dropped to zero
+	 * is dead: it is never incremented again and is replaced by a new counter.
+	 *
+	 * @param address
+	 * @return true if the address may open another connection
+	 */
+	private boolean acquire(InetAddress address) {
+		if (address == null || maxConnectionsPerAddress <= 0) {
+			return true;
+		}
+		while (true) {
+			AtomicInteger count = connections.get(address);
+			if (count == null) {
+				if (connections.putIfAbsent(address, new AtomicInteger(1)) == null) {
+					return true;
+				}
+				continue;
+			}
+			int current = count.get();
+			if (current <= 0) {
+				// released by its last connection, help to remove it
+				connections.remove(address, count);
+				continue;
+			}
+			if (current >= maxConnectionsPerAddress) {
+				return false;
 			}
-		}.start();
+			if (count.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases a connection of an address.
+	 *
+	 * @param address
+	 */
+	private void release(InetAddress address) {
+		if (address == null || maxConnectionsPerAddress <= 0) {
+			return;
+		}
+		AtomicInteger count = connections.get(address);
+		if (count != null && count.decrementAndGet() == 0) {
+			connections.remove(address, count);
+		}
+	}
+
+	/**
+	 * Sends an error to the client and closes the connection.
+	 *
+	 * @param s
+	 * @param message
+	 */
+	private void reject(Socket s, String message) {
+		rejected.incrementAndGet();
+		updateStatus();
+		logger.warn(MessageFormat.format("Git Daemon rejected {0}: {1}", s.getRemoteSocketAddress(), message));
+		try {
+			s.setSoTimeout(1000);
+			new PacketLineOut(s.getOutputStream()).writeString("ERR " + message + "\n");
+		} catch (IOException e) {
+			// Ignore unexpected IO exceptions from clients
+		} finally {
+			close(s);
+		}
+	}
+
+	private void close(Socket s) {
+		try {
+			s.getInputStream().close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
+		try {
+			s.getOutputStream().close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
+		try {
+			s.close();
+		} catch (IOException e) {
+			// Ignore close exceptions
+		}
+	}
+
+	/**
+	 * Publishes the connection counters in the server status.
+	 */
+	private void updateStatus() {
+		ThreadPoolExecutor pool = executor;
+		status.gitDaemonActiveConnections = active.get();
+		status.gitDaemonQueuedConnections = pool == null ? 0 : pool.getQueue().size();
+		status.gitDaemonRejectedConnections = rejected.get();
 	}
 
 	synchronized GitDaemonService matchService(final String cmd) {
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gitblit.manager.IRepositoryManager;
+import com.gitblit.models.RefModel;
+import com.gitblit.models.RepositoryCommit;
+import com.gitblit.models.RepositoryModel;
+
+/**
+ * Caches the daily commit rollup of repositories for the activity pages.
+ *
+ * The rollup of a repository is rebuilt from the commit cache when the last
+ * change of the repository moves, when its refs change (push, mirror fetch),
+ * or when the repository manager clears the cached metadata of the
+ * repository.  Unchanged repositories contribute their rollup without opening
+ * the repository.
+ */
+public class ActivityCache {
+
+	private static final ActivityCache instance;
+
+	protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+	protected final ConcurrentMap<String, Map<String, Rollup>> cache;
+
+	public static ActivityCache instance() {
+		return instance;
+	}
+
+	static {
+		instance = new ActivityCache();
+	}
+
+	protected ActivityCache() {
+		cache = new ConcurrentHashMap<String, Map<String, Rollup>>();
+	}
+
+	/**
+	 * Clears the entire activity cache.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * Clears the activity cache for a specific repository.
+	 *
+	 * @param repositoryName
+	 */
+	public void clear(String repositoryName) {
+		cache.remove(repositoryName.toLowerCase());
+	}
+
+	/**
+	 * Returns the commits of the repository since the specified date grouped
+	 * by day in the specified timezone.
+	 *
+	 * @param repositoryManager
+	 * @param model
+	 * @param objectId
+	 *            the branch to retrieve. If this value is null or empty all
+	 *            branches are queried.
+	 * @param sinceDate
+	 * @param timezone
+	 * @return the daily commits in chronological order
+	 */
+	public List<DailyCommits> getDailyCommits(IRepositoryManager repositoryManager, RepositoryModel model,
+			String objectId, Date sinceDate, TimeZone timezone) {
+		String repoKey = model.name.toLowerCase();
+		String key = (objectId == null ? "" : objectId) + '\n' + timezone.getID() + '\n' + model.maxActivityCommits;
+		Map<String, Rollup> rollups = cache.get(repoKey);
+		Rollup rollup = rollups == null ? null : rollups.get(key);
+		if (rollup == null || !rollup.lastChange.equals(model.lastChange) || rollup.sinceDate.after(sinceDate)) {
+			rollup = build(repositoryManager, model, objectId, sinceDate, timezone);
+			if (rollup == null) {
+				return Collections.emptyList();
+			}
+			if (!sinceDate.before(CommitCache.instance().getCutoffDate())) {
+				// only retain rollups of commits which are held by the commit cache
+				if (rollups == null) {
+					rollups = new ConcurrentHashMap<String, Rollup>();
+					Map<String, Rollup> existing = cache.putIfAbsent(repoKey, rollups);
+					if (existing != null) {
+						rollups = existing;
+					}
+				}
+				rollups.put(key, rollup);
+			}
+		}
+
+		List<DailyCommits> list = new ArrayList<DailyCommits>(rollup.days.size());
+		for (DailyCommits day : rollup.days.values()) {
+			if (day.date.getTime() + TimeUtils.ONEDAY <= sinceDate.getTime()) {
+				// day is outside the requested period
+				continue;
+			} else if (day.date.before(sinceDate)) {
+				// day is partially within the requested period
+				List<RepositoryCommit> commits = new ArrayList<RepositoryCommit>();
+				for (RepositoryCommit commit : day.commits) {
+					if (commit.getCommitDate().compareTo(sinceDate) >= 0) {
+						commits.add(commit);
+					}
+				}
+				if (!commits.isEmpty()) {
+					list.add(new DailyCommits(day.date, commits));
+				}
+			} else {
+				list.add(day);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Builds the daily commit rollup of a repository from the commit cache.
+	 *
+	 * @param repositoryManager
+	 * @param model
+	 * @param objectId
+	 * @param sinceDate
+	 * @param timezone
+	 * @return the rollup or null if the repository is unavailable
+	 */
+	protected Rollup build(IRepositoryManager repositoryManager, RepositoryModel model,
+			String objectId, Date sinceDate, TimeZone timezone) {
+		long start = System.nanoTime();
+		Repository repository = repositoryManager.getRepository(model.name);
+		if (repository == null) {
+			return null;
+		}
+		List<String> branches = new ArrayList<String>();
+		if (StringUtils.isEmpty(objectId)) {
+			for (RefModel local : JGitUtils.getLocalBranches(repository, true, -1)) {
+				if (!local.getDate().after(sinceDate)) {
+					// branch not recently updated
+					continue;
+				}
+				branches.add(local.getName());
+			}
+		} else {
+			branches.add(objectId);
+		}
+
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeZone(timezone);
+		Map<Long, DailyCommits> days = new TreeMap<Long, DailyCommits>();
+		int count = 0;
+		for (String branch : branches) {
+			List<RepositoryCommit> commits = CommitCache.instance().getCommits(model.name, repository, branch, sinceDate);
+			if (model.maxActivityCommits > 0 && commits.size() > model.maxActivityCommits) {
+				// trim commits to maximum count
+				commits = commits.subList(0,  model.maxActivityCommits);
+			}
+			for (RepositoryCommit commit : commits) {
+				Date date = commit.getCommitDate();
+				long time = date.getTime();
+				// local day number in the timezone
+				long day = (time + timezone.getOffset(time)) / TimeUtils.ONEDAY;
+				DailyCommits daily = days.get(day);
+				if (daily == null) {
+					// Normalize the date to midnight
+					cal.setTime(date);
+					cal.set(Calendar.HOUR_OF_DAY, 0);
+					cal.set(Calendar.MINUTE, 0);
+					cal.set(Calendar.SECOND, 0);
+					cal.set(Calendar.MILLISECOND, 0);
+					daily = new DailyCommits(cal.getTime(), new ArrayList<RepositoryCommit>());
+					days.put(day, daily);
+				}
+				daily.commits.add(commit);
+				count++;
+			}
+		}
+		repository.close();
+
+		logger.debug(MessageFormat.format("rolled up {0} commits of {1} into {2} days in {3} msecs",
+				count, model.name, days.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		return new Rollup(model.lastChange, sinceDate, days);
+	}
+
+	/**
+	 * The commits of a repository on one day.
+	 */
+	public static class DailyCommits {
+
+		public final Date date;
+
+		public final List<RepositoryCommit> commits;
+
+		DailyCommits(Date date, List<RepositoryCommit> commits) {
+			this.date = date;
+			this.commits = commits;
+		}
+	}
+
+	/**
+	 * The daily commits of a repository since a date.
+	 */
+	protected static class Rollup {
+
+		final Date lastChange;
+
+		final Date sinceDate;
+
+		final Map<Long, DailyCommits> days;
+
+		Rollup(Date lastChange, Date sinceDate, Map<Long, DailyCommits> days) {
+			this.lastChange = lastChange;
+			this.sinceDate = sinceDate;
+			this.days = days;
+		}
+	}
+}
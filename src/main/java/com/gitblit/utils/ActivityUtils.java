@@ -15,29 +15,25 @@
  */
 package com.gitblit.utils;
 
-import java.text.DateFormat;
 import java.text.MessageFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
-
-import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.lib.Repository;
+import java.util.concurrent.Callable;
 
 import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.manager.IRepositoryManager;
 import com.gitblit.models.Activity;
-import com.gitblit.models.RefModel;
 import com.gitblit.models.RepositoryCommit;
 import com.gitblit.models.RepositoryModel;
+import com.gitblit.utils.ActivityCache.DailyCommits;
 
 /**
  * Utility class for building activity information from repositories.
@@ -73,17 +69,49 @@ public class ActivityUtils {
 					int daysBack,
 					String objectId,
 					TimeZone timezone) {
+		return getRecentActivity(settings, repositoryManager, models, daysBack, objectId, timezone,
+				new FanOut(), null);
+	}
+
+	/**
+	 * Gets the recent activity from the repositories for the last daysBack days
+	 * on the specified branch.  The repositories are rolled up in parallel by
+	 * the fan out and repositories which are not rolled up by its deadline are
+	 * omitted from the activity.
+	 *
+	 * @param settings
+	 *            the runtime settings
+	 * @param repositoryManager
+	 *            the repository manager
+	 * @param models
+	 *            the list of repositories to query
+	 * @param daysBack
+	 *            the number of days back from Now to collect
+	 * @param objectId
+	 *            the branch to retrieve. If this value is null or empty all
+	 *            branches are queried.
+	 * @param timezone
+	 *            the timezone for aggregating commits
+	 * @param fanOut
+	 *            the fan out for rolling up the repositories
+	 * @param pending
+	 *            if not null, the names of the repositories which were omitted
+	 *            because they were not rolled up by the deadline are added
+	 * @return
+	 */
+	public static List<Activity> getRecentActivity(
+					IStoredSettings settings,
+					final IRepositoryManager repositoryManager,
+					List<RepositoryModel> models,
+					int daysBack,
+					final String objectId,
+					final TimeZone timezone,
+					FanOut fanOut,
+					List<String> pending) {
 
 		// Activity panel shows last daysBack of activity across all
 		// repositories.
-		Date thresholdDate = new Date(System.currentTimeMillis() - daysBack * TimeUtils.ONEDAY);
-
-		// Build a map of DailyActivity from the available repositories for the
-		// specified threshold date.
-		DateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-		df.setTimeZone(timezone);
-		Calendar cal = Calendar.getInstance();
-		cal.setTimeZone(timezone);
+		final Date thresholdDate = new Date(System.currentTimeMillis() - daysBack * TimeUtils.ONEDAY);
 
 		// aggregate author exclusions
 		Set<String> authorExclusions = new TreeSet<String>();
@@ -94,8 +122,10 @@ public class ActivityUtils {
 			}
 		}
 
-		Map<String, Activity> activity = new HashMap<String, Activity>();
-		for (RepositoryModel model : models) {
+		// Roll up the daily commits of the available repositories for the
+		// specified threshold date.
+		Map<String, Callable<List<DailyCommits>>> tasks = new LinkedHashMap<String, Callable<List<DailyCommits>>>();
+		for (final RepositoryModel model : models) {
 			if (!model.isShowActivity()) {
 				// skip this repository
 				continue;
@@ -104,51 +134,33 @@ public class ActivityUtils {
 				if (model.isCollectingGarbage) {
 					continue;
 				}
-				Repository repository = repositoryManager.getRepository(model.name);
-				List<String> branches = new ArrayList<String>();
-				if (StringUtils.isEmpty(objectId)) {
-					for (RefModel local : JGitUtils.getLocalBranches(
-							repository, true, -1)) {
-			        	if (!local.getDate().after(thresholdDate)) {
-							// branch not recently updated
-			        		continue;
-			        	}
-						branches.add(local.getName());
+				tasks.put(model.name, new Callable<List<DailyCommits>>() {
+					@Override
+					public List<DailyCommits> call() {
+						return ActivityCache.instance().getDailyCommits(
+								repositoryManager, model, objectId, thresholdDate, timezone);
 					}
-				} else {
-					branches.add(objectId);
-				}
+				});
+			}
+		}
+		FanOut.Result<List<DailyCommits>> rollups = fanOut.invoke(tasks);
+		if (pending != null) {
+			pending.addAll(rollups.getPending());
+		}
 
-				for (String branch : branches) {
-					String shortName = branch;
-					if (shortName.startsWith(Constants.R_HEADS)) {
-						shortName = shortName.substring(Constants.R_HEADS.length());
-					}
-					List<RepositoryCommit> commits = CommitCache.instance().getCommits(model.name, repository, branch, thresholdDate);
-					if (model.maxActivityCommits > 0 && commits.size() > model.maxActivityCommits) {
-						// trim commits to maximum count
-						commits = commits.subList(0,  model.maxActivityCommits);
-					}
-					for (RepositoryCommit commit : commits) {
-						Date date = commit.getCommitDate();
-						String dateStr = df.format(date);
-						if (!activity.containsKey(dateStr)) {
-							// Normalize the date to midnight
-							cal.setTime(date);
-							cal.set(Calendar.HOUR_OF_DAY, 0);
-							cal.set(Calendar.MINUTE, 0);
-							cal.set(Calendar.SECOND, 0);
-							cal.set(Calendar.MILLISECOND, 0);
-							Activity a = new Activity(cal.getTime());
-							a.excludeAuthors(authorExclusions);
-							activity.put(dateStr, a);
-						}
-						activity.get(dateStr).addCommit(commit);
-					}
+		// Build a map of DailyActivity from the daily commit rollups
+		Map<Date, Activity> activity = new HashMap<Date, Activity>();
+		for (List<DailyCommits> days : rollups.getResults().values()) {
+			for (DailyCommits day : days) {
+				Activity a = activity.get(day.date);
+				if (a == null) {
+					a = new Activity(day.date);
+					a.excludeAuthors(authorExclusions);
+					activity.put(day.date, a);
+				}
+				for (RepositoryCommit commit : day.commits) {
+					a.addCommit(commit);
 				}
-
-				// close the repository
-				repository.close();
 			}
 		}
 
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A size-capped, least recently used cache of archive files on disk.
+ *
+ * Archives are content-addressed: the key must identify the exact content of
+ * the archive, e.g. the repository, commit id, path, and format.  Concurrent
+ * requests for an archive which is not cached wait for a single writer.
+ * Archives are written to a temporary file which is moved into place when
+ * complete so a partially written archive is never served.
+ *
+ * An archive is pinned while it is served and is not evicted until it is
+ * closed.  An archive which is larger than the cache is not cached; its key
+ * is remembered so later requests stream the archive directly.
+ */
+public class ArchiveCache {
+
+	private static final String EXTENSION = ".archive";
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private final File folder;
+
+	private final long maxSize;
+
+	private final Map<String, Long> files;
+
+	private final Map<String, Integer> pins;
+
+	private final Map<String, Boolean> oversized;
+
+	private final ConcurrentMap<String, FutureTask<Boolean>> writers;
+
+	private long size;
+
+	/**
+	 * Writes the content of an archive.
+	 */
+	public interface ArchiveWriter {
+		void write(OutputStream os) throws IOException;
+	}
+
+	/**
+	 * Creates an archive cache and indexes the archives of a previous run.
+	 *
+	 * @param folder
+	 * @param maxSize
+	 *            the maximum size in bytes of all cached archives
+	 */
+	public ArchiveCache(File folder, long maxSize) {
+		this.folder = folder;
+		this.maxSize = maxSize;
+		this.files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		this.pins = new HashMap<String, Integer>();
+		this.oversized = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > 1000;
+			}
+		};
+		this.writers = new ConcurrentHashMap<String, FutureTask<Boolean>>();
+		folder.mkdirs();
+
+		File [] list = folder.listFiles();
+		if (list != null) {
+			// index the oldest archives first so they are evicted first
+			Arrays.sort(list, new Comparator<File>() {
+				@Override
+				public int compare(File a, File b) {
+					return Long.compare(a.lastModified(), b.lastModified());
+				}
+			});
+			for (File file : list) {
+				if (file.getName().endsWith(EXTENSION)) {
+					files.put(file.getName(), file.length());
+					size += file.length();
+				} else {
+					// incomplete archive of a previous run
+					file.delete();
+				}
+			}
+			evict(null);
+		}
+	}
+
+	/**
+	 * Returns the identifier of the archive content for the key.
+	 *
+	 * @param key
+	 * @return the content identifier
+	 */
+	public static String getId(String key) {
+		return StringUtils.getSHA1(key);
+	}
+
+	/**
+	 * Opens the cached archive for the key.  If the archive is not cached it
+	 * is written by the writer.  Concurrent requests for the same archive wait
+	 * for the first writer.  The archive must be closed when it is served.
+	 *
+	 * @param key
+	 * @param writer
+	 * @return the archive or null if the archive is too large to be cached
+	 * @throws IOException
+	 */
+	public Archive open(String key, final ArchiveWriter writer) throws IOException {
+		final String name = getId(key) + EXTENSION;
+		final File file = new File(folder, name);
+		while (true) {
+			synchronized (files) {
+				if (oversized.containsKey(name)) {
+					return null;
+				}
+				if (files.containsKey(name) && file.exists()) {
+					return pin(name, file);
+				}
+			}
+
+			FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					return write(name, file, writer);
+				}
+			});
+			FutureTask<Boolean> existing = writers.putIfAbsent(name, task);
+			if (existing == null) {
+				try {
+					task.run();
+				} finally {
+					writers.remove(name);
+				}
+			} else {
+				task = existing;
+			}
+
+			try {
+				if (!task.get()) {
+					return null;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+			// the archive is cached, pin it unless it was evicted meanwhile
+		}
+	}
+
+	private Archive pin(String name, File file) {
+		Integer count = pins.get(name);
+		pins.put(name, count == null ? 1 : count + 1);
+		return new Archive(name, file);
+	}
+
+	private void unpin(String name) {
+		synchronized (files) {
+			Integer count = pins.get(name);
+			if (count == null || count <= 1) {
+				pins.remove(name);
+				// evictions of the archive were deferred while it was served
+				evict(null);
+			} else {
+				pins.put(name, count - 1);
+			}
+		}
+	}
+
+	/**
+	 * Writes the archive to the cache.
+	 *
+	 * @return true if the archive was cached, false if it is too large
+	 */
+	private boolean write(String name, File file, ArchiveWriter writer) throws IOException {
+		long start = System.currentTimeMillis();
+		File temp = File.createTempFile(name, ".tmp", folder);
+		try {
+			LimitedOutputStream os = new LimitedOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				writer.write(os);
+			} catch (IOException e) {
+				if (!os.exceeded) {
+					throw e;
+				}
+			} finally {
+				os.close();
+			}
+			if (os.exceeded) {
+				synchronized (files) {
+					oversized.put(name, true);
+				}
+				logger.debug(MessageFormat.format("archive {0} exceeds the {1} byte cache", name, maxSize));
+				return false;
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+
+		long length = file.length();
+		synchronized (files) {
+			Long previous = files.put(name, length);
+			if (previous != null) {
+				size -= previous;
+			}
+			size += length;
+			evict(name);
+		}
+		logger.debug(MessageFormat.format("cached {0} byte archive {1} in {2} msecs",
+				length, name, System.currentTimeMillis() - start));
+		return true;
+	}
+
+	/**
+	 * Deletes the least recently used archives until the cache is within its
+	 * maximum size.  Archives which are being served are not deleted.
+	 *
+	 * @param keep
+	 *            the archive which must not be evicted
+	 */
+	private void evict(String keep) {
+		List<String> evicted = new ArrayList<String>();
+		Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			if (entry.getKey().equals(keep) || pins.containsKey(entry.getKey())) {
+				continue;
+			}
+			size -= entry.getValue();
+			evicted.add(entry.getKey());
+			iterator.remove();
+		}
+		for (String name : evicted) {
+			File file = new File(folder, name);
+			if (!file.delete() && file.exists()) {
+				logger.warn(MessageFormat.format("failed to evict archive {0}", file));
+			}
+		}
+	}
+
+	/**
+	 * Returns the total size of the cached archives.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getSize() {
+		synchronized (files) {
+			return size;
+		}
+	}
+
+	/**
+	 * A cached archive which is pinned until it is closed.
+	 */
+	public class Archive implements Closeable {
+
+		private final String name;
+
+		private final File file;
+
+		private boolean closed;
+
+		Archive(String name, File file) {
+			this.name = name;
+			this.file = file;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!closed) {
+				closed = true;
+				unpin(name);
+			}
+		}
+	}
+
+	/**
+	 * Fails the write of an archive which is larger than the cache.
+	 */
+	private class LimitedOutputStream extends FilterOutputStream {
+
+		long written;
+
+		boolean exceeded;
+
+		LimitedOutputStream(OutputStream os) {
+			super(os);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			count(1);
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte [] b, int off, int len) throws IOException {
+			count(len);
+			out.write(b, off, len);
+		}
+
+		private void count(int len) throws IOException {
+			written += len;
+			if (written > maxSize) {
+				exceeded = true;
+				throw new IOException(MessageFormat.format("archive exceeds the {0} byte cache", maxSize));
+			}
+		}
+	}
+}
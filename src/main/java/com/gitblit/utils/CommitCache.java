@@ -18,11 +18,16 @@ package com.gitblit.utils;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
@@ -36,6 +41,10 @@ import com.gitblit.models.RepositoryCommit;
 /**
  * Caches repository commits for re-use in the dashboard and activity pages.
  *
+ * The cache is keyed by repository and branch.  Each branch entry carries an
+ * estimated heap weight and, if a weight limit is configured, the least
+ * recently used branches are evicted once the total weight exceeds the limit.
+ *
  * @author James Moger
  *
  */
@@ -43,11 +52,31 @@ public class CommitCache {
 
 	private static final CommitCache instance;
 
+	/**
+	 * Estimated fixed heap cost of a cached RepositoryCommit and its RevCommit,
+	 * excluding the raw commit buffer.
+	 */
+	private static final int COMMIT_OVERHEAD = 160;
+
 	protected final Logger logger = LoggerFactory.getLogger(getClass());
 
-	protected final Map<String, ObjectCache<List<RepositoryCommit>>> cache;
+	protected final ConcurrentMap<String, ConcurrentMap<String, CachedBranch>> cache;
+
+	protected final AtomicLong weight = new AtomicLong();
+
+	protected final AtomicLong hits = new AtomicLong();
+
+	protected final AtomicLong misses = new AtomicLong();
 
-	protected int cacheDays = -1;
+	protected final AtomicLong evictions = new AtomicLong();
+
+	private final AtomicLong clock = new AtomicLong();
+
+	private final AtomicBoolean evicting = new AtomicBoolean();
+
+	protected volatile int cacheDays = -1;
+
+	protected volatile long maxWeight;
 
 	public static CommitCache instance() {
 		return instance;
@@ -58,7 +87,7 @@ public class CommitCache {
 	}
 
 	protected CommitCache() {
-		cache = new HashMap<>();
+		cache = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -88,13 +117,70 @@ public class CommitCache {
 		clear();
 	}
 
+	/**
+	 * Sets the maximum estimated heap weight of the cache in bytes.  A value
+	 * of 0 or less disables weight-based eviction.
+	 *
+	 * @param bytes
+	 */
+	public void setMaxWeight(long bytes) {
+		this.maxWeight = bytes;
+		evict();
+	}
+
+	/**
+	 * Returns the maximum estimated heap weight of the cache in bytes.
+	 *
+	 * @return the weight limit, 0 or less if unbounded
+	 */
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * Returns the estimated heap weight of the cached commits in bytes.
+	 *
+	 * @return the current weight
+	 */
+	public long getWeight() {
+		return weight.get();
+	}
+
+	/**
+	 * Returns the number of requests served from a current cache entry.
+	 *
+	 * @return the hit count
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests which had to parse commits from the
+	 * repository, either to load or to incrementally update a cache entry.
+	 *
+	 * @return the miss count
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of branch entries evicted to honor the weight limit.
+	 *
+	 * @return the eviction count
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
 	/**
 	 * Clears the entire commit cache.
 	 *
 	 */
 	public void clear() {
-		synchronized (cache) {
-			cache.clear();
+		for (String repoKey : new ArrayList<String>(cache.keySet())) {
+			discard(cache.remove(repoKey));
 		}
 	}
 
@@ -105,10 +191,7 @@ public class CommitCache {
 	 */
 	public void clear(String repositoryName) {
 		String repoKey = repositoryName.toLowerCase();
-		boolean hadEntries = false;
-		synchronized (cache) {
-			hadEntries = cache.remove(repoKey) != null;
-		}
+		boolean hadEntries = discard(cache.remove(repoKey));
 		if (hadEntries) {
 			logger.info(MessageFormat.format("{0} commit cache cleared", repositoryName));
 		}
@@ -123,12 +206,10 @@ public class CommitCache {
 	public void clear(String repositoryName, String branch) {
 		String repoKey = repositoryName.toLowerCase();
 		boolean hadEntries = false;
-		synchronized (cache) {
-			ObjectCache<List<RepositoryCommit>> repoCache = cache.get(repoKey);
-			if (repoCache != null) {
-				List<RepositoryCommit> commits = repoCache.remove(branch.toLowerCase());
-				hadEntries = !ArrayUtils.isEmpty(commits);
-			}
+		ConcurrentMap<String, CachedBranch> repoCache = cache.get(repoKey);
+		if (repoCache != null) {
+			CachedBranch entry = repoCache.remove(branch.toLowerCase());
+			hadEntries = discard(entry);
 		}
 		if (hadEntries) {
 			logger.info(MessageFormat.format("{0}:{1} commit cache cleared", repositoryName, branch));
@@ -170,22 +251,16 @@ public class CommitCache {
 			RevCommit tip = JGitUtils.getCommit(repository, branch);
 			Date tipDate = JGitUtils.getCommitDate(tip);
 
-			ObjectCache<List<RepositoryCommit>> repoCache;
-			synchronized (cache) {
-				repoCache = cache.get(repoKey);
-				if (repoCache == null) {
-					repoCache = new ObjectCache<>();
-					cache.put(repoKey, repoCache);
-				}
-			}
-			synchronized (repoCache) {
+			CachedBranch entry = getEntry(repoKey, branchKey);
+			synchronized (entry) {
 				List<RepositoryCommit> commits;
-				if (!repoCache.hasCurrent(branchKey, tipDate)) {
-					commits = repoCache.getObject(branchKey);
+				if (!tipDate.equals(entry.tipDate)) {
+					misses.incrementAndGet();
+					commits = entry.commits;
 					if (ArrayUtils.isEmpty(commits)) {
 						// we don't have any cached commits for this branch, reload
 						commits = get(repositoryName, repository, branch, cacheCutoffDate);
-						repoCache.updateObject(branchKey, tipDate, commits);
+						update(entry, tipDate, commits);
 						logger.debug(MessageFormat.format("parsed {0} commits from {1}:{2} since {3,date,yyyy-MM-dd} in {4} msecs",
 								commits.size(), repositoryName, branch, cacheCutoffDate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
 					} else {
@@ -195,17 +270,19 @@ public class CommitCache {
 						logger.info(MessageFormat.format("incrementally added {0} commits to cache for {1}:{2} in {3} msecs",
 								incremental.size(), repositoryName, branch, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
 						incremental.addAll(commits);
-						repoCache.updateObject(branchKey, tipDate, incremental);
+						update(entry, tipDate, incremental);
 						commits = incremental;
 					}
 				} else {
 					// cache is current
-					commits = repoCache.getObject(branchKey);
+					hits.incrementAndGet();
+					commits = entry.commits;
 					// evict older commits outside the cache window
 					commits = reduce(commits, cacheCutoffDate);
 					// update cache
-					repoCache.updateObject(branchKey, tipDate, commits);
+					update(entry, tipDate, commits);
 				}
+				entry.lastAccess = clock.incrementAndGet();
 
 				if (sinceDate.equals(cacheCutoffDate)) {
 					// Mustn't hand out the cached list; that's not thread-safe
@@ -215,6 +292,7 @@ public class CommitCache {
 					list = reduce(commits, sinceDate);
 				}
 			}
+			evict();
 			logger.debug(MessageFormat.format("retrieved {0} commits from cache of {1}:{2} since {3,date,yyyy-MM-dd} in {4} msecs",
 					list.size(), repositoryName, branch, sinceDate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
 		} else {
@@ -226,6 +304,141 @@ public class CommitCache {
 		return list;
 	}
 
+	/**
+	 * Returns the cache entry for the repository:branch, creating it if needed.
+	 *
+	 * @param repoKey
+	 * @param branchKey
+	 * @return the cache entry
+	 */
+	private CachedBranch getEntry(String repoKey, String branchKey) {
+		ConcurrentMap<String, CachedBranch> repoCache = cache.get(repoKey);
+		if (repoCache == null) {
+			repoCache = new ConcurrentHashMap<>();
+			ConcurrentMap<String, CachedBranch> existing = cache.putIfAbsent(repoKey, repoCache);
+			if (existing != null) {
+				repoCache = existing;
+			}
+		}
+		CachedBranch entry = repoCache.get(branchKey);
+		if (entry == null) {
+			entry = new CachedBranch(repoKey, branchKey);
+			CachedBranch existing = repoCache.putIfAbsent(branchKey, entry);
+			if (existing != null) {
+				entry = existing;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Replaces the commits of an entry and adjusts the cache weight.  The
+	 * caller must hold the entry monitor.
+	 *
+	 * @param entry
+	 * @param tipDate
+	 * @param commits
+	 */
+	private void update(CachedBranch entry, Date tipDate, List<RepositoryCommit> commits) {
+		long newWeight = weigh(commits);
+		if (!entry.discarded) {
+			weight.addAndGet(newWeight - entry.weight);
+		}
+		entry.tipDate = tipDate;
+		entry.commits = commits;
+		entry.weight = newWeight;
+	}
+
+	/**
+	 * Releases the weight of the discarded entries.
+	 *
+	 * @param entries
+	 * @return true if any of the entries held commits
+	 */
+	private boolean discard(Map<String, CachedBranch> entries) {
+		if (entries == null) {
+			return false;
+		}
+		boolean hadEntries = false;
+		for (CachedBranch entry : entries.values()) {
+			hadEntries |= discard(entry);
+		}
+		return hadEntries;
+	}
+
+	/**
+	 * Releases the weight of a discarded entry.  The entry must already be
+	 * removed from the cache.
+	 *
+	 * @param entry
+	 * @return true if the entry held commits
+	 */
+	private boolean discard(CachedBranch entry) {
+		if (entry == null) {
+			return false;
+		}
+		synchronized (entry) {
+			boolean hadEntries = !ArrayUtils.isEmpty(entry.commits);
+			if (!entry.discarded) {
+				entry.discarded = true;
+				weight.addAndGet(-entry.weight);
+			}
+			return hadEntries;
+		}
+	}
+
+	/**
+	 * Evicts the least recently used branch entries until the cache weight is
+	 * within the configured limit.  Only one thread evicts at a time, other
+	 * threads return immediately.
+	 */
+	protected void evict() {
+		final long limit = maxWeight;
+		if (limit <= 0 || weight.get() <= limit || !evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			List<CachedBranch> entries = new ArrayList<CachedBranch>();
+			for (ConcurrentMap<String, CachedBranch> repoCache : cache.values()) {
+				entries.addAll(repoCache.values());
+			}
+			Collections.sort(entries, new Comparator<CachedBranch>() {
+				@Override
+				public int compare(CachedBranch o1, CachedBranch o2) {
+					return Long.compare(o1.lastAccess, o2.lastAccess);
+				}
+			});
+			for (CachedBranch entry : entries) {
+				if (weight.get() <= limit) {
+					break;
+				}
+				ConcurrentMap<String, CachedBranch> repoCache = cache.get(entry.repository);
+				if (repoCache != null && repoCache.remove(entry.branch, entry)) {
+					discard(entry);
+					evictions.incrementAndGet();
+					logger.debug(MessageFormat.format("evicted {0}:{1} from commit cache",
+							entry.repository, entry.branch));
+				}
+			}
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	/**
+	 * Returns the estimated heap weight of a list of commits.
+	 *
+	 * @param commits
+	 * @return the estimated weight in bytes
+	 */
+	protected static long weigh(List<RepositoryCommit> commits) {
+		long bytes = 0;
+		for (RepositoryCommit commit : commits) {
+			bytes += COMMIT_OVERHEAD + commit.getRawBufferLength();
+		}
+		return bytes;
+	}
+
 	/**
 	 * Returns a list of commits for the specified repository branch.
 	 *
@@ -286,4 +499,29 @@ public class CommitCache {
 		}
 		return filtered;
 	}
+
+	/**
+	 * The cached commits of a repository branch.
+	 */
+	private static class CachedBranch {
+
+		final String repository;
+
+		final String branch;
+
+		volatile Date tipDate;
+
+		volatile List<RepositoryCommit> commits;
+
+		volatile long weight;
+
+		volatile long lastAccess;
+
+		volatile boolean discarded;
+
+		CachedBranch(String repository, String branch) {
+			this.repository = repository;
+			this.branch = branch;
+		}
+	}
 }
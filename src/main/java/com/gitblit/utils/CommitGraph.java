@@ -0,0 +1,889 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * A memory-mapped commit graph of a repository.
+ *
+ * Like the commit-graph file of native git the graph holds the parents,
+ * generation number, commit time, and author time of every commit reachable
+ * from the refs of the repository.  Ancestry tests, commit counts, and date
+ * metrics can be answered from the graph without inflating commit objects.
+ *
+ * The graph is closed under ancestry: all ancestors of a commit in the graph
+ * are also in the graph.  A commit which is not in the graph can not be an
+ * ancestor of a commit in the graph.  Queries for commits which are not in the
+ * graph must fall back to a RevWalk.
+ *
+ * The graph file is a sequence of chunks.  An update appends a chunk with the
+ * commits which were created since the last update, so the parents of the
+ * commits of a chunk are in the same or an earlier chunk.  Positions are
+ * numbered across the chunks in file order.  When the graph has too many
+ * chunks it is compacted into a single chunk and the commits which are no
+ * longer reachable from the refs are dropped.
+ *
+ * The graph is written to a Gitblit-specific file so it never conflicts with
+ * the commit-graph file of native git.
+ */
+public class CommitGraph {
+
+	public static final String FILE_NAME = "gitblit-commit-graph";
+
+	private static final int MAGIC = 0x47424347; // GBCG
+
+	private static final int VERSION = 2;
+
+	private static final int NONE = -1;
+
+	private static final int LAST_EDGE = 0x80000000;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final int CHUNK_HEADER_SIZE = 8 + 256 * 4;
+
+	private static final int MAX_CHUNKS = 8;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CommitGraph.class);
+
+	private static final Map<File, CommitGraph> graphs = new ConcurrentHashMap<File, CommitGraph>();
+
+	private static final Striped<Lock> locks = Striped.lazyWeakLock(64);
+
+	private final File file;
+
+	private final long modified;
+
+	private final long length;
+
+	private final ByteBuffer buffer;
+
+	private final Chunk [] chunks;
+
+	private final int count;
+
+	private final int size;
+
+	private CommitGraph(File file, long modified, long length, ByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.modified = modified;
+		this.length = length;
+		this.buffer = buffer;
+		if (length < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException(MessageFormat.format("{0} is not a commit graph", file));
+		}
+		List<Chunk> list = new ArrayList<Chunk>();
+		int start = 0;
+		int offset = HEADER_SIZE;
+		while (offset + CHUNK_HEADER_SIZE <= length) {
+			int chunkCount = buffer.getInt(offset);
+			int extraCount = buffer.getInt(offset + 4);
+			long chunkSize = Chunk.getSize(chunkCount, extraCount);
+			if (chunkCount < 0 || extraCount < 0 || offset + chunkSize > length) {
+				// the incomplete chunk of an interrupted update
+				break;
+			}
+			list.add(new Chunk(start, chunkCount, offset));
+			start += chunkCount;
+			offset += chunkSize;
+		}
+		if (list.isEmpty()) {
+			throw new IOException(MessageFormat.format("{0} is truncated", file));
+		}
+		this.chunks = list.toArray(new Chunk[list.size()]);
+		this.count = start;
+		this.size = offset;
+	}
+
+	private static File getFile(Repository repository) {
+		return new File(repository.getDirectory(), FILE_NAME).getAbsoluteFile();
+	}
+
+	/**
+	 * Returns the commit graph of the repository.
+	 *
+	 * @param repository
+	 * @return the commit graph or null if the repository has no commit graph
+	 */
+	public static CommitGraph get(Repository repository) {
+		if (repository == null || repository.getDirectory() == null) {
+			return null;
+		}
+		File file = getFile(repository);
+		long modified = file.lastModified();
+		if (modified == 0) {
+			graphs.remove(file);
+			return null;
+		}
+		long length = file.length();
+		CommitGraph graph = graphs.get(file);
+		if (graph != null && graph.modified == modified && graph.length == length) {
+			return graph;
+		}
+		try {
+			graph = open(file, modified, length);
+			graphs.put(file, graph);
+			return graph;
+		} catch (IOException e) {
+			LOGGER.error(MessageFormat.format("failed to open commit graph {0}", file), e);
+			graphs.remove(file);
+		}
+		return null;
+	}
+
+	/**
+	 * Discards the cached commit graph of the repository.  The mapping of the
+	 * graph is released when it is no longer referenced.  This is called when
+	 * the repository is closed before it is renamed or deleted.
+	 *
+	 * @param repository
+	 */
+	public static void close(Repository repository) {
+		if (repository == null || repository.getDirectory() == null) {
+			return;
+		}
+		graphs.remove(getFile(repository));
+	}
+
+	private static CommitGraph open(File file, long modified, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			return new CommitGraph(file, modified, length, buffer);
+		} finally {
+			// the mapping remains valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	private Chunk getChunk(int position) {
+		for (int i = chunks.length - 1; i > 0; i--) {
+			if (position >= chunks[i].start) {
+				return chunks[i];
+			}
+		}
+		return chunks[0];
+	}
+
+	/**
+	 * Returns the number of commits in the graph.
+	 *
+	 * @return the commit count
+	 */
+	public int getCommitCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of chunks in the graph.
+	 *
+	 * @return the chunk count
+	 */
+	public int getChunkCount() {
+		return chunks.length;
+	}
+
+	/**
+	 * Returns the position of the commit in the graph.
+	 *
+	 * @param id
+	 * @return the position or -1 if the commit is not in the graph
+	 */
+	public int find(AnyObjectId id) {
+		if (id == null) {
+			return NONE;
+		}
+		byte [] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		id.copyRawTo(raw, 0);
+		int first = raw[0] & 0xff;
+		for (Chunk chunk : chunks) {
+			int low = first == 0 ? 0 : buffer.getInt(chunk.fanoutOffset + (first - 1) * 4);
+			int high = buffer.getInt(chunk.fanoutOffset + first * 4) - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int cmp = compare(chunk, mid, raw);
+				if (cmp < 0) {
+					low = mid + 1;
+				} else if (cmp > 0) {
+					high = mid - 1;
+				} else {
+					return chunk.start + mid;
+				}
+			}
+		}
+		return NONE;
+	}
+
+	private int compare(Chunk chunk, int index, byte [] raw) {
+		int offset = chunk.idsOffset + index * Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < raw.length; i++) {
+			int a = buffer.get(offset + i) & 0xff;
+			int b = raw[i] & 0xff;
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the id of the commit at the position.
+	 *
+	 * @param position
+	 * @return the commit id
+	 */
+	public ObjectId getId(int position) {
+		Chunk chunk = getChunk(position);
+		byte [] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		ByteBuffer view = buffer.duplicate();
+		view.position(chunk.idsOffset + (position - chunk.start) * Constants.OBJECT_ID_LENGTH);
+		view.get(raw);
+		return ObjectId.fromRaw(raw);
+	}
+
+	/**
+	 * Returns the generation number of the commit at the position.  Root
+	 * commits have generation 1 and every other commit has a generation
+	 * greater than all of its parents.
+	 *
+	 * @param position
+	 * @return the generation number
+	 */
+	public int getGeneration(int position) {
+		Chunk chunk = getChunk(position);
+		return buffer.getInt(chunk.generationOffset + (position - chunk.start) * 4);
+	}
+
+	/**
+	 * Returns the commit time in seconds of the commit at the position.
+	 *
+	 * @param position
+	 * @return the commit time
+	 */
+	public int getCommitTime(int position) {
+		Chunk chunk = getChunk(position);
+		return buffer.getInt(chunk.commitTimeOffset + (position - chunk.start) * 4);
+	}
+
+	/**
+	 * Returns the author time in seconds of the commit at the position.
+	 *
+	 * @param position
+	 * @return the author time
+	 */
+	public int getAuthorTime(int position) {
+		Chunk chunk = getChunk(position);
+		return buffer.getInt(chunk.authorTimeOffset + (position - chunk.start) * 4);
+	}
+
+	/**
+	 * Returns the positions of the parents of the commit at the position.
+	 *
+	 * @param position
+	 * @return the parent positions
+	 */
+	public int [] getParents(int position) {
+		Chunk chunk = getChunk(position);
+		int index = position - chunk.start;
+		int parent1 = buffer.getInt(chunk.parent1Offset + index * 4);
+		if (parent1 == NONE) {
+			return new int[0];
+		}
+		int parent2 = buffer.getInt(chunk.parent2Offset + index * 4);
+		if (parent2 == NONE) {
+			return new int [] { parent1 };
+		}
+		if (parent2 >= 0) {
+			return new int [] { parent1, parent2 };
+		}
+		// octopus merge, the remaining parents are in the extra edge list
+		List<Integer> parents = new ArrayList<Integer>();
+		parents.add(parent1);
+		int edge = chunk.extraOffset + (-parent2 - 2) * 4;
+		for (;;) {
+			int value = buffer.getInt(edge);
+			parents.add(value & ~LAST_EDGE);
+			if ((value & LAST_EDGE) != 0) {
+				break;
+			}
+			edge += 4;
+		}
+		int [] array = new int[parents.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = parents.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Returns true if the commit at the ancestor position is reachable from the
+	 * commit at the tip position.  The search never descends below the
+	 * generation of the ancestor.
+	 *
+	 * @param ancestor
+	 * @param tip
+	 * @return true if the ancestor is reachable from the tip
+	 */
+	public boolean isAncestor(int ancestor, int tip) {
+		if (ancestor == tip) {
+			return true;
+		}
+		int generation = getGeneration(ancestor);
+		if (getGeneration(tip) <= generation) {
+			return false;
+		}
+		BitSet seen = new BitSet();
+		Deque<Integer> stack = new ArrayDeque<Integer>();
+		stack.push(tip);
+		seen.set(tip);
+		while (!stack.isEmpty()) {
+			for (int parent : getParents(stack.pop())) {
+				if (parent == ancestor) {
+					return true;
+				}
+				if (!seen.get(parent) && getGeneration(parent) > generation) {
+					seen.set(parent);
+					stack.push(parent);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts the commits which are reachable from the tip but not from the
+	 * base.  Commits are painted in descending generation order so the walk
+	 * stops as soon as only commits reachable from the base remain.
+	 *
+	 * @param base
+	 * @param tip
+	 * @return the number of commits
+	 */
+	public int count(int base, int tip) {
+		PriorityQueue<Integer> queue = new PriorityQueue<Integer>(64, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int ga = getGeneration(a);
+				int gb = getGeneration(b);
+				return ga == gb ? a.compareTo(b) : (ga > gb ? -1 : 1);
+			}
+		});
+		BitSet queued = new BitSet();
+		BitSet fromBase = new BitSet();
+		queue.add(tip);
+		queued.set(tip);
+		int interesting = 1;
+		if (base != tip) {
+			queue.add(base);
+			queued.set(base);
+		} else {
+			interesting = 0;
+		}
+		fromBase.set(base);
+		int count = 0;
+		while (interesting > 0 && !queue.isEmpty()) {
+			int position = queue.poll();
+			boolean reachableFromBase = fromBase.get(position);
+			if (!reachableFromBase) {
+				interesting--;
+				count++;
+			}
+			for (int parent : getParents(position)) {
+				if (!queued.get(parent)) {
+					queued.set(parent);
+					queue.add(parent);
+					if (reachableFromBase) {
+						fromBase.set(parent);
+					} else {
+						interesting++;
+					}
+				} else if (reachableFromBase && !fromBase.get(parent)) {
+					// queued parent is also reachable from the base
+					fromBase.set(parent);
+					interesting--;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the positions of the commits reachable from the tip ordered by
+	 * descending commit time.  Commits older than the minimum time end the
+	 * walk along their ancestry.
+	 *
+	 * @param tip
+	 * @param minimumTime
+	 *            the minimum commit time in seconds, 0 for all commits
+	 * @return the commit positions
+	 */
+	public List<Integer> getCommits(int tip, int minimumTime) {
+		List<Integer> list = new ArrayList<Integer>();
+		if (getCommitTime(tip) < minimumTime) {
+			return list;
+		}
+		BitSet seen = new BitSet();
+		Deque<Integer> stack = new ArrayDeque<Integer>();
+		stack.push(tip);
+		seen.set(tip);
+		while (!stack.isEmpty()) {
+			int position = stack.pop();
+			list.add(position);
+			for (int parent : getParents(position)) {
+				if (!seen.get(parent) && getCommitTime(parent) >= minimumTime) {
+					seen.set(parent);
+					stack.push(parent);
+				}
+			}
+		}
+		Collections.sort(list, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int ta = getCommitTime(a);
+				int tb = getCommitTime(b);
+				return ta == tb ? a.compareTo(b) : (ta > tb ? -1 : 1);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Adds the commits of the repository which are not yet in its commit graph
+	 * to the commit graph.  Only commits which were created since the graph was
+	 * written are parsed and they are appended to the graph as a new chunk.
+	 * A graph with too many chunks is rewritten without the commits which are
+	 * no longer reachable from the refs.  Concurrent updates of a repository
+	 * are serialized.
+	 *
+	 * @param repository
+	 * @return true if the commit graph was written
+	 * @throws IOException
+	 */
+	public static boolean update(Repository repository) throws IOException {
+		File file = getFile(repository);
+		Lock lock = locks.get(file);
+		lock.lock();
+		try {
+			return update(repository, file);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static boolean update(Repository repository, File file) throws IOException {
+		long start = System.currentTimeMillis();
+		CommitGraph graph = get(repository);
+
+		// parse the commits which are not in the current graph
+		Map<ObjectId, Node> nodes = new HashMap<ObjectId, Node>();
+		List<ObjectId> tips = new ArrayList<ObjectId>();
+		Deque<RevCommit> pending = new ArrayDeque<RevCommit>();
+		RevWalk rw = new RevWalk(repository);
+		try {
+			for (Ref ref : repository.getAllRefs().values()) {
+				if (ref.getObjectId() == null) {
+					continue;
+				}
+				try {
+					RevObject object = rw.peel(rw.parseAny(ref.getObjectId()));
+					if (object instanceof RevCommit) {
+						tips.add(object.copy());
+						pending.push((RevCommit) object);
+					}
+				} catch (MissingObjectException e) {
+					LOGGER.warn(MessageFormat.format("{0} {1} references missing object {2}",
+							repository.getDirectory(), ref.getName(), e.getObjectId().name()));
+				}
+			}
+			while (!pending.isEmpty()) {
+				RevCommit commit = pending.pop();
+				if (nodes.containsKey(commit) || (graph != null && graph.find(commit) != NONE)) {
+					continue;
+				}
+				rw.parseHeaders(commit);
+				Node node = new Node(commit.copy(), commit.getCommitTime());
+				node.authorTime = commit.getAuthorIdent() == null ? node.commitTime
+						: (int) (commit.getAuthorIdent().getWhen().getTime() / 1000L);
+				node.parents = new ObjectId[commit.getParentCount()];
+				for (int i = 0; i < node.parents.length; i++) {
+					RevCommit parent = commit.getParent(i);
+					node.parents[i] = parent.copy();
+					pending.push(parent);
+				}
+				commit.disposeBody();
+				nodes.put(node.id, node);
+			}
+		} finally {
+			rw.dispose();
+		}
+		if (nodes.isEmpty() && graph != null) {
+			return false;
+		}
+
+		// assign generation numbers to the new commits, parents first
+		for (Node node : nodes.values()) {
+			if (node.generation > 0) {
+				continue;
+			}
+			Deque<Node> stack = new ArrayDeque<Node>();
+			stack.push(node);
+			while (!stack.isEmpty()) {
+				Node top = stack.peek();
+				if (top.generation > 0) {
+					// reached through another child
+					stack.pop();
+					continue;
+				}
+				int generation = 0;
+				boolean ready = true;
+				for (ObjectId parentId : top.parents) {
+					Node parent = nodes.get(parentId);
+					if (parent == null) {
+						generation = Math.max(generation, graph.getGeneration(graph.find(parentId)));
+					} else if (parent.generation > 0) {
+						generation = Math.max(generation, parent.generation);
+					} else {
+						ready = false;
+						stack.push(parent);
+					}
+				}
+				if (ready) {
+					top.generation = generation + 1;
+					stack.pop();
+				}
+			}
+		}
+
+		if (graph == null || graph.chunks.length >= MAX_CHUNKS) {
+			int dropped = compact(file, graph, nodes, tips);
+			LOGGER.debug(MessageFormat.format("compacted {0} with {1} new and {2} dropped commits in {3} msecs",
+					file, nodes.size(), dropped, System.currentTimeMillis() - start));
+		} else {
+			append(file, graph, nodes);
+			LOGGER.debug(MessageFormat.format("appended {0} commits to {1} in {2} msecs",
+					nodes.size(), file, System.currentTimeMillis() - start));
+		}
+		return true;
+	}
+
+	/**
+	 * Appends a chunk with the new commits to the graph.
+	 */
+	private static void append(File file, CommitGraph graph, Map<ObjectId, Node> nodes) throws IOException {
+		List<Node> added = sort(nodes.values());
+		Map<ObjectId, Integer> positions = new HashMap<ObjectId, Integer>();
+		for (int i = 0; i < added.size(); i++) {
+			positions.put(added.get(i).id, graph.count + i);
+		}
+		int [][] parents = new int[added.size()][];
+		for (int i = 0; i < parents.length; i++) {
+			Node node = added.get(i);
+			parents[i] = new int[node.parents.length];
+			for (int j = 0; j < parents[i].length; j++) {
+				Integer position = positions.get(node.parents[j]);
+				parents[i][j] = position == null ? graph.find(node.parents[j]) : position;
+			}
+		}
+
+		ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+		DataOutputStream os = new DataOutputStream(chunk);
+		writeChunk(os, added, parents);
+		os.close();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			// drop the incomplete chunk of an interrupted update
+			raf.setLength(graph.size);
+			raf.seek(graph.size);
+			raf.write(chunk.toByteArray());
+		} finally {
+			raf.close();
+		}
+		graphs.remove(file);
+	}
+
+	/**
+	 * Rewrites the graph as a single chunk with the new commits and the
+	 * commits of the current graph which are reachable from the refs.
+	 *
+	 * @return the number of dropped commits
+	 */
+	private static int compact(File file, CommitGraph graph, Map<ObjectId, Node> nodes, List<ObjectId> tips)
+			throws IOException {
+		List<Node> all = new ArrayList<Node>(nodes.values());
+		int dropped = 0;
+		if (graph != null) {
+			// mark the commits of the current graph which are reachable from
+			// the refs, directly or through the new commits
+			BitSet reachable = new BitSet(graph.count);
+			Deque<Integer> stack = new ArrayDeque<Integer>();
+			for (ObjectId tip : tips) {
+				stack.push(graph.find(tip));
+			}
+			for (Node node : nodes.values()) {
+				for (ObjectId parent : node.parents) {
+					stack.push(graph.find(parent));
+				}
+			}
+			while (!stack.isEmpty()) {
+				int position = stack.pop();
+				if (position == NONE || reachable.get(position)) {
+					continue;
+				}
+				reachable.set(position);
+				for (int parent : graph.getParents(position)) {
+					stack.push(parent);
+				}
+			}
+			for (int i = reachable.nextSetBit(0); i >= 0; i = reachable.nextSetBit(i + 1)) {
+				Node node = new Node(graph.getId(i), graph.getCommitTime(i));
+				node.authorTime = graph.getAuthorTime(i);
+				node.generation = graph.getGeneration(i);
+				node.oldPosition = i;
+				all.add(node);
+			}
+			dropped = graph.count - reachable.cardinality();
+		}
+		all = sort(all);
+
+		int [] oldToNew = new int[graph == null ? 0 : graph.count];
+		Map<ObjectId, Integer> positions = new HashMap<ObjectId, Integer>();
+		for (int i = 0; i < all.size(); i++) {
+			Node node = all.get(i);
+			if (node.oldPosition >= 0) {
+				oldToNew[node.oldPosition] = i;
+			} else {
+				positions.put(node.id, i);
+			}
+		}
+		int [][] parents = new int[all.size()][];
+		for (int i = 0; i < parents.length; i++) {
+			Node node = all.get(i);
+			if (node.oldPosition >= 0) {
+				parents[i] = graph.getParents(node.oldPosition);
+				for (int j = 0; j < parents[i].length; j++) {
+					parents[i][j] = oldToNew[parents[i][j]];
+				}
+			} else {
+				parents[i] = new int[node.parents.length];
+				for (int j = 0; j < parents[i].length; j++) {
+					Integer position = positions.get(node.parents[j]);
+					parents[i][j] = position == null ? oldToNew[graph.find(node.parents[j])] : position;
+				}
+			}
+		}
+
+		File temp = File.createTempFile(FILE_NAME, ".tmp", file.getParentFile());
+		try {
+			DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				os.writeInt(MAGIC);
+				os.writeInt(VERSION);
+				writeChunk(os, all, parents);
+			} finally {
+				os.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+		graphs.remove(file);
+		return dropped;
+	}
+
+	private static List<Node> sort(Collection<Node> nodes) {
+		List<Node> list = new ArrayList<Node>(nodes);
+		Collections.sort(list, new Comparator<Node>() {
+			@Override
+			public int compare(Node a, Node b) {
+				return a.id.compareTo(b.id);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Writes a chunk of commits sorted by id.
+	 *
+	 * @param os
+	 * @param nodes
+	 *            the commits of the chunk
+	 * @param parents
+	 *            the positions of the parents of each commit
+	 */
+	private static void writeChunk(DataOutputStream os, List<Node> nodes, int [][] parents) throws IOException {
+		int count = nodes.size();
+		int [] parent1 = new int[count];
+		int [] parent2 = new int[count];
+		List<Integer> extra = new ArrayList<Integer>();
+		int [] fanout = new int[256];
+		for (int i = 0; i < count; i++) {
+			fanout[nodes.get(i).id.getFirstByte()]++;
+			int [] p = parents[i];
+			parent1[i] = p.length > 0 ? p[0] : NONE;
+			if (p.length < 2) {
+				parent2[i] = NONE;
+			} else if (p.length == 2) {
+				parent2[i] = p[1];
+			} else {
+				parent2[i] = -(extra.size() + 2);
+				for (int j = 1; j < p.length; j++) {
+					extra.add(j == p.length - 1 ? p[j] | LAST_EDGE : p[j]);
+				}
+			}
+		}
+		for (int i = 1; i < fanout.length; i++) {
+			fanout[i] += fanout[i - 1];
+		}
+
+		os.writeInt(count);
+		os.writeInt(extra.size());
+		for (int value : fanout) {
+			os.writeInt(value);
+		}
+		byte [] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (Node node : nodes) {
+			node.id.copyRawTo(raw, 0);
+			os.write(raw);
+		}
+		for (int value : parent1) {
+			os.writeInt(value);
+		}
+		for (int value : parent2) {
+			os.writeInt(value);
+		}
+		for (Node node : nodes) {
+			os.writeInt(node.generation);
+		}
+		for (Node node : nodes) {
+			os.writeInt(node.commitTime);
+		}
+		for (Node node : nodes) {
+			os.writeInt(node.authorTime);
+		}
+		for (int value : extra) {
+			os.writeInt(value);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return MessageFormat.format("{0} ({1} commits in {2} chunks)", file, count, chunks.length);
+	}
+
+	/**
+	 * The offsets of a chunk of the graph.
+	 */
+	private static class Chunk {
+
+		final int start;
+
+		final int fanoutOffset;
+
+		final int idsOffset;
+
+		final int parent1Offset;
+
+		final int parent2Offset;
+
+		final int generationOffset;
+
+		final int commitTimeOffset;
+
+		final int authorTimeOffset;
+
+		final int extraOffset;
+
+		Chunk(int start, int count, int offset) {
+			this.start = start;
+			fanoutOffset = offset + 8;
+			idsOffset = offset + CHUNK_HEADER_SIZE;
+			parent1Offset = idsOffset + count * Constants.OBJECT_ID_LENGTH;
+			parent2Offset = parent1Offset + count * 4;
+			generationOffset = parent2Offset + count * 4;
+			commitTimeOffset = generationOffset + count * 4;
+			authorTimeOffset = commitTimeOffset + count * 4;
+			extraOffset = authorTimeOffset + count * 4;
+		}
+
+		static long getSize(int count, int extraCount) {
+			return CHUNK_HEADER_SIZE + (long) count * (Constants.OBJECT_ID_LENGTH + 5 * 4) + extraCount * 4L;
+		}
+	}
+
+	/**
+	 * A commit which is written to the graph.
+	 */
+	private static class Node {
+
+		final ObjectId id;
+
+		final int commitTime;
+
+		int authorTime;
+
+		int generation;
+
+		int oldPosition = NONE;
+
+		ObjectId [] parents;
+
+		Node(ObjectId id, int commitTime) {
+			this.id = id;
+			this.commitTime = commitTime;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a set of named tasks, usually one per repository, on a bounded executor
+ * and collects their results until a deadline.
+ *
+ * The results are returned to the calling thread which merges them so the
+ * tasks do not need to share any state.  Tasks which have not completed by the
+ * deadline are reported as pending.  Pending tasks which have not started are
+ * cancelled while running tasks are allowed to finish because interrupting
+ * JGit may close the channels of shared pack files.  Running tasks typically
+ * warm a cache so a repeated request completes sooner.
+ */
+public class FanOut {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FanOut.class);
+
+	private final ExecutorService executor;
+
+	private final long timeout;
+
+	/**
+	 * Creates a fan out which runs the tasks sequentially on the calling thread.
+	 */
+	public FanOut() {
+		this(null, 0);
+	}
+
+	/**
+	 * Creates a fan out.
+	 *
+	 * @param executor
+	 *            the executor to run the tasks, if null the tasks are run
+	 *            sequentially on the calling thread
+	 * @param timeout
+	 *            the deadline in milliseconds, a value <= 0 waits for all tasks
+	 */
+	public FanOut(ExecutorService executor, long timeout) {
+		this.executor = executor;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Runs the tasks and returns the results which are available by the
+	 * deadline.
+	 *
+	 * @param tasks
+	 *            the named tasks
+	 * @return the results
+	 */
+	public <T> Result<T> invoke(Map<String, Callable<T>> tasks) {
+		Result<T> result = new Result<T>();
+		if (executor == null || tasks.size() <= 1) {
+			for (Map.Entry<String, Callable<T>> task : tasks.entrySet()) {
+				call(task.getKey(), task.getValue(), result);
+			}
+			return result;
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		CompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+		Map<Future<T>, String> futures = new LinkedHashMap<Future<T>, String>();
+		for (Map.Entry<String, Callable<T>> task : tasks.entrySet()) {
+			try {
+				futures.put(completion.submit(task.getValue()), task.getKey());
+			} catch (RejectedExecutionException e) {
+				// executor is shutting down
+				call(task.getKey(), task.getValue(), result);
+			}
+		}
+
+		try {
+			while (!futures.isEmpty()) {
+				Future<T> future;
+				if (timeout <= 0) {
+					future = completion.take();
+				} else {
+					long remaining = deadline - System.nanoTime();
+					future = remaining > 0 ? completion.poll(remaining, TimeUnit.NANOSECONDS) : null;
+					if (future == null) {
+						break;
+					}
+				}
+				String name = futures.remove(future);
+				try {
+					result.add(name, future.get());
+				} catch (ExecutionException e) {
+					LOGGER.error(MessageFormat.format("failed to aggregate {0}", name), e.getCause());
+					result.failed.add(name);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (Map.Entry<Future<T>, String> pending : futures.entrySet()) {
+			pending.getKey().cancel(false);
+			result.pending.add(pending.getValue());
+		}
+		if (!result.pending.isEmpty()) {
+			LOGGER.debug(MessageFormat.format("{0} of {1} tasks did not complete within {2} msecs",
+					result.pending.size(), tasks.size(), timeout));
+		}
+		return result;
+	}
+
+	private <T> void call(String name, Callable<T> task, Result<T> result) {
+		try {
+			result.add(name, task.call());
+		} catch (Exception e) {
+			LOGGER.error(MessageFormat.format("failed to aggregate {0}", name), e);
+			result.failed.add(name);
+		}
+	}
+
+	/**
+	 * The results of a fan out in order of completion.
+	 */
+	public static class Result<T> {
+
+		private final Map<String, T> results = new LinkedHashMap<String, T>();
+
+		private final List<String> pending = new ArrayList<String>();
+
+		private final List<String> failed = new ArrayList<String>();
+
+		void add(String name, T value) {
+			if (value != null) {
+				results.put(name, value);
+			}
+		}
+
+		/**
+		 * Returns the results of the completed tasks keyed by task name.
+		 *
+		 * @return the results
+		 */
+		public Map<String, T> getResults() {
+			return results;
+		}
+
+		/**
+		 * Returns the names of the tasks which did not complete by the deadline.
+		 *
+		 * @return the pending task names
+		 */
+		public List<String> getPending() {
+			return pending;
+		}
+
+		/**
+		 * Returns the names of the tasks which failed.
+		 *
+		 * @return the failed task names
+		 */
+		public List<String> getFailed() {
+			return failed;
+		}
+
+		/**
+		 * Returns true if all tasks completed by the deadline.
+		 *
+		 * @return true if the results are complete
+		 */
+		public boolean isComplete() {
+			return pending.isEmpty();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Incrementally calculates folder sizes.
+ *
+ * The size of the files directly within a folder is cached together with the
+ * last modified time of the folder.  Git writes objects, packs, and refs to a
+ * temporary file which is renamed into place, so every change to a repository
+ * folder updates the folder time.  A repeated size calculation only lists the
+ * folders which have been modified and only needs to stat the others.
+ *
+ * Some files are appended in place, e.g. the reflogs in logs/ or FETCH_HEAD,
+ * which does not update the time of their folder.  The lengths of these
+ * appended files, and of all files within appended folders, are read on every
+ * calculation.
+ *
+ * Like the git index, a folder modified within the filesystem timestamp
+ * resolution of its listing is considered racy and is listed again on the
+ * next calculation.
+ */
+public class FolderSizeTracker {
+
+	/**
+	 * Conservative filesystem timestamp resolution.
+	 */
+	private static final long RACY_MILLIS = 2000;
+
+	private final Map<File, FolderStat> folders = new ConcurrentHashMap<File, FolderStat>();
+
+	private final Set<String> appendedNames;
+
+	/**
+	 * Creates a folder size tracker.
+	 *
+	 * @param appendedNames
+	 *            the names of the files and folders which are appended in place
+	 */
+	public FolderSizeTracker(String... appendedNames) {
+		this.appendedNames = new HashSet<String>(Arrays.asList(appendedNames));
+	}
+
+	/**
+	 * Returns the size in bytes of all files within the folder and its
+	 * subfolders.
+	 *
+	 * @param folder
+	 * @return folder size in bytes or -1 if the folder does not exist
+	 */
+	public long size(File folder) {
+		if (folder == null || !folder.isDirectory()) {
+			return -1;
+		}
+		return sizeOf(folder.getAbsoluteFile(), false);
+	}
+
+	private long sizeOf(File folder, boolean appended) {
+		appended |= appendedNames.contains(folder.getName());
+		if (appended) {
+			// files of appended folders change without updating the folder time
+			long size = 0;
+			File [] files = folder.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					size += file.isDirectory() ? sizeOf(file, true) : file.length();
+				}
+			}
+			return size;
+		}
+		long modified = folder.lastModified();
+		FolderStat stat = folders.get(folder);
+		if (stat == null || stat.modified != modified || stat.racy) {
+			FolderStat previous = stat;
+			stat = list(folder, modified);
+			folders.put(folder, stat);
+			if (previous != null) {
+				// forget removed subfolders
+				for (File subfolder : previous.subfolders) {
+					if (!stat.subfolders.contains(subfolder)) {
+						reset(subfolder);
+					}
+				}
+			}
+		}
+		long size = stat.size;
+		for (File file : stat.appended) {
+			size += file.length();
+		}
+		for (File subfolder : stat.subfolders) {
+			size += Math.max(0, sizeOf(subfolder, false));
+		}
+		return size;
+	}
+
+	private FolderStat list(File folder, long modified) {
+		FolderStat stat = new FolderStat();
+		stat.modified = modified;
+		stat.racy = System.currentTimeMillis() - modified < RACY_MILLIS;
+		File [] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					stat.subfolders.add(file);
+				} else if (appendedNames.contains(file.getName())) {
+					stat.appended.add(file);
+				} else {
+					stat.size += file.length();
+				}
+			}
+		}
+		return stat;
+	}
+
+	/**
+	 * Discards the cached sizes of the folder and its subfolders.
+	 *
+	 * @param folder
+	 */
+	public void reset(File folder) {
+		String path = folder.getAbsolutePath();
+		String prefix = path + File.separator;
+		for (File key : new ArrayList<File>(folders.keySet())) {
+			String keyPath = key.getPath();
+			if (keyPath.equals(path) || keyPath.startsWith(prefix)) {
+				folders.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Discards all cached sizes.
+	 */
+	public void clear() {
+		folders.clear();
+	}
+
+	private static class FolderStat {
+
+		long modified;
+
+		boolean racy;
+
+		long size;
+
+		final List<File> subfolders = new ArrayList<File>();
+
+		final List<File> appended = new ArrayList<File>();
+	}
+}
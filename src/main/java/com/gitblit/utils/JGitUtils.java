@@ -17,6 +17,9 @@ package com.gitblit.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -30,6 +33,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -483,6 +489,34 @@ public class JGitUtils {
 	 */
 	public static List<String> getRepositoryList(File repositoriesFolder, boolean onlyBare,
 			boolean searchSubfolders, int depth, List<String> exclusions) {
+		return getRepositoryList(repositoriesFolder, onlyBare, searchSubfolders, depth, exclusions, 1, null);
+	}
+
+	/**
+	 * Returns a list of repository names in the specified folder.  If more
+	 * than one thread is specified, subfolders are searched in parallel on a
+	 * fork-join pool.
+	 *
+	 * @param repositoriesFolder
+	 * @param onlyBare
+	 *            if true, only bare repositories repositories are listed. If
+	 *            false all repositories are included.
+	 * @param searchSubfolders
+	 *            recurse into subfolders to find grouped repositories
+	 * @param depth
+	 *            optional recursion depth, -1 = infinite recursion
+	 * @param exclusions
+	 *            list of regex exclusions for matching to folder names
+	 * @param threads
+	 *            number of search threads, 0 = number of available processors
+	 * @param searchedFolders
+	 *            optional map which is populated with the relative path and
+	 *            last modified time of every searched folder
+	 * @return list of repository names
+	 */
+	public static List<String> getRepositoryList(File repositoriesFolder, boolean onlyBare,
+			boolean searchSubfolders, int depth, List<String> exclusions, int threads,
+			Map<String, Long> searchedFolders) {
 		List<String> list = new ArrayList<String>();
 		if (repositoriesFolder == null || !repositoriesFolder.exists()) {
 			return list;
@@ -493,78 +527,172 @@ public class JGitUtils {
 				patterns.add(Pattern.compile(regex));
 			}
 		}
-		list.addAll(getRepositoryList(repositoriesFolder.getAbsolutePath(), repositoriesFolder,
-				onlyBare, searchSubfolders, depth, patterns));
+		RepositorySearch search = new RepositorySearch(repositoriesFolder.getAbsoluteFile(),
+				onlyBare, searchSubfolders, patterns,
+				searchedFolders == null ? null : new ConcurrentHashMap<String, Long>());
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		if (threads == 1) {
+			list.addAll(search.search(search.baseFile, depth));
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				list.addAll(pool.invoke(search.newTask(search.baseFile, depth)));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		if (searchedFolders != null) {
+			searchedFolders.putAll(search.searchedFolders);
+		}
 		StringUtils.sortRepositorynames(list);
 		list.remove(".git"); // issue-256
 		return list;
 	}
 
 	/**
-	 * Recursive function to find git repositories.
-	 *
-	 * @param basePath
-	 *            basePath is stripped from the repository name as repositories
-	 *            are relative to this path
-	 * @param searchFolder
-	 * @param onlyBare
-	 *            if true only bare repositories will be listed. if false all
-	 *            repositories are included.
-	 * @param searchSubfolders
-	 *            recurse into subfolders to find grouped repositories
-	 * @param depth
-	 *            recursion depth, -1 = infinite recursion
-	 * @param patterns
-	 *            list of regex patterns for matching to folder names
-	 * @return
-	 */
-	private static List<String> getRepositoryList(String basePath, File searchFolder,
-			boolean onlyBare, boolean searchSubfolders, int depth, List<Pattern> patterns) {
-		File baseFile = new File(basePath);
-		List<String> list = new ArrayList<String>();
-		if (depth == 0) {
+	 * Searches folders for git repositories, either recursively on the calling
+	 * thread or as a tree of fork-join tasks.
+	 */
+	private static class RepositorySearch {
+
+		final File baseFile;
+
+		final boolean onlyBare;
+
+		final boolean searchSubfolders;
+
+		final List<Pattern> patterns;
+
+		final Map<String, Long> searchedFolders;
+
+		RepositorySearch(File baseFile, boolean onlyBare, boolean searchSubfolders,
+				List<Pattern> patterns, Map<String, Long> searchedFolders) {
+			this.baseFile = baseFile;
+			this.onlyBare = onlyBare;
+			this.searchSubfolders = searchSubfolders;
+			this.patterns = patterns;
+			this.searchedFolders = searchedFolders;
+		}
+
+		/**
+		 * Recursively searches a folder on the calling thread.
+		 *
+		 * @param searchFolder
+		 * @param depth
+		 *            recursion depth, -1 = infinite recursion
+		 * @return list of repository names
+		 */
+		List<String> search(File searchFolder, int depth) {
+			List<String> list = new ArrayList<String>();
+			if (depth == 0) {
+				return list;
+			}
+			int nextDepth = (depth == -1) ? -1 : depth - 1;
+			List<File> subfolders = new ArrayList<File>();
+			list.addAll(searchFolder(searchFolder, subfolders));
+			for (File subfolder : subfolders) {
+				list.addAll(search(subfolder, nextDepth));
+			}
 			return list;
 		}
 
-		int nextDepth = (depth == -1) ? -1 : depth - 1;
-		for (File file : searchFolder.listFiles()) {
-			if (file.isDirectory()) {
-				boolean exclude = false;
-				for (Pattern pattern : patterns) {
-					String path = FileUtils.getRelativePath(baseFile, file).replace('\\',  '/');
-					if (pattern.matcher(path).matches()) {
-						LOGGER.debug(MessageFormat.format("excluding {0} because of rule {1}", path, pattern.pattern()));
-						exclude = true;
-						break;
+		/**
+		 * Creates a fork-join task to search a folder.
+		 *
+		 * @param searchFolder
+		 * @param depth
+		 *            recursion depth, -1 = infinite recursion
+		 * @return a task which returns the list of repository names
+		 */
+		RecursiveTask<List<String>> newTask(final File searchFolder, final int depth) {
+			return new RecursiveTask<List<String>>() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected List<String> compute() {
+					List<String> list = new ArrayList<String>();
+					if (depth == 0) {
+						return list;
+					}
+					int nextDepth = (depth == -1) ? -1 : depth - 1;
+					List<File> subfolders = new ArrayList<File>();
+					list.addAll(searchFolder(searchFolder, subfolders));
+					List<RecursiveTask<List<String>>> tasks = new ArrayList<RecursiveTask<List<String>>>();
+					for (File subfolder : subfolders) {
+						tasks.add(newTask(subfolder, nextDepth));
 					}
+					for (RecursiveTask<List<String>> task : invokeAll(tasks)) {
+						list.addAll(task.join());
+					}
+					return list;
 				}
-				if (exclude) {
-					// skip to next file
-					continue;
+			};
+		}
+
+		/**
+		 * Lists the repositories in a single folder.  Folders which are not
+		 * repositories but may contain repositories are added to the
+		 * subfolders list.
+		 *
+		 * @param searchFolder
+		 * @param subfolders
+		 * @return list of repository names
+		 */
+		List<String> searchFolder(File searchFolder, List<File> subfolders) {
+			List<String> list = new ArrayList<String>();
+			if (searchedFolders != null) {
+				String path = FileUtils.getRelativePath(baseFile, searchFolder);
+				searchedFolders.put(path == null ? "" : path.replace('\\', '/'), searchFolder.lastModified());
+			}
+			DirectoryStream.Filter<Path> directories = new DirectoryStream.Filter<Path>() {
+				@Override
+				public boolean accept(Path entry) {
+					return Files.isDirectory(entry);
 				}
-
-				File gitDir = FileKey.resolve(new File(searchFolder, file.getName()), FS.DETECTED);
-				if (gitDir != null) {
-					if (onlyBare && gitDir.getName().equals(".git")) {
+			};
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(searchFolder.toPath(), directories)) {
+				for (Path entry : stream) {
+					File file = entry.toFile();
+					boolean exclude = false;
+					for (Pattern pattern : patterns) {
+						String path = FileUtils.getRelativePath(baseFile, file).replace('\\',  '/');
+						if (pattern.matcher(path).matches()) {
+							LOGGER.debug(MessageFormat.format("excluding {0} because of rule {1}", path, pattern.pattern()));
+							exclude = true;
+							break;
+						}
+					}
+					if (exclude) {
+						// skip to next file
 						continue;
 					}
-					if (gitDir.equals(file) || gitDir.getParentFile().equals(file)) {
-						// determine repository name relative to base path
-						String repository = FileUtils.getRelativePath(baseFile, file);
-						list.add(repository);
+
+					File gitDir = FileKey.resolve(new File(searchFolder, file.getName()), FS.DETECTED);
+					if (gitDir != null) {
+						if (onlyBare && gitDir.getName().equals(".git")) {
+							continue;
+						}
+						if (gitDir.equals(file) || gitDir.getParentFile().equals(file)) {
+							// determine repository name relative to base path
+							String repository = FileUtils.getRelativePath(baseFile, file);
+							list.add(repository);
+						} else if (searchSubfolders && file.canRead()) {
+							// look for repositories in subfolders
+							subfolders.add(file);
+						}
 					} else if (searchSubfolders && file.canRead()) {
 						// look for repositories in subfolders
-						list.addAll(getRepositoryList(basePath, file, onlyBare, searchSubfolders,
-								nextDepth, patterns));
+						subfolders.add(file);
 					}
-				} else if (searchSubfolders && file.canRead()) {
-					// look for repositories in subfolders
-					list.addAll(getRepositoryList(basePath, file, onlyBare, searchSubfolders,
-							nextDepth, patterns));
 				}
+			} catch (IOException e) {
+				LOGGER.error(MessageFormat.format("failed to search {0} for repositories", searchFolder), e);
 			}
+			return list;
 		}
-		return list;
 	}
 
 	/**
@@ -1347,11 +1475,21 @@ public class JGitUtils {
 			}
 
 			RevWalk rw = new RevWalk(repository);
-			rw.markStart(rw.parseCommit(branchObject));
-			rw.setRevFilter(CommitTimeRevFilter.after(minimumDate));
-			Iterable<RevCommit> revlog = rw;
-			for (RevCommit rev : revlog) {
-				list.add(rev);
+			CommitGraph graph = CommitGraph.get(repository);
+			int tip = graph == null ? -1 : graph.find(branchObject);
+			if (tip >= 0) {
+				// only parse the commits selected by the commit graph
+				int minimumTime = (int) (minimumDate.getTime() / 1000L);
+				for (int position : graph.getCommits(tip, minimumTime)) {
+					list.add(rw.parseCommit(graph.getId(position)));
+				}
+			} else {
+				rw.markStart(rw.parseCommit(branchObject));
+				rw.setRevFilter(CommitTimeRevFilter.after(minimumDate));
+				Iterable<RevCommit> revlog = rw;
+				for (RevCommit rev : revlog) {
+					list.add(rev);
+				}
 			}
 			rw.dispose();
 		} catch (Throwable t) {
@@ -2397,6 +2535,14 @@ public class JGitUtils {
 	 * @return true if there is the commit is an ancestor of the tip
 	 */
 	public static boolean isMergedInto(Repository repository, ObjectId commitId, ObjectId tipCommitId) {
+		CommitGraph graph = CommitGraph.get(repository);
+		int tip = graph == null ? -1 : graph.find(tipCommitId);
+		if (tip >= 0) {
+			// a commit which is not in the graph is newer than the graph
+			int commit = graph.find(commitId);
+			return commit >= 0 && graph.isAncestor(commit, tip);
+		}
+
 		// traverse the revlog looking for a commit chain between the endpoints
 		RevWalk rw = new RevWalk(repository);
 		try {
@@ -3083,6 +3229,15 @@ public class JGitUtils {
 	}
 	
 	public static int countCommits(Repository repository, RevWalk walk, ObjectId baseId, ObjectId tipId) {
+		CommitGraph graph = CommitGraph.get(repository);
+		if (graph != null) {
+			int tip = graph.find(tipId);
+			int base = graph.find(baseId);
+			if (tip >= 0 && base >= 0) {
+				return graph.count(base, tip);
+			}
+		}
+
 		int count = 0;
 		walk.reset();
 		walk.sort(RevSort.TOPO);
@@ -111,14 +111,24 @@ public class MetricUtils {
 
 				revWalk = new RevWalk(repository);
 				RevCommit lastCommit = revWalk.parseCommit(branchObject);
-				revWalk.markStart(lastCommit);
+
+				// use the commit graph to avoid parsing commits
+				CommitGraph graph = CommitGraph.get(repository);
+				int tip = graph == null ? -1 : graph.find(branchObject);
+				List<Integer> commits = tip < 0 ? null : graph.getCommits(tip, 0);
 
 				DateFormat df;
 				if (StringUtils.isEmpty(dateFormat)) {
 					// dynamically determine date format
-					RevCommit firstCommit = JGitUtils.getFirstCommit(repository,
-							branchObject.getName());
-					int diffDays = (lastCommit.getCommitTime() - firstCommit.getCommitTime())
+					int firstCommitTime;
+					if (commits != null) {
+						firstCommitTime = graph.getCommitTime(commits.get(commits.size() - 1));
+					} else {
+						RevCommit firstCommit = JGitUtils.getFirstCommit(repository,
+								branchObject.getName());
+						firstCommitTime = firstCommit.getCommitTime();
+					}
+					int diffDays = (lastCommit.getCommitTime() - firstCommitTime)
 							/ (60 * 60 * 24);
 					total.duration = diffDays;
 					if (diffDays <= 365) {
@@ -134,19 +144,44 @@ public class MetricUtils {
 				}
 				df.setTimeZone(timezone);
 
-				Iterable<RevCommit> revlog = revWalk;
-				for (RevCommit rev : revlog) {
-					Date d = JGitUtils.getAuthorDate(rev);
-					String p = df.format(d);
-					if (!metricMap.containsKey(p)) {
-						metricMap.put(p, new Metric(p));
+				if (commits != null) {
+					Map<Integer, RefModel> taggedCommits = new HashMap<Integer, RefModel>();
+					for (Map.Entry<ObjectId, RefModel> entry : tagMap.entrySet()) {
+						int position = graph.find(entry.getKey());
+						if (position >= 0) {
+							taggedCommits.put(position, entry.getValue());
+						}
 					}
-					Metric m = metricMap.get(p);
-					m.count++;
-					total.count++;
-					if (tagMap.containsKey(rev.getId())) {
-						m.tag++;
-						total.tag++;
+					for (int position : commits) {
+						Date d = new Date(graph.getAuthorTime(position) * 1000L);
+						String p = df.format(d);
+						if (!metricMap.containsKey(p)) {
+							metricMap.put(p, new Metric(p));
+						}
+						Metric m = metricMap.get(p);
+						m.count++;
+						total.count++;
+						if (taggedCommits.containsKey(position)) {
+							m.tag++;
+							total.tag++;
+						}
+					}
+				} else {
+					revWalk.markStart(lastCommit);
+					Iterable<RevCommit> revlog = revWalk;
+					for (RevCommit rev : revlog) {
+						Date d = JGitUtils.getAuthorDate(rev);
+						String p = df.format(d);
+						if (!metricMap.containsKey(p)) {
+							metricMap.put(p, new Metric(p));
+						}
+						Metric m = metricMap.get(p);
+						m.count++;
+						total.count++;
+						if (tagMap.containsKey(rev.getId())) {
+							m.tag++;
+							total.tag++;
+						}
 					}
 				}
 			} catch (Throwable t) {
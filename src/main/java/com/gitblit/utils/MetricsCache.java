@@ -0,0 +1,444 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gitblit.models.Metric;
+import com.gitblit.models.RefModel;
+
+/**
+ * Incrementally maintains the date and author metrics of repository branches.
+ *
+ * The metrics of a branch are stored with the tip they were calculated for.
+ * When the branch advances only the new commits are folded into the metrics.
+ * When the branch is rewound, or when the tags of the repository change, the
+ * metrics are recalculated from the complete history of the branch.
+ *
+ * Only the metrics of refs are cached, the metrics of other commits are
+ * calculated per-request.  The least recently used branches are evicted when
+ * the cache exceeds its maximum number of branches.
+ */
+public class MetricsCache {
+
+	private static final MetricsCache instance;
+
+	protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+	public static final int DEFAULT_MAX_BRANCHES = 256;
+
+	protected final Map<String, BranchMetrics> cache;
+
+	protected volatile int maxBranches = DEFAULT_MAX_BRANCHES;
+
+	public static MetricsCache instance() {
+		return instance;
+	}
+
+	static {
+		instance = new MetricsCache();
+	}
+
+	protected MetricsCache() {
+		cache = new LinkedHashMap<String, BranchMetrics>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, BranchMetrics> eldest) {
+				return size() > maxBranches;
+			}
+		};
+	}
+
+	/**
+	 * Sets the maximum number of cached branches.
+	 *
+	 * @param branches
+	 */
+	public void setMaxBranches(int branches) {
+		synchronized (cache) {
+			maxBranches = Math.max(1, branches);
+			while (cache.size() > maxBranches) {
+				cache.remove(cache.keySet().iterator().next());
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of cached branches.
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Clears the entire metrics cache.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Clears the metrics cache for a specific repository.
+	 *
+	 * @param repositoryName
+	 */
+	public void clear(String repositoryName) {
+		String prefix = repositoryName.toLowerCase() + '\n';
+		synchronized (cache) {
+			for (String key : new ArrayList<String>(cache.keySet())) {
+				if (key.startsWith(prefix)) {
+					cache.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the date metrics of the branch.
+	 *
+	 * @see MetricUtils#getDateMetrics(Repository, String, boolean, String, TimeZone)
+	 * @param repositoryName
+	 * @param repository
+	 * @param objectId
+	 *            if null or empty, HEAD is assumed.
+	 * @param includeTotal
+	 * @param dateFormat
+	 *            if unspecified the date format is determined from the age of
+	 *            the branch. The "E" day of week format is also cached, other
+	 *            formats are calculated per-request.
+	 * @param timezone
+	 * @return list of metrics
+	 */
+	public List<Metric> getDateMetrics(String repositoryName, Repository repository, String objectId,
+			boolean includeTotal, String dateFormat, TimeZone timezone) {
+		if (!StringUtils.isEmpty(dateFormat) && !"E".equals(dateFormat)) {
+			return MetricUtils.getDateMetrics(repository, objectId, includeTotal, dateFormat, timezone);
+		}
+		BranchMetrics metrics = getBranchMetrics(repositoryName, repository, objectId, timezone);
+		if (metrics == null) {
+			return MetricUtils.getDateMetrics(repository, objectId, includeTotal, dateFormat, timezone);
+		}
+		synchronized (metrics) {
+			Map<String, Metric> buckets;
+			Metric total = copy(metrics.total);
+			if ("E".equals(dateFormat)) {
+				buckets = metrics.weekdays;
+			} else {
+				int diffDays = (metrics.tipTime - metrics.firstTime) / (60 * 60 * 24);
+				total.duration = diffDays;
+				buckets = diffDays <= 365 ? metrics.days : metrics.months;
+			}
+			List<Metric> list = new ArrayList<Metric>();
+			if (includeTotal) {
+				list.add(total);
+			}
+			for (Metric metric : new TreeMap<String, Metric>(buckets).values()) {
+				list.add(copy(metric));
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * Returns the author metrics of the branch.
+	 *
+	 * @see MetricUtils#getAuthorMetrics(Repository, String, boolean)
+	 * @param repositoryName
+	 * @param repository
+	 * @param objectId
+	 *            if null or empty, HEAD is assumed.
+	 * @param byEmailAddress
+	 *            group metrics by author email address otherwise by author name
+	 * @param timezone
+	 * @return list of metrics
+	 */
+	public List<Metric> getAuthorMetrics(String repositoryName, Repository repository, String objectId,
+			boolean byEmailAddress, TimeZone timezone) {
+		BranchMetrics metrics = getBranchMetrics(repositoryName, repository, objectId, timezone);
+		if (metrics == null) {
+			return MetricUtils.getAuthorMetrics(repository, objectId, byEmailAddress);
+		}
+		synchronized (metrics) {
+			Map<String, Metric> authors = byEmailAddress ? metrics.authorsByEmail : metrics.authorsByName;
+			List<Metric> list = new ArrayList<Metric>();
+			for (Metric metric : new TreeMap<String, Metric>(authors).values()) {
+				list.add(copy(metric));
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * Returns the current metrics of the branch, folding in the commits which
+	 * have been added since the metrics were last updated.
+	 *
+	 * @return the branch metrics or null if the objectId is not a ref or if
+	 *         the branch can not be read
+	 */
+	private BranchMetrics getBranchMetrics(String repositoryName, Repository repository, String objectId,
+			TimeZone timezone) {
+		if (!JGitUtils.hasCommits(repository)) {
+			return null;
+		}
+		String branch = "";
+		if (!StringUtils.isEmpty(objectId)) {
+			try {
+				Ref ref = repository.getRef(objectId);
+				if (ref == null) {
+					// not a branch or tag, do not cache the metrics of a commit
+					return null;
+				}
+				branch = ref.getName();
+			} catch (Exception e) {
+				logger.error(MessageFormat.format("failed to resolve {0} in {1}", objectId, repositoryName), e);
+				return null;
+			}
+		}
+		String key = repositoryName.toLowerCase() + '\n' + branch + '\n' + timezone.getID();
+		BranchMetrics metrics;
+		synchronized (cache) {
+			metrics = cache.get(key);
+			if (metrics == null) {
+				metrics = new BranchMetrics(timezone);
+				cache.put(key, metrics);
+			}
+		}
+
+		synchronized (metrics) {
+			try {
+				ObjectId tip;
+				if (StringUtils.isEmpty(objectId)) {
+					tip = JGitUtils.getDefaultBranch(repository);
+				} else {
+					tip = repository.resolve(objectId);
+				}
+				if (tip == null) {
+					return null;
+				}
+				String tagsId = getTagsId(repository);
+				if (tip.equals(metrics.tip) && tagsId.equals(metrics.tagsId)) {
+					// metrics are current
+					return metrics;
+				}
+
+				long start = System.currentTimeMillis();
+				boolean rebuild = metrics.tip == null || !tagsId.equals(metrics.tagsId)
+						|| !JGitUtils.isMergedInto(repository, metrics.tip, tip);
+				if (rebuild) {
+					metrics.reset(getTaggedCommits(repository), tagsId);
+				}
+				int count = fold(repository, metrics, rebuild ? null : metrics.tip, tip);
+				metrics.tip = tip.copy();
+				logger.debug(MessageFormat.format("{0} {1} metrics of {2} {3} in {4} msecs",
+						rebuild ? "calculated" : "updated", count, repositoryName,
+						StringUtils.isEmpty(objectId) ? "HEAD" : objectId, System.currentTimeMillis() - start));
+				return metrics;
+			} catch (Exception e) {
+				logger.error(MessageFormat.format("failed to calculate metrics of {0}", repositoryName), e);
+				synchronized (cache) {
+					cache.remove(key);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Folds the commits which are reachable from the tip but not from the
+	 * previous tip into the metrics.
+	 *
+	 * @return the number of folded commits
+	 */
+	private int fold(Repository repository, BranchMetrics metrics, ObjectId previousTip, ObjectId tip)
+			throws Exception {
+		int count = 0;
+		RevWalk walk = new RevWalk(repository);
+		try {
+			RevCommit tipCommit = walk.parseCommit(tip);
+			metrics.tipTime = tipCommit.getCommitTime();
+			walk.markStart(tipCommit);
+			if (previousTip != null) {
+				walk.markUninteresting(walk.parseCommit(previousTip));
+			}
+			for (RevCommit commit : walk) {
+				metrics.add(commit);
+				count++;
+			}
+		} finally {
+			walk.dispose();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns an id of the tags of the repository which changes when a tag is
+	 * created, deleted, or moved.
+	 */
+	private String getTagsId(Repository repository) throws Exception {
+		Map<String, Ref> tags = new TreeMap<String, Ref>(repository.getRefDatabase().getRefs(Constants.R_TAGS));
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Ref> tag : tags.entrySet()) {
+			sb.append(tag.getKey()).append(' ');
+			if (tag.getValue().getObjectId() != null) {
+				sb.append(tag.getValue().getObjectId().name());
+			}
+			sb.append('\n');
+		}
+		return StringUtils.getSHA1(sb.toString());
+	}
+
+	private Set<ObjectId> getTaggedCommits(Repository repository) {
+		Set<ObjectId> tagged = new HashSet<ObjectId>();
+		for (RefModel tag : JGitUtils.getTags(repository, true, -1)) {
+			tagged.add(tag.getReferencedObjectId());
+		}
+		return tagged;
+	}
+
+	private static Metric copy(Metric metric) {
+		Metric copy = new Metric(metric.name);
+		copy.count = metric.count;
+		copy.tag = metric.tag;
+		copy.duration = metric.duration;
+		return copy;
+	}
+
+	private static Metric get(Map<String, Metric> map, String name) {
+		Metric metric = map.get(name);
+		if (metric == null) {
+			metric = new Metric(name);
+			map.put(name, metric);
+		}
+		return metric;
+	}
+
+	/**
+	 * The metrics of a branch at a tip.
+	 */
+	protected static class BranchMetrics {
+
+		final DateFormat dayFormat;
+
+		final DateFormat monthFormat;
+
+		final DateFormat weekdayFormat;
+
+		ObjectId tip;
+
+		String tagsId;
+
+		Set<ObjectId> tagged;
+
+		int tipTime;
+
+		int firstTime;
+
+		Metric total;
+
+		final Map<String, Metric> days = new HashMap<String, Metric>();
+
+		final Map<String, Metric> months = new HashMap<String, Metric>();
+
+		final Map<String, Metric> weekdays = new HashMap<String, Metric>();
+
+		final Map<String, Metric> authorsByEmail = new HashMap<String, Metric>();
+
+		final Map<String, Metric> authorsByName = new HashMap<String, Metric>();
+
+		BranchMetrics(TimeZone timezone) {
+			dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+			monthFormat = new SimpleDateFormat("yyyy-MM");
+			weekdayFormat = new SimpleDateFormat("E");
+			dayFormat.setTimeZone(timezone);
+			monthFormat.setTimeZone(timezone);
+			weekdayFormat.setTimeZone(timezone);
+			reset(Collections.<ObjectId>emptySet(), null);
+		}
+
+		void reset(Set<ObjectId> tagged, String tagsId) {
+			this.tip = null;
+			this.tagged = tagged;
+			this.tagsId = tagsId;
+			this.firstTime = Integer.MAX_VALUE;
+			this.total = new Metric("TOTAL");
+			days.clear();
+			months.clear();
+			weekdays.clear();
+			authorsByEmail.clear();
+			authorsByName.clear();
+		}
+
+		void add(RevCommit commit) {
+			firstTime = Math.min(firstTime, commit.getCommitTime());
+			boolean isTagged = tagged.contains(commit.getId());
+			total.count++;
+			if (isTagged) {
+				total.tag++;
+			}
+
+			Date date = JGitUtils.getAuthorDate(commit);
+			for (Metric metric : new Metric [] {
+					get(days, dayFormat.format(date)),
+					get(months, monthFormat.format(date)),
+					get(weekdays, weekdayFormat.format(date)) }) {
+				metric.count++;
+				if (isTagged) {
+					metric.tag++;
+				}
+			}
+
+			// same grouping as MetricUtils.getAuthorMetrics
+			String name = commit.getAuthorIdent().getName().toLowerCase();
+			String email = commit.getAuthorIdent().getEmailAddress().toLowerCase();
+			String byEmail = StringUtils.isEmpty(email) ? name : email;
+			String byName = StringUtils.isEmpty(name) ? email : name;
+			get(authorsByEmail, clean(byEmail)).count++;
+			get(authorsByName, clean(byName)).count++;
+		}
+
+		private static String clean(String author) {
+			return author.replace('\n', ' ').replace('\r', ' ').trim();
+		}
+	}
+}
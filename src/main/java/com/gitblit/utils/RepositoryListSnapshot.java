@@ -0,0 +1,141 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persisted snapshot of the repository list and of the last modified times
+ * of the folders which were searched to build it.
+ *
+ * Adding, removing, or renaming a repository changes the last modified time
+ * of its parent folder so a snapshot is current as long as none of the
+ * searched folders have been modified.  Validating a snapshot only requires
+ * a stat of each searched folder instead of a full repository search.
+ */
+public class RepositoryListSnapshot {
+
+	private static final int VERSION = 1;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryListSnapshot.class);
+
+	private int version;
+
+	private String checksum;
+
+	private List<String> repositories;
+
+	private Map<String, Long> folders;
+
+	public RepositoryListSnapshot(String checksum, List<String> repositories, Map<String, Long> folders) {
+		this.version = VERSION;
+		this.checksum = checksum;
+		this.repositories = new ArrayList<String>(repositories);
+		this.folders = new TreeMap<String, Long>(folders);
+	}
+
+	/**
+	 * Reads a snapshot from a file.
+	 *
+	 * @param file
+	 * @return the snapshot or null if the file does not exist, can not be
+	 *         parsed, or was written by an incompatible version
+	 */
+	public static RepositoryListSnapshot read(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			String json = FileUtils.readContent(file, "\n");
+			RepositoryListSnapshot snapshot = JsonUtils.fromJsonString(json, RepositoryListSnapshot.class);
+			if (snapshot == null || snapshot.version != VERSION
+					|| snapshot.repositories == null || snapshot.folders == null) {
+				return null;
+			}
+			return snapshot;
+		} catch (Exception e) {
+			LOGGER.error(MessageFormat.format("failed to read repository list snapshot {0}", file), e);
+		}
+		return null;
+	}
+
+	/**
+	 * Writes this snapshot to a file.  The snapshot is written to a temporary
+	 * file which then replaces the target file.
+	 *
+	 * @param file
+	 */
+	public void write(File file) {
+		File temp = new File(file.getAbsolutePath() + ".tmp");
+		FileUtils.writeContent(temp, JsonUtils.toJsonString(this));
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.error(MessageFormat.format("failed to write repository list snapshot {0}", file), e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Returns true if this snapshot was built with the same repository list
+	 * settings.
+	 *
+	 * @param settingsChecksum
+	 * @return true if the settings checksum matches
+	 */
+	public boolean matches(String settingsChecksum) {
+		return checksum != null && checksum.equals(settingsChecksum);
+	}
+
+	/**
+	 * Returns true if none of the searched folders have been modified since
+	 * the snapshot was built.
+	 *
+	 * @param repositoriesFolder
+	 * @return true if the snapshot is current
+	 */
+	public boolean isCurrent(File repositoriesFolder) {
+		for (Map.Entry<String, Long> entry : folders.entrySet()) {
+			File folder = entry.getKey().isEmpty() ? repositoriesFolder : new File(repositoriesFolder, entry.getKey());
+			if (folder.lastModified() != entry.getValue()) {
+				LOGGER.debug(MessageFormat.format("repository list snapshot is stale, {0} has been modified", folder));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the repository names of this snapshot.
+	 *
+	 * @return the list of repository names
+	 */
+	public List<String> getRepositories() {
+		return new ArrayList<String>(repositories);
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gitblit.models.RepositoryModel;
+
+/**
+ * A persisted snapshot of the cached repository models.
+ *
+ * Each model is stored with the last modified time of the repository config
+ * and a checksum of the refs at the time the model was current.  A restored
+ * model is valid as long as neither of these has changed.
+ */
+public class RepositoryModelSnapshot {
+
+	private static final int VERSION = 2;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryModelSnapshot.class);
+
+	private int version;
+
+	private String checksum;
+
+	private List<Entry> entries;
+
+	public RepositoryModelSnapshot(String checksum, List<Entry> entries) {
+		this.version = VERSION;
+		this.checksum = checksum;
+		this.entries = new ArrayList<Entry>(entries);
+	}
+
+	/**
+	 * A repository model and its validation stamps.
+	 */
+	public static class Entry {
+
+		public RepositoryModel model;
+
+		public long size;
+
+		public long configModified;
+
+		public String refsChecksum;
+
+		public Entry(RepositoryModel model, long size, long configModified, String refsChecksum) {
+			this.model = model;
+			this.size = size;
+			this.configModified = configModified;
+			this.refsChecksum = refsChecksum;
+		}
+
+		/**
+		 * Returns true if the repository has not changed since this entry
+		 * was stamped.
+		 *
+		 * @param gitDir
+		 * @return true if the entry is current
+		 */
+		public boolean isCurrent(File gitDir) {
+			if (configModified != getConfigModified(gitDir) || refsChecksum == null) {
+				return false;
+			}
+			return refsChecksum.equals(getRefsChecksum(gitDir));
+		}
+	}
+
+	/**
+	 * Reads a snapshot from a file.
+	 *
+	 * @param file
+	 * @return the snapshot or null if the file does not exist, can not be
+	 *         parsed, or was written by an incompatible version
+	 */
+	public static RepositoryModelSnapshot read(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			String json = FileUtils.readContent(file, "\n");
+			RepositoryModelSnapshot snapshot = JsonUtils.fromJsonString(json, RepositoryModelSnapshot.class);
+			if (snapshot == null || snapshot.version != VERSION || snapshot.entries == null) {
+				return null;
+			}
+			return snapshot;
+		} catch (Exception e) {
+			LOGGER.error(MessageFormat.format("failed to read repository model snapshot {0}", file), e);
+		}
+		return null;
+	}
+
+	/**
+	 * Writes this snapshot to a file.  The snapshot is written to a temporary
+	 * file which then replaces the target file.
+	 *
+	 * @param file
+	 */
+	public void write(File file) {
+		File temp = new File(file.getAbsolutePath() + ".tmp");
+		FileUtils.writeContent(temp, JsonUtils.toJsonString(this));
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.error(MessageFormat.format("failed to write repository model snapshot {0}", file), e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Returns true if this snapshot was written with the same repository list
+	 * settings.
+	 *
+	 * @param settingsChecksum
+	 * @return true if the settings checksum matches
+	 */
+	public boolean matches(String settingsChecksum) {
+		return checksum != null && checksum.equals(settingsChecksum);
+	}
+
+	/**
+	 * Returns the entries of this snapshot.
+	 *
+	 * @return the list of entries
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Returns the last modified time of the repository config.
+	 *
+	 * @param gitDir
+	 * @return the last modified time
+	 */
+	public static long getConfigModified(File gitDir) {
+		return new File(gitDir, "config").lastModified();
+	}
+
+	/**
+	 * Returns a checksum of the names and tips of all refs of a repository.
+	 * Unlike folder times the checksum also changes when a nested loose ref,
+	 * e.g. refs/heads/feature/x, is updated.
+	 *
+	 * @param gitDir
+	 * @return the refs checksum or null if the refs can not be read
+	 */
+	public static String getRefsChecksum(File gitDir) {
+		Repository db = null;
+		try {
+			db = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build();
+			Map<String, Ref> refs = new TreeMap<String, Ref>(db.getRefDatabase().getRefs(RefDatabase.ALL));
+			MessageDigest md = Constants.newMessageDigest();
+			for (Map.Entry<String, Ref> entry : refs.entrySet()) {
+				Ref ref = entry.getValue();
+				md.update(Constants.encode(entry.getKey()));
+				md.update((byte) ' ');
+				if (ref.isSymbolic()) {
+					md.update(Constants.encode(ref.getTarget().getName()));
+					md.update((byte) ' ');
+				}
+				ObjectId id = ref.getObjectId();
+				md.update(Constants.encode(id == null ? ObjectId.zeroId().getName() : id.getName()));
+				md.update((byte) '\n');
+			}
+			return ObjectId.fromRaw(md.digest()).getName();
+		} catch (Exception e) {
+			LOGGER.error(MessageFormat.format("failed to read the refs of {0}", gitDir), e);
+			return null;
+		} finally {
+			if (db != null) {
+				db.close();
+			}
+		}
+	}
+}
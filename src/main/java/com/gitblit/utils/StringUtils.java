@@ -22,6 +22,7 @@ import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
 import java.security.MessageDigest;
@@ -666,6 +667,44 @@ public class StringUtils {
 		return value;
 	}
 
+	/**
+	 * Returns the first charset of the specified charsets, UTF-8, ISO-8859-1,
+	 * and the default charset which can decode the leading bytes of some
+	 * content.  This is the charset {@link #decodeString(byte[], String...)}
+	 * would choose for content which is too large to decode at once.
+	 *
+	 * @param prefix
+	 *            the leading bytes of the content
+	 * @param length
+	 *            the number of leading bytes
+	 * @param charsets
+	 * @return a charset
+	 */
+	public static Charset getCharset(byte [] prefix, int length, String... charsets) {
+		Set<String> sets = new LinkedHashSet<String>();
+		if (!ArrayUtils.isEmpty(charsets)) {
+			sets.addAll(Arrays.asList(charsets));
+		}
+		sets.addAll(Arrays.asList("UTF-8", "ISO-8859-1", Charset.defaultCharset().name()));
+		for (String charset : sets) {
+			try {
+				Charset cs = Charset.forName(charset);
+				CharsetDecoder decoder = cs.newDecoder();
+				CharBuffer buffer = CharBuffer.allocate(length + 1);
+				// the prefix may end within a multi-byte sequence
+				CoderResult result = decoder.decode(ByteBuffer.wrap(prefix, 0, length), buffer, false);
+				if (!result.isError()) {
+					return cs;
+				}
+			} catch (IllegalCharsetNameException e) {
+				// ignore illegal charset names
+			} catch (UnsupportedCharsetException e) {
+				// ignore unsupported charsets
+			}
+		}
+		return Charset.defaultCharset();
+	}
+
 	/**
 	 * Attempt to extract a repository name from a given url using regular
 	 * expressions.  If no match is made, then return whatever trails after
@@ -20,6 +20,8 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.wicket.Application;
 import org.apache.wicket.Request;
@@ -48,6 +50,8 @@ import com.gitblit.manager.IServicesManager;
 import com.gitblit.manager.IUserManager;
 import com.gitblit.tickets.ITicketService;
 import com.gitblit.transport.ssh.IPublicKeyManager;
+import com.gitblit.utils.FanOut;
+import com.gitblit.utils.WorkQueue;
 import com.gitblit.utils.XssFilter;
 import com.gitblit.wicket.pages.ActivityPage;
 import com.gitblit.wicket.pages.BlamePage;
@@ -137,10 +141,15 @@ public class GitBlitWebApp extends WebApplication implements GitblitWicketApp {
 	
 	private final IFilestoreManager filestoreManager;
 
+	private final Provider<WorkQueue> workQueueProvider;
+
+	private volatile ExecutorService activityExecutor;
+
 	@Inject
 	public GitBlitWebApp(
 			Provider<IPublicKeyManager> publicKeyManagerProvider,
 			Provider<ITicketService> ticketServiceProvider,
+			Provider<WorkQueue> workQueueProvider,
 			IRuntimeManager runtimeManager,
 			IPluginManager pluginManager,
 			INotificationManager notificationManager,
@@ -156,6 +165,7 @@ public class GitBlitWebApp extends WebApplication implements GitblitWicketApp {
 		super();
 		this.publicKeyManagerProvider = publicKeyManagerProvider;
 		this.ticketServiceProvider = ticketServiceProvider;
+		this.workQueueProvider = workQueueProvider;
 		this.settings = runtimeManager.getSettings();
 		this.xssFilter = runtimeManager.getXssFilter();
 		this.runtimeManager = runtimeManager;
@@ -484,6 +494,28 @@ public class GitBlitWebApp extends WebApplication implements GitblitWicketApp {
 		return Application.DEPLOYMENT;
 	}
 
+	/**
+	 * Returns a fan out for aggregating the activity of repositories on the
+	 * bounded activity executor within the configured deadline.
+	 *
+	 * @return a fan out
+	 */
+	public FanOut activityFanOut() {
+		int threads = settings.getInteger(Keys.web.activityThreads, 4);
+		if (threads <= 1) {
+			return new FanOut();
+		}
+		if (activityExecutor == null) {
+			synchronized (this) {
+				if (activityExecutor == null) {
+					activityExecutor = workQueueProvider.get().createQueue(threads, "Activity");
+				}
+			}
+		}
+		long timeout = TimeUnit.SECONDS.toMillis(settings.getInteger(Keys.web.activityTimeout, 10));
+		return new FanOut(activityExecutor, timeout);
+	}
+
 	public static GitBlitWebApp get() {
 		return (GitBlitWebApp) WebApplication.get();
 	}
@@ -17,6 +17,7 @@ package com.gitblit.wicket.pages;
 
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -70,13 +71,22 @@ public class ActivityPage extends RootPage {
 
 		// determine repositories to view and retrieve the activity
 		List<RepositoryModel> models = getRepositories(params);
+		List<String> pending = new ArrayList<String>();
 		List<Activity> recentActivity = ActivityUtils.getRecentActivity(
 				app().settings(),
 				app().repositories(),
 				models,
 				daysBack,
 				objectId,
-				getTimeZone());
+				getTimeZone(),
+				app().activityFanOut(),
+				pending);
+
+		if (pending.isEmpty()) {
+			add(new Label("pending").setVisible(false));
+		} else {
+			add(new Label("pending", MessageFormat.format(getString("gb.activityPending"), pending.size())));
+		}
 
 		String headerPattern;
 		if (daysBack == 1) {
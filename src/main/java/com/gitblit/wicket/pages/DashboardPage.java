@@ -22,11 +22,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.behavior.HeaderContributor;
@@ -35,6 +37,7 @@ import org.apache.wicket.markup.html.panel.Fragment;
 import org.eclipse.jgit.lib.Repository;
 
 import com.gitblit.Keys;
+import com.gitblit.manager.IRepositoryManager;
 import com.gitblit.models.DailyLogEntry;
 import com.gitblit.models.Menu.ParameterMenuItem;
 import com.gitblit.models.NavLink.DropDownPageMenuNavLink;
@@ -45,6 +48,7 @@ import com.gitblit.models.RepositoryCommit;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.UserModel;
 import com.gitblit.utils.ArrayUtils;
+import com.gitblit.utils.FanOut;
 import com.gitblit.utils.RefLogUtils;
 import com.gitblit.utils.StringUtils;
 import com.gitblit.wicket.GitBlitWebApp;
@@ -72,26 +76,49 @@ public abstract class DashboardPage extends RootPage {
 	protected void addActivity(UserModel user, Collection<RepositoryModel> repositories, String feedTitle, int daysBack) {
 		Calendar c = Calendar.getInstance();
 		c.add(Calendar.DATE, -1*daysBack);
-		Date minimumDate = c.getTime();
-		TimeZone timezone = getTimeZone();
+		final Date minimumDate = c.getTime();
+		final TimeZone timezone = getTimeZone();
 
-		// create daily commit digest feed
-		List<DailyLogEntry> digests = new ArrayList<DailyLogEntry>();
-		for (RepositoryModel model : repositories) {
+		// create daily commit digest feed, the repositories are read in
+		// parallel on worker threads which can not access the application
+		final IRepositoryManager repositoryManager = app().repositories();
+		Map<String, Callable<List<DailyLogEntry>>> tasks = new LinkedHashMap<String, Callable<List<DailyLogEntry>>>();
+		for (final RepositoryModel model : repositories) {
 			if (model.isCollectingGarbage) {
 				continue;
 			}
 			if (model.hasCommits && model.lastChange.after(minimumDate)) {
-				Repository repository = app().repositories().getRepository(model.name);
-				List<DailyLogEntry> entries = RefLogUtils.getDailyLogByRef(model.name, repository, minimumDate, timezone);
-				digests.addAll(entries);
-				repository.close();
+				tasks.put(model.name, new Callable<List<DailyLogEntry>>() {
+					@Override
+					public List<DailyLogEntry> call() {
+						Repository repository = repositoryManager.getRepository(model.name);
+						if (repository == null) {
+							return null;
+						}
+						try {
+							return RefLogUtils.getDailyLogByRef(model.name, repository, minimumDate, timezone);
+						} finally {
+							repository.close();
+						}
+					}
+				});
 			}
 		}
+		FanOut.Result<List<DailyLogEntry>> logs = app().activityFanOut().invoke(tasks);
+		List<DailyLogEntry> digests = new ArrayList<DailyLogEntry>();
+		for (List<DailyLogEntry> entries : logs.getResults().values()) {
+			digests.addAll(entries);
+		}
 
 		Fragment activityFragment = new Fragment("activity", "activityFragment", this);
 		add(activityFragment);
 		activityFragment.add(new Label("feedTitle", feedTitle));
+		if (logs.isComplete()) {
+			activityFragment.add(new Label("pending").setVisible(false));
+		} else {
+			activityFragment.add(new Label("pending", MessageFormat.format(getString("gb.activityPending"),
+					logs.getPending().size())));
+		}
 		if (digests.size() == 0) {
 			// quiet or no starred repositories
 			if (repositories.size() == 0) {
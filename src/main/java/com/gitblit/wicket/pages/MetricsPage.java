@@ -31,7 +31,7 @@ import org.apache.wicket.markup.html.basic.Label;
 import org.eclipse.jgit.lib.Repository;
 
 import com.gitblit.models.Metric;
-import com.gitblit.utils.MetricUtils;
+import com.gitblit.utils.MetricsCache;
 import com.gitblit.utils.StringUtils;
 import com.gitblit.wicket.CacheControl;
 import com.gitblit.wicket.CacheControl.LastModified;
@@ -52,7 +52,8 @@ public class MetricsPage extends RepositoryPage {
 			add(new Label("branchTitle", objectId));
 		}
 		Metric metricsTotal = null;
-		List<Metric> metrics = MetricUtils.getDateMetrics(r, objectId, true, null, getTimeZone());
+		List<Metric> metrics = MetricsCache.instance().getDateMetrics(repositoryName, r, objectId, true, null,
+				getTimeZone());
 		metricsTotal = metrics.remove(0);
 		if (metricsTotal == null) {
 			add(new Label("branchStats", ""));
@@ -130,7 +131,8 @@ public class MetricsPage extends RepositoryPage {
 	}
 
 	private List<Metric> getDayOfWeekMetrics(Repository repository, String objectId) {
-		List<Metric> list = MetricUtils.getDateMetrics(repository, objectId, false, "E", getTimeZone());
+		List<Metric> list = MetricsCache.instance().getDateMetrics(repositoryName, repository, objectId, false, "E",
+				getTimeZone());
 		SimpleDateFormat sdf = new SimpleDateFormat("E");
 		Calendar cal = Calendar.getInstance();
 
@@ -155,7 +157,8 @@ public class MetricsPage extends RepositoryPage {
 	}
 
 	private List<Metric> getAuthorMetrics(Repository repository, String objectId) {
-		List<Metric> authors = MetricUtils.getAuthorMetrics(repository, objectId, true);
+		List<Metric> authors = MetricsCache.instance().getAuthorMetrics(repositoryName, repository, objectId, true,
+				getTimeZone());
 		Collections.sort(authors, new Comparator<Metric>() {
 			@Override
 			public int compare(Metric o1, Metric o2) {
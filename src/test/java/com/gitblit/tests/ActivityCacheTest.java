@@ -0,0 +1,97 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.gitblit.manager.IRepositoryManager;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.utils.ActivityCache;
+import com.gitblit.utils.CommitCache;
+
+public class ActivityCacheTest extends GitblitUnitTest {
+
+	@Test
+	public void testHits() throws Exception {
+		CountingActivityCache cache = new CountingActivityCache();
+		RepositoryModel model = new RepositoryModel("helloworld.git", "", "", new Date(1000));
+		Date sinceDate = CommitCache.instance().getCutoffDate();
+		TimeZone timezone = TimeZone.getTimeZone("UTC");
+
+		cache.getDailyCommits(repositories(), model, null, sinceDate, timezone);
+		assertEquals(1, cache.builds);
+		cache.getDailyCommits(repositories(), model, null, sinceDate, timezone);
+		assertEquals(1, cache.builds);
+
+		// a branch is a different rollup
+		cache.getDailyCommits(repositories(), model, "refs/heads/master", sinceDate, timezone);
+		assertEquals(2, cache.builds);
+		cache.getDailyCommits(repositories(), model, "refs/heads/master", sinceDate, timezone);
+		assertEquals(2, cache.builds);
+
+		cache.clear(model.name);
+		cache.getDailyCommits(repositories(), model, null, sinceDate, timezone);
+		assertEquals(3, cache.builds);
+	}
+
+	@Test
+	public void testLastChangeInvalidates() throws Exception {
+		CountingActivityCache cache = new CountingActivityCache();
+		RepositoryModel model = new RepositoryModel("helloworld.git", "", "", new Date(1000));
+		Date sinceDate = CommitCache.instance().getCutoffDate();
+		TimeZone timezone = TimeZone.getTimeZone("UTC");
+
+		cache.getDailyCommits(repositories(), model, null, sinceDate, timezone);
+		model.lastChange = new Date(2000);
+		cache.getDailyCommits(repositories(), model, null, sinceDate, timezone);
+		assertEquals(2, cache.builds);
+		cache.getDailyCommits(repositories(), model, null, sinceDate, timezone);
+		assertEquals(2, cache.builds);
+	}
+
+	@Test
+	public void testTimezonesAndLimits() throws Exception {
+		CountingActivityCache cache = new CountingActivityCache();
+		RepositoryModel model = new RepositoryModel("helloworld.git", "", "", new Date(1000));
+		Date sinceDate = CommitCache.instance().getCutoffDate();
+
+		cache.getDailyCommits(repositories(), model, null, sinceDate, TimeZone.getTimeZone("UTC"));
+		cache.getDailyCommits(repositories(), model, null, sinceDate, TimeZone.getTimeZone("America/New_York"));
+		assertEquals(2, cache.builds);
+		cache.getDailyCommits(repositories(), model, null, sinceDate, TimeZone.getTimeZone("UTC"));
+		assertEquals(2, cache.builds);
+
+		// the commit limit of the repository is part of the rollup
+		model.maxActivityCommits = 1;
+		cache.getDailyCommits(repositories(), model, null, sinceDate, TimeZone.getTimeZone("UTC"));
+		assertEquals(3, cache.builds);
+	}
+
+	private static class CountingActivityCache extends ActivityCache {
+
+		int builds;
+
+		@Override
+		protected Rollup build(IRepositoryManager repositoryManager, RepositoryModel model,
+				String objectId, Date sinceDate, TimeZone timezone) {
+			builds++;
+			return super.build(repositoryManager, model, objectId, sinceDate, timezone);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.gitblit.git.AdmissionController;
+import com.gitblit.git.AdmissionController.Admission;
+import com.gitblit.git.AdmissionController.AdmissionException;
+
+public class AdmissionControllerTest extends GitblitUnitTest {
+
+	private final AdmissionController controller = AdmissionController.instance();
+
+	@After
+	public void cleanup() {
+		controller.configure(0, 0, 0, 50, 30000);
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		controller.configure(0, 0, 0, 0, 0);
+		assertFalse(controller.isEnabled());
+		Admission admission = controller.acquire("a.git", "admin", AdmissionController.RECEIVE_WEIGHT);
+		admission.release();
+	}
+
+	@Test
+	public void testRepositoryLimit() throws Exception {
+		controller.configure(0, 2, 0, 0, 0);
+		int active = controller.getActive();
+		Admission first = controller.acquire("a.git", "admin", AdmissionController.UPLOAD_WEIGHT);
+		Admission second = controller.acquire("A.git", "user", AdmissionController.UPLOAD_WEIGHT);
+		assertEquals(active + 2, controller.getActive());
+
+		// other repositories are not affected
+		controller.acquire("b.git", "admin", AdmissionController.RECEIVE_WEIGHT).release();
+
+		long rejected = controller.getRejected();
+		try {
+			controller.acquire("a.git", "admin", AdmissionController.UPLOAD_WEIGHT);
+			fail("the repository is saturated");
+		} catch (AdmissionException e) {
+			assertEquals(rejected + 1, controller.getRejected());
+		}
+
+		// a repeated release is ignored
+		first.release();
+		first.release();
+		second.release();
+		assertEquals(active, controller.getActive());
+		controller.acquire("a.git", "admin", AdmissionController.RECEIVE_WEIGHT).release();
+	}
+
+	@Test
+	public void testScopesAreRemoved() throws Exception {
+		controller.configure(0, 1, 1, 0, 0);
+		Admission first = controller.acquire("a.git", "127.0.0.1", AdmissionController.UPLOAD_WEIGHT);
+		Admission second = controller.acquire("b.git", "127.0.0.2", AdmissionController.UPLOAD_WEIGHT);
+		assertEquals(4, controller.getScopes());
+		try {
+			controller.acquire("a.git", "127.0.0.3", AdmissionController.UPLOAD_WEIGHT);
+			fail("the repository is saturated");
+		} catch (AdmissionException e) {
+			// the rejected request does not leave its user behind
+			assertEquals(4, controller.getScopes());
+		}
+
+		first.release();
+		assertEquals(2, controller.getScopes());
+		second.release();
+		assertEquals(0, controller.getScopes());
+
+		// a released scope is created again with its full limit
+		controller.acquire("a.git", "127.0.0.1", AdmissionController.UPLOAD_WEIGHT).release();
+		assertEquals(0, controller.getScopes());
+	}
+
+	@Test
+	public void testQueue() throws Exception {
+		controller.configure(0, 0, 1, 1, 5000);
+		final Admission first = controller.acquire("a.git", "admin", AdmissionController.UPLOAD_WEIGHT);
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				}
+				first.release();
+			}
+		};
+		releaser.start();
+
+		// waits in the queue until the first request is released
+		long waited = controller.getWaited();
+		controller.acquire("b.git", "ADMIN", AdmissionController.UPLOAD_WEIGHT).release();
+		assertEquals(waited + 1, controller.getWaited());
+		assertEquals(0, controller.getQueued());
+		releaser.join();
+	}
+}
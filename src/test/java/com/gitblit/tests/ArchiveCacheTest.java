@@ -0,0 +1,166 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.utils.ArchiveCache;
+import com.gitblit.utils.ArchiveCache.Archive;
+import com.gitblit.utils.ArchiveCache.ArchiveWriter;
+
+public class ArchiveCacheTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ArchiveWriter writer(final int size, final AtomicInteger writes) {
+		return new ArchiveWriter() {
+			@Override
+			public void write(OutputStream os) throws IOException {
+				writes.incrementAndGet();
+				os.write(new byte[size]);
+			}
+		};
+	}
+
+	private File get(ArchiveCache cache, String key, ArchiveWriter writer) throws IOException {
+		Archive archive = cache.open(key, writer);
+		archive.close();
+		return archive.getFile();
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1000);
+		AtomicInteger writes = new AtomicInteger();
+		File a = get(cache, "a", writer(400, writes));
+		assertEquals(400, a.length());
+		assertEquals(a, get(cache, "a", writer(400, writes)));
+		assertEquals(1, writes.get());
+
+		// b and c exceed the cache size so the least recently used a is evicted
+		get(cache, "b", writer(400, writes));
+		get(cache, "c", writer(400, writes));
+		assertFalse(a.exists());
+		assertEquals(800, cache.getSize());
+
+		// the index is rebuilt from the folder
+		cache = new ArchiveCache(folder.getRoot(), 1000);
+		assertEquals(800, cache.getSize());
+		get(cache, "c", writer(400, writes));
+		assertEquals(3, writes.get());
+	}
+
+	@Test
+	public void testPinnedArchive() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1000);
+		AtomicInteger writes = new AtomicInteger();
+		Archive a = cache.open("a", writer(600, writes));
+
+		// a is served so its eviction is deferred until it is closed
+		get(cache, "b", writer(600, writes));
+		assertTrue(a.getFile().exists());
+		assertEquals(1200, cache.getSize());
+		a.close();
+		assertFalse(a.getFile().exists());
+		assertEquals(600, cache.getSize());
+	}
+
+	@Test
+	public void testOversizedArchive() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1000);
+		AtomicInteger writes = new AtomicInteger();
+		get(cache, "a", writer(400, writes));
+		assertNull(cache.open("b", writer(2000, writes)));
+		assertEquals(2, writes.get());
+		assertEquals(400, cache.getSize());
+
+		// an oversized archive is not written again
+		assertNull(cache.open("b", writer(2000, writes)));
+		assertEquals(2, writes.get());
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testSingleWriter() throws Exception {
+		final ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1000);
+		final AtomicInteger writes = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(1);
+		final ArchiveWriter slow = new ArchiveWriter() {
+			@Override
+			public void write(OutputStream os) throws IOException {
+				writes.incrementAndGet();
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				os.write(new byte[100]);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<File>> futures = new ArrayList<Future<File>>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executor.submit(new Callable<File>() {
+					@Override
+					public File call() throws Exception {
+						return get(cache, "a", slow);
+					}
+				}));
+			}
+			Thread.sleep(100);
+			latch.countDown();
+			for (Future<File> future : futures) {
+				assertEquals(100, future.get().length());
+			}
+			assertEquals(1, writes.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testFailedWrite() throws Exception {
+		ArchiveCache cache = new ArchiveCache(folder.getRoot(), 1000);
+		try {
+			cache.open("a", new ArchiveWriter() {
+				@Override
+				public void write(OutputStream os) throws IOException {
+					os.write(new byte[10]);
+					throw new IOException("failed");
+				}
+			});
+		} finally {
+			assertEquals(0, cache.getSize());
+			assertEquals(0, folder.getRoot().list().length);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.util.List;
+
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Test;
+
+import com.gitblit.models.RepositoryCommit;
+import com.gitblit.utils.CommitCache;
+
+public class CommitCacheTest extends GitblitUnitTest {
+
+	@Test
+	public void testHitsAndMisses() throws Exception {
+		CommitCache cache = new CommitCache() {};
+		cache.setCacheDays(36500);
+
+		Repository repository = GitBlitSuite.getHelloworldRepository();
+		List<RepositoryCommit> commits = cache.getCommits("helloworld.git", repository, "refs/heads/master");
+		assertTrue("No commits cached!", commits.size() > 0);
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertTrue("Cache has no weight!", cache.getWeight() > 0);
+
+		List<RepositoryCommit> cached = cache.getCommits("helloworld.git", repository, "refs/heads/master");
+		repository.close();
+		assertEquals(commits.size(), cached.size());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		cache.clear("helloworld.git");
+		assertEquals(0, cache.getWeight());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		CommitCache cache = new CommitCache() {};
+		cache.setCacheDays(36500);
+
+		Repository helloworld = GitBlitSuite.getHelloworldRepository();
+		Repository ticgit = GitBlitSuite.getTicgitRepository();
+		cache.getCommits("helloworld.git", helloworld, "refs/heads/master");
+		cache.getCommits("ticgit.git", ticgit, "refs/heads/master");
+		long totalWeight = cache.getWeight();
+		assertEquals(0, cache.getEvictionCount());
+
+		// shrinking the limit evicts the least recently used branch
+		cache.setMaxWeight(totalWeight - 1);
+		assertEquals(1, cache.getEvictionCount());
+		assertTrue("Cache exceeds weight limit!", cache.getWeight() < totalWeight);
+
+		// evicted branch must be reloaded, which evicts the other branch
+		cache.getCommits("helloworld.git", helloworld, "refs/heads/master");
+		helloworld.close();
+		ticgit.close();
+		assertEquals(3, cache.getMissCount());
+		assertEquals(2, cache.getEvictionCount());
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.models.Metric;
+import com.gitblit.utils.CommitGraph;
+import com.gitblit.utils.FileUtils;
+import com.gitblit.utils.JGitUtils;
+import com.gitblit.utils.MetricUtils;
+
+public class CommitGraphTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private RevCommit commit(Git git, String message) throws Exception {
+		FileUtils.writeContent(new File(folder.getRoot(), "file.txt"), message);
+		git.add().addFilepattern("file.txt").call();
+		return git.commit().setMessage(message).call();
+	}
+
+	@Test
+	public void testCommitGraph() throws Exception {
+		Repository repository = GitBlitSuite.getHelloworldRepository();
+		File file = new File(repository.getDirectory(), CommitGraph.FILE_NAME);
+		file.delete();
+		try {
+			ObjectId tip = repository.resolve("master");
+			RevCommit first = JGitUtils.getFirstCommit(repository, "master");
+			List<RevCommit> log = JGitUtils.getRevLog(repository, "master", new Date(0));
+			int count = JGitUtils.countCommits(repository, new RevWalk(repository), first, tip);
+			List<Metric> metrics = MetricUtils.getDateMetrics(repository, "master", true, null, TimeZone.getDefault());
+
+			assertNull(CommitGraph.get(repository));
+			assertTrue(CommitGraph.update(repository));
+			assertFalse("Unchanged graph was rewritten!", CommitGraph.update(repository));
+			CommitGraph graph = CommitGraph.get(repository);
+			assertNotNull(graph);
+
+			int tipPosition = graph.find(tip);
+			int firstPosition = graph.find(first);
+			assertTrue(tipPosition >= 0);
+			assertEquals(first, graph.getId(firstPosition));
+			assertEquals(1, graph.getGeneration(firstPosition));
+			assertEquals(0, graph.getParents(firstPosition).length);
+			assertTrue(graph.isAncestor(firstPosition, tipPosition));
+			assertFalse(graph.isAncestor(tipPosition, firstPosition));
+			assertEquals(-1, graph.find(ObjectId.zeroId()));
+
+			// graph answers match the RevWalk answers
+			assertTrue(JGitUtils.isMergedInto(repository, first, tip));
+			assertFalse(JGitUtils.isMergedInto(repository, tip, first));
+			assertEquals(count, JGitUtils.countCommits(repository, new RevWalk(repository), first, tip));
+			assertEquals(log.size(), JGitUtils.getRevLog(repository, "master", new Date(0)).size());
+			List<Metric> graphMetrics = MetricUtils.getDateMetrics(repository, "master", true, null, TimeZone.getDefault());
+			assertEquals(metrics.size(), graphMetrics.size());
+			for (int i = 0; i < metrics.size(); i++) {
+				assertEquals(metrics.get(i).name, graphMetrics.get(i).name);
+				assertEquals(metrics.get(i).count, graphMetrics.get(i).count, 0);
+				assertEquals(metrics.get(i).tag, graphMetrics.get(i).tag, 0);
+			}
+		} finally {
+			file.delete();
+			repository.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		final Repository repository = GitBlitSuite.getHelloworldRepository();
+		File file = new File(repository.getDirectory(), CommitGraph.FILE_NAME);
+		file.delete();
+		try {
+			final AtomicInteger written = new AtomicInteger();
+			final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < 4; i++) {
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						try {
+							if (CommitGraph.update(repository)) {
+								written.incrementAndGet();
+							}
+						} catch (Exception e) {
+							failure.set(e);
+						}
+					}
+				};
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertNull(failure.get());
+			// serialized writers: the first writes the graph, the others find it current
+			assertEquals(1, written.get());
+			assertTrue(CommitGraph.get(repository).find(repository.resolve("master")) >= 0);
+			for (File child : repository.getDirectory().listFiles()) {
+				assertFalse("Temporary graph left behind!", child.getName().endsWith(".tmp"));
+			}
+		} finally {
+			file.delete();
+			repository.close();
+		}
+	}
+
+	@Test
+	public void testIncrementalUpdates() throws Exception {
+		Git git = Git.init().setDirectory(folder.getRoot()).call();
+		Repository repository = git.getRepository();
+		try {
+			RevCommit first = commit(git, "first");
+			assertTrue(CommitGraph.update(repository));
+			File file = new File(repository.getDirectory(), CommitGraph.FILE_NAME);
+			long length = file.length();
+
+			// a new commit is appended to the graph
+			RevCommit second = commit(git, "second");
+			assertTrue(CommitGraph.update(repository));
+			assertTrue(file.length() > length);
+			CommitGraph graph = CommitGraph.get(repository);
+			assertEquals(2, graph.getChunkCount());
+			assertEquals(2, graph.getCommitCount());
+			assertEquals(first, graph.getId(graph.find(first)));
+			assertEquals(2, graph.getGeneration(graph.find(second)));
+			assertEquals(graph.find(first), graph.getParents(graph.find(second))[0]);
+			assertTrue(graph.isAncestor(graph.find(first), graph.find(second)));
+
+			// the commit of a deleted branch remains until the graph is compacted
+			git.checkout().setCreateBranch(true).setName("topic").call();
+			RevCommit topic = commit(git, "topic");
+			assertTrue(CommitGraph.update(repository));
+			git.checkout().setName("master").call();
+			git.branchDelete().setBranchNames("topic").setForce(true).call();
+			assertTrue(CommitGraph.get(repository).find(topic) >= 0);
+
+			RevCommit tip = second;
+			for (int i = 0; i < 10 && CommitGraph.get(repository).getChunkCount() > 1; i++) {
+				tip = commit(git, "commit " + i);
+				assertTrue(CommitGraph.update(repository));
+			}
+			graph = CommitGraph.get(repository);
+			assertEquals("Graph was not compacted!", 1, graph.getChunkCount());
+			assertEquals(-1, graph.find(topic));
+			assertTrue(graph.isAncestor(graph.find(first), graph.find(tip)));
+			assertEquals(graph.getCommitCount(), graph.getGeneration(graph.find(tip)));
+		} finally {
+			repository.close();
+		}
+	}
+}
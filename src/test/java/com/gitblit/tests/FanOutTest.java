@@ -0,0 +1,91 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.gitblit.utils.FanOut;
+
+public class FanOutTest extends GitblitUnitTest {
+
+	@Test
+	public void testComplete() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Map<String, Callable<Integer>> tasks = new LinkedHashMap<String, Callable<Integer>>();
+			for (int i = 0; i < 10; i++) {
+				final int value = i;
+				tasks.put("task" + i, new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return value;
+					}
+				});
+			}
+			FanOut.Result<Integer> result = new FanOut(executor, 0).invoke(tasks);
+			assertTrue(result.isComplete());
+			assertEquals(10, result.getResults().size());
+			assertEquals(3, result.getResults().get("task3").intValue());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		final CountDownLatch latch = new CountDownLatch(1);
+		try {
+			Map<String, Callable<String>> tasks = new LinkedHashMap<String, Callable<String>>();
+			tasks.put("fast", new Callable<String>() {
+				@Override
+				public String call() {
+					return "fast";
+				}
+			});
+			tasks.put("slow", new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					latch.await(10, TimeUnit.SECONDS);
+					return "slow";
+				}
+			});
+			tasks.put("failed", new Callable<String>() {
+				@Override
+				public String call() {
+					throw new IllegalStateException();
+				}
+			});
+			FanOut.Result<String> result = new FanOut(executor, 250).invoke(tasks);
+			assertFalse(result.isComplete());
+			assertEquals("fast", result.getResults().get("fast"));
+			assertEquals(1, result.getPending().size());
+			assertEquals("slow", result.getPending().get(0));
+			assertEquals(1, result.getFailed().size());
+		} finally {
+			latch.countDown();
+			executor.shutdownNow();
+		}
+	}
+}
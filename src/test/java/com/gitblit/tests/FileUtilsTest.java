@@ -16,10 +16,12 @@
 package com.gitblit.tests;
 
 import java.io.File;
+import java.io.FileOutputStream;
 
 import org.junit.Test;
 
 import com.gitblit.utils.FileUtils;
+import com.gitblit.utils.FolderSizeTracker;
 
 public class FileUtilsTest extends GitblitUnitTest {
 
@@ -53,6 +55,56 @@ public class FileUtilsTest extends GitblitUnitTest {
 		assertEquals("size is actually " + size, 11556L, size);
 	}
 
+	@Test
+	public void testFolderSizeTracker() throws Exception {
+		FolderSizeTracker tracker = new FolderSizeTracker();
+		assertEquals(-1, tracker.size(null));
+		assertEquals(-1, tracker.size(new File(System.getProperty("user.dir"), "pretend")));
+
+		File dir = new File(System.getProperty("user.dir"), "src/main/distrib");
+		assertEquals(FileUtils.folderSize(dir), tracker.size(dir));
+		// cached folder sizes
+		assertEquals(FileUtils.folderSize(dir), tracker.size(dir));
+		tracker.reset(dir);
+		assertEquals(FileUtils.folderSize(dir), tracker.size(dir));
+	}
+
+	@Test
+	public void testFolderSizeTrackerAppendedFiles() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "foldersize-" + System.nanoTime());
+		File logs = new File(dir, "logs/refs/heads");
+		logs.mkdirs();
+		try {
+			File reflog = new File(logs, "master");
+			File fetchHead = new File(dir, "FETCH_HEAD");
+			FileUtils.writeContent(reflog, "a");
+			FileUtils.writeContent(fetchHead, "b");
+
+			FolderSizeTracker tracker = new FolderSizeTracker("logs", "FETCH_HEAD");
+			assertEquals(FileUtils.folderSize(dir), tracker.size(dir));
+
+			// appending in place does not change the time of the folders
+			long dirModified = dir.lastModified();
+			long logsModified = logs.lastModified();
+			append(reflog, "0123456789");
+			append(fetchHead, "0123456789");
+			dir.setLastModified(dirModified);
+			logs.setLastModified(logsModified);
+			assertEquals(FileUtils.folderSize(dir), tracker.size(dir));
+		} finally {
+			FileUtils.delete(dir);
+		}
+	}
+
+	private void append(File file, String content) throws Exception {
+		FileOutputStream os = new FileOutputStream(file, true);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+
 	@Test
 	public void testStringSizes() throws Exception {
 		assertEquals(50 * FileUtils.KB, FileUtils.convertSizeToInt("50k", 0));
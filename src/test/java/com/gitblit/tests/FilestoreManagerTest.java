@@ -2,6 +2,9 @@ package com.gitblit.tests;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -528,6 +531,53 @@ public class FilestoreManagerTest extends GitblitUnitTest {
 		
 	}
 	
+	@Test
+	public void testResumedUpload() throws Exception {
+		
+		FileUtils.delete(filestore().getStorageFolder());
+		filestore().clearFilestoreCache();
+		
+		RepositoryModel r = new RepositoryModel("myrepo.git", null, null, new Date());
+		ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
+		
+		UserModel u = new UserModel("admin");
+		u.canAdmin = true;
+		
+		settings().overrideSetting(Keys.filestore.maxUploadSize, download_limit_default);
+		
+		//The client connection fails part way through the upload
+		final int received = blob_6MB.length / 3;
+		InputStream interrupted = new FilterInputStream(new ByteArrayInputStream(blob_6MB.blob)) {
+			private int pos;
+			
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (pos >= received) {
+					throw new IOException("connection reset");
+				}
+				int n = super.read(b, off, Math.min(len, received - pos));
+				pos += n;
+				return n;
+			}
+		};
+		assertEquals(Status.Error_Unexpected_Stream_End, filestore().uploadBlob(blob_6MB.hash, blob_6MB.length, u, r, interrupted));
+		assertEquals(received, filestore().getUploadOffset(blob_6MB.hash, u, r));
+		assertFalse(filestore().getStoragePath(blob_6MB.hash).exists());
+		
+		//The upload can not skip bytes
+		assertEquals(Status.Error_Invalid_Size, filestore().uploadBlob(blob_6MB.hash, blob_6MB.length, u, r,
+				new ByteArrayInputStream(blob_6MB.blob, received + 1, blob_6MB.length), received + 1));
+		
+		//The upload resumes at the received bytes
+		assertEquals(Status.Available, filestore().uploadBlob(blob_6MB.hash, blob_6MB.length, u, r,
+				new ByteArrayInputStream(blob_6MB.blob, received, blob_6MB.length), received));
+		assertEquals(0, filestore().getUploadOffset(blob_6MB.hash, u, r));
+		
+		streamOut.reset();
+		assertEquals(Status.Available, filestore().downloadBlob(blob_6MB.hash, u, r, streamOut));
+		assertArrayEquals(blob_6MB.blob, streamOut.toByteArray());
+	}
+	
 }
 
 /*
@@ -351,5 +351,26 @@ public class FilestoreServletTest extends GitblitUnitTest {
 				
 		assertEquals(expectedError, responseMessage);
 	}
+
+	@Test
+	public void testUploadRangeOverflow() throws Exception {
+
+		FileUtils.delete(filestore().getStorageFolder());
+		filestore().clearFilestoreCache();
+
+		//No upload limit
+		settings().overrideSetting(Keys.filestore.maxUploadSize, FilestoreManager.UNDEFINED_SIZE);
+
+		final BlobInfo blob = new BlobInfo(512*FileUtils.KB);
+
+		HttpClient client = HttpClientBuilder.create().build();
+		HttpPut putRequest = new HttpPut(GitBlitSuite.url + repoLfs + blob.hash);
+		putRequest.addHeader("Content-Range", "bytes 99999999999999999999-99999999999999999999/*");
+		putRequest.setEntity(new ByteArrayEntity(blob.blob));
+		HttpResponse response = client.execute(putRequest);
+
+		//An offset which does not fit a long is beyond any upload
+		assertEquals(FilestoreServlet.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusLine().getStatusCode());
+	}
 	
 }
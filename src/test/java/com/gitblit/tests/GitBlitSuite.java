@@ -57,7 +57,7 @@ import com.gitblit.utils.JGitUtils;
 @SuiteClasses({ ArrayUtilsTest.class, FileUtilsTest.class, TimeUtilsTest.class,
 		StringUtilsTest.class, Base64Test.class, JsonUtilsTest.class, ByteFormatTest.class,
 		UserModelTest.class, UserChoiceTest.class,
-		ObjectCacheTest.class, PermissionsTest.class, UserServiceTest.class, LdapAuthenticationTest.class,
+		ObjectCacheTest.class, CommitCacheTest.class, ActivityCacheTest.class, FanOutTest.class, CommitGraphTest.class, ArchiveCacheTest.class, RepositorySnapshotTest.class, TicketJournalCodecTest.class, TicketContentionTest.class, UploadPackCacheTest.class, AdmissionControllerTest.class, PermissionsTest.class, UserServiceTest.class, LdapAuthenticationTest.class,
 		MarkdownUtilsTest.class, JGitUtilsTest.class, SyndicationUtilsTest.class,
 		DiffUtilsTest.class, MetricUtilsTest.class, X509UtilsTest.class,
 		GitBlitTest.class, FederationTests.class, RpcTests.class, GitServletTest.class, GitDaemonTest.class,
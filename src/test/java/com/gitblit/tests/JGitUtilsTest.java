@@ -20,6 +20,7 @@ import java.io.FileOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -74,6 +75,17 @@ public class JGitUtilsTest extends GitblitUnitTest {
 		assertTrue("No repositories found in " + GitBlitSuite.REPOSITORIES, list.size() > 0);
 	}
 
+	@Test
+	public void testFindRepositoriesInParallel() {
+		List<String> sequential = JGitUtils.getRepositoryList(GitBlitSuite.REPOSITORIES, false, true, -1, null);
+		Map<String, Long> folders = new HashMap<String, Long>();
+		List<String> parallel = JGitUtils.getRepositoryList(GitBlitSuite.REPOSITORIES, false, true, -1, null, 4, folders);
+		assertEquals(sequential, parallel);
+		assertTrue("Repositories folder was not searched!", folders.containsKey(""));
+		assertTrue("Test folder was not searched!", folders.containsKey("test"));
+		assertFalse("Repository was searched!", folders.containsKey("test/jgit.git"));
+	}
+
 	@Test
 	public void testFindExclusions() {
 		List<String> list = JGitUtils.getRepositoryList(GitBlitSuite.REPOSITORIES, false, true, -1, null);
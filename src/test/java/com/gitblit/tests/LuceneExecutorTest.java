@@ -30,6 +30,7 @@ import com.gitblit.manager.UserManager;
 import com.gitblit.models.RefModel;
 import com.gitblit.models.RepositoryModel;
 import com.gitblit.models.SearchResult;
+import com.gitblit.models.ServerStatus;
 import com.gitblit.service.LuceneService;
 import com.gitblit.tests.mock.MemorySettings;
 import com.gitblit.utils.FileUtils;
@@ -48,13 +49,17 @@ public class LuceneExecutorTest extends GitblitUnitTest {
 	LuceneService lucene;
 
 	private LuceneService newLuceneExecutor() {
+		return newLuceneExecutor(new ServerStatus());
+	}
+
+	private LuceneService newLuceneExecutor(ServerStatus status) {
 		MemorySettings settings = new MemorySettings();
 		settings.put(Keys.git.repositoriesFolder, GitBlitSuite.REPOSITORIES);
 		XssFilter xssFilter = new AllowXssFilter();
 		RuntimeManager runtime = new RuntimeManager(settings, xssFilter, GitBlitSuite.BASEFOLDER).start();
 		UserManager users = new UserManager(runtime, null).start();
 		RepositoryManager repos = new RepositoryManager(runtime, null, users);
-		return new LuceneService(settings, repos);
+		return new LuceneService(settings, repos, status);
 	}
 
 	private RepositoryModel newRepositoryModel(Repository repository) {
@@ -162,6 +167,45 @@ public class LuceneExecutorTest extends GitblitUnitTest {
 		assertEquals(10, results.size());
 	}
 
+	@Test
+	public void testMultiSearchPaging() throws Exception {
+		List<String> list = new ArrayList<String>();
+		Repository repository = GitBlitSuite.getHelloworldRepository();
+		list.add(newRepositoryModel(repository).name);
+		repository.close();
+
+		repository = GitBlitSuite.getJGitRepository();
+		list.add(newRepositoryModel(repository).name);
+		repository.close();
+
+		// the pages of the merged shard hits are consistent with one large page
+		List<SearchResult> all = lucene.search("test", 1, 10, list);
+		List<SearchResult> page1 = lucene.search("test", 1, 5, list);
+		List<SearchResult> page2 = lucene.search("test", 2, 5, list);
+		assertEquals(5, page1.size());
+		assertEquals(5, page2.size());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(all.get(i).commitId, page1.get(i).commitId);
+			assertEquals(all.get(i + 5).commitId, page2.get(i).commitId);
+			assertEquals(i + 6, page2.get(i).hitId);
+		}
+
+		// a repeated search is answered from the result cache with copies
+		List<SearchResult> cached = lucene.search("test", 1, 5, list);
+		assertEquals(page1.size(), cached.size());
+		for (int i = 0; i < 5; i++) {
+			assertFalse(page1.get(i) == cached.get(i));
+			assertEquals(page1.get(i).commitId, cached.get(i).commitId);
+			assertEquals(page1.get(i).fragment, cached.get(i).fragment);
+			assertEquals(page1.get(i).hitId, cached.get(i).hitId);
+		}
+
+		// modifying a result does not change the cached page
+		String fragment = cached.get(0).fragment;
+		cached.get(0).fragment = "modified";
+		assertEquals(fragment, lucene.search("test", 1, 5, list).get(0).fragment);
+	}
+
 	@Test
 	public void testDeleteBlobFromIndex() throws Exception {
 		// start with a fresh reindex of entire repository
@@ -173,4 +217,17 @@ public class LuceneExecutorTest extends GitblitUnitTest {
 		assertTrue(lucene.deleteBlob(model.name, "refs/heads/master", "java.java"));
 		assertFalse(lucene.deleteBlob(model.name, "refs/heads/master", "java.java"));
 	}
+
+	@Test
+	public void testRunProgress() throws Exception {
+		ServerStatus status = new ServerStatus();
+		lucene.close();
+		lucene = newLuceneExecutor(status);
+		lucene.run();
+
+		// every repository of the run is reported as done
+		assertFalse(status.luceneIndexing);
+		assertTrue(status.luceneRepositories > 0);
+		assertEquals(status.luceneRepositories, status.luceneIndexedRepositories);
+	}
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import org.junit.Test;
 
 import com.gitblit.models.Metric;
 import com.gitblit.utils.MetricUtils;
+import com.gitblit.utils.MetricsCache;
 
 public class MetricUtilsTest extends GitblitUnitTest {
 
@@ -48,4 +49,53 @@ public class MetricUtilsTest extends GitblitUnitTest {
 		assertEquals("No author metrics found!", 9, byEmail.size());
 		assertEquals("No author metrics found!", 8, byName.size());
 	}
+
+	@Test
+	public void testMetricsCache() throws Exception {
+		Repository repository = GitBlitSuite.getHelloworldRepository();
+		MetricsCache cache = new MetricsCache() {};
+		for (String dateFormat : new String [] { null, "E" }) {
+			List<Metric> expected = MetricUtils.getDateMetrics(repository, null, true, dateFormat, TimeZone.getDefault());
+			List<Metric> cached = cache.getDateMetrics("helloworld.git", repository, null, true, dateFormat, TimeZone.getDefault());
+			assertMetrics(expected, cached);
+		}
+		assertMetrics(MetricUtils.getAuthorMetrics(repository, null, true),
+				cache.getAuthorMetrics("helloworld.git", repository, null, true, TimeZone.getDefault()));
+		assertMetrics(MetricUtils.getAuthorMetrics(repository, null, false),
+				cache.getAuthorMetrics("helloworld.git", repository, null, false, TimeZone.getDefault()));
+		repository.close();
+	}
+
+	@Test
+	public void testMetricsCacheBranches() throws Exception {
+		Repository repository = GitBlitSuite.getHelloworldRepository();
+		MetricsCache cache = new MetricsCache() {};
+		TimeZone timezone = TimeZone.getDefault();
+
+		// branch names are cached by their ref
+		cache.getDateMetrics("helloworld.git", repository, "master", true, null, timezone);
+		cache.getDateMetrics("helloworld.git", repository, "refs/heads/master", true, null, timezone);
+		assertEquals(1, cache.size());
+
+		// commits are not cached
+		String commitId = repository.resolve("master~1").name();
+		assertMetrics(MetricUtils.getDateMetrics(repository, commitId, true, null, timezone),
+				cache.getDateMetrics("helloworld.git", repository, commitId, true, null, timezone));
+		assertEquals(1, cache.size());
+
+		// the least recently used branch is evicted
+		cache.setMaxBranches(1);
+		cache.getDateMetrics("helloworld.git", repository, null, true, null, timezone);
+		assertEquals(1, cache.size());
+		repository.close();
+	}
+
+	private void assertMetrics(List<Metric> expected, List<Metric> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).name, actual.get(i).name);
+			assertEquals(expected.get(i).count, actual.get(i).count, 0);
+			assertEquals(expected.get(i).tag, actual.get(i).tag, 0);
+		}
+	}
 }
\ No newline at end of file
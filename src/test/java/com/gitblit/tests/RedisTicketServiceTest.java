@@ -15,6 +15,12 @@
  */
 package com.gitblit.tests;
 
+import java.util.List;
+
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+
 import com.gitblit.IStoredSettings;
 import com.gitblit.Keys;
 import com.gitblit.manager.INotificationManager;
@@ -28,6 +34,9 @@ import com.gitblit.manager.RepositoryManager;
 import com.gitblit.manager.RuntimeManager;
 import com.gitblit.manager.UserManager;
 import com.gitblit.models.RepositoryModel;
+import com.gitblit.models.TicketModel;
+import com.gitblit.models.TicketModel.Change;
+import com.gitblit.models.TicketModel.Field;
 import com.gitblit.tickets.ITicketService;
 import com.gitblit.tickets.RedisTicketService;
 import com.gitblit.utils.XssFilter;
@@ -43,6 +52,25 @@ public class RedisTicketServiceTest extends TicketServiceTest {
 
 	final RepositoryModel repo = new RepositoryModel("tickets/redis.git", null, null, null);
 
+	/**
+	 * Returns the number of commands processed by the Redis server.  The
+	 * request of the count is itself counted by the next request.
+	 */
+	private long getCommandCount() {
+		Jedis jedis = new Jedis("localhost", 6379);
+		try {
+			for (String line : jedis.info("stats").split("\n")) {
+				if (line.startsWith("total_commands_processed:")) {
+					return Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+				}
+			}
+		} finally {
+			jedis.disconnect();
+		}
+		fail("Redis did not report the processed commands!");
+		return 0;
+	}
+
 	@Override
 	protected RepositoryModel getRepository() {
 		return repo;
@@ -78,4 +106,38 @@ public class RedisTicketServiceTest extends TicketServiceTest {
 		}
 		return service;
 	}
+
+	@Test
+	public void testBulkTickets() throws Exception {
+		int count = 250;
+		for (int i = 0; i < count; i++) {
+			Change change = new Change("C1");
+			change.setField(Field.title, "testBulkTickets() " + i);
+			change.comment("my comment");
+			service.createTicket(getRepository(), change);
+		}
+
+		// the listing reads the ids and the snapshots of all tickets in a few
+		// batched commands instead of one command per ticket
+		long commands = getCommandCount();
+		List<TicketModel> tickets = service.getTickets(getRepository());
+		long listing = getCommandCount() - commands - 1;
+		assertEquals(count, tickets.size());
+		assertTrue("Listing " + count + " tickets took " + listing + " commands!", listing <= 10);
+		for (int i = 0; i < count; i += 2) {
+			Change change = new Change("C2");
+			change.comment("another comment");
+			assertNotNull(service.updateTicket(getRepository(), tickets.get(i).number, change));
+		}
+
+		tickets = service.getTickets(getRepository());
+		assertEquals(count, tickets.size());
+		for (int i = 0; i < count; i++) {
+			TicketModel ticket = tickets.get(i);
+			assertEquals("testBulkTickets() " + i, ticket.title);
+			assertEquals(i % 2 == 0 ? 2 : 1, ticket.getComments().size());
+			assertEquals(ticket.getComments().size(),
+					service.getTicket(getRepository(), ticket.number).getComments().size());
+		}
+	}
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.utils.JGitUtils;
+import com.gitblit.utils.RepositoryListSnapshot;
+import com.gitblit.utils.RepositoryModelSnapshot;
+
+public class RepositorySnapshotTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ObjectId commit(Repository db, String message) throws Exception {
+		ObjectInserter inserter = db.newObjectInserter();
+		try {
+			PersonIdent ident = new PersonIdent("admin", "admin@localhost");
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(inserter.insert(new TreeFormatter()));
+			commit.setAuthor(ident);
+			commit.setCommitter(ident);
+			commit.setMessage(message);
+			ObjectId id = inserter.insert(commit);
+			inserter.flush();
+			return id;
+		} finally {
+			inserter.close();
+		}
+	}
+
+	private void updateRef(Repository db, String name, ObjectId id) throws Exception {
+		RefUpdate ru = db.updateRef(name);
+		ru.setNewObjectId(id);
+		ru.forceUpdate();
+	}
+
+	@Test
+	public void testListRoundTrip() throws Exception {
+		File repositories = folder.newFolder("repositories");
+		Map<String, Long> folders = new HashMap<String, Long>();
+		folders.put("", repositories.lastModified());
+		File file = new File(folder.getRoot(), "repositories.json");
+		new RepositoryListSnapshot("checksum", Arrays.asList("a.git", "b.git"), folders).write(file);
+
+		RepositoryListSnapshot snapshot = RepositoryListSnapshot.read(file);
+		assertNotNull(snapshot);
+		assertTrue(snapshot.matches("checksum"));
+		assertFalse(snapshot.matches("other"));
+		assertEquals(Arrays.asList("a.git", "b.git"), snapshot.getRepositories());
+		assertTrue(snapshot.isCurrent(repositories));
+	}
+
+	@Test
+	public void testModelRoundTrip() throws Exception {
+		Repository db = JGitUtils.createRepository(folder.getRoot(), "snapshot.git");
+		try {
+			updateRef(db, Constants.R_HEADS + "master", commit(db, "initial"));
+			File gitDir = db.getDirectory();
+
+			RepositoryModel model = new RepositoryModel("snapshot.git", "description", "admin", new Date());
+			RepositoryModelSnapshot.Entry entry = new RepositoryModelSnapshot.Entry(model, 1024,
+					RepositoryModelSnapshot.getConfigModified(gitDir), RepositoryModelSnapshot.getRefsChecksum(gitDir));
+			File file = new File(folder.getRoot(), "repositoryModels.json");
+			new RepositoryModelSnapshot("checksum", Collections.singletonList(entry)).write(file);
+
+			RepositoryModelSnapshot snapshot = RepositoryModelSnapshot.read(file);
+			assertNotNull(snapshot);
+			assertTrue(snapshot.matches("checksum"));
+			List<RepositoryModelSnapshot.Entry> entries = snapshot.getEntries();
+			assertEquals(1, entries.size());
+			assertEquals("snapshot.git", entries.get(0).model.name);
+			assertEquals("description", entries.get(0).model.description);
+			assertEquals(1024, entries.get(0).size);
+			assertTrue(entries.get(0).isCurrent(gitDir));
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void testNestedRefInvalidates() throws Exception {
+		Repository db = JGitUtils.createRepository(folder.getRoot(), "nested.git");
+		try {
+			ObjectId first = commit(db, "first");
+			updateRef(db, Constants.R_HEADS + "master", first);
+			updateRef(db, Constants.R_HEADS + "feature/x", first);
+			File gitDir = db.getDirectory();
+
+			RepositoryModelSnapshot.Entry entry = new RepositoryModelSnapshot.Entry(
+					new RepositoryModel("nested.git", null, null, new Date()), -1,
+					RepositoryModelSnapshot.getConfigModified(gitDir), RepositoryModelSnapshot.getRefsChecksum(gitDir));
+			assertTrue(entry.isCurrent(gitDir));
+
+			// an update of a nested loose ref only touches refs/heads/feature
+			updateRef(db, Constants.R_HEADS + "feature/x", commit(db, "second"));
+			assertFalse(entry.isCurrent(gitDir));
+		} finally {
+			db.close();
+		}
+	}
+}
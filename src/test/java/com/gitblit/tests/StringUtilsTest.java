@@ -153,4 +153,14 @@ public class StringUtilsTest extends GitblitUnitTest {
 		assertEquals("gitblit.git", StringUtils.extractRepositoryPath("git://github.com/gitblit/gitblit.git", new String [] { ".*?://github.com/[^/].*?/(.*)" }));
 		assertEquals("gitblit.git", StringUtils.extractRepositoryPath("git://github.com/gitblit/gitblit.git"));
 	}
+
+	@Test
+	public void testGetCharset() throws Exception {
+		byte [] utf8 = "caf\u00e9 cr\u00e8me".getBytes("UTF-8");
+		assertEquals("UTF-8", StringUtils.getCharset(utf8, utf8.length).name());
+		// a prefix which ends within a multi-byte sequence is still UTF-8
+		assertEquals("UTF-8", StringUtils.getCharset(utf8, 4).name());
+		byte [] latin1 = "caf\u00e9 cr\u00e8me".getBytes("ISO-8859-1");
+		assertEquals("ISO-8859-1", StringUtils.getCharset(latin1, latin1.length).name());
+	}
 }
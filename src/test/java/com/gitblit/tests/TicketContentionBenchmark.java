@@ -0,0 +1,245 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gitblit.IStoredSettings;
+import com.gitblit.Keys;
+import com.gitblit.manager.INotificationManager;
+import com.gitblit.manager.IPluginManager;
+import com.gitblit.manager.IRepositoryManager;
+import com.gitblit.manager.IRuntimeManager;
+import com.gitblit.manager.IUserManager;
+import com.gitblit.manager.NotificationManager;
+import com.gitblit.manager.PluginManager;
+import com.gitblit.manager.RepositoryManager;
+import com.gitblit.manager.RuntimeManager;
+import com.gitblit.manager.UserManager;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.models.TicketModel;
+import com.gitblit.models.TicketModel.Change;
+import com.gitblit.models.TicketModel.Field;
+import com.gitblit.tests.mock.MemorySettings;
+import com.gitblit.tickets.BranchTicketService;
+import com.gitblit.tickets.FileTicketService;
+import com.gitblit.tickets.ITicketService;
+import com.gitblit.utils.JGitUtils;
+import com.gitblit.utils.XssFilter.AllowXssFilter;
+
+/**
+ * Compares the striped ticket locks with a single global lock by posting
+ * comments from many threads to the tickets of many repositories.
+ *
+ * This benchmark is not part of the GitBlitSuite and only prints the elapsed
+ * times; run it on its own.  The correctness of the striped locks is verified
+ * by the TicketContentionTest.
+ */
+public class TicketContentionBenchmark extends GitblitUnitTest {
+
+	private static final int REPOSITORIES = 16;
+
+	private static final int THREADS = 16;
+
+	private static final int COMMENTS = 25;
+
+	private final List<RepositoryModel> repositories = new ArrayList<RepositoryModel>();
+
+	private File luceneDir;
+
+	private IRuntimeManager runtimeManager;
+
+	private IPluginManager pluginManager;
+
+	private INotificationManager notificationManager;
+
+	private IUserManager userManager;
+
+	private IRepositoryManager repositoryManager;
+
+	@Before
+	public void setup() throws Exception {
+		for (int i = 0; i < REPOSITORIES; i++) {
+			RepositoryModel repository = new RepositoryModel("tickets/benchmark-" + i + ".git", null, null, null);
+			FileUtils.deleteDirectory(new File(GitBlitSuite.REPOSITORIES, repository.name));
+			JGitUtils.createRepository(GitBlitSuite.REPOSITORIES, repository.name).close();
+			repositories.add(repository);
+		}
+		luceneDir = new File(GitBlitSuite.REPOSITORIES, "tickets/benchmark-lucene");
+		FileUtils.deleteDirectory(luceneDir);
+		luceneDir.mkdirs();
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(Keys.git.repositoriesFolder, GitBlitSuite.REPOSITORIES.getAbsolutePath());
+		map.put(Keys.tickets.indexFolder, luceneDir.getAbsolutePath());
+		IStoredSettings settings = new MemorySettings(map);
+
+		runtimeManager = new RuntimeManager(settings, new AllowXssFilter()).start();
+		pluginManager = new PluginManager(runtimeManager).start();
+		notificationManager = new NotificationManager(settings).start();
+		userManager = new UserManager(runtimeManager, pluginManager).start();
+		repositoryManager = new RepositoryManager(runtimeManager, pluginManager, userManager).start();
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		for (RepositoryModel repository : repositories) {
+			FileUtils.deleteDirectory(new File(GitBlitSuite.REPOSITORIES, repository.name));
+		}
+		FileUtils.deleteDirectory(luceneDir);
+	}
+
+	@Test
+	public void benchmarkFileTicketService() throws Exception {
+		long striped = run(new FileTicketService(runtimeManager, pluginManager, notificationManager,
+				userManager, repositoryManager));
+		long global = run(new GlobalFileTicketService(runtimeManager, pluginManager, notificationManager,
+				userManager, repositoryManager));
+		report("file", striped, global);
+	}
+
+	@Test
+	public void benchmarkBranchTicketService() throws Exception {
+		long striped = run(new BranchTicketService(runtimeManager, pluginManager, notificationManager,
+				userManager, repositoryManager));
+		long global = run(new GlobalBranchTicketService(runtimeManager, pluginManager, notificationManager,
+				userManager, repositoryManager));
+		report("branch", striped, global);
+	}
+
+	private void report(String name, long striped, long global) {
+		System.out.println(MessageFormat.format(
+				"{0} tickets: {1} comments to {2} repositories from {3} threads, striped locks {4} msecs, global lock {5} msecs",
+				name, THREADS * COMMENTS, REPOSITORIES, THREADS, striped, global));
+	}
+
+	/**
+	 * Posts comments from all threads, each thread commenting on the ticket of
+	 * its own repository.
+	 *
+	 * @return the elapsed time in milliseconds
+	 */
+	private long run(final ITicketService service) throws Exception {
+		service.start();
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final List<TicketModel> tickets = new ArrayList<TicketModel>();
+			for (RepositoryModel repository : repositories) {
+				Change change = new Change("admin");
+				change.setField(Field.title, repository.name);
+				change.setField(Field.body, "benchmark");
+				tickets.add(service.createTicket(repository, change));
+			}
+
+			long start = System.nanoTime();
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < THREADS; i++) {
+				final RepositoryModel repository = repositories.get(i % REPOSITORIES);
+				final long number = tickets.get(i % REPOSITORIES).number;
+				final String author = "user" + i;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < COMMENTS; j++) {
+							Change change = new Change(author);
+							change.comment(author + " comment " + j);
+							assertNotNull(service.updateTicket(repository, number, change));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+
+			for (RepositoryModel repository : repositories) {
+				service.deleteAll(repository);
+			}
+			return elapsed;
+		} finally {
+			executor.shutdownNow();
+			service.stop();
+		}
+	}
+
+	/**
+	 * A file ticket service which serializes all changes like the service
+	 * monitor did before the locks were striped.
+	 */
+	private static class GlobalFileTicketService extends FileTicketService {
+
+		private final Lock lock = new ReentrantLock();
+
+		GlobalFileTicketService(IRuntimeManager runtimeManager, IPluginManager pluginManager,
+				INotificationManager notificationManager, IUserManager userManager,
+				IRepositoryManager repositoryManager) {
+			super(runtimeManager, pluginManager, notificationManager, userManager, repositoryManager);
+		}
+
+		@Override
+		protected Lock getRepositoryLock(RepositoryModel repository) {
+			return lock;
+		}
+
+		@Override
+		protected Lock getTicketLock(RepositoryModel repository, long ticketId) {
+			return lock;
+		}
+	}
+
+	/**
+	 * A branch ticket service which serializes all changes like the service
+	 * monitor did before the locks were striped.
+	 */
+	private static class GlobalBranchTicketService extends BranchTicketService {
+
+		private final Lock lock = new ReentrantLock();
+
+		GlobalBranchTicketService(IRuntimeManager runtimeManager, IPluginManager pluginManager,
+				INotificationManager notificationManager, IUserManager userManager,
+				IRepositoryManager repositoryManager) {
+			super(runtimeManager, pluginManager, notificationManager, userManager, repositoryManager);
+		}
+
+		@Override
+		protected Lock getRepositoryLock(RepositoryModel repository) {
+			return lock;
+		}
+
+		@Override
+		protected Lock getTicketLock(RepositoryModel repository, long ticketId) {
+			return lock;
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gitblit.IStoredSettings;
+import com.gitblit.Keys;
+import com.gitblit.manager.INotificationManager;
+import com.gitblit.manager.IPluginManager;
+import com.gitblit.manager.IRepositoryManager;
+import com.gitblit.manager.IRuntimeManager;
+import com.gitblit.manager.IUserManager;
+import com.gitblit.manager.NotificationManager;
+import com.gitblit.manager.PluginManager;
+import com.gitblit.manager.RepositoryManager;
+import com.gitblit.manager.RuntimeManager;
+import com.gitblit.manager.UserManager;
+import com.gitblit.models.RepositoryModel;
+import com.gitblit.models.TicketModel;
+import com.gitblit.models.TicketModel.Change;
+import com.gitblit.models.TicketModel.Field;
+import com.gitblit.tests.mock.MemorySettings;
+import com.gitblit.tickets.BranchTicketService;
+import com.gitblit.tickets.FileTicketService;
+import com.gitblit.tickets.ITicketService;
+import com.gitblit.utils.JGitUtils;
+import com.gitblit.utils.XssFilter.AllowXssFilter;
+
+/**
+ * Posts comments and creates tickets from many threads to verify that the
+ * file and branch ticket services neither lose a change nor assign an id
+ * twice.
+ */
+public class TicketContentionTest extends GitblitUnitTest {
+
+	private static final int REPOSITORIES = 4;
+
+	private static final int THREADS = 8;
+
+	private static final int COMMENTS = 10;
+
+	private static final int IDS = 5;
+
+	private final List<RepositoryModel> repositories = new ArrayList<RepositoryModel>();
+
+	private File luceneDir;
+
+	private IRuntimeManager runtimeManager;
+
+	private IPluginManager pluginManager;
+
+	private INotificationManager notificationManager;
+
+	private IUserManager userManager;
+
+	private IRepositoryManager repositoryManager;
+
+	@Before
+	public void setup() throws Exception {
+		for (int i = 0; i < REPOSITORIES; i++) {
+			RepositoryModel repository = new RepositoryModel("tickets/contention-" + i + ".git", null, null, null);
+			FileUtils.deleteDirectory(new File(GitBlitSuite.REPOSITORIES, repository.name));
+			JGitUtils.createRepository(GitBlitSuite.REPOSITORIES, repository.name).close();
+			repositories.add(repository);
+		}
+		luceneDir = new File(GitBlitSuite.REPOSITORIES, "tickets/contention-lucene");
+		FileUtils.deleteDirectory(luceneDir);
+		luceneDir.mkdirs();
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(Keys.git.repositoriesFolder, GitBlitSuite.REPOSITORIES.getAbsolutePath());
+		map.put(Keys.tickets.indexFolder, luceneDir.getAbsolutePath());
+		IStoredSettings settings = new MemorySettings(map);
+
+		runtimeManager = new RuntimeManager(settings, new AllowXssFilter()).start();
+		pluginManager = new PluginManager(runtimeManager).start();
+		notificationManager = new NotificationManager(settings).start();
+		userManager = new UserManager(runtimeManager, pluginManager).start();
+		repositoryManager = new RepositoryManager(runtimeManager, pluginManager, userManager).start();
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		for (RepositoryModel repository : repositories) {
+			FileUtils.deleteDirectory(new File(GitBlitSuite.REPOSITORIES, repository.name));
+		}
+		FileUtils.deleteDirectory(luceneDir);
+	}
+
+	private List<ITicketService> getServices() {
+		List<ITicketService> services = new ArrayList<ITicketService>();
+		services.add(new FileTicketService(runtimeManager, pluginManager, notificationManager,
+				userManager, repositoryManager));
+		services.add(new BranchTicketService(runtimeManager, pluginManager, notificationManager,
+				userManager, repositoryManager));
+		return services;
+	}
+
+	private Change newChange(String author, String title) {
+		Change change = new Change(author);
+		change.setField(Field.title, title);
+		change.setField(Field.body, "contention");
+		return change;
+	}
+
+	@Test
+	public void testConcurrentIds() throws Exception {
+		for (ITicketService service : getServices()) {
+			service.start();
+			try {
+				assertConcurrentIds(service);
+			} finally {
+				service.stop();
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentComments() throws Exception {
+		for (ITicketService service : getServices()) {
+			service.start();
+			try {
+				assertConcurrentComments(service);
+			} finally {
+				service.stop();
+			}
+		}
+	}
+
+	/**
+	 * Assigns ids from all threads while the caches of the repository are
+	 * reset.  Every assigned id must be unique.
+	 */
+	private void assertConcurrentIds(final ITicketService service) throws Exception {
+		final RepositoryModel repository = repositories.get(0);
+		final AtomicBoolean assigning = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+		try {
+			Future<Void> resets = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					while (assigning.get()) {
+						service.resetCaches(repository);
+						Thread.sleep(1);
+					}
+					return null;
+				}
+			});
+			List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executor.submit(new Callable<List<Long>>() {
+					@Override
+					public List<Long> call() throws Exception {
+						List<Long> ids = new ArrayList<Long>();
+						for (int j = 0; j < IDS; j++) {
+							ids.add(service.assignNewId(repository));
+						}
+						return ids;
+					}
+				}));
+			}
+			Set<Long> ids = new TreeSet<Long>();
+			for (Future<List<Long>> future : futures) {
+				ids.addAll(future.get());
+			}
+			assigning.set(false);
+			resets.get();
+			assertEquals(THREADS * IDS, ids.size());
+			assertEquals(1L, ids.iterator().next().longValue());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Posts comments to the ticket of a single repository and then to the
+	 * tickets of all repositories.  No comment may be lost.
+	 */
+	private void assertConcurrentComments(ITicketService service) throws Exception {
+		List<TicketModel> tickets = new ArrayList<TicketModel>();
+		for (RepositoryModel repository : repositories) {
+			tickets.add(service.createTicket(repository, newChange("admin", repository.name)));
+		}
+
+		post(service, tickets, 1);
+		post(service, tickets, REPOSITORIES);
+
+		// the first ticket received both rounds
+		int total = 0;
+		for (int i = 0; i < REPOSITORIES; i++) {
+			TicketModel ticket = service.getTicket(repositories.get(i), tickets.get(i).number);
+			int expected = i == 0 ? THREADS * COMMENTS : 0;
+			for (int j = 0; j < THREADS; j++) {
+				if (j % REPOSITORIES == i) {
+					expected += COMMENTS;
+				}
+			}
+			assertEquals(expected, ticket.getComments().size());
+			total += ticket.getComments().size();
+		}
+		assertEquals(2 * THREADS * COMMENTS, total);
+	}
+
+	/**
+	 * Posts comments from all threads, each thread commenting on the ticket
+	 * of one of the first count repositories.
+	 */
+	private void post(final ITicketService service, final List<TicketModel> tickets, int count) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < THREADS; i++) {
+				final RepositoryModel repository = repositories.get(i % count);
+				final long number = tickets.get(i % count).number;
+				final String author = "user" + i;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < COMMENTS; j++) {
+							Change change = new Change(author);
+							change.comment(author + " comment " + j);
+							assertNotNull(service.updateTicket(repository, number, change));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.gitblit.Constants;
+import com.gitblit.models.TicketModel;
+import com.gitblit.models.TicketModel.Change;
+import com.gitblit.models.TicketModel.Field;
+import com.gitblit.models.TicketModel.Status;
+import com.gitblit.tickets.TicketJournalCodec;
+import com.gitblit.tickets.TicketSerializer;
+
+public class TicketJournalCodecTest extends GitblitUnitTest {
+
+	private List<Change> newJournal(int count) {
+		List<Change> changes = new ArrayList<Change>();
+		Change c1 = new Change("james", new Date(1400000000000L));
+		c1.setField(Field.title, "Binary journals");
+		c1.setField(Field.body, "store journals in a compact format");
+		c1.setField(Field.status, Status.New);
+		c1.comment("my comment");
+		changes.add(c1);
+		for (int i = 1; i < count; i++) {
+			Change change = new Change(i % 2 == 0 ? "james" : "fred", new Date(1400000000000L + i * 1000L));
+			change.comment("comment " + i);
+			change.setField(Field.responsible, "fred");
+			changes.add(change);
+		}
+		return changes;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		List<Change> changes = newJournal(10);
+		byte [] journal = TicketSerializer.serializeBinaryJournal(changes);
+		assertTrue(TicketJournalCodec.isJournal(journal));
+
+		List<Change> decoded = TicketSerializer.deserializeJournal(journal);
+		assertEquals(TicketSerializer.serializeJournal(changes), TicketSerializer.serializeJournal(decoded));
+
+		TicketModel ticket = TicketModel.buildTicket(decoded);
+		assertEquals("Binary journals", ticket.title);
+		assertEquals("fred", ticket.responsible);
+		assertEquals(10, ticket.getComments().size());
+
+		// interned authors and field names make the journal smaller than JSON
+		byte [] json = TicketSerializer.serializeJournal(changes).getBytes(Constants.ENCODING);
+		assertTrue(journal.length < json.length);
+	}
+
+	@Test
+	public void testAppend() throws Exception {
+		List<Change> changes = newJournal(5);
+		byte [] journal = TicketJournalCodec.encode(changes.subList(0, 4));
+		byte [] frame = TicketJournalCodec.append(journal, changes.get(4));
+
+		byte [] appended = Arrays.copyOf(journal, journal.length + frame.length);
+		System.arraycopy(frame, 0, appended, journal.length, frame.length);
+		assertTrue(Arrays.equals(TicketJournalCodec.encode(changes), appended));
+	}
+
+	@Test
+	public void testJsonJournal() throws Exception {
+		List<Change> changes = newJournal(3);
+		byte [] json = TicketSerializer.serializeJournal(changes).getBytes(Constants.ENCODING);
+		assertFalse(TicketJournalCodec.isJournal(json));
+		List<Change> decoded = TicketSerializer.deserializeJournal(json);
+		assertEquals(TicketSerializer.serializeJournal(changes), TicketSerializer.serializeJournal(decoded));
+		assertTrue(TicketSerializer.deserializeJournal(new byte[0]).isEmpty());
+	}
+
+	@Test
+	public void testFrames() throws Exception {
+		List<Change> changes = newJournal(4);
+		List<byte []> frames = TicketJournalCodec.encodeFrames(changes.subList(0, 3));
+		byte [] frame = TicketJournalCodec.encodeFrame(frames, changes.get(3));
+		assertTrue(Arrays.equals(TicketJournalCodec.encodeFrames(changes).get(3), frame));
+
+		// a list may start with JSON entries of an earlier release
+		List<byte []> entries = new ArrayList<byte []>();
+		entries.add(TicketSerializer.serialize(changes.get(0)).getBytes(Constants.ENCODING));
+		assertFalse(TicketJournalCodec.isFrame(entries.get(0)));
+		entries.addAll(frames.subList(0, 1));
+		List<Change> decoded = TicketJournalCodec.decodeFrames(entries);
+		assertEquals(2, decoded.size());
+		assertEquals(TicketSerializer.serialize(changes.get(0)), TicketSerializer.serialize(decoded.get(1)));
+	}
+}
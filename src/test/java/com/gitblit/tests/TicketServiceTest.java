@@ -56,7 +56,7 @@ import com.gitblit.utils.JGitUtils;
  */
 public abstract class TicketServiceTest extends GitblitUnitTest {
 
-	private ITicketService service;
+	protected ITicketService service;
 
 	protected abstract RepositoryModel getRepository();
 
@@ -246,6 +246,36 @@ public abstract class TicketServiceTest extends GitblitUnitTest {
 		assertTrue(service.deleteTicket(getRepository(), ticket.number, "D"));
 	}
 
+	@Test
+	public void testSnapshots() throws Exception {
+		// C1: create the ticket
+		Change c1 = newChange("testSnapshots() " + Long.toHexString(System.currentTimeMillis()));
+		TicketModel ticket = service.createTicket(getRepository(), c1);
+		assertTrue(ticket.number > 0);
+
+		// C2: set owner and delete the first comment
+		Change c2 = new Change("C2");
+		c2.comment("I'll fix this");
+		c2.setField(Field.responsible, c2.author);
+		service.updateTicket(getRepository(), ticket.number, c2);
+		service.deleteComment(service.getTicket(getRepository(), ticket.number), c1.comment.id, "D1");
+
+		// the listed snapshot must match the ticket replayed from its journal
+		service.resetCaches(getRepository());
+		TicketModel constructed = service.getTicket(getRepository(), ticket.number);
+		List<TicketModel> tickets = service.getTickets(getRepository());
+		assertEquals(1, tickets.size());
+		TicketModel snapshot = tickets.get(0);
+		compare(constructed, snapshot);
+		assertEquals(constructed.changes.size(), snapshot.changes.size());
+		assertEquals(constructed.getComments().size(), snapshot.getComments().size());
+		assertEquals("[" + ticket.number + "]", service.getIds(getRepository()).toString());
+
+		assertTrue(service.deleteTicket(getRepository(), ticket.number, "D"));
+		assertTrue(service.getTickets(getRepository()).isEmpty());
+		assertTrue(service.getIds(getRepository()).isEmpty());
+	}
+
 	@Test
 	public void testMilestones() throws Exception {
 		service.createMilestone(getRepository(), "M1", "james");
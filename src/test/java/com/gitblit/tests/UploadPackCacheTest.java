@@ -0,0 +1,207 @@
+/*
+ * Copyright 2026 gitblit.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.gitblit.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import com.gitblit.Keys;
+import com.gitblit.git.AdmissionController;
+import com.gitblit.git.AdmissionController.Admission;
+import com.gitblit.git.UploadPackCache;
+import com.gitblit.manager.IGitblit;
+import com.gitblit.servlet.GitServlet;
+import com.gitblit.tests.mock.MemorySettings;
+import com.gitblit.utils.ArchiveCache.Archive;
+import com.gitblit.utils.ArchiveCache.ArchiveWriter;
+
+public class UploadPackCacheTest extends GitblitUnitTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String WANT = "want 3b1e4a4a6c3a9cb7c2d2b5bbb1b6b1a6d6d1c4f1";
+
+	private static final String HAVE = "have 0c5c1f0a3eb4d5d8b91b3cf1c8e0ae7b2b3d6f5e";
+
+	private byte [] request(String... lines) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		PacketLineOut out = new PacketLineOut(os);
+		for (String line : lines) {
+			if (line == null) {
+				out.end();
+			} else {
+				out.writeString(line + "\n");
+			}
+		}
+		return os.toByteArray();
+	}
+
+	@After
+	public void cleanup() {
+		AdmissionController.instance().configure(0, 0, 0, 50, 30000);
+	}
+
+	@Test
+	public void testCacheable() throws Exception {
+		// a clone sends its wants and done
+		assertTrue(UploadPackCache.isCacheable(request(WANT + " side-band-64k ofs-delta", null, "done")));
+
+		// a fetch sends haves
+		assertFalse(UploadPackCache.isCacheable(request(WANT, null, HAVE, "done")));
+
+		// a negotiation round is not done
+		assertFalse(UploadPackCache.isCacheable(request(WANT, null)));
+
+		// malformed
+		assertFalse(UploadPackCache.isCacheable("garbage".getBytes(Constants.CHARSET)));
+	}
+
+	@Test
+	public void testKey() throws Exception {
+		UploadPackCache cache = new UploadPackCache(folder.getRoot(), 1000);
+		byte [] request = request(WANT, null, "done");
+		Repository db = GitBlitSuite.getHelloworldRepository();
+		try {
+			String key = cache.getKey(db, "helloworld.git", request);
+			assertEquals(key, cache.getKey(db, "helloworld.git", request));
+			assertFalse(key.equals(cache.getKey(db, "helloworld.git", request(WANT + " thin-pack", null, "done"))));
+			assertFalse(key.equals(cache.getKey(db, "other.git", request)));
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void testRejectedCacheHit() throws Exception {
+		final byte [] request = request(WANT, null, "done");
+
+		// cache a response of the clone
+		UploadPackCache cache = new UploadPackCache(folder.getRoot(), 1000);
+		Repository db = GitBlitSuite.getHelloworldRepository();
+		try {
+			String key = cache.getKey(db, "helloworld.git", request);
+			Archive archive = cache.open(key, new ArchiveWriter() {
+				@Override
+				public void write(OutputStream os) throws IOException {
+					os.write("cached".getBytes(Constants.CHARSET));
+				}
+			});
+			archive.close();
+		} finally {
+			db.close();
+		}
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(Keys.git.uploadPackCacheSize, "1000");
+		IGitblit gitblit = Mockito.mock(IGitblit.class);
+		Mockito.when(gitblit.getSettings()).thenReturn(new MemorySettings(map));
+		Mockito.when(gitblit.getFileOrFolder(Keys.git.uploadPackCacheFolder, "${baseFolder}/packs")).thenReturn(folder.getRoot());
+		Mockito.when(gitblit.getRepositoriesFolder()).thenReturn(GitBlitSuite.REPOSITORIES);
+		GitServlet servlet = new GitServlet(gitblit);
+
+		// an admitted clone is served the cached response
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		HttpServletResponse res = newResponse(body);
+		servlet.service(newRequest(request), res);
+		assertEquals("cached", new String(body.toByteArray(), Constants.CHARSET));
+
+		// a clone of a saturated repository is rejected before the cache
+		AdmissionController.instance().configure(0, 1, 0, 0, 0);
+		Admission admission = AdmissionController.instance().acquire("helloworld.git", "admin", AdmissionController.UPLOAD_WEIGHT);
+		try {
+			body.reset();
+			res = newResponse(body);
+			servlet.service(newRequest(request), res);
+			Mockito.verify(res).sendError(Mockito.eq(429), Mockito.anyString());
+			assertEquals(0, body.size());
+		} finally {
+			admission.release();
+		}
+	}
+
+	private HttpServletRequest newRequest(byte [] request) throws IOException {
+		final ByteArrayInputStream is = new ByteArrayInputStream(request);
+		HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+		Mockito.when(req.getMethod()).thenReturn("POST");
+		Mockito.when(req.getPathInfo()).thenReturn("/helloworld.git/git-upload-pack");
+		Mockito.when(req.getRequestURI()).thenReturn("/git/helloworld.git/git-upload-pack");
+		Mockito.when(req.getRemoteAddr()).thenReturn("127.0.0.1");
+		Mockito.when(req.getInputStream()).thenReturn(new ServletInputStream() {
+			@Override
+			public int read() throws IOException {
+				return is.read();
+			}
+
+			@Override
+			public boolean isFinished() {
+				return is.available() == 0;
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setReadListener(ReadListener listener) {
+				throw new IllegalStateException();
+			}
+		});
+		return req;
+	}
+
+	private HttpServletResponse newResponse(final ByteArrayOutputStream body) throws IOException {
+		HttpServletResponse res = Mockito.mock(HttpServletResponse.class);
+		Mockito.when(res.getOutputStream()).thenReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				body.write(b);
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener listener) {
+				throw new IllegalStateException();
+			}
+		});
+		return res;
+	}
+}